@@ -0,0 +1,110 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import app.djk.RestPdfFormFiller.config.AppSettings;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * How much CPU a fill spends on compressing its output.
+ * <p>
+ * A fill rewrites the document, but only the streams it changes (the XFA datasets, or the whole XFA where the form
+ * stores it as one stream) have to be deflated again; every other stream is copied as it is. The profiles trade CPU
+ * for output size around that:
+ * <ul>
+ *   <li>{@link #FAST} and {@link #BALANCED} only differ in the Flate level of the streams the fill writes.</li>
+ *   <li>{@link #MAX} also deflates every existing Flate stream again at the best level (keeping the original where
+ *       that is not smaller) and packs objects into compressed object streams. It is meant for archival copies, and
+ *       costs far more CPU than a plain fill.</li>
+ *   <li>{@link #PRESERVE} appends the changes to the original file as an incremental update instead of rewriting it,
+ *       so every original byte (streams, object layout, signatures over them) stays exactly as it was and no
+ *       existing object is serialized again.</li>
+ * </ul>
+ * The deployment default is the <code>COMPRESSION_PROFILE</code> setting; a request can choose another.
+ */
+public enum CompressionProfile {
+    /**
+     * Fastest Flate level for the streams the fill writes.
+     */
+    FAST("fast", Deflater.BEST_SPEED),
+    /**
+     * zlib's default level for the streams the fill writes; the behavior before profiles existed.
+     */
+    BALANCED("balanced", Deflater.DEFAULT_COMPRESSION),
+    /**
+     * Best Flate level for every stream, plus compressed object streams.
+     */
+    MAX("max", Deflater.BEST_COMPRESSION),
+    /**
+     * Incremental update: the original file is kept byte for byte and only the changes are appended.
+     */
+    PRESERVE("preserve", Deflater.DEFAULT_COMPRESSION);
+
+    private final String value;
+    private final int flateLevel;
+
+    CompressionProfile(final String value, final int flateLevel) {
+        this.value = value;
+        this.flateLevel = flateLevel;
+    }
+
+    /**
+     * @return The wire value used in request payloads and the <code>COMPRESSION_PROFILE</code> setting.
+     */
+    public String value() {
+        return value;
+    }
+
+    /**
+     * @return The <code>java.util.zip.Deflater</code> level for the streams the fill writes.
+     */
+    int flateLevel() {
+        return flateLevel;
+    }
+
+    /**
+     * Resolves a wire value to its {@link CompressionProfile}.
+     *
+     * @param value The request wire value.
+     * @return The matching profile, or <code>null</code> if the value is not recognized.
+     */
+    public static CompressionProfile fromValue(final String value) {
+        for (final var profile : values()) {
+            if (profile.value.equals(value)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tells which profile a fill output was actually written with. With <code>PRESERVE_USAGE_RIGHTS</code> set, a
+     * document with signed permissions is filled as an incremental update whatever profile was asked for, and a
+     * {@link #PRESERVE} fill of a file that cannot take an update is rewritten as {@link #BALANCED}. An incremental
+     * update is the only output that starts with the template's exact bytes, so the output itself records which
+     * happened. A no-op fill, which returns the template as sent, counts as {@link #PRESERVE} too.
+     *
+     * @param templateBytes The template that was filled.
+     * @param outputBytes   The fill's output.
+     * @param requested     The profile the fill was asked for.
+     * @return {@link #PRESERVE} if the output keeps the template byte for byte, {@link #BALANCED} for a rewritten
+     * {@link #PRESERVE} fill, otherwise <code>requested</code>.
+     */
+    public static CompressionProfile applied(final byte[] templateBytes, final byte[] outputBytes,
+                                             final CompressionProfile requested) {
+        if (outputBytes.length >= templateBytes.length
+                && Arrays.equals(templateBytes, 0, templateBytes.length, outputBytes, 0, templateBytes.length)) {
+            return PRESERVE;
+        }
+        return requested == PRESERVE ? BALANCED : requested;
+    }
+
+    /**
+     * @return The deployment default from the <code>COMPRESSION_PROFILE</code> setting, or {@link #BALANCED} when it
+     * is absent or not a profile name.
+     */
+    public static CompressionProfile configured() {
+        final var configured = fromValue(AppSettings.getString("COMPRESSION_PROFILE", BALANCED.value));
+        return configured == null ? BALANCED : configured;
+    }
+}
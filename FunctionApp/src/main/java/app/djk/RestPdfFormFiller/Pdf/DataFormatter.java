@@ -1,6 +1,9 @@
 package app.djk.RestPdfFormFiller.Pdf;
 
+import app.djk.RestPdfFormFiller.execution.RequestDeadline;
 import app.djk.RestPdfFormFiller.projectExceptions.InvalidXfaFormDataException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
 import tools.jackson.databind.JsonNode;
 import tools.jackson.databind.ObjectMapper;
 import tools.jackson.databind.node.JsonNodeType;
@@ -17,6 +20,12 @@ import javax.xml.transform.stream.StreamResult;
 import java.io.StringWriter;
 
 public class DataFormatter {
+    /**
+     * Shared mappers: they are thread-safe once configured, and building one costs far more than most conversions.
+     */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final XmlMapper XML_MAPPER = new XmlMapper();
+
     private DataFormatter() {
         throw new IllegalStateException("Utility class");
     }
@@ -27,8 +36,7 @@ public class DataFormatter {
     }
 
     private static JsonNode convertXmlToJsonNode(String xml) {
-        final var xmlMapper = new XmlMapper();
-        return xmlMapper.readTree(xml);
+        return XML_MAPPER.readTree(xml);
     }
 
     /**
@@ -57,7 +65,7 @@ public class DataFormatter {
     /**
      * Converts a JSON representation of XFA form data to its XML form.
      * The root XML and data elements are hard-coded because they are constant.
-     * This method recurses through the remaining JSON elements and creates the XML elements.
+     * The form data itself is read by {@link #convertJsonToDataTree(String)} and then written out as elements.
      *
      * @param json The JSON data object.
      * @return The XML Document representation of the data in <code>json</code>.
@@ -65,71 +73,85 @@ public class DataFormatter {
      * @throws InvalidXfaFormDataException  If a JSON object is not in the correct format for an XFA form.
      */
     public static Document convertJsonToXml(String json) throws ParserConfigurationException {
+        final var dataTree = convertJsonToDataTree(json);
         final var xmlDocument = (DocumentBuilderFactory.newInstance()).newDocumentBuilder().newDocument();
 
-        final var rootJsonNode = (new ObjectMapper()).readTree(json);
-
-
         // Creating the root element that an XFA form expects.
         // This element name is not expected to be in the JSON data object.
         final var rootElement = xmlDocument.createElement("xfa:datasets");
         rootElement.setAttribute("xmlns:xfa", "http://www.xfa.org/schema/xfa-data/1.0/");
         xmlDocument.appendChild(rootElement);
 
-        // The JSON data object should only have one key, "data".
-        if (rootJsonNode.getNodeType() != JsonNodeType.OBJECT || rootJsonNode.size() != 1) {
-            throw new InvalidXfaFormDataException();
-        }
-
         // Hard-coding the data element because the element name that I give the JSON
         // object is just "data". The XFA form expects the "xfa:data" element name.
-        final var dataElement = xmlDocument.createElement("xfa:data");
-        rootElement.appendChild(dataElement);
-
-        // The "data" key should always have a JSON object as its value.
-        final var dataNode = rootJsonNode.get("data");
-        if (dataNode == null || dataNode.getNodeType() != JsonNodeType.OBJECT) {
-            throw new InvalidXfaFormDataException();
-        }
-
-        // Recurses through the data node and creates the XML elements.
-        // This call modifies dataElement, and by extension, xmlDocument.
-        convertJsonNodeToXmlElement(xmlDocument, dataElement, dataNode);
+        rootElement.appendChild(dataTree.toElement(xmlDocument, XfaDataTree.ROOT, "xfa:data"));
 
         return xmlDocument;
     }
 
     /**
-     * Recursively converts a <code>JsonNode</code> to XML elements.
-     * This method modifies the <code>element</code> parameter by adding child elements to it.
+     * Reads a JSON representation of XFA form data into an {@link XfaDataTree}, whose {@link XfaDataTree#ROOT} stands
+     * for the <code>data</code> object.
+     * <p>
+     * The JSON is streamed straight into the tree rather than read into a <code>JsonNode</code> tree or a DOM first:
+     * either would be a second full copy of the payload, several objects per field, that is discarded as soon as the
+     * fill has read it. Repeated property names each become a node, in order: that is how the instances of a
+     * repeating subform are sent, and PUT and PATCH both fill them by occurrence. The {@link ResourceLimits} apply to
+     * the JSON's length up front, and to its element count and depth as the tree is built.
      *
-     * @param xmlDocument The XML document to which the elements will be added.
-     * @param element     The XML element to which the child elements will be added.
-     * @param jsonNode    The JSON node to be converted. This should be the corresponding JSON value content
-     *                    for the <code>element</code> parameter.
+     * @param json The JSON data object.
+     * @return The form data.
+     * @throws InvalidXfaFormDataException If a JSON object is not in the correct format for an XFA form.
+     * @throws org.w3c.dom.DOMException    If a property name is not a valid XML element name.
+     * @throws app.djk.RestPdfFormFiller.projectExceptions.PayloadTooLargeException If the JSON is longer, or has
+     *                                                                              more elements, than allowed.
+     * @throws app.djk.RestPdfFormFiller.projectExceptions.NestingTooDeepException  If the JSON is nested deeper
+     *                                                                              than allowed.
      */
-    private static void convertJsonNodeToXmlElement(
-            final @NotNull Document xmlDocument,
-            @NotNull org.w3c.dom.Element element,
-            @NotNull JsonNode jsonNode) {
-
-        switch (jsonNode.getNodeType()) {
-            case OBJECT -> {
-                for (final String fieldName : jsonNode.propertyNames()) {
-                    final var childElement = xmlDocument.createElement(fieldName);
-                    element.appendChild(childElement);
-                    convertJsonNodeToXmlElement(xmlDocument, childElement, jsonNode.path(fieldName));
-                }
+    static XfaDataTree convertJsonToDataTree(final String json) {
+        ResourceLimits.configured().checkFormDataLength(json.length());
+        final var builder = new XfaDataTree.Builder("data");
+        try (final var parser = OBJECT_MAPPER.createParser(json)) {
+            // The JSON data object should only have one key, "data", and it should always have a JSON object as its
+            // value.
+            if (parser.nextToken() != JsonToken.START_OBJECT || !"data".equals(parser.nextName())
+                    || parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new InvalidXfaFormDataException();
             }
-            case STRING -> {
-                // Jackson 3 deprecates textValue(); stringValue() is the non-deprecated string accessor.
-                final var textNode = xmlDocument.createTextNode(jsonNode.stringValue());
-                element.appendChild(textNode);
+
+            // Reads through the data object and adds its properties to the tree.
+            convertJsonObjectToTreeNodes(builder, parser);
+
+            if (parser.nextToken() != JsonToken.END_OBJECT) {
+                throw new InvalidXfaFormDataException();
             }
-            default -> {
-                // For now, ignore other node types (numbers, booleans, arrays, null).
-                // If you need them, add cases and/or schema support.
+        }
+        return builder.build();
+    }
+
+    /**
+     * Recursively adds the properties of a JSON object to the tree, as children of the builder's current node.
+     *
+     * @param builder The tree being built, positioned on the node that corresponds to the object.
+     * @param parser  The JSON parser, positioned just after the <code>START_OBJECT</code> of the object; it is left
+     *                on the matching <code>END_OBJECT</code>.
+     */
+    private static void convertJsonObjectToTreeNodes(final @NotNull XfaDataTree.Builder builder,
+                                                     final @NotNull JsonParser parser) {
+        for (var fieldName = parser.nextName(); fieldName != null; fieldName = parser.nextName()) {
+            RequestDeadline.checkInLoop();
+            builder.startElement(fieldName);
+            switch (parser.nextToken()) {
+                case START_OBJECT -> convertJsonObjectToTreeNodes(builder, parser);
+                case VALUE_STRING -> builder.value(parser.getStringCharacters(), parser.getStringOffset(),
+                        parser.getStringLength());
+                default -> {
+                    // For now, ignore other value types (numbers, booleans, arrays, null).
+                    // If you need them, add cases and/or schema support.
+                    parser.skipChildren();
+                }
             }
+            builder.endElement();
         }
     }
 
@@ -160,20 +182,18 @@ public class DataFormatter {
      * @return A JSON node representing the argument's schema.
      */
     private static @NotNull JsonNode generateJsonSchema(final @NotNull JsonNode sourceNode) {
-        final var objectMapper = new ObjectMapper();
-        final var schemaNode = objectMapper.createObjectNode();
+        final var schemaNode = OBJECT_MAPPER.createObjectNode();
 
         // TODO add array type
         // if object, then "type": "object" and "properties": { <child schemas>}
         // else string, "<nodeName>": { "type": "string" }
         if (sourceNode.getNodeType() == JsonNodeType.OBJECT) {
             schemaNode.put("type", "object");
-            final var schemaObjectProperties = objectMapper.createObjectNode();
+            final var schemaObjectProperties = OBJECT_MAPPER.createObjectNode();
             schemaNode.set("properties", schemaObjectProperties);
 
-            for (final String fieldName : sourceNode.propertyNames()) {
-                var childSchema = generateJsonSchema(sourceNode.path(fieldName));
-                schemaObjectProperties.set(fieldName, childSchema);
+            for (final var property : sourceNode.properties()) {
+                schemaObjectProperties.set(property.getKey(), generateJsonSchema(property.getValue()));
             }
         } else {
             schemaNode.put("type", "string");
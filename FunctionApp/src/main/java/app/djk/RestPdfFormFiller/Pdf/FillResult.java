@@ -0,0 +1,12 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+/**
+ * Outcome of a fill.
+ *
+ * @param pdfBytes The resulting PDF. When <code>modified</code> is <code>false</code> this is the caller's original
+ *                 template array itself, not a copy.
+ * @param modified <code>false</code> if the request left every field value as it was, in which case the document
+ *                 was not re-stamped.
+ */
+public record FillResult(byte[] pdfBytes, boolean modified) {
+}
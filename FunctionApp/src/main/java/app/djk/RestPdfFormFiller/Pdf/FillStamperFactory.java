@@ -0,0 +1,159 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import app.djk.RestPdfFormFiller.config.AppSettings;
+import app.djk.RestPdfFormFiller.projectExceptions.PayloadTooLargeException;
+import org.openpdf.text.pdf.PRStream;
+import org.openpdf.text.pdf.PdfArray;
+import org.openpdf.text.pdf.PdfDictionary;
+import org.openpdf.text.pdf.PdfName;
+import org.openpdf.text.pdf.PdfReader;
+import org.openpdf.text.pdf.PdfStamper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Opens the stamper a fill writes its output with, configured for a {@link CompressionProfile}.
+ */
+final class FillStamperFactory {
+
+    /**
+     * Whether documents carrying signed permissions are filled as an incremental update, whatever the profile. Off
+     * unless <code>PRESERVE_USAGE_RIGHTS</code> is <code>true</code>.
+     * <p>
+     * <strong>Why.</strong> A reader-extended form (usage rights, <code>/Perms /UR3</code>) or a certified one
+     * (<code>/Perms /DocMDP</code>) is signed over its exact bytes. Rewriting the file, which every profile but
+     * {@link CompressionProfile#PRESERVE} does, breaks that signature: Adobe Reader then drops the usage rights it
+     * granted (saving, commenting, signing the filled form) and warns that the document was changed. An appended
+     * update leaves the signed bytes alone, and filling form data is a change those permissions allow. It is opt-in
+     * because it overrides the compression profile the caller asked for.
+     */
+    private static final boolean PRESERVE_USAGE_RIGHTS = AppSettings.getBoolean("PRESERVE_USAGE_RIGHTS", false);
+
+    private FillStamperFactory() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Opens a stamper for the profile. {@link CompressionProfile#PRESERVE}, and with {@link #PRESERVE_USAGE_RIGHTS}
+     * any profile for a document with signed permissions, opens it in append mode, unless the file cannot take an
+     * incremental update (see {@link #canAppendTo}); such a file is rewritten as {@link CompressionProfile#BALANCED}
+     * instead, rather than risk an unreadable file. A rewritten document loses its usage rights.
+     *
+     * @param reader  The source PDF.
+     * @param output  Where the filled PDF is written.
+     * @param profile The compression profile.
+     * @return The stamper; the caller closes it.
+     * @throws IOException If the stamper cannot be opened or an existing stream cannot be read.
+     */
+    static PdfStamper open(final PdfReader reader, final OutputStream output, final CompressionProfile profile)
+            throws IOException {
+        final var append = profile == CompressionProfile.PRESERVE
+                || PRESERVE_USAGE_RIGHTS && hasSignedPermissions(reader);
+        if (append && canAppendTo(reader)) {
+            return new PdfStamper(reader, output, null, true);
+        }
+        // A rewrite invalidates usage rights; without them Reader opens the form normally instead of reporting that
+        // its extended features were disabled by a change. A certification is left for Reader to report as broken.
+        reader.removeUsageRights();
+        final var rewrite = profile == CompressionProfile.PRESERVE ? CompressionProfile.BALANCED : profile;
+        final var stamper = new PdfStamper(reader, output);
+        stamper.getWriter().setCompressionLevel(rewrite.flateLevel());
+        if (rewrite == CompressionProfile.MAX) {
+            stamper.setFullCompression();
+            recompressStreams(reader, rewrite.flateLevel());
+        }
+        return stamper;
+    }
+
+    /**
+     * Tells whether openpdf can write an incremental update to the document. It cannot if the cross-reference table
+     * had to be rebuilt, nor if the document is encrypted but leaves its metadata in the clear, as most government
+     * forms (the sample DA 4187 among them) do: openpdf reads that mode as encrypting embedded files only, and its
+     * append mode would then write the update's strings and streams unencrypted into an encrypted file, which no
+     * reader can open.
+     *
+     * @param reader The source PDF.
+     * @return <code>true</code> if the document can be filled in append mode.
+     */
+    static boolean canAppendTo(final PdfReader reader) {
+        return !reader.isRebuilt() && (!reader.isEncrypted() || reader.isMetadataEncrypted());
+    }
+
+    /**
+     * @param reader The source PDF.
+     * @return <code>true</code> if the catalog has a <code>/Perms</code> dictionary with any entry: usage rights
+     * (<code>/UR3</code>, or the older <code>/UR</code>) or a certification (<code>/DocMDP</code>).
+     */
+    static boolean hasSignedPermissions(final PdfReader reader) {
+        return PdfReader.getPdfObjectRelease(reader.getCatalog().get(PdfName.PERMS)) instanceof PdfDictionary perms
+                && perms.size() > 0;
+    }
+
+    /**
+     * Marks the AcroForm (or the catalog, when the AcroForm is stored inline) as changed after its <code>/XFA</code>
+     * entry was replaced. A stamper in append mode only writes the objects it is told about; otherwise this does
+     * nothing.
+     *
+     * @param reader  The source PDF.
+     * @param stamper The stamper writing the change.
+     */
+    static void markAcroFormChanged(final PdfReader reader, final PdfStamper stamper) {
+        final var catalog = reader.getCatalog();
+        final var acroForm = catalog.get(PdfName.ACROFORM);
+        stamper.markUsed(acroForm != null && acroForm.isIndirect() ? acroForm : catalog);
+    }
+
+    /**
+     * Deflates every plain Flate stream of the document again at <code>level</code>, keeping the original wherever
+     * the result is not smaller. Streams with other filters (images, fonts with predictors, filter chains) are left
+     * alone: decoding and re-encoding them is either lossy or not a Flate-only job. So are streams larger than the
+     * {@link ResourceLimits}, which are left as stored rather than inflated without bound.
+     */
+    private static void recompressStreams(final PdfReader reader, final int level) throws IOException {
+        final var limits = ResourceLimits.configured();
+        for (var i = 1; i < reader.getXrefSize(); i++) {
+            if (reader.getPdfObject(i) instanceof PRStream stream && isPlainFlate(stream)) {
+                final byte[] data;
+                try (final var in = limits.bounded(limits.inflate(stream))) {
+                    data = in.readAllBytes();
+                } catch (PayloadTooLargeException e) {
+                    continue;
+                }
+                final var recompressed = deflate(data, level);
+                if (recompressed.length < stream.getLength()) {
+                    stream.setData(recompressed, false);
+                    stream.put(PdfName.FILTER, PdfName.FLATEDECODE);
+                }
+            }
+        }
+    }
+
+    static boolean isPlainFlate(final PRStream stream) {
+        if (stream.get(PdfName.DECODEPARMS) != null || PdfName.XREF.equals(stream.get(PdfName.TYPE))
+                || PdfName.OBJSTM.equals(stream.get(PdfName.TYPE))) {
+            return false;
+        }
+        final var filter = PdfReader.getPdfObject(stream.get(PdfName.FILTER));
+        if (filter instanceof PdfArray filters) {
+            return filters.size() == 1 && PdfName.FLATEDECODE.equals(PdfReader.getPdfObject(filters.getPdfObject(0)));
+        }
+        return PdfName.FLATEDECODE.equals(filter);
+    }
+
+    private static byte[] deflate(final byte[] data, final int level) throws IOException {
+        final var deflater = new Deflater(level);
+        try {
+            final var out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            try (final var zip = new DeflaterOutputStream(out, deflater)) {
+                zip.write(data);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
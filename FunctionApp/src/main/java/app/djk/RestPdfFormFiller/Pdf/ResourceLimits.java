@@ -0,0 +1,300 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import app.djk.RestPdfFormFiller.config.AppSettings;
+import app.djk.RestPdfFormFiller.execution.RequestDeadline;
+import app.djk.RestPdfFormFiller.projectExceptions.NestingTooDeepException;
+import app.djk.RestPdfFormFiller.projectExceptions.PayloadTooLargeException;
+import org.openpdf.text.pdf.PRStream;
+import org.openpdf.text.pdf.PdfArray;
+import org.openpdf.text.pdf.PdfDictionary;
+import org.openpdf.text.pdf.PdfName;
+import org.openpdf.text.pdf.PdfReader;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Limits on how much a single request can make the service inflate, parse and hold: the size of an XFA stream
+ * before and after decompression, the number of elements and the nesting depth of XFA data and of form data, and
+ * the length of the form data JSON.
+ * <p>
+ * <strong>Why they are checked while reading.</strong> A datasets stream of a few kilobytes can inflate to
+ * gigabytes, and a few kilobytes of JSON or XML can nest deeply enough to overflow the stack of every recursive walk
+ * that follows. A check on the finished result would come after the heap or the stack was already spent, for every
+ * tenant on the instance. So streams are inflated through a counting stream that stops at the limit
+ * ({@link #bounded}), XML is parsed through a reader that counts elements and depth as they start
+ * ({@link #xmlReader}), and the form data tree counts as it is built ({@link XfaDataTree.Builder}). Each stops
+ * reading at the first byte or element over its limit.
+ * <p>
+ * Sizes and element counts over their limit raise a {@link PayloadTooLargeException} (<code>413</code>); nesting
+ * over its limit raises a {@link NestingTooDeepException} (<code>400</code>), since no real form nests that deep.
+ */
+public final class ResourceLimits {
+
+    private static final ResourceLimits CONFIGURED = new ResourceLimits(
+            AppSettings.getLong("XFA_MAX_STREAM_BYTES", 16L * 1024 * 1024),
+            AppSettings.getLong("XFA_MAX_INFLATED_BYTES", 64L * 1024 * 1024),
+            AppSettings.getInt("XFA_MAX_ELEMENTS", 500_000),
+            AppSettings.getInt("XFA_MAX_DEPTH", 100),
+            AppSettings.getInt("FORM_DATA_MAX_JSON_LENGTH", 8 * 1024 * 1024));
+
+    private final long maxStreamBytes;
+    private final long maxInflatedBytes;
+    private final int maxElements;
+    private final int maxDepth;
+    private final int maxFormDataLength;
+
+    /**
+     * @param maxStreamBytes    Largest XFA stream, as stored (compressed) in the PDF.
+     * @param maxInflatedBytes  Largest XFA content once inflated; for a whole XFA split into packets, of all packets
+     *                          together.
+     * @param maxElements       Most elements in the XFA or in the form data.
+     * @param maxDepth          Deepest nesting of elements in the XFA or in the form data.
+     * @param maxFormDataLength Longest form data JSON, in characters.
+     */
+    ResourceLimits(final long maxStreamBytes, final long maxInflatedBytes, final int maxElements,
+                   final int maxDepth, final int maxFormDataLength) {
+        this.maxStreamBytes = Math.max(1, maxStreamBytes);
+        this.maxInflatedBytes = Math.max(1, maxInflatedBytes);
+        this.maxElements = Math.max(1, maxElements);
+        this.maxDepth = Math.max(1, maxDepth);
+        this.maxFormDataLength = Math.max(1, maxFormDataLength);
+    }
+
+    /**
+     * @return The limits configured by the <code>XFA_MAX_*</code> and <code>FORM_DATA_MAX_JSON_LENGTH</code>
+     * settings.
+     */
+    public static ResourceLimits configured() {
+        return CONFIGURED;
+    }
+
+    /**
+     * @return The deepest nesting allowed in the XFA or the form data.
+     */
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param length Length of a form data JSON, in characters.
+     * @throws PayloadTooLargeException If it is longer than allowed.
+     */
+    public void checkFormDataLength(final int length) {
+        if (length > maxFormDataLength) {
+            throw new PayloadTooLargeException(
+                    "The form data is longer than the limit of " + maxFormDataLength + " characters.");
+        }
+    }
+
+    /**
+     * @param what     What is being read, to start the message with; for example <code>"The form data"</code>.
+     * @param elements Elements read so far, including the one just started.
+     * @param depth    Depth of the element just started; the root is at depth 1.
+     * @throws PayloadTooLargeException If there are more elements than allowed.
+     * @throws NestingTooDeepException  If the element is nested deeper than allowed.
+     */
+    void checkElement(final String what, final int elements, final int depth) {
+        if (elements > maxElements) {
+            throw new PayloadTooLargeException(what + " has more than the limit of " + maxElements + " elements.");
+        }
+        if (depth > maxDepth) {
+            throw new NestingTooDeepException(what, maxDepth);
+        }
+    }
+
+    /**
+     * Opens an XFA stream of a PDF for reading, inflated.
+     * <p>
+     * A plain Flate stream, which is how XFA is stored in practice, is inflated as it is read, so wrapped in
+     * {@link #bounded} it never holds more than the limit. Like openpdf's own decoding, a damaged stream yields
+     * whatever inflated before the damage. Any other encoding is decoded by openpdf in one go; its size is still
+     * bounded by {@link #maxStreamBytes} before decoding, and by {@link #bounded} after.
+     *
+     * @param stream The stream.
+     * @return Its decoded content, not yet bounded.
+     * @throws PayloadTooLargeException If the stream as stored is larger than allowed.
+     * @throws IOException              If the stream cannot be read.
+     */
+    InputStream inflate(final PRStream stream) throws IOException {
+        if (stream.getLength() > maxStreamBytes) {
+            throw new PayloadTooLargeException(
+                    "An XFA stream of the PDF is larger than the limit of " + maxStreamBytes + " bytes.");
+        }
+        if (!FillStamperFactory.isPlainFlate(stream)) {
+            return new ByteArrayInputStream(PdfReader.getStreamBytes(stream));
+        }
+        return new InflaterInputStream(new ByteArrayInputStream(PdfReader.getStreamBytesRaw(stream))) {
+            private boolean damaged;
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                if (damaged) {
+                    return -1;
+                }
+                try {
+                    return super.read(b, off, len);
+                } catch (ZipException | EOFException e) {
+                    damaged = true;
+                    return -1;
+                }
+            }
+        };
+    }
+
+    /**
+     * Bounds inflated XFA content to the limit, and to the request's deadline.
+     *
+     * @param in The content.
+     * @return A stream that throws a {@link PayloadTooLargeException} as soon as more than the limit has been read.
+     */
+    InputStream bounded(final InputStream in) {
+        return RequestDeadline.guard(new FilterInputStream(in) {
+            private long read;
+
+            @Override
+            public int read() throws IOException {
+                final var b = super.read();
+                if (b >= 0) {
+                    count(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final var n = super.read(b, off, len);
+                if (n > 0) {
+                    count(n);
+                }
+                return n;
+            }
+
+            private void count(final int n) {
+                read += n;
+                if (read > maxInflatedBytes) {
+                    throw new PayloadTooLargeException(
+                            "The XFA of the PDF inflates to more than the limit of " + maxInflatedBytes + " bytes.");
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates a namespace-aware XML reader, with the entity handling openpdf applies to the XFA, that enforces the
+     * element and depth limits as each element starts. A limit is reported as a <code>SAXException</code> wrapping
+     * the limit's exception; {@link #rethrowLimit} recovers it from whatever the caller catches.
+     *
+     * @return The reader.
+     * @throws ParserConfigurationException If no SAX parser can be created.
+     */
+    XMLReader xmlReader() throws ParserConfigurationException {
+        final var factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            final var reader = new XMLFilterImpl(factory.newSAXParser().getXMLReader()) {
+                private int elements;
+                private int depth;
+
+                @Override
+                public void startElement(final String uri, final String localName, final String qName,
+                                         final Attributes atts) throws SAXException {
+                    RequestDeadline.checkInLoop();
+                    try {
+                        checkElement("The XFA of the PDF", ++elements, ++depth);
+                    } catch (PayloadTooLargeException | NestingTooDeepException e) {
+                        throw new SAXException(e);
+                    }
+                    super.startElement(uri, localName, qName, atts);
+                }
+
+                @Override
+                public void endElement(final String uri, final String localName, final String qName)
+                        throws SAXException {
+                    depth--;
+                    super.endElement(uri, localName, qName);
+                }
+            };
+            reader.setEntityResolver((publicId, systemId) -> new InputSource(new StringReader("")));
+            // Report malformed XML only through the exception, not on stderr.
+            reader.setErrorHandler(new DefaultHandler());
+            return reader;
+        } catch (SAXException e) {
+            throw new ParserConfigurationException(e.getMessage());
+        }
+    }
+
+    /**
+     * Checks the whole XFA of a PDF against the limits before openpdf's <code>XfaForm</code> inflates and parses it
+     * into a DOM, which it does in one go and beyond our reach. The packets are streamed through
+     * {@link #xmlReader} once, holding no more than a parser buffer; XFA that is merely malformed is left for
+     * <code>XfaForm</code> to report.
+     *
+     * @param reader The source PDF.
+     * @throws PayloadTooLargeException If the XFA is larger than allowed.
+     * @throws NestingTooDeepException  If the XFA is nested deeper than allowed.
+     * @throws IOException              If an XFA stream cannot be read.
+     */
+    void checkXfa(final PdfReader reader) throws IOException {
+        final var acroForm = (PdfDictionary) PdfReader.getPdfObjectReleaseNullConverting(
+                reader.getCatalog().get(PdfName.ACROFORM));
+        if (acroForm == null) {
+            return;
+        }
+        // openpdf reads a packet array as the concatenation of its streams, which together make one document.
+        final var streams = new ArrayList<InputStream>();
+        final var xfa = PdfReader.getPdfObjectRelease(acroForm.get(PdfName.XFA));
+        if (xfa instanceof PdfArray packets) {
+            for (var k = 1; k < packets.size(); k += 2) {
+                if (packets.getDirectObject(k) instanceof PRStream stream) {
+                    streams.add(inflate(stream));
+                }
+            }
+        } else if (xfa instanceof PRStream stream) {
+            streams.add(inflate(stream));
+        }
+        if (streams.isEmpty()) {
+            return;
+        }
+        try (final var xml = bounded(new SequenceInputStream(Collections.enumeration(streams)))) {
+            xmlReader().parse(new InputSource(xml));
+        } catch (SAXException | ParserConfigurationException e) {
+            rethrowLimit(e);
+        }
+    }
+
+    /**
+     * Rethrows the limit that stopped a parse, if one did. Parsers and transformers wrap what is thrown inside them
+     * to different depths, so the cause chain is searched.
+     *
+     * @param failure What the parse failed with.
+     * @throws PayloadTooLargeException If that is what stopped it.
+     * @throws NestingTooDeepException  If that is what stopped it.
+     */
+    static void rethrowLimit(final Throwable failure) {
+        for (var cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof PayloadTooLargeException || cause instanceof NestingTooDeepException) {
+                throw (RuntimeException) cause;
+            }
+        }
+    }
+}
@@ -1,9 +1,17 @@
 package app.djk.RestPdfFormFiller.Pdf;
 
+import app.djk.RestPdfFormFiller.cache.Fingerprints;
+import app.djk.RestPdfFormFiller.cache.SharedCacheTier;
+import app.djk.RestPdfFormFiller.cache.TemplateArtifactCache;
+import app.djk.RestPdfFormFiller.config.AppSettings;
+import app.djk.RestPdfFormFiller.execution.PipelineExecutor;
+import app.djk.RestPdfFormFiller.execution.RequestDeadline;
+import app.djk.RestPdfFormFiller.projectExceptions.FormDataValidationException;
 import app.djk.RestPdfFormFiller.projectExceptions.InvalidXfaFormException;
 import app.djk.RestPdfFormFiller.projectExceptions.WriteConflictException;
 import org.openpdf.text.pdf.PdfReader;
-import org.openpdf.text.pdf.PdfStamper;
+import org.openpdf.text.pdf.XfaForm;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
@@ -13,12 +21,17 @@ import javax.xml.transform.OutputKeys;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 public class RestPdfApi {
 
@@ -27,19 +40,86 @@ public class RestPdfApi {
     }
     public static final List<String> FORM_DATA_FORMATS = List.of("json", "xml");
 
+    /**
+     * Blank data skeletons of recently filled templates, for {@link WriteMode#PUT}; see {@link XfaDataSkeleton}.
+     * Shared across instances when a shared cache is configured; see {@link SharedCacheTier}.
+     */
+    private static final TemplateArtifactCache<XfaDataSkeleton> SKELETONS =
+            new TemplateArtifactCache<>(AppSettings.getInt("TEMPLATE_CACHE_MAX_ENTRIES", 64), "skeleton:v1",
+                    XfaDataSkeleton.CODEC, SharedCacheTier.configured());
+
+    /**
+     * JSON schemas of the datasets of recently described documents; see {@link #getXfaDataSchema(byte[])}.
+     * Shared across instances when a shared cache is configured; see {@link SharedCacheTier}.
+     */
+    private static final TemplateArtifactCache<String> SCHEMAS =
+            new TemplateArtifactCache<>(AppSettings.getInt("TEMPLATE_CACHE_MAX_ENTRIES", 64), "schema:v1",
+                    new TemplateArtifactCache.Codec<>() {
+                        @Override
+                        public byte[] encode(final String schema) {
+                            return schema.getBytes(StandardCharsets.UTF_8);
+                        }
+
+                        @Override
+                        public String decode(final byte[] bytes) {
+                            return new String(bytes, StandardCharsets.UTF_8);
+                        }
+                    }, SharedCacheTier.configured());
+
+    /**
+     * Per-field rules of the templates of recent fills; see {@link XfaFieldValidators}. Shared across instances when
+     * a shared cache is configured; see {@link SharedCacheTier}.
+     */
+    private static final TemplateArtifactCache<XfaFieldValidators> VALIDATORS =
+            new TemplateArtifactCache<>(AppSettings.getInt("TEMPLATE_CACHE_MAX_ENTRIES", 64), "validators:v1",
+                    XfaFieldValidators.CODEC, SharedCacheTier.configured());
+
+    /**
+     * Whether form data is checked against the rules of its template before it is filled; see
+     * {@link XfaFieldValidators}. Off unless <code>TEMPLATE_VALIDATION_ENABLED</code> is <code>true</code>: checking
+     * rejects payloads that were always filled before, such as a PATCH that adds fields the template does not have,
+     * so a deployment opts in to it.
+     */
+    private static boolean validatesAgainstTemplate() {
+        return AppSettings.getBoolean("TEMPLATE_VALIDATION_ENABLED", false);
+    }
+
+    /**
+     * Whether fills parse and rewrite only the XFA datasets packet where the form allows it (see
+     * {@link XfaDatasetsPacket}); <code>false</code> always goes through openpdf's whole-XFA <code>XfaForm</code>.
+     */
+    private static final boolean SPLICE_DATASETS = AppSettings.getBoolean("XFA_DATASETS_SPLICE_ENABLED", true);
+
+    /**
+     * Reads the whole stream and calls <code>getXfaDatasetNodeAsString(byte[] pdfBytes)</code>.
+     *
+     * @param is An <code>InputStream</code> representing the DA 4187.
+     * @return Same as the overloaded method.
+     * @throws IOException          Same as the overloaded method, or if the stream cannot be read.
+     * @throws TransformerException Same as the overloaded method.
+     */
+    public static String getXfaDatasetNodeAsString(InputStream is) throws IOException, TransformerException {
+        return getXfaDatasetNodeAsString(is.readAllBytes());
+    }
+
     /**
      * Gets the XML form field data from the given DA 4187. (This may work with other XFA forms, but
      * it's specifically designed to work with the 4187 for now.)
+     * <p>
+     * Only the objects leading to the datasets are read and, for an encrypted form, decrypted; see
+     * {@link XfaDataReader}.
      *
-     * @param is An <code>InputStream</code> representing the DA 4187.
+     * @param pdfBytes A <code>byte[]</code> representing the DA 4187.
      * @return A pretty-printed XML String of the XFA form data (everything withing and including the datasets node).
      * @throws IOException          If there's a problem with creating the <code>PDFReader</code>.
      * @throws TransformerException If there's a problem with transforming the extracted datasets node into a string.
      */
-    public static String getXfaDatasetNodeAsString(InputStream is) throws IOException, TransformerException {
-        try (var newReader = new PdfReader(is)) {
+    public static String getXfaDatasetNodeAsString(byte[] pdfBytes) throws IOException, TransformerException {
+        try (var newReader = XfaDataReader.open(pdfBytes)) {
+            RequestDeadline.check();
             //This is the node that contains the XFA form data.
-            final var datasetsNode = newReader.getAcroFields().getXfa().getDatasetsNode();
+            final var datasetsNode = XfaDataReader.datasetsNode(newReader);
+            RequestDeadline.check();
 
             final var transformer = SecureTransformerFactory.newInstance().newTransformer();
             transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
@@ -55,16 +135,58 @@ public class RestPdfApi {
     }
 
     /**
-     * Wraps the <code>byte[]</code> in an <code>InputStream</code> and calls
-     * <code>getXfaDatasetNodeAsString(InputStream is)</code>.
+     * Gets the JSON schema of the XFA form data of a document (see {@link DataFormatter#generateJsonSchema}).
+     * <p>
+     * The schema depends only on the document, and callers ask for the same template's schema over and over (often
+     * many at once, when a flow starts a batch), so schemas are cached by the document's fingerprint and concurrent
+     * requests for the same document share one parse; see {@link TemplateArtifactCache}.
      *
-     * @param pdfBytes A <code>byte[]</code> representing the DA 4187.
-     * @return Same as the overloaded method.
-     * @throws IOException          Same as the overloaded method.
-     * @throws TransformerException Same as the overloaded method.
+     * @param pdfBytes The XFA PDF.
+     * @return The JSON schema of its datasets.
+     * @throws Exception If the PDF cannot be parsed or its datasets serialized, as for
+     *                   {@link #getXfaDatasetNodeAsString(byte[])}.
      */
-    public static String getXfaDatasetNodeAsString(byte[] pdfBytes) throws IOException, TransformerException {
-        return getXfaDatasetNodeAsString(new ByteArrayInputStream(pdfBytes));
+    public static String getXfaDataSchema(final byte[] pdfBytes) throws Exception {
+        return SCHEMAS.computeIfAbsent(Fingerprints.sha256(pdfBytes),
+                fingerprint -> DataFormatter.generateJsonSchema(getXfaDatasetNodeAsString(pdfBytes)));
+    }
+
+    /**
+     * Gets the field values of the XFA form data of a document, flattened: one entry per field, keyed by its
+     * slash-delimited path from the form-root, with the repeated-instance indexes of
+     * {@link XfaDataComparator.XfaDataDiff} (for example <code>form1/Page1/SSN</code> or
+     * <code>form1/Table/Row[1]/Amount</code>). Values are trimmed; fields without a value map to an empty string.
+     * <p>
+     * The datasets are read as for {@link #getXfaDatasetNodeAsString(byte[])}, but copied straight into a compact
+     * tree instead of being serialized to XML, since the caller wants the values rather than the document.
+     *
+     * @param pdfBytes The XFA PDF.
+     * @return The field values, in document order.
+     * @throws InvalidXfaFormException If the PDF has no XFA datasets.
+     * @throws IOException             If the PDF cannot be parsed.
+     */
+    public static Map<String, String> getXfaFieldValues(final byte[] pdfBytes) throws IOException {
+        final var data = XfaDataReader.dataTree(pdfBytes);
+        final var fields = new LinkedHashMap<String, String>();
+        if (data != null) {
+            collectFieldValues(data, XfaDataTree.ROOT, "", fields);
+        }
+        return fields;
+    }
+
+    private static void collectFieldValues(final XfaDataTree data, final int parent, final String path,
+                                           final Map<String, String> fields) {
+        final Map<String, Integer> occurrences = new HashMap<>();
+        for (var node = data.firstChild(parent); node != XfaDataTree.NONE; node = data.nextSibling(node)) {
+            RequestDeadline.checkInLoop();
+            final var name = data.name(node);
+            final var nodePath = XfaDataComparator.childPath(path, name, occurrences.merge(name, 1, Integer::sum) - 1);
+            if (data.hasChildren(node)) {
+                collectFieldValues(data, node, nodePath, fields);
+            } else {
+                fields.put(nodePath, data.trimmedValue(node));
+            }
+        }
     }
 
     /*
@@ -77,13 +199,13 @@ public class RestPdfApi {
 
 
     public static boolean isXfaForm(final InputStream pdfStream) throws IOException {
-        try (var pdfReader = new PdfReader(pdfStream)) {
-            return pdfReader.getAcroFields().getXfa().isXfaPresent();
-        }
+        return isXfaForm(pdfStream.readAllBytes());
     }
 
     public static boolean isXfaForm(final byte[] pdfBytes) throws IOException {
-        return isXfaForm(new ByteArrayInputStream(pdfBytes));
+        try (var pdfReader = XfaDataReader.open(pdfBytes)) {
+            return XfaDataReader.isXfaPresent(pdfReader);
+        }
     }
 
 
@@ -128,6 +250,28 @@ public class RestPdfApi {
         return fillXfaForm(pdfBytes, jsonFormData, WriteMode.PATCH, PatchMode.OVERWRITE);
     }
 
+    /**
+     * Fills an XFA form with the provided data and returns only the resulting document. See
+     * {@link #fillXfaFormWithResult(byte[], String, WriteMode, PatchMode)} for the semantics.
+     *
+     * @param pdfBytes     Source XFA PDF content.
+     * @param jsonFormData JSON object string of the form <code>{"data": { ... }}</code>.
+     * @param writeMode    Whether to merge ({@link WriteMode#PATCH}) or fully replace ({@link WriteMode#PUT}).
+     * @param patchMode    Collision policy for provided fields under {@link WriteMode#PATCH}; ignored for
+     *                     {@link WriteMode#PUT}.
+     * @return The filled PDF as a byte array (the original array if nothing changed).
+     * @throws InvalidXfaFormException      If the PDF is not an XFA form.
+     * @throws WriteConflictException       If a {@link PatchMode#FAIL_ON_CONFLICT} patch hits a conflicting value.
+     * @throws IOException                  If the PDF cannot be parsed or stamped.
+     * @throws ParserConfigurationException If the JSON-to-XML conversion cannot create an XML document.
+     * @throws SAXException                 If the converted form data cannot be parsed as XML.
+     */
+    public static byte[] fillXfaForm(final byte[] pdfBytes, final String jsonFormData, final WriteMode writeMode,
+                                     final PatchMode patchMode)
+            throws IOException, ParserConfigurationException, SAXException {
+        return fillXfaFormWithResult(pdfBytes, jsonFormData, writeMode, patchMode).pdfBytes();
+    }
+
     /**
      * Fills an XFA form with the provided data.
      * <p>
@@ -140,114 +284,360 @@ public class RestPdfApi {
      *       under {@link WriteMode#PATCH}. Under {@link WriteMode#PUT} it is irrelevant because a full replacement
      *       never merges against an existing value.</li>
      * </ul>
+     * A {@link WriteMode#PATCH} that would leave every field value as it is (an empty payload, values identical to
+     * the existing ones, or {@link PatchMode#IF_EMPTY} against populated fields) is a no-op: the original bytes are
+     * returned untouched with {@link FillResult#modified()} set to <code>false</code>, and no stamper is opened.
      * <p>
      * <strong>Why the implementation looks the way it does.</strong> Two openpdf behaviors drive the design:
      * <ul>
-     *   <li><em>Write-back requires the live form.</em> Only the <code>XfaForm</code> obtained from the stamper's
-     *       <code>AcroFields.getXfa()</code> is serialized back into the document when the stamper closes. A
-     *       detached <code>new XfaForm(reader)</code> can be modified but its changes are silently dropped, so we
-     *       deliberately fetch the form via the stamper.</li>
+     *   <li><em>Write-back is explicit.</em> A stamper only serializes the <code>XfaForm</code> owned by its own
+     *       <code>AcroFields</code>, and parses the XFA packet again to build it. We instead parse a single
+     *       <code>new XfaForm(reader)</code>, use it for the presence check and the merge, and write it back
+     *       ourselves via <code>XfaForm.setXfa</code> against the stamper's writer. That saves a full XFA parse
+     *       per fill and lets a no-op return before the stamper (and its rewrite of the whole document) exists.
+     *       Where the XFA is stored as separate packets, even that one parse is narrowed to the datasets packet
+     *       and only that packet is written back (see {@link XfaDatasetsPacket}).</li>
      *   <li><em>{@code fillXfaForm} replaces the whole data subtree.</em> openpdf swaps out the entire
-     *       <code>&lt;xfa:data&gt;</code> form-root rather than merging field by field. That makes {@code PUT} a
-     *       direct hand-off of the incoming data. For {@code PATCH}, however, any field missing from the node we
+     *       <code>&lt;xfa:data&gt;</code> form-root rather than merging field by field. For {@code PUT} we hand it
+     *       the incoming data laid over the template's cached blank skeleton (see {@link XfaDataSkeleton}), so the
+     *       work per request scales with the payload and the form's shape, not with the values it held. For
+     *       {@code PATCH}, however, any field missing from the node we
      *       hand it would be <em>erased</em> rather than left alone, so we first merge the incoming values onto a
      *       copy of the template's existing data (see {@link #mergeFormData}) and pass that complete subtree.</li>
      * </ul>
-     * The XFA presence check happens up front so that a non-XFA PDF fails fast with a caller-safe error before we
-     * open a stamper.
      *
      * @param pdfBytes     Source XFA PDF content.
      * @param jsonFormData JSON object string of the form <code>{"data": { ... }}</code>.
      * @param writeMode    Whether to merge ({@link WriteMode#PATCH}) or fully replace ({@link WriteMode#PUT}).
      * @param patchMode    Collision policy for provided fields under {@link WriteMode#PATCH}; ignored for
      *                     {@link WriteMode#PUT}.
-     * @return The filled PDF as a byte array.
+     * @return The filled PDF and whether it differs from the source.
      * @throws InvalidXfaFormException      If the PDF is not an XFA form.
      * @throws WriteConflictException       If <code>writeMode</code> is {@link WriteMode#PATCH}, <code>patchMode</code>
      *                                      is {@link PatchMode#FAIL_ON_CONFLICT}, and a provided value would overwrite
      *                                      a different, non-empty existing value.
+     * @throws FormDataValidationException  If the data breaks a rule of the template; see
+     *                                      {@link #validateXfaFormData}.
      * @throws IOException                  If the PDF cannot be parsed or stamped.
      * @throws ParserConfigurationException If the JSON-to-XML conversion cannot create an XML document.
      * @throws SAXException                 If the converted form data cannot be parsed as XML.
      */
-    public static byte[] fillXfaForm(final byte[] pdfBytes, final String jsonFormData, final WriteMode writeMode,
-                                     final PatchMode patchMode)
+    public static FillResult fillXfaFormWithResult(final byte[] pdfBytes, final String jsonFormData,
+                                                   final WriteMode writeMode, final PatchMode patchMode)
             throws IOException, ParserConfigurationException, SAXException {
-        if (!isXfaForm(pdfBytes)) throw new InvalidXfaFormException();
+        return fillXfaFormWithResult(pdfBytes, jsonFormData, writeMode, patchMode, CompressionProfile.configured());
+    }
 
-        final var outputStream = new ByteArrayOutputStream();
-        try (final var reader = new PdfReader(pdfBytes);
-             final var pdfStamper = new PdfStamper(reader, outputStream)) {
+    /**
+     * Fills an XFA form as {@link #fillXfaFormWithResult(byte[], String, WriteMode, PatchMode)} does, writing the
+     * output with the given {@link CompressionProfile} instead of the deployment default.
+     *
+     * @param pdfBytes           Source XFA PDF content.
+     * @param jsonFormData       JSON object string of the form <code>{"data": { ... }}</code>.
+     * @param writeMode          Whether to merge ({@link WriteMode#PATCH}) or fully replace ({@link WriteMode#PUT}).
+     * @param patchMode          Collision policy for provided fields under {@link WriteMode#PATCH}; ignored for
+     *                           {@link WriteMode#PUT}.
+     * @param compressionProfile How the output is compressed.
+     * @return The filled PDF and whether it differs from the source.
+     * @throws InvalidXfaFormException      If the PDF is not an XFA form.
+     * @throws WriteConflictException       If a {@link PatchMode#FAIL_ON_CONFLICT} patch hits a conflicting value.
+     * @throws IOException                  If the PDF cannot be parsed or stamped.
+     * @throws ParserConfigurationException If the JSON-to-XML conversion cannot create an XML document.
+     * @throws SAXException                 If the converted form data cannot be parsed as XML.
+     */
+    public static FillResult fillXfaFormWithResult(final byte[] pdfBytes, final String jsonFormData,
+                                                   final WriteMode writeMode, final PatchMode patchMode,
+                                                   final CompressionProfile compressionProfile)
+            throws IOException, ParserConfigurationException, SAXException {
+        return fillXfaFormWithResult(pdfBytes, DataFormatter.convertJsonToDataTree(jsonFormData), false, writeMode,
+                patchMode, compressionProfile);
+    }
 
-            // Using the AcroFields' live XFA form (rather than a detached copy) ensures the changes are
-            // written back to the PDF when the stamper is closed.
-            final var xfaForm = pdfStamper.getAcroFields().getXfa();
+    /**
+     * Fills several XFA forms with one payload, as a personnel action does when it populates a form and its sibling
+     * forms from the same data. The payload is laid onto each template by path below the form-root (see
+     * {@link #mapOntoTemplate}), so each form receives the fields it shares with the payload and nothing else, and
+     * the templates are filled concurrently on the CPU stage of the {@link PipelineExecutor}.
+     * <p>
+     * <strong>Why the payload is converted once.</strong> Separate fills would each parse the JSON again. Here it is
+     * converted a single time into an {@link XfaDataTree}, which is immutable, so every fill reads the same tree
+     * concurrently and nothing is copied per template.
+     *
+     * @param templates          Source XFA PDFs.
+     * @param jsonFormData       JSON object string of the form <code>{"data": { ... }}</code>.
+     * @param writeMode          Whether to merge ({@link WriteMode#PATCH}) or fully replace ({@link WriteMode#PUT}).
+     * @param patchMode          Collision policy for provided fields under {@link WriteMode#PATCH}; ignored for
+     *                           {@link WriteMode#PUT}.
+     * @param compressionProfile How the output is compressed.
+     * @return The fill results, in the order of <code>templates</code>.
+     * @throws InvalidXfaFormException If any PDF is not an XFA form.
+     * @throws WriteConflictException  If a {@link PatchMode#FAIL_ON_CONFLICT} patch hits a conflicting value in any
+     *                                 template.
+     * @throws Exception               The first failure of any fill, rethrown as-is.
+     */
+    public static List<FillResult> fillXfaFormsWithResult(final List<byte[]> templates, final String jsonFormData,
+                                                          final WriteMode writeMode, final PatchMode patchMode,
+                                                          final CompressionProfile compressionProfile)
+            throws Exception {
+        final var data = DataFormatter.convertJsonToDataTree(jsonFormData);
+        final var fills = new ArrayList<Callable<FillResult>>(templates.size());
+        for (final var template : templates) {
+            fills.add(() -> fillXfaFormWithResult(template, data, true, writeMode, patchMode, compressionProfile));
+        }
+        return PipelineExecutor.shared().invokeAll(PipelineExecutor.Stage.CPU, fills);
+    }
 
-            // Incoming shape: <xfa:datasets><xfa:data><formRoot>...  ->  formRoot element.
-            final var incomingDoc = DataFormatter.convertJsonToXml(jsonFormData);
-            final var incomingFormRoot = firstElementChild(firstElementChild(incomingDoc.getDocumentElement()));
+    /**
+     * Fills an XFA form with data already read into a tree. The tree is only read, so it can be shared between fills.
+     * It becomes DOM only where it is written: as the new values of a PATCH, or as the data a PUT builds, created
+     * directly in the document openpdf writes back.
+     *
+     * @param mapOntoTemplate Whether to lay the data onto the template's own form-root and fields (see
+     *                        {@link #mapOntoTemplate}) rather than write it as it is.
+     */
+    private static FillResult fillXfaFormWithResult(final byte[] pdfBytes, final XfaDataTree data,
+                                                    final boolean mapOntoTemplate, final WriteMode writeMode,
+                                                    final PatchMode patchMode,
+                                                    final CompressionProfile compressionProfile)
+            throws IOException, ParserConfigurationException, SAXException {
+        try (final var reader = new PdfReader(pdfBytes)) {
+            RequestDeadline.check();
+            // Only the datasets packet is parsed and rewritten where the form allows it; see XfaDatasetsPacket.
+            final var datasetsPacket = SPLICE_DATASETS ? XfaDatasetsPacket.read(reader) : null;
+            final XfaForm xfaForm;
+            final Element existingDataNode;
+            final Document document;
+            if (datasetsPacket != null) {
+                xfaForm = null;
+                existingDataNode = datasetsPacket.dataNode();
+                document = existingDataNode.getOwnerDocument();
+            } else {
+                ResourceLimits.configured().checkXfa(reader);
+                xfaForm = new XfaForm(reader);
+                if (!xfaForm.isXfaPresent()) throw new InvalidXfaFormException();
+                existingDataNode = firstElementChild(xfaForm.getDatasetsNode());
+                document = xfaForm.getDomDocument();
+            }
+            RequestDeadline.check();
 
             // Existing shape: <xfa:datasets><xfa:data><formRoot>. Descend by element (not getFirstChild(), which
             // can be a whitespace text node) so we reliably reach the form-root.
-            final var existingFormRoot = firstElementChild(firstElementChild(xfaForm.getDatasetsNode()));
+            final var existingFormRoot = firstElementChild(existingDataNode);
+
+            // Incoming shape: data -> formRoot, the first node under the tree's root.
+            var incoming = data;
+            if (mapOntoTemplate && incoming.hasChildren(XfaDataTree.ROOT) && existingFormRoot != null) {
+                incoming = mapOntoTemplate(incoming, existingFormRoot);
+            }
+            final var incomingFormRoot = incoming.firstChild(XfaDataTree.ROOT);
+
+            // Checked before any merge or stamping, so a payload is rejected whole and the template is untouched.
+            final var validate = validatesAgainstTemplate();
+            final var fingerprint = validate || writeMode == WriteMode.PUT ? Fingerprints.sha256(pdfBytes) : null;
+            if (validate) {
+                validators(fingerprint, reader, existingFormRoot).validate(incoming);
+                RequestDeadline.check();
+            }
 
             final Node dataToWrite;
             if (writeMode == WriteMode.PUT) {
                 // PUT replaces the entire form, which is exactly what openpdf's fillXfaForm does with the incoming
-                // data. A caller who supplies no form-root (e.g. {"data":{}}) is asking to clear every field, so
-                // synthesize an empty form-root that reuses the template's form-root name; writing it replaces the
-                // populated subtree with an empty one. With no existing form-root either, there is nothing to clear.
-                if (incomingFormRoot != null) {
-                    dataToWrite = incomingFormRoot;
-                } else if (existingFormRoot != null) {
-                    dataToWrite = incomingDoc.createElement(localName(existingFormRoot));
+                // data. A caller who supplies no form-root (e.g. {"data":{}}) is asking to clear every field; with
+                // no existing form-root either, there is nothing to clear.
+                // When the template has data, the payload is laid over the template's blank skeleton instead, so
+                // that omitted fields are written present-but-empty rather than dropped.
+                final var skeleton = existingFormRoot == null ? null : SKELETONS.computeIfAbsent(
+                        fingerprint, key -> XfaDataSkeleton.of(existingFormRoot));
+                if (skeleton != null && (incomingFormRoot == XfaDataTree.NONE
+                        || skeleton.rootName().equals(incoming.name(incomingFormRoot)))) {
+                    dataToWrite = skeleton.fill(document, incoming, incomingFormRoot);
+                } else if (incomingFormRoot != XfaDataTree.NONE) {
+                    dataToWrite = incoming.toElement(document, incomingFormRoot);
                 } else {
                     dataToWrite = null;
                 }
+            } else if (incomingFormRoot == XfaDataTree.NONE) {
+                // PATCH: an empty incoming payload means "change nothing". PATCH is the only mode that merges against
+                // (and thus preserves) existing values; with no existing data there is nothing to merge against.
+                dataToWrite = null;
+            } else if (existingFormRoot == null) {
+                dataToWrite = incoming.toElement(document, incomingFormRoot);
             } else {
-                // PATCH: an empty incoming payload means "change nothing", so only merge when a form-root was
-                // provided. PATCH is the only mode that merges against (and thus preserves) existing values.
-                dataToWrite = incomingFormRoot != null
-                        ? mergeFormData(existingFormRoot, incomingFormRoot, patchMode) : null;
+                dataToWrite = mergeFormData(existingFormRoot, incoming, incomingFormRoot, patchMode);
+            }
+
+            if (dataToWrite == null) {
+                return new FillResult(pdfBytes, false);
+            }
+            RequestDeadline.check();
+
+            // The stamper serializes the whole document; a guarded stream bounds that by the deadline as well.
+            final var outputStream = new ByteArrayOutputStream();
+            try (final var pdfStamper = FillStamperFactory.open(reader, RequestDeadline.guard(outputStream),
+                    compressionProfile)) {
+                if (datasetsPacket != null) {
+                    datasetsPacket.replaceFormRoot(dataToWrite);
+                    datasetsPacket.write(reader, pdfStamper);
+                } else {
+                    xfaForm.fillXfaForm(dataToWrite);
+                    xfaForm.setXfa(pdfStamper.getWriter());
+                    FillStamperFactory.markAcroFormChanged(reader, pdfStamper);
+                }
             }
+            return new FillResult(outputStream.toByteArray(), true);
+        }
+    }
+
+    /**
+     * Checks form data against the rules of an XFA template without filling it: that every field it names exists in
+     * the template, and that every value fits the field's <code>maxChars</code>, picture clauses and choices. All
+     * fields in error are reported together. Fills make the same check before they write anything.
+     * <p>
+     * The rules are compiled from the template's <code>template</code> packet once per template and cached by its
+     * fingerprint, so a check costs one walk of the payload; see {@link XfaFieldValidators}. With
+     * <code>TEMPLATE_VALIDATION_ENABLED</code> off, the default, neither this nor a fill checks anything.
+     *
+     * @param pdfBytes     The XFA PDF.
+     * @param jsonFormData JSON object string of the form <code>{"data": { ... }}</code>.
+     * @throws FormDataValidationException  If the data breaks a rule of the template.
+     * @throws IOException                  If the PDF cannot be parsed.
+     * @throws ParserConfigurationException If the JSON-to-XML conversion cannot create an XML document.
+     * @throws SAXException                 If the converted form data cannot be parsed as XML.
+     */
+    public static void validateXfaFormData(final byte[] pdfBytes, final String jsonFormData)
+            throws IOException, ParserConfigurationException, SAXException {
+        validateXfaFormData(pdfBytes, DataFormatter.convertJsonToDataTree(jsonFormData), false);
+    }
+
+    /**
+     * Checks one payload against several XFA templates, as {@link #fillXfaFormsWithResult} lays it onto each (see
+     * {@link #mapOntoTemplate}): only the fields a template shares with the payload are checked against it.
+     *
+     * @param templates    The XFA PDFs.
+     * @param jsonFormData JSON object string of the form <code>{"data": { ... }}</code>.
+     * @throws FormDataValidationException  If the data breaks a rule of a template; the first such template is
+     *                                      reported.
+     * @throws IOException                  If a PDF cannot be parsed.
+     * @throws ParserConfigurationException If the JSON-to-XML conversion cannot create an XML document.
+     * @throws SAXException                 If the converted form data cannot be parsed as XML.
+     */
+    public static void validateXfaFormsData(final List<byte[]> templates, final String jsonFormData)
+            throws IOException, ParserConfigurationException, SAXException {
+        final var data = DataFormatter.convertJsonToDataTree(jsonFormData);
+        for (final var template : templates) {
+            validateXfaFormData(template, data, true);
+        }
+    }
+
+    private static void validateXfaFormData(final byte[] pdfBytes, final XfaDataTree data,
+                                            final boolean mapOntoTemplate) throws IOException {
+        if (!validatesAgainstTemplate()) {
+            return;
+        }
+        try (var reader = XfaDataReader.open(pdfBytes)) {
+            RequestDeadline.check();
+            final var existingFormRoot = firstElementChild(firstElementChild(XfaDataReader.datasetsNode(reader)));
+            var incoming = data;
+            if (mapOntoTemplate && incoming.hasChildren(XfaDataTree.ROOT) && existingFormRoot != null) {
+                incoming = mapOntoTemplate(incoming, existingFormRoot);
+            }
+            validators(Fingerprints.sha256(pdfBytes), reader, existingFormRoot).validate(incoming);
+        }
+    }
+
+    /**
+     * @return The rules of a template, compiled on the first request for it.
+     */
+    private static XfaFieldValidators validators(final String fingerprint, final PdfReader reader,
+                                                 final Element existingFormRoot) throws IOException {
+        return VALIDATORS.computeIfAbsent(fingerprint, key -> XfaFieldValidators.compile(reader, existingFormRoot));
+    }
+
+    /**
+     * Lays a payload shared by several forms onto one of them. The payload's form-root takes the template's
+     * form-root name, and every incoming node without a same-named counterpart in the template's data is dropped,
+     * so that a field of one form is never added to the data of a sibling that does not have it. Repeated nodes
+     * are all kept when the template has the name at all; their children are matched against its first instance.
+     * <p>
+     * The payload is shared by every template of the package, so the projection is a new tree rather than a change
+     * to it. Each container's existing children are indexed by name once, so the walk is linear in the size of both
+     * trees rather than scanning the siblings for every incoming node.
+     *
+     * @param incoming         The payload; its form-root is the first node under {@link XfaDataTree#ROOT}. Only read.
+     * @param existingFormRoot The template's current data form-root. It is only read.
+     * @return The payload as this template takes it: its form-root alone, named as the template's.
+     */
+    static XfaDataTree mapOntoTemplate(final XfaDataTree incoming, final Element existingFormRoot) {
+        final var projected = new XfaDataTree.Builder(incoming.name(XfaDataTree.ROOT));
+        final var incomingFormRoot = incoming.firstChild(XfaDataTree.ROOT);
+        projected.startElement(existingFormRoot.getNodeName());
+        if (incoming.hasChildren(incomingFormRoot)) {
+            retainKnown(incoming, incomingFormRoot, existingFormRoot, projected);
+        } else {
+            projected.value(incoming.value(incomingFormRoot));
+        }
+        projected.endElement();
+        return projected.build();
+    }
 
-            if (dataToWrite != null) {
-                xfaForm.fillXfaForm(dataToWrite);
+    private static void retainKnown(final XfaDataTree incoming, final int incomingParent,
+                                    final Node existingParent, final XfaDataTree.Builder projected) {
+        final Map<String, Element> existingByName = new HashMap<>();
+        for (var child = existingParent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                existingByName.putIfAbsent(localName(child), (Element) child);
+            }
+        }
+        for (var node = incoming.firstChild(incomingParent); node != XfaDataTree.NONE;
+             node = incoming.nextSibling(node)) {
+            RequestDeadline.checkInLoop();
+            final var counterpart = existingByName.get(incoming.name(node));
+            if (counterpart == null) {
+                continue;
+            }
+            if (incoming.hasChildren(node) && hasElementChild(counterpart)) {
+                projected.startElement(incoming.name(node));
+                retainKnown(incoming, node, counterpart, projected);
+                projected.endElement();
+            } else {
+                projected.append(incoming, node);
             }
         }
-        return outputStream.toByteArray();
     }
 
     /**
-     * Builds the data subtree to write into the form during a {@link WriteMode#PATCH}: a copy of the template's
-     * existing data with the incoming values applied according to <code>patchMode</code>. Fields absent from the
-     * incoming data are preserved.
+     * Builds the data subtree to write into the form during a {@link WriteMode#PATCH}: the template's existing data
+     * with the incoming values applied according to <code>patchMode</code>. Fields absent from the incoming data are
+     * preserved.
      * <p>
-     * <strong>Why we start from a clone of the existing data.</strong> Because openpdf's
-     * <code>fillXfaForm</code> replaces the entire form-root, the node we return must already contain the full,
-     * final state of the form. Cloning the template's current data gives us every existing field for free; we then
-     * overlay only the incoming values. This is also what makes the patch modes expressible: the merge can compare
-     * each incoming value against the existing one and decide whether to keep, replace, or reject it.
+     * <strong>Why we merge into the existing data.</strong> Because openpdf's <code>fillXfaForm</code> replaces the
+     * entire form-root, the node we return must already contain the full, final state of the form. Starting from the
+     * template's current data gives us every existing field for free; we then overlay only the incoming values. This
+     * is also what makes the patch modes expressible: the merge can compare each incoming value against the existing
+     * one and decide whether to keep, replace, or reject it.
      * <p>
-     * The clone (a deep copy) is used rather than mutating the live data node directly so that a
-     * {@link WriteConflictException} thrown partway through leaves the document untouched &mdash; the caller either
-     * gets a fully merged result or none at all.
+     * The existing data is changed in place. It belongs to the document parsed for this one fill, so nothing else
+     * sees it, and copying it first would be the largest allocation of the whole merge. The caller still gets a fully
+     * merged result or none at all: under {@link PatchMode#FAIL_ON_CONFLICT} a read-only pass finds any
+     * {@link WriteConflictException} before the first value is written, and the other modes cannot fail. A payload
+     * that restates the current values writes nothing and leaves the data as it was.
      *
-     * @param existingFormRoot The template's current data form-root, or <code>null</code> if the template has no
-     *                         data yet.
-     * @param incomingFormRoot The form-root parsed from the caller's JSON payload.
+     * @param existingFormRoot The template's current data form-root. It is modified.
+     * @param incoming         The caller's payload. It is only read.
+     * @param incomingFormRoot The payload's form-root.
      * @param patchMode        The per-field collision policy to apply.
-     * @return The form-root node to hand to <code>fillXfaForm</code>.
+     * @return <code>existingFormRoot</code>, to hand to <code>fillXfaForm</code>, or <code>null</code> if applying the
+     * incoming data would not change any value.
      */
-    private static Node mergeFormData(final Element existingFormRoot, final Element incomingFormRoot,
-                                      final PatchMode patchMode) {
-        if (existingFormRoot == null) {
-            // No existing data subtree to merge against; write the incoming data as-is.
-            return incomingFormRoot;
+    static Node mergeFormData(final Element existingFormRoot, final XfaDataTree incoming, final int incomingFormRoot,
+                              final PatchMode patchMode) {
+        if (patchMode == PatchMode.FAIL_ON_CONFLICT
+                && !applyIncoming(incoming, incomingFormRoot, existingFormRoot, patchMode, incomingFormRoot, false)) {
+            return null;
         }
-        final var mergedFormRoot = existingFormRoot.cloneNode(true);
-        applyIncoming(incomingFormRoot, mergedFormRoot, patchMode, localName(incomingFormRoot));
-        return mergedFormRoot;
+        final var changed = applyIncoming(incoming, incomingFormRoot, existingFormRoot, patchMode, incomingFormRoot,
+                true);
+        return changed ? existingFormRoot : null;
     }
 
     /**
@@ -258,71 +648,100 @@ public class RestPdfApi {
      * <strong>Why it recurses and matches by name.</strong> XFA data is a nested tree (for example
      * <code>form1 &rarr; Page1 &rarr; SSN</code>), and field identity is positional-by-name within that hierarchy,
      * not a flat key. Walking both trees together lets us line up each incoming field with its existing counterpart
-     * so the patch mode can be evaluated against the correct current value. The running <code>path</code> is carried
-     * purely so that a conflict can report <em>which</em> field failed (for example <code>form1/Page1/SSN</code>)
-     * without ever exposing the field's value.
+     * so the patch mode can be evaluated against the correct current value. A name repeated among siblings (the
+     * instances of a repeating subform, sent as repeated JSON properties) is paired by occurrence, as PUT lays them
+     * out and as {@link XfaDataComparator} compares them: the second incoming <code>Row</code> is merged into the
+     * second existing one, and an incoming instance beyond the existing ones is added. Each incoming node therefore
+     * meets its own existing counterpart, so the read-only pass sees exactly what the writing pass will. The base
+     * container's children are indexed by name once per container (see {@link #childElementsByName}), so pairing
+     * stays linear in the size of the container however wide a repeating subform is.
      * <p>
      * Nodes that exist only in the incoming payload are added wholesale: a brand-new field has no existing value, so
      * every patch mode treats it as a plain insert and no conflict is possible.
+     * <p>
+     * A leaf is only written when its trimmed value actually differs from the existing one, and the return value
+     * reports whether any write happened. That is what lets a PATCH that restates the current data skip re-stamping
+     * the document entirely. With <code>write</code> off the base is only read: the walk reports whether anything
+     * would change and throws on any conflict, without writing.
+     * <p>
+     * <strong>Why nothing is allocated per unchanged field.</strong> The walk visits every field of the payload, so
+     * its per-field cost is paid a thousand times on a large form. Values are compared in place
+     * ({@link XfaDataTree#sameTrimmedValue}) rather than trimmed into new strings, the trimmed value is only built for
+     * a field that is actually written, and the slash-delimited path a conflict reports (for example
+     * <code>form1/Page1/SSN</code>) is only assembled, from the incoming node's ancestors, when a conflict is thrown.
      *
-     * @param incomingParent The current node in the caller-supplied tree being copied from.
-     * @param baseParent     The corresponding node in the merge base being written to.
-     * @param patchMode      The per-field collision policy to apply.
-     * @param path           Slash-delimited field path to <code>incomingParent</code>, used only for conflict
-     *                       reporting.
+     * @param incoming         The caller-supplied tree being copied from.
+     * @param incomingParent   The current node in it.
+     * @param baseParent       The corresponding node in the merge base being written to.
+     * @param patchMode        The per-field collision policy to apply.
+     * @param incomingFormRoot The root of the incoming tree, where conflict paths start.
+     * @param write            Whether to change the base, or only check what would change.
+     * @return <code>true</code> if any node in the base was (or would be) added or changed.
      * @throws WriteConflictException If <code>patchMode</code> is {@link PatchMode#FAIL_ON_CONFLICT} and a leaf value
      *                                differs from a non-empty existing value.
      */
-    private static void applyIncoming(final Node incomingParent, final Node baseParent,
-                                      final PatchMode patchMode, final String path) {
-        final var incomingChildren = incomingParent.getChildNodes();
-        for (int i = 0; i < incomingChildren.getLength(); i++) {
-            final var node = incomingChildren.item(i);
-            if (node.getNodeType() != Node.ELEMENT_NODE) {
-                continue;
-            }
-            final var incomingChild = (Element) node;
-            final var name = localName(incomingChild);
-            final var childPath = path.isEmpty() ? name : path + "/" + name;
-            final var baseDoc = baseParent.getOwnerDocument();
-
-            if (hasElementChild(incomingChild)) {
-                final var baseChild = findChildElement(baseParent, name);
+    private static boolean applyIncoming(final XfaDataTree incoming, final int incomingParent,
+                                         final Node baseParent, final PatchMode patchMode,
+                                         final int incomingFormRoot, final boolean write) {
+        var changed = false;
+        final var baseDoc = baseParent.getOwnerDocument();
+        final var baseChildren = childElementsByName(baseParent);
+        for (var incomingChild = incoming.firstChild(incomingParent); incomingChild != XfaDataTree.NONE;
+             incomingChild = incoming.nextSibling(incomingChild)) {
+            RequestDeadline.checkInLoop();
+            final var name = incoming.name(incomingChild);
+            final var occurrence = incoming.occurrence(incomingChild);
+            final var instances = baseChildren.get(name);
+            final var baseChild = instances != null && occurrence < instances.size() ? instances.get(occurrence) : null;
+
+            if (incoming.hasChildren(incomingChild)) {
                 if (baseChild == null) {
-                    // Brand-new subtree with no existing counterpart: import it wholesale.
-                    baseParent.appendChild(baseDoc.importNode(incomingChild, true));
+                    // Brand-new subtree with no existing counterpart: write it wholesale.
+                    if (write) {
+                        addChildElement(baseParent, incoming.toElement(baseDoc, incomingChild), name, baseChildren);
+                    }
+                    changed = true;
                 } else {
-                    applyIncoming(incomingChild, baseChild, patchMode, childPath);
+                    changed |= applyIncoming(incoming, incomingChild, baseChild, patchMode, incomingFormRoot,
+                            write);
                 }
                 continue;
             }
 
-            final var incomingValue = textValue(incomingChild);
-            final var baseChild = findChildElement(baseParent, name);
             if (baseChild == null) {
                 // New leaf field with no existing value: apply the incoming value regardless of patch mode.
-                final var created = baseDoc.createElement(name);
-                created.setTextContent(incomingValue);
-                baseParent.appendChild(created);
+                if (write) {
+                    final var created = baseDoc.createElement(name);
+                    created.setTextContent(incoming.trimmedValue(incomingChild));
+                    addChildElement(baseParent, created, name, baseChildren);
+                }
+                changed = true;
                 continue;
             }
 
-            final var existingValue = textValue(baseChild);
-            switch (patchMode) {
-                case OVERWRITE -> baseChild.setTextContent(incomingValue);
-                case IF_EMPTY -> {
-                    if (existingValue.isEmpty()) {
-                        baseChild.setTextContent(incomingValue);
-                    }
-                }
+            final var existingText = baseChild.getTextContent();
+            if (incoming.sameTrimmedValue(incomingChild, existingText)) {
+                // Same value under every patch mode: nothing to write and nothing to conflict with.
+                continue;
+            }
+            final var overwrite = switch (patchMode) {
+                case OVERWRITE -> true;
+                case IF_EMPTY -> isEmptyTextValue(existingText);
                 case FAIL_ON_CONFLICT -> {
-                    if (!existingValue.isEmpty() && !existingValue.equals(incomingValue)) {
-                        throw new WriteConflictException(childPath);
+                    if (!isEmptyTextValue(existingText)) {
+                        throw new WriteConflictException(incoming.path(incomingChild, incomingFormRoot));
                     }
-                    baseChild.setTextContent(incomingValue);
+                    yield true;
                 }
+            };
+            if (overwrite) {
+                if (write) {
+                    baseChild.setTextContent(incoming.trimmedValue(incomingChild));
+                }
+                changed = true;
             }
         }
+        return changed;
     }
 
     /**
@@ -336,10 +755,9 @@ public class RestPdfApi {
      * @param node The node to inspect.
      * @return <code>true</code> if <code>node</code> has any element child, otherwise <code>false</code>.
      */
-    private static boolean hasElementChild(final Node node) {
-        final var children = node.getChildNodes();
-        for (int i = 0; i < children.getLength(); i++) {
-            if (children.item(i).getNodeType() == Node.ELEMENT_NODE) {
+    static boolean hasElementChild(final Node node) {
+        for (var child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
                 return true;
             }
         }
@@ -359,13 +777,11 @@ public class RestPdfApi {
      * @param node The parent node, or <code>null</code>.
      * @return The first element child, or <code>null</code> if <code>node</code> is <code>null</code> or has none.
      */
-    private static Element firstElementChild(final Node node) {
+    static Element firstElementChild(final Node node) {
         if (node == null) {
             return null;
         }
-        final var children = node.getChildNodes();
-        for (int i = 0; i < children.getLength(); i++) {
-            final var child = children.item(i);
+        for (var child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
             if (child.getNodeType() == Node.ELEMENT_NODE) {
                 return (Element) child;
             }
@@ -374,26 +790,46 @@ public class RestPdfApi {
     }
 
     /**
-     * Finds the first child element of <code>parent</code> whose name matches <code>name</code>.
+     * Adds an element the merge base does not have yet: a further instance of a repeated name goes right after the
+     * previous instance, so the instances stay together and in order; anything else goes last.
+     *
+     * @param parent   The container to add to.
+     * @param element  The new element.
+     * @param name     The element's (local) name.
+     * @param children The container's index (see {@link #childElementsByName}), which the element is added to.
+     */
+    private static void addChildElement(final Node parent, final Element element, final String name,
+                                        final Map<String, List<Element>> children) {
+        final var instances = children.computeIfAbsent(name, unused -> new ArrayList<>(1));
+        if (instances.isEmpty()) {
+            parent.appendChild(element);
+        } else {
+            parent.insertBefore(element, instances.getLast().getNextSibling());
+        }
+        instances.add(element);
+    }
+
+    /**
+     * Indexes the child elements of <code>parent</code> by {@link #localName(Node) local name}, each name's instances
+     * in document order, so that the <em>k</em>-th occurrence of a name is the <em>k</em>-th element of its list.
      * <p>
      * This is the parallel-walk lookup that pairs an incoming field with its existing counterpart in the merge base.
-     * Matching is done on {@link #localName(Node) local name} so that namespace-prefix differences between the two
-     * documents do not prevent a match. A <code>null</code> result means the field does not yet exist in the base,
-     * which the merge treats as a plain insert.
+     * Matching on local name means namespace-prefix differences between the two documents do not prevent a match; a
+     * missing name or occurrence means the field does not yet exist in the base, which the merge treats as a plain
+     * insert. Scanning the siblings for every incoming child instead would be quadratic on a wide container, such as
+     * a table of a few hundred rows, and the index costs one pass over the children.
      *
-     * @param parent The container whose children are searched.
-     * @param name   The (local) element name to match.
-     * @return The matching child element, or <code>null</code> if none matches.
+     * @param parent The container whose children are indexed.
+     * @return Child elements by local name.
      */
-    private static Element findChildElement(final Node parent, final String name) {
-        final var children = parent.getChildNodes();
-        for (int i = 0; i < children.getLength(); i++) {
-            final var child = children.item(i);
-            if (child.getNodeType() == Node.ELEMENT_NODE && localName(child).equals(name)) {
-                return (Element) child;
+    private static Map<String, List<Element>> childElementsByName(final Node parent) {
+        final Map<String, List<Element>> children = new HashMap<>();
+        for (var child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                children.computeIfAbsent(localName(child), unused -> new ArrayList<>(1)).add((Element) child);
             }
         }
-        return null;
+        return children;
     }
 
     /**
@@ -407,24 +843,49 @@ public class RestPdfApi {
      * @param node The node to name.
      * @return The node's local name, or its qualified node name when no local name is available.
      */
-    private static String localName(final Node node) {
+    static String localName(final Node node) {
         final var localName = node.getLocalName();
         return localName != null ? localName : node.getNodeName();
     }
 
     /**
-     * Returns the trimmed text content of a node, or an empty string when it has none.
+     * Reports whether a raw text content is empty once trimmed, without trimming it.
      * <p>
      * Patch-mode decisions hinge on whether a target is "empty" and on comparing the incoming value to the existing
      * one, so the values must be normalized first. Trimming ensures that insignificant surrounding whitespace (often
      * introduced by XML formatting) neither makes an otherwise-empty field look populated nor causes two equal
-     * values to register as a conflict. Guarding against <code>null</code> keeps the comparisons total.
-     *
-     * @param node The node whose value is read.
-     * @return The trimmed text content, never <code>null</code>.
+     * values to register as a conflict (see {@link XfaDataTree#sameTrimmedValue}). <code>null</code> counts as empty.
+     */
+    private static boolean isEmptyTextValue(final String text) {
+        final var start = trimStart(text);
+        return trimEnd(text, start) == start;
+    }
+
+    /**
+     * @return The index of the first character {@link String#trim()} would keep, or the length if it keeps none.
      */
-    private static String textValue(final Node node) {
-        final var text = node.getTextContent();
-        return text == null ? "" : text.trim();
+    private static int trimStart(final String text) {
+        if (text == null) {
+            return 0;
+        }
+        var start = 0;
+        while (start < text.length() && text.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * @return One past the index of the last character {@link String#trim()} would keep, at least <code>start</code>.
+     */
+    private static int trimEnd(final String text, final int start) {
+        if (text == null) {
+            return 0;
+        }
+        var end = text.length();
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
     }
 }
@@ -0,0 +1,156 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import app.djk.RestPdfFormFiller.execution.PipelineExecutor;
+import app.djk.RestPdfFormFiller.execution.RequestDeadline;
+import app.djk.RestPdfFormFiller.projectExceptions.InvalidXfaFormException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Compares the form data of two XFA PDFs (typically two revisions of the same form) field by field.
+ * <p>
+ * <strong>Why it walks the trees itself.</strong> A client-side diff of two <code>GetXfaData</code> results costs
+ * two round trips, two JSON conversions, and a generic JSON diff that knows nothing about how XFA identifies a
+ * field. Here both datasets are extracted in parallel, each copied into a compact {@link XfaDataTree} as soon as it
+ * is read (so the two documents' DOMs are released before the comparison starts), and the two trees are walked
+ * together exactly once, pairing nodes by local name just as the PATCH merge does, so "changed" means the same thing
+ * to a reviewer as it does to a fill.
+ * <p>
+ * <strong>Why it stays linear.</strong> Scanning the siblings for every lookup would be quadratic when every field
+ * of a large form is paired. Instead, as in the PATCH merge, each container's revised children are indexed by name
+ * once, and the <em>k</em>-th occurrence of a name on one side is paired with the <em>k</em>-th occurrence on the
+ * other (repeated rows and subforms are therefore compared positionally). Every element is visited once, so the
+ * cost is proportional to the size of the two trees.
+ * <p>
+ * Only paths are reported, never values, for the same reason a write conflict names the field but not its content.
+ */
+public class XfaDataComparator {
+
+    private XfaDataComparator() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Result of a comparison. Paths are slash-delimited from the form-root (for example
+     * <code>form1/Page1/SSN</code>); a repeated element is addressed by its zero-based occurrence among same-named
+     * siblings (for example <code>form1/Table/Row[1]/Amount</code>), with the first occurrence left unindexed. An
+     * added or removed container is reported once by its own path rather than once per field inside it.
+     *
+     * @param changed Fields present in both documents whose values differ, or whose shape differs (a field in one
+     *                document is a container in the other).
+     * @param added   Fields or containers present only in the revised document.
+     * @param removed Fields or containers present only in the base document.
+     */
+    public record XfaDataDiff(List<String> changed, List<String> added, List<String> removed) {
+    }
+
+    /**
+     * Compares the form data of two XFA PDFs. The two documents are parsed concurrently on the CPU stage of the
+     * {@link PipelineExecutor}.
+     *
+     * @param basePdfBytes    The earlier revision.
+     * @param revisedPdfBytes The later revision.
+     * @return The field paths that differ between the two.
+     * @throws InvalidXfaFormException If either PDF is not an XFA form.
+     * @throws Exception               If either PDF cannot be parsed; the first failure is rethrown as-is.
+     */
+    public static XfaDataDiff compare(final byte[] basePdfBytes, final byte[] revisedPdfBytes) throws Exception {
+        final List<Callable<XfaDataTree>> extractions = List.of(
+                () -> XfaDataReader.dataTree(basePdfBytes),
+                () -> XfaDataReader.dataTree(revisedPdfBytes));
+        final var data = PipelineExecutor.shared().invokeAll(PipelineExecutor.Stage.CPU, extractions);
+        return compareData(data.get(0), data.get(1));
+    }
+
+    /**
+     * Compares the data of two documents (each typically the copy of an <code>&lt;xfa:data&gt;</code> element) and
+     * reports the differences between the descendants of their roots.
+     *
+     * @param base    The earlier data, or <code>null</code> if it has none.
+     * @param revised The later data, or <code>null</code> if it has none.
+     * @return The field paths that differ between the two.
+     */
+    static XfaDataDiff compareData(final XfaDataTree base, final XfaDataTree revised) {
+        final var diff = new XfaDataDiff(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        if (base != null && revised != null) {
+            compareChildren(base, XfaDataTree.ROOT, revised, XfaDataTree.ROOT, "", diff);
+        } else if (base != null) {
+            forEachChildPath(base, XfaDataTree.ROOT, "", diff.removed());
+        } else if (revised != null) {
+            forEachChildPath(revised, XfaDataTree.ROOT, "", diff.added());
+        }
+        return diff;
+    }
+
+    private static void compareChildren(final XfaDataTree base, final int baseParent, final XfaDataTree revised,
+                                        final int revisedParent, final String path, final XfaDataDiff diff) {
+        // Index the revised side once: name -> nodes in document order.
+        final Map<String, List<Integer>> revisedByName = new HashMap<>();
+        final List<String> revisedNames = new ArrayList<>();
+        for (var child = revised.firstChild(revisedParent); child != XfaDataTree.NONE;
+             child = revised.nextSibling(child)) {
+            final var name = revised.name(child);
+            revisedByName.computeIfAbsent(name, unused -> {
+                revisedNames.add(name);
+                return new ArrayList<>();
+            }).add(child);
+        }
+
+        // Walk the base side, pairing the k-th occurrence of each name with the k-th on the revised side.
+        final Map<String, Integer> occurrences = new HashMap<>();
+        for (var baseChild = base.firstChild(baseParent); baseChild != XfaDataTree.NONE;
+             baseChild = base.nextSibling(baseChild)) {
+            RequestDeadline.checkInLoop();
+            final var name = base.name(baseChild);
+            final int occurrence = occurrences.merge(name, 1, Integer::sum) - 1;
+            final var childPath = childPath(path, name, occurrence);
+            final var candidates = revisedByName.get(name);
+            if (candidates == null || occurrence >= candidates.size()) {
+                diff.removed().add(childPath);
+            } else {
+                compareNodes(base, baseChild, revised, candidates.get(occurrence), childPath, diff);
+            }
+        }
+
+        // Whatever the base side did not consume exists only in the revision.
+        for (final var name : revisedNames) {
+            final var candidates = revisedByName.get(name);
+            for (int occurrence = occurrences.getOrDefault(name, 0); occurrence < candidates.size(); occurrence++) {
+                diff.added().add(childPath(path, name, occurrence));
+            }
+        }
+    }
+
+    private static void compareNodes(final XfaDataTree base, final int baseNode, final XfaDataTree revised,
+                                     final int revisedNode, final String path, final XfaDataDiff diff) {
+        final var baseIsContainer = base.hasChildren(baseNode);
+        final var revisedIsContainer = revised.hasChildren(revisedNode);
+        if (baseIsContainer && revisedIsContainer) {
+            compareChildren(base, baseNode, revised, revisedNode, path, diff);
+        } else if (baseIsContainer != revisedIsContainer
+                || !base.sameTrimmedValue(baseNode, revised, revisedNode)) {
+            diff.changed().add(path);
+        }
+    }
+
+    private static void forEachChildPath(final XfaDataTree tree, final int parent, final String path,
+                                         final List<String> paths) {
+        final Map<String, Integer> occurrences = new HashMap<>();
+        for (var child = tree.firstChild(parent); child != XfaDataTree.NONE; child = tree.nextSibling(child)) {
+            final var name = tree.name(child);
+            paths.add(childPath(path, name, occurrences.merge(name, 1, Integer::sum) - 1));
+        }
+    }
+
+    /**
+     * @return The path of the <code>occurrence</code>-th (zero-based) child of that name below <code>path</code>.
+     */
+    static String childPath(final String path, final String name, final int occurrence) {
+        final var segment = occurrence == 0 ? name : name + "[" + occurrence + "]";
+        return path.isEmpty() ? segment : path + "/" + segment;
+    }
+}
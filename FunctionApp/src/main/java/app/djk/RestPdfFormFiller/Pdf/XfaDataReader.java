@@ -0,0 +1,108 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import app.djk.RestPdfFormFiller.execution.RequestDeadline;
+import app.djk.RestPdfFormFiller.projectExceptions.InvalidXfaFormException;
+import org.openpdf.text.pdf.PdfReader;
+import org.openpdf.text.pdf.RandomAccessFileOrArray;
+import org.openpdf.text.pdf.XfaForm;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+
+/**
+ * Reads a form's XFA datasets without loading the rest of the document.
+ * <p>
+ * <strong>Why partial reading.</strong> <code>new PdfReader(bytes)</code> parses every object of the file up front
+ * and, for an encrypted form (owner-password protected or reader-extended, like the sample DA 4187), decrypts every
+ * string in it; <code>AcroFields.getXfa()</code> then inflates and parses every XFA packet and walks every widget.
+ * The read endpoints need none of that: they only return the datasets. A reader opened in openpdf's partial mode
+ * reads just the cross-reference data and the encryption dictionary, and resolves objects as they are asked for, so
+ * reading the datasets touches the catalog, the AcroForm, the <code>/XFA</code> array and the one datasets stream,
+ * and decrypts only those. Forms that keep their XFA in a single stream fall back to {@link XfaForm} on the same
+ * reader, which reads what it needs the same way.
+ * <p>
+ * The fill path does not use this: a stamper rewrites (or, in append mode, re-reads) the objects it writes from the
+ * reader, and a partial reader does not keep the changes made to them.
+ */
+final class XfaDataReader {
+
+    private XfaDataReader() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Opens a PDF in partial mode. Encrypted documents open without a password as long as their user password is
+     * empty, which is the case for owner-password protection and for usage rights.
+     *
+     * @param pdfBytes The PDF.
+     * @return The reader; the caller closes it.
+     * @throws IOException If the document cannot be parsed or decrypted.
+     */
+    static PdfReader open(final byte[] pdfBytes) throws IOException {
+        return new PdfReader(new RandomAccessFileOrArray(pdfBytes), null);
+    }
+
+    /**
+     * @param reader The source PDF.
+     * @return The <code>&lt;xfa:datasets&gt;</code> element, or <code>null</code> if the document has no XFA
+     * datasets.
+     * @throws IOException If a stream of the document cannot be read, or its XFA does not parse.
+     */
+    static Node datasetsNode(final PdfReader reader) throws IOException {
+        final var packet = readPacket(reader);
+        return packet != null ? packet.dataNode().getParentNode() : xfaForm(reader).getDatasetsNode();
+    }
+
+    /**
+     * Reads a PDF's XFA datasets and returns a copy of its <code>&lt;xfa:data&gt;</code> element. Only the datasets
+     * are needed, so the document is opened in partial mode and nothing else is read (or decrypted).
+     *
+     * @param pdfBytes The PDF.
+     * @return The data, or <code>null</code> if the datasets have no data element.
+     * @throws InvalidXfaFormException If the PDF has no XFA datasets.
+     * @throws IOException             If the document cannot be parsed, or its XFA does not parse.
+     */
+    static XfaDataTree dataTree(final byte[] pdfBytes) throws IOException {
+        try (final var reader = open(pdfBytes)) {
+            final var datasetsNode = datasetsNode(reader);
+            if (datasetsNode == null) throw new InvalidXfaFormException();
+            RequestDeadline.check();
+            final var dataNode = RestPdfApi.firstElementChild(datasetsNode);
+            return dataNode == null ? null : XfaDataTree.of(dataNode);
+        }
+    }
+
+    /**
+     * @param reader The source PDF.
+     * @return <code>true</code> if the document carries XFA.
+     * @throws IOException If a stream of the document cannot be read, or its XFA does not parse.
+     */
+    static boolean isXfaPresent(final PdfReader reader) throws IOException {
+        return readPacket(reader) != null || xfaForm(reader).isXfaPresent();
+    }
+
+    /**
+     * openpdf's whole-XFA reader. A parse failure is reported as an <code>IOException</code>: the XFA is part of the
+     * caller's document, like any other part of it that cannot be read. It is checked against the
+     * {@link ResourceLimits} first, since <code>XfaForm</code> parses it whole.
+     */
+    private static XfaForm xfaForm(final PdfReader reader) throws IOException {
+        ResourceLimits.configured().checkXfa(reader);
+        try {
+            return new XfaForm(reader);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Cannot parse the XFA of the document.", e);
+        }
+    }
+
+    private static XfaDatasetsPacket readPacket(final PdfReader reader) throws IOException {
+        try {
+            return XfaDatasetsPacket.read(reader);
+        } catch (ParserConfigurationException e) {
+            // No standalone parser for the packet; XfaForm builds its own.
+            return null;
+        }
+    }
+}
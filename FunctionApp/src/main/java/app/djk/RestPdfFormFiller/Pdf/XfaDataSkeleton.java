@@ -0,0 +1,234 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import app.djk.RestPdfFormFiller.cache.TemplateArtifactCache;
+import app.djk.RestPdfFormFiller.execution.RequestDeadline;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The blank shape of a template's data: every data group and field of its form-root, with attributes kept and all
+ * values removed.
+ * <p>
+ * <strong>Why a skeleton.</strong> A {@link WriteMode#PUT} replaces the whole form, so its result only depends on
+ * the template's <em>shape</em> and the caller's values, never on the values the template happened to carry. The
+ * skeleton is derived once per template (see {@link RestPdfApi#fillXfaFormWithResult}) and every PUT then builds its
+ * data by walking the skeleton and the payload side by side, which costs one pass over each rather than a deep clone
+ * and a name search per field. Writing the skeleton rather than the bare payload also keeps every field the caller
+ * left out present (and empty) in the output, as a form designer would have saved it.
+ * <p>
+ * The skeleton is an immutable tree of its own rather than a DOM: DOM implementations are not safe for concurrent
+ * use (Xerces mutates internal caches even on reads), and the skeleton is shared by every request for the template.
+ * Repeated siblings of the same name (instances of a repeating subform) collapse into the first one, which then
+ * serves as the blank prototype for as many instances as a payload supplies.
+ * <p>
+ * For the shared cache tier the skeleton has a compact binary form ({@link #CODEC}): a version byte, then the tree
+ * depth first with counts ahead of attributes and children. Names are kept as written, so a skeleton read back fills
+ * exactly as the one that was stored.
+ */
+final class XfaDataSkeleton {
+
+    /**
+     * Serializes skeletons for the shared cache tier. A change to the format must change {@link #FORMAT_VERSION},
+     * so that older values are decoded as misses rather than misread.
+     */
+    static final TemplateArtifactCache.Codec<XfaDataSkeleton> CODEC = new TemplateArtifactCache.Codec<>() {
+        @Override
+        public byte[] encode(final XfaDataSkeleton skeleton) {
+            final var bytes = new ByteArrayOutputStream();
+            try (final var out = new DataOutputStream(bytes)) {
+                out.writeByte(FORMAT_VERSION);
+                write(out, skeleton.root);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public XfaDataSkeleton decode(final byte[] bytes) throws IOException {
+            try (final var in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+                if (in.readByte() != FORMAT_VERSION) {
+                    throw new IOException("Unsupported skeleton format.");
+                }
+                final var root = read(in);
+                if (in.read() != -1) {
+                    throw new IOException("Trailing bytes after skeleton.");
+                }
+                return new XfaDataSkeleton(root);
+            }
+        }
+    };
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private final Item root;
+
+    private XfaDataSkeleton(final Item root) {
+        this.root = root;
+    }
+
+    /**
+     * Derives the skeleton of a data form-root. The form-root is only read.
+     *
+     * @param formRoot The template's data form-root (the element under <code>&lt;xfa:data&gt;</code>).
+     * @return The skeleton.
+     */
+    static XfaDataSkeleton of(final Element formRoot) {
+        return new XfaDataSkeleton(blank(formRoot));
+    }
+
+    /**
+     * @return The name of the form-root the skeleton was derived from.
+     */
+    String rootName() {
+        return root.name();
+    }
+
+    /**
+     * Builds the data to write for a {@link WriteMode#PUT}: the skeleton with the incoming values in place.
+     * <ul>
+     *   <li>Incoming nodes are paired with the skeleton's children of the same name, in order. Every instance of a
+     *       name is placed where the skeleton has that name, each built from the same blank prototype.</li>
+     *   <li>An incoming field replaces the value of its counterpart; an incoming group is merged recursively.</li>
+     *   <li>Incoming nodes the template does not know are appended as they are, after the known ones.</li>
+     *   <li>Skeleton children the payload does not mention are written blank.</li>
+     * </ul>
+     *
+     * @param document         Document to create the data in.
+     * @param incoming         The payload.
+     * @param incomingFormRoot The form-root of the payload, or {@link XfaDataTree#NONE} to write the blank skeleton.
+     * @return The form-root to hand to <code>fillXfaForm</code>.
+     */
+    Element fill(final Document document, final XfaDataTree incoming, final int incomingFormRoot) {
+        return build(document, root, incoming, incomingFormRoot);
+    }
+
+    private static Element build(final Document document, final Item item, final XfaDataTree incoming,
+                                 final int node) {
+        RequestDeadline.checkInLoop();
+        final var element = document.createElementNS(item.namespaceUri(), item.name());
+        for (final var attribute : item.attributes()) {
+            element.setAttributeNS(attribute.namespaceUri(), attribute.name(), attribute.value());
+        }
+        if (node == XfaDataTree.NONE) {
+            for (final var child : item.children()) {
+                element.appendChild(build(document, child, incoming, XfaDataTree.NONE));
+            }
+            return element;
+        }
+
+        if (!incoming.hasChildren(node)) {
+            final var value = incoming.value(node);
+            if (!value.isEmpty()) {
+                element.setTextContent(value);
+            }
+            return element;
+        }
+
+        // Group the payload's children by name so each skeleton child finds all its instances in one lookup.
+        final var incomingByName = new LinkedHashMap<String, List<Integer>>();
+        for (var child = incoming.firstChild(node); child != XfaDataTree.NONE; child = incoming.nextSibling(child)) {
+            incomingByName.computeIfAbsent(incoming.name(child), name -> new ArrayList<>(1)).add(child);
+        }
+        for (final var child : item.children()) {
+            final var instances = incomingByName.remove(child.name());
+            if (instances == null) {
+                element.appendChild(build(document, child, incoming, XfaDataTree.NONE));
+            } else {
+                for (final var instance : instances) {
+                    element.appendChild(build(document, child, incoming, instance));
+                }
+            }
+        }
+        for (final var unknown : incomingByName.values()) {
+            for (final var instance : unknown) {
+                element.appendChild(incoming.toElement(document, instance));
+            }
+        }
+        return element;
+    }
+
+    private static Item blank(final Element element) {
+        final var attributes = new ArrayList<Attribute>();
+        final var domAttributes = element.getAttributes();
+        for (var i = 0; i < domAttributes.getLength(); i++) {
+            final var attribute = domAttributes.item(i);
+            attributes.add(new Attribute(attribute.getNamespaceURI(), attribute.getNodeName(),
+                    attribute.getNodeValue()));
+        }
+        final var children = new LinkedHashMap<String, Item>();
+        for (var child = RestPdfApi.firstElementChild(element); child != null; child = nextElementSibling(child)) {
+            if (!children.containsKey(child.getNodeName())) {
+                children.put(child.getNodeName(), blank(child));
+            }
+        }
+        return new Item(element.getNamespaceURI(), element.getNodeName(), List.copyOf(attributes),
+                List.copyOf(children.values()));
+    }
+
+    private static void write(final DataOutputStream out, final Item item) throws IOException {
+        writeNullable(out, item.namespaceUri());
+        out.writeUTF(item.name());
+        out.writeInt(item.attributes().size());
+        for (final var attribute : item.attributes()) {
+            writeNullable(out, attribute.namespaceUri());
+            out.writeUTF(attribute.name());
+            out.writeUTF(attribute.value());
+        }
+        out.writeInt(item.children().size());
+        for (final var child : item.children()) {
+            write(out, child);
+        }
+    }
+
+    private static Item read(final DataInputStream in) throws IOException {
+        final var namespaceUri = readNullable(in);
+        final var name = in.readUTF();
+        final var attributes = new ArrayList<Attribute>();
+        for (var i = in.readInt(); i > 0; i--) {
+            attributes.add(new Attribute(readNullable(in), in.readUTF(), in.readUTF()));
+        }
+        final var children = new ArrayList<Item>();
+        for (var i = in.readInt(); i > 0; i--) {
+            children.add(read(in));
+        }
+        return new Item(namespaceUri, name, List.copyOf(attributes), List.copyOf(children));
+    }
+
+    private static void writeNullable(final DataOutputStream out, final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static Element nextElementSibling(final Node node) {
+        for (var sibling = node.getNextSibling(); sibling != null; sibling = sibling.getNextSibling()) {
+            if (sibling instanceof Element element) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private record Item(String namespaceUri, String name, List<Attribute> attributes, List<Item> children) {
+    }
+
+    private record Attribute(String namespaceUri, String name, String value) {
+    }
+}
@@ -0,0 +1,454 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import app.djk.RestPdfFormFiller.execution.RequestDeadline;
+import app.djk.RestPdfFormFiller.projectExceptions.NestingTooDeepException;
+import app.djk.RestPdfFormFiller.projectExceptions.PayloadTooLargeException;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, immutable tree of XFA form data: a container node whose descendants are data groups (nodes with
+ * children) and fields (nodes without, holding a value).
+ * <p>
+ * <strong>Why not a DOM.</strong> A payload only lives for one fill, but while it does every field of it is a DOM
+ * element and a text node: two objects with their own name, owner, sibling and parent references, a
+ * <code>NodeList</code> cache, and a <code>String</code> per value and per element name. On a large form that is
+ * hundreds of bytes per field, for data that is only ever read. Here a node is an index into parallel
+ * <code>int</code> arrays (name, parent, first child, next sibling, value offsets), each distinct field name is held
+ * once in a name table, and all values share one flat string. The tree is built without ever creating a DOM node,
+ * straight from the JSON payload ({@link DataFormatter#convertJsonToDataTree}) or from an existing DOM, and is turned
+ * into DOM only at the openpdf boundary, for the nodes that are actually written ({@link #toElement}).
+ * <p>
+ * Being immutable, one tree can be read by several threads at once, which is how a package fill shares one payload
+ * between its templates.
+ * <p>
+ * Nodes are numbered in document order from {@link #ROOT}; {@link #NONE} stands for "no node". Names are local names:
+ * attributes and namespaces are not kept, since the payload has neither and the comparisons made on a tree from a
+ * DOM match fields by local name anyway.
+ */
+final class XfaDataTree {
+
+    /**
+     * The container node every tree has.
+     */
+    static final int ROOT = 0;
+
+    /**
+     * Returned where there is no such node.
+     */
+    static final int NONE = -1;
+
+    private final String[] nameTable;
+    private final int[] names;
+    private final int[] parents;
+    private final int[] firstChildren;
+    private final int[] nextSiblings;
+    private final int[] valueStarts;
+    private final int[] valueEnds;
+    private final String values;
+
+    private XfaDataTree(final Builder builder) {
+        final var size = builder.size;
+        this.nameTable = builder.nameTable.toArray(String[]::new);
+        this.names = Arrays.copyOf(builder.names, size);
+        this.parents = Arrays.copyOf(builder.parents, size);
+        this.firstChildren = Arrays.copyOf(builder.firstChildren, size);
+        this.nextSiblings = Arrays.copyOf(builder.nextSiblings, size);
+        this.valueStarts = Arrays.copyOf(builder.valueStarts, size);
+        this.valueEnds = Arrays.copyOf(builder.valueEnds, size);
+        this.values = builder.values.toString();
+    }
+
+    /**
+     * Copies a DOM container (such as an <code>&lt;xfa:data&gt;</code> element or a form-root) into a tree. An element
+     * with child elements becomes a data group and its text is ignored; any other element becomes a field holding its
+     * text content. The DOM is only read.
+     *
+     * @param container The element to copy; it becomes {@link #ROOT}.
+     * @return The tree.
+     */
+    static XfaDataTree of(final Node container) {
+        final var builder = new Builder(RestPdfApi.localName(container));
+        copyChildren(container, builder);
+        return builder.build();
+    }
+
+    private static void copyChildren(final Node parent, final Builder builder) {
+        for (var child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            RequestDeadline.checkInLoop();
+            builder.startElement(RestPdfApi.localName(child));
+            if (RestPdfApi.hasElementChild(child)) {
+                copyChildren(child, builder);
+            } else {
+                builder.value(child.getTextContent());
+            }
+            builder.endElement();
+        }
+    }
+
+    /**
+     * @return The number of nodes, including {@link #ROOT}.
+     */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * @return The local name of the node.
+     */
+    String name(final int node) {
+        return nameTable[names[node]];
+    }
+
+    /**
+     * @return The parent of the node, or {@link #NONE} for {@link #ROOT}.
+     */
+    int parent(final int node) {
+        return parents[node];
+    }
+
+    /**
+     * @return The first child of the node, or {@link #NONE} if it has none (it is a field).
+     */
+    int firstChild(final int node) {
+        return firstChildren[node];
+    }
+
+    /**
+     * @return The next sibling of the node, or {@link #NONE} if it is the last child.
+     */
+    int nextSibling(final int node) {
+        return nextSiblings[node];
+    }
+
+    /**
+     * @return How many earlier siblings of the node have its name: <code>0</code> for the first (or only) instance of
+     * a repeated data group or field, <code>1</code> for the second, and so on.
+     */
+    int occurrence(final int node) {
+        final var parent = parents[node];
+        if (parent == NONE) {
+            return 0;
+        }
+        var occurrence = 0;
+        for (var sibling = firstChildren[parent]; sibling != node; sibling = nextSiblings[sibling]) {
+            if (names[sibling] == names[node]) {
+                occurrence++;
+            }
+        }
+        return occurrence;
+    }
+
+    /**
+     * @return <code>true</code> if the node has children, which makes it a data group rather than a field.
+     */
+    boolean hasChildren(final int node) {
+        return firstChildren[node] != NONE;
+    }
+
+    /**
+     * @return The value of a field as given (empty for a data group or a field without a value). Builds a string.
+     */
+    String value(final int node) {
+        return values.substring(valueStarts[node], valueEnds[node]);
+    }
+
+    /**
+     * @return The value with surrounding whitespace removed, as {@link String#trim()} does.
+     */
+    String trimmedValue(final int node) {
+        final var start = trimStart(values, valueStarts[node], valueEnds[node]);
+        return values.substring(start, trimEnd(values, start, valueEnds[node]));
+    }
+
+    /**
+     * Compares the trimmed value of a field with a trimmed string in place, without building either trimmed value.
+     *
+     * @param node  The field.
+     * @param other The string to compare with, or <code>null</code> for an empty value.
+     * @return <code>true</code> if the trimmed values are equal.
+     */
+    boolean sameTrimmedValue(final int node, final String other) {
+        final var start = trimStart(values, valueStarts[node], valueEnds[node]);
+        final var length = trimEnd(values, start, valueEnds[node]) - start;
+        if (other == null) {
+            return length == 0;
+        }
+        final var otherStart = trimStart(other, 0, other.length());
+        return length == trimEnd(other, otherStart, other.length()) - otherStart
+                && (length == 0 || values.regionMatches(start, other, otherStart, length));
+    }
+
+    /**
+     * Compares the trimmed values of a field of this tree and a field of another in place.
+     */
+    boolean sameTrimmedValue(final int node, final XfaDataTree other, final int otherNode) {
+        final var start = trimStart(values, valueStarts[node], valueEnds[node]);
+        final var length = trimEnd(values, start, valueEnds[node]) - start;
+        final var otherStart = trimStart(other.values, other.valueStarts[otherNode], other.valueEnds[otherNode]);
+        return length == trimEnd(other.values, otherStart, other.valueEnds[otherNode]) - otherStart
+                && (length == 0 || values.regionMatches(start, other.values, otherStart, length));
+    }
+
+    /**
+     * Builds the DOM of a node and its descendants: the only place a tree becomes DOM.
+     *
+     * @param document The document to create the elements in.
+     * @param node     The node to convert.
+     * @return A new element, not yet attached.
+     */
+    Element toElement(final Document document, final int node) {
+        return toElement(document, node, name(node));
+    }
+
+    /**
+     * As {@link #toElement(Document, int)}, under another name (such as the namespaced name of the element it
+     * replaces).
+     */
+    Element toElement(final Document document, final int node, final String elementName) {
+        final var element = document.createElement(elementName);
+        if (!hasChildren(node)) {
+            if (valueEnds[node] > valueStarts[node]) {
+                element.appendChild(document.createTextNode(value(node)));
+            }
+            return element;
+        }
+        for (var child = firstChild(node); child != NONE; child = nextSibling(child)) {
+            element.appendChild(toElement(document, child));
+        }
+        return element;
+    }
+
+    /**
+     * @return The slash-delimited path of a node from a given ancestor down, for example <code>form1/Page1/SSN</code>.
+     */
+    String path(final int node, final int from) {
+        final var segments = new ArrayList<String>();
+        for (var current = node; current != NONE; current = parent(current)) {
+            segments.add(name(current));
+            if (current == from) {
+                break;
+            }
+        }
+        final var path = new StringBuilder();
+        for (var i = segments.size() - 1; i >= 0; i--) {
+            path.append(segments.get(i)).append(i == 0 ? "" : "/");
+        }
+        return path.toString();
+    }
+
+    private static int trimStart(final String text, final int start, final int end) {
+        var position = start;
+        while (position < end && text.charAt(position) <= ' ') {
+            position++;
+        }
+        return position;
+    }
+
+    private static int trimEnd(final String text, final int start, final int end) {
+        var position = end;
+        while (position > start && text.charAt(position - 1) <= ' ') {
+            position--;
+        }
+        return position;
+    }
+
+    /**
+     * Builds a tree in document order: {@link #startElement} a node, give it either children or a {@link #value},
+     * then {@link #endElement}. Not thread-safe; the tree it builds is.
+     * <p>
+     * The builder enforces the {@link ResourceLimits} on element count and depth as each node starts, so form data
+     * over a limit is rejected before it is held, and before any recursive walk meets its depth.
+     */
+    static final class Builder {
+        private static final String WHAT = "The form data";
+
+        private final ResourceLimits limits;
+        private final List<String> nameTable = new ArrayList<>();
+        private final Map<String, Integer> nameIds = new HashMap<>();
+        private final StringBuilder values = new StringBuilder();
+        private int[] names = new int[64];
+        private int[] parents = new int[64];
+        private int[] firstChildren = new int[64];
+        private int[] nextSiblings = new int[64];
+        private int[] valueStarts = new int[64];
+        private int[] valueEnds = new int[64];
+        private int[] lastChildren = new int[64];
+        private int size;
+        private int current = NONE;
+        private int depth;
+
+        /**
+         * @param rootName The name of {@link #ROOT}, which is open until {@link #build}.
+         */
+        Builder(final String rootName) {
+            this(rootName, ResourceLimits.configured());
+        }
+
+        /**
+         * @param rootName The name of {@link #ROOT}, which is open until {@link #build}.
+         * @param limits   The limits to enforce.
+         */
+        Builder(final String rootName, final ResourceLimits limits) {
+            this.limits = limits;
+            startElement(rootName);
+        }
+
+        /**
+         * Opens a child of the current node. The first node with a given name checks that it is a valid XML name, as
+         * creating a DOM element would.
+         *
+         * @param name The local name.
+         * @throws DOMException             If the name is not a valid XML name.
+         * @throws PayloadTooLargeException If the tree would have more elements than allowed.
+         * @throws NestingTooDeepException  If the node would be nested deeper than allowed.
+         */
+        void startElement(final String name) {
+            limits.checkElement(WHAT, size + 1, depth + 1);
+            depth++;
+            if (size == names.length) {
+                grow();
+            }
+            final var node = size++;
+            names[node] = nameId(name);
+            parents[node] = current;
+            firstChildren[node] = NONE;
+            nextSiblings[node] = NONE;
+            lastChildren[node] = NONE;
+            valueStarts[node] = values.length();
+            valueEnds[node] = values.length();
+            if (current != NONE) {
+                if (lastChildren[current] == NONE) {
+                    firstChildren[current] = node;
+                } else {
+                    nextSiblings[lastChildren[current]] = node;
+                }
+                lastChildren[current] = node;
+            }
+            current = node;
+        }
+
+        /**
+         * Sets the value of the current node. A node with children ignores its value.
+         */
+        void value(final String value) {
+            if (value == null || value.isEmpty()) {
+                return;
+            }
+            valueStarts[current] = values.length();
+            values.append(value);
+            valueEnds[current] = values.length();
+        }
+
+        /**
+         * Sets the value of the current node from a region of a character buffer, such as a JSON parser's, without
+         * building a string for it.
+         */
+        void value(final char[] buffer, final int offset, final int length) {
+            if (length == 0) {
+                return;
+            }
+            valueStarts[current] = values.length();
+            values.append(buffer, offset, length);
+            valueEnds[current] = values.length();
+        }
+
+        /**
+         * Adds a node of another tree, with its descendants, as a child of the current node.
+         */
+        void append(final XfaDataTree tree, final int node) {
+            startElement(tree.name(node));
+            if (tree.hasChildren(node)) {
+                for (var child = tree.firstChild(node); child != NONE; child = tree.nextSibling(child)) {
+                    append(tree, child);
+                }
+            } else {
+                value(tree.value(node));
+            }
+            endElement();
+        }
+
+        /**
+         * Closes the current node.
+         */
+        void endElement() {
+            if (current == ROOT) {
+                throw new IllegalStateException("The root is closed by build().");
+            }
+            depth--;
+            current = parents[current];
+        }
+
+        /**
+         * @return The tree. The builder must not be used afterwards.
+         */
+        XfaDataTree build() {
+            if (current != ROOT) {
+                throw new IllegalStateException("Unclosed elements.");
+            }
+            return new XfaDataTree(this);
+        }
+
+        private int nameId(final String name) {
+            final var id = nameIds.get(name);
+            if (id != null) {
+                return id;
+            }
+            if (!isXmlName(name)) {
+                throw new DOMException(DOMException.INVALID_CHARACTER_ERR,
+                        "An invalid or illegal XML character is specified.");
+            }
+            nameTable.add(name);
+            nameIds.put(name, nameTable.size() - 1);
+            return nameTable.size() - 1;
+        }
+
+        private void grow() {
+            final var capacity = names.length * 2;
+            names = Arrays.copyOf(names, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            valueStarts = Arrays.copyOf(valueStarts, capacity);
+            valueEnds = Arrays.copyOf(valueEnds, capacity);
+            lastChildren = Arrays.copyOf(lastChildren, capacity);
+        }
+
+        /**
+         * XML 1.0 (fifth edition) <code>Name</code> production.
+         */
+        private static boolean isXmlName(final String name) {
+            if (name.isEmpty() || !isNameStartChar(name.codePointAt(0))) {
+                return false;
+            }
+            for (var i = Character.charCount(name.codePointAt(0)); i < name.length(); ) {
+                final var c = name.codePointAt(i);
+                if (!isNameStartChar(c) && !(c == '-' || c == '.' || (c >= '0' && c <= '9') || c == 0xB7
+                        || (c >= 0x300 && c <= 0x36F) || (c >= 0x203F && c <= 0x2040))) {
+                    return false;
+                }
+                i += Character.charCount(c);
+            }
+            return true;
+        }
+
+        private static boolean isNameStartChar(final int c) {
+            return c == ':' || c == '_' || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')
+                    || (c >= 0xC0 && c <= 0xD6) || (c >= 0xD8 && c <= 0xF6) || (c >= 0xF8 && c <= 0x2FF)
+                    || (c >= 0x370 && c <= 0x37D) || (c >= 0x37F && c <= 0x1FFF) || (c >= 0x200C && c <= 0x200D)
+                    || (c >= 0x2070 && c <= 0x218F) || (c >= 0x2C00 && c <= 0x2FEF) || (c >= 0x3001 && c <= 0xD7FF)
+                    || (c >= 0xF900 && c <= 0xFDCF) || (c >= 0xFDF0 && c <= 0xFFFD) || (c >= 0x10000 && c <= 0xEFFFF);
+        }
+    }
+}
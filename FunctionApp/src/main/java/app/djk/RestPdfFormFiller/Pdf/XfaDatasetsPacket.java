@@ -0,0 +1,153 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import org.openpdf.text.pdf.PRStream;
+import org.openpdf.text.pdf.PdfArray;
+import org.openpdf.text.pdf.PdfDictionary;
+import org.openpdf.text.pdf.PdfName;
+import org.openpdf.text.pdf.PdfReader;
+import org.openpdf.text.pdf.PdfStamper;
+import org.openpdf.text.pdf.PdfStream;
+import org.openpdf.text.pdf.XfaForm;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXSource;
+import java.io.IOException;
+
+/**
+ * The <code>datasets</code> packet of a form whose XFA is split into packets, read and written on its own.
+ * <p>
+ * <strong>Why not {@link XfaForm}.</strong> Most XFA forms store their XFA as an array of named packets
+ * (<code>template</code>, <code>config</code>, <code>datasets</code>, ...) and a fill only ever changes the
+ * datasets. <code>new XfaForm(reader)</code> nevertheless inflates and parses every packet into one DOM and indexes
+ * the whole template, and <code>XfaForm.setXfa</code> re-serializes and re-compresses the template along with the
+ * data. The template is by far the largest packet, so on a typical form most of the fill was spent on XML that never
+ * changes. This class inflates and parses only the datasets stream and, on write, replaces only that entry of the
+ * <code>/XFA</code> array. Every other packet stays the compressed stream object it already is and is copied to the
+ * output unchanged, so the XML and compression work of a fill is proportional to the data.
+ * <p>
+ * Forms this does not apply to (a single XFA stream, no datasets packet, or a datasets packet that does not parse on
+ * its own) are reported by {@link #read} returning <code>null</code>; the caller then uses {@link XfaForm}.
+ */
+final class XfaDatasetsPacket {
+
+    private static final String DATASETS = "datasets";
+
+    private final PdfDictionary acroForm;
+    private final PdfArray xfa;
+    private final int streamIndex;
+    private final Document document;
+    private final Element dataNode;
+
+    private XfaDatasetsPacket(final PdfDictionary acroForm, final PdfArray xfa, final int streamIndex,
+                              final Document document, final Element dataNode) {
+        this.acroForm = acroForm;
+        this.xfa = xfa;
+        this.streamIndex = streamIndex;
+        this.document = document;
+        this.dataNode = dataNode;
+    }
+
+    /**
+     * Finds and parses the datasets packet.
+     *
+     * @param reader The source PDF.
+     * @return The packet, or <code>null</code> if the form does not store a separately parseable datasets packet.
+     * @throws IOException                  If the datasets stream cannot be read.
+     * @throws ParserConfigurationException If no XML parser can be created.
+     */
+    static XfaDatasetsPacket read(final PdfReader reader) throws IOException, ParserConfigurationException {
+        final var acroForm = (PdfDictionary) PdfReader.getPdfObjectReleaseNullConverting(
+                reader.getCatalog().get(PdfName.ACROFORM));
+        if (acroForm == null || !(PdfReader.getPdfObjectRelease(acroForm.get(PdfName.XFA)) instanceof PdfArray xfa)) {
+            return null;
+        }
+        for (var k = 0; k + 1 < xfa.size(); k += 2) {
+            final var name = xfa.getAsString(k);
+            if (name != null && DATASETS.equals(name.toString())
+                    && xfa.getDirectObject(k + 1) instanceof PRStream stream) {
+                final var document = parse(stream);
+                if (document == null || !DATASETS.equals(document.getDocumentElement().getLocalName())) {
+                    return null;
+                }
+                // <xfa:datasets><xfa:data> ... ; without a data node there is nothing to fill into.
+                final var dataNode = RestPdfApi.firstElementChild(document.getDocumentElement());
+                return dataNode == null ? null : new XfaDatasetsPacket(acroForm, xfa, k + 1, document, dataNode);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The <code>&lt;xfa:data&gt;</code> element, whose first element child is the data form-root.
+     */
+    Element dataNode() {
+        return dataNode;
+    }
+
+    /**
+     * Replaces the data form-root (or adds one to an empty data node), as <code>XfaForm.fillXfaForm</code> does.
+     *
+     * @param formRoot The new form-root; it may belong to another document, or already be this packet's form-root.
+     */
+    void replaceFormRoot(final Node formRoot) {
+        // A PATCH merges into this document's own form-root; only data built elsewhere has to be copied in.
+        final var replacement = formRoot.getOwnerDocument() == document
+                ? formRoot : document.importNode(formRoot, true);
+        final var existing = RestPdfApi.firstElementChild(dataNode);
+        if (existing == null) {
+            dataNode.appendChild(replacement);
+        } else if (existing != replacement) {
+            dataNode.replaceChild(replacement, existing);
+        }
+    }
+
+    /**
+     * Writes the packet as a new stream and points the <code>/XFA</code> array at it. The other packets are left as
+     * they are.
+     *
+     * @param reader  The source PDF the packet was read from.
+     * @param stamper The stamper writing the output.
+     * @throws IOException If the packet cannot be serialized or written.
+     */
+    void write(final PdfReader reader, final PdfStamper stamper) throws IOException {
+        final var writer = stamper.getWriter();
+        final var stream = new PdfStream(XfaForm.serializeDoc(document.getDocumentElement()));
+        stream.flateCompress(writer.getCompressionLevel());
+        // Free the old stream's object so the stamper does not copy it to the output as an orphan.
+        PdfReader.killIndirect(xfa.getPdfObject(streamIndex));
+        xfa.set(streamIndex, writer.addToBody(stream).getIndirectReference());
+        // The array itself may be an indirect object; storing a direct copy makes the change part of the AcroForm.
+        acroForm.put(PdfName.XFA, new PdfArray(xfa));
+        FillStamperFactory.markAcroFormChanged(reader, stamper);
+    }
+
+    /**
+     * Parses a datasets packet on its own, with the same entity handling openpdf applies to the whole XFA. A packet
+     * that relies on namespace declarations from the enclosing <code>xdp:xdp</code> element does not parse alone;
+     * that is reported as <code>null</code> rather than an error so the caller can fall back.
+     * <p>
+     * The stream is inflated as the parser reads it and the DOM is built from the parser's events, so the
+     * {@link ResourceLimits} stop a packet at the first byte or element over a limit, before it is held in memory.
+     *
+     * @throws app.djk.RestPdfFormFiller.projectExceptions.PayloadTooLargeException If the packet is too large.
+     * @throws app.djk.RestPdfFormFiller.projectExceptions.NestingTooDeepException  If it is nested too deep.
+     */
+    private static Document parse(final PRStream stream) throws IOException, ParserConfigurationException {
+        final var limits = ResourceLimits.configured();
+        try (final var packet = limits.bounded(limits.inflate(stream))) {
+            final var result = new DOMResult();
+            SecureTransformerFactory.newInstance().newTransformer()
+                    .transform(new SAXSource(limits.xmlReader(), new InputSource(packet)), result);
+            return (Document) result.getNode();
+        } catch (TransformerException e) {
+            ResourceLimits.rethrowLimit(e);
+            return null;
+        }
+    }
+}
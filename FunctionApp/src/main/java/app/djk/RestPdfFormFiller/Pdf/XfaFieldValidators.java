@@ -0,0 +1,731 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import app.djk.RestPdfFormFiller.cache.TemplateArtifactCache;
+import app.djk.RestPdfFormFiller.execution.RequestDeadline;
+import app.djk.RestPdfFormFiller.projectExceptions.FormDataValidationException;
+import org.openpdf.text.pdf.PRStream;
+import org.openpdf.text.pdf.PdfArray;
+import org.openpdf.text.pdf.PdfDictionary;
+import org.openpdf.text.pdf.PdfName;
+import org.openpdf.text.pdf.PdfReader;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The rules a template's <code>template</code> packet sets for its data, compiled into a tree that mirrors the data
+ * and checked against a payload in one pass before anything is stamped.
+ * <p>
+ * <strong>Why compile the template.</strong> A payload that is valid JSON can still name a field the form does not
+ * have (a typo that a PATCH would silently add as new data), or carry a value the form cannot show: longer than the
+ * field's <code>maxChars</code>, not matching its picture clause, not among the values of its list or check box.
+ * Acrobat reports these only when a person opens the filled form, long after the flow that filled it has finished.
+ * Everything needed to catch them is in the template, but the template is the largest packet of the XFA, so it is
+ * parsed once per template (streamed, never held as a DOM) into a tree of per-field rules keyed by data name and
+ * cached by the template's fingerprint; a payload is then checked by walking it and the tree side by side, a map
+ * lookup per node.
+ * <p>
+ * The tree follows XFA's binding rules as far as they can be read statically:
+ * <ul>
+ *   <li>A named subform is a data group of the same name; an unnamed one, a <code>bind match="none"</code> one, and
+ *       the page set, page areas, areas and subform sets leave their children in the enclosing group.</li>
+ *   <li>A named field is a data value of the same name; unnamed fields and <code>bind match="none"</code> fields
+ *       (signatures, buttons) have no data. A named exclusion group is one value whose choices are the values of its
+ *       members.</li>
+ *   <li>A <code>bind match="dataRef"</code> is followed for <code>$.</code>, <code>$record.</code> and
+ *       <code>$data.</code> references, so several check boxes bound to one value share one rule whose choices are
+ *       the union of theirs.</li>
+ * </ul>
+ * Where the template cannot be read that far (a reference using any other SOM syntax, or a name bound as both a
+ * group and a value) the affected group accepts anything, and so does data the template's own datasets carry but the
+ * template does not describe. A rule is only ever enforced where the template states it.
+ * <p>
+ * For the shared cache tier the tree has a compact binary form ({@link #CODEC}) that keeps picture clauses as written
+ * and compiles them again when read.
+ */
+final class XfaFieldValidators {
+
+    /**
+     * Serializes validators for the shared cache tier. A change to the format must change {@link #FORMAT_VERSION},
+     * so that older values are decoded as misses rather than misread.
+     */
+    static final TemplateArtifactCache.Codec<XfaFieldValidators> CODEC = new TemplateArtifactCache.Codec<>() {
+        @Override
+        public byte[] encode(final XfaFieldValidators validators) {
+            final var bytes = new ByteArrayOutputStream();
+            try (final var out = new DataOutputStream(bytes)) {
+                out.writeByte(FORMAT_VERSION);
+                write(out, validators.formRoot);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public XfaFieldValidators decode(final byte[] bytes) throws IOException {
+            try (final var in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+                if (in.readByte() != FORMAT_VERSION) {
+                    throw new IOException("Unsupported validators format.");
+                }
+                final var formRoot = read(in);
+                if (in.read() != -1) {
+                    throw new IOException("Trailing bytes after validators.");
+                }
+                return new XfaFieldValidators(formRoot);
+            }
+        }
+    };
+
+    /**
+     * Most field errors reported for one payload; a payload with more is reported as truncated.
+     */
+    static final int MAX_ERRORS = 100;
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final int MAX_CHOICES_IN_MESSAGE = 10;
+    private static final Rule ANY = new Rule(Kind.ANY, false, Map.of(), -1, List.of(), null);
+
+    private final Rule formRoot;
+
+    private XfaFieldValidators(final Rule formRoot) {
+        this.formRoot = formRoot;
+    }
+
+    /**
+     * Compiles the rules of a template.
+     *
+     * @param reader           The template.
+     * @param existingFormRoot The template's current data form-root, whose nodes are all accepted, or
+     *                         <code>null</code>. It is only read.
+     * @return The validators; ones that accept anything if the template has no readable <code>template</code>
+     * packet.
+     * @throws IOException If the template stream cannot be read.
+     */
+    static XfaFieldValidators compile(final PdfReader reader, final Element existingFormRoot) throws IOException {
+        final var template = parseTemplate(reader);
+        if (template == null) {
+            return new XfaFieldValidators(ANY);
+        }
+        // The template's root subform is the data's form-root; the template element itself stands for <xfa:data>.
+        final var data = new Draft(Kind.GROUP);
+        bind(template, data, data, null);
+        final var formRoot = data.children.size() == 1 ? data.children.values().iterator().next() : null;
+        if (formRoot == null || formRoot.kind != Kind.GROUP) {
+            return new XfaFieldValidators(ANY);
+        }
+        if (existingFormRoot != null) {
+            acceptExisting(existingFormRoot, formRoot);
+        }
+        return new XfaFieldValidators(formRoot.toRule());
+    }
+
+    /**
+     * Checks a payload against the rules, reporting every field in error.
+     *
+     * @param data The payload; its form-root is the first node under {@link XfaDataTree#ROOT}. Only read. Its
+     *             form-root is checked against the template's whatever its name, as the fill writes it there.
+     * @throws FormDataValidationException If any field breaks a rule of the template.
+     */
+    void validate(final XfaDataTree data) {
+        final var root = data.firstChild(XfaDataTree.ROOT);
+        if (root == XfaDataTree.NONE || !data.hasChildren(root)) {
+            return;
+        }
+        final var errors = new ArrayList<FormDataValidationException.FieldError>();
+        final var complete = validateChildren(data, root, formRoot, root, errors);
+        if (!errors.isEmpty()) {
+            throw new FormDataValidationException(errors, !complete);
+        }
+    }
+
+    /**
+     * @return <code>false</code> if it stopped at {@link #MAX_ERRORS}.
+     */
+    private static boolean validateChildren(final XfaDataTree data, final int parent, final Rule rule,
+                                            final int root, final List<FormDataValidationException.FieldError> errors) {
+        if (rule.kind() == Kind.ANY) {
+            return true;
+        }
+        for (var node = data.firstChild(parent); node != XfaDataTree.NONE; node = data.nextSibling(node)) {
+            RequestDeadline.checkInLoop();
+            final var child = rule.children().get(data.name(node));
+            final Rejection rejection;
+            if (child == null) {
+                if (rule.open()) {
+                    continue;
+                }
+                rejection = new Rejection("unknownField", "is not a field of the template.");
+            } else if (data.hasChildren(node)) {
+                // A field given children is rich text or a mistake the fill writes as it is; nothing to check.
+                if (child.kind() == Kind.GROUP && !validateChildren(data, node, child, root, errors)) {
+                    return false;
+                }
+                continue;
+            } else if (child.kind() == Kind.GROUP) {
+                if (data.sameTrimmedValue(node, null)) {
+                    continue;
+                }
+                rejection = new Rejection("notAField", "is a subform of the template, not a field.");
+            } else if (child.kind() == Kind.FIELD) {
+                final var value = data.trimmedValue(node);
+                rejection = value.isEmpty() ? null : check(child, value);
+            } else {
+                continue;
+            }
+            if (rejection == null) {
+                continue;
+            }
+            if (errors.size() == MAX_ERRORS) {
+                return false;
+            }
+            errors.add(new FormDataValidationException.FieldError(data.path(node, root), rejection.rule(),
+                    rejection.message()));
+        }
+        return true;
+    }
+
+    /**
+     * @return Why a non-empty, trimmed value breaks the field's rules, or <code>null</code> if it does not.
+     */
+    private static Rejection check(final Rule field, final String value) {
+        if (field.maxChars() > 0) {
+            var length = value.codePointCount(0, value.length());
+            for (final var picture : field.pictures()) {
+                length = Math.min(length, picture.contentLength(value));
+            }
+            if (length > field.maxChars()) {
+                return new Rejection("maxChars",
+                        "is longer than the template's limit of " + field.maxChars() + " characters.");
+            }
+        }
+        for (final var picture : field.pictures()) {
+            if (!picture.accepts(value)) {
+                return new Rejection("picture",
+                        "does not match the template's picture clause " + picture.clause() + ".");
+            }
+        }
+        if (field.choices() != null && !field.choices().contains(value)) {
+            final var shown = field.choices().stream().limit(MAX_CHOICES_IN_MESSAGE).toList();
+            return new Rejection("choice", "is not one of the template's choices: " + String.join(", ", shown)
+                    + (field.choices().size() > shown.size() ? ", ..." : "") + ".");
+        }
+        return null;
+    }
+
+    /**
+     * Reads the template's containers and their data-related properties out of the <code>template</code> packet, or
+     * the <code>template</code> element of a single XFA stream.
+     *
+     * @return The template element as a container, or <code>null</code> if there is none or it does not parse.
+     */
+    private static Container parseTemplate(final PdfReader reader) throws IOException {
+        final var acroForm = (PdfDictionary) PdfReader.getPdfObjectReleaseNullConverting(
+                reader.getCatalog().get(PdfName.ACROFORM));
+        if (acroForm == null) {
+            return null;
+        }
+        PRStream stream = null;
+        final var xfa = PdfReader.getPdfObjectRelease(acroForm.get(PdfName.XFA));
+        if (xfa instanceof PdfArray packets) {
+            for (var k = 0; k + 1 < packets.size(); k += 2) {
+                final var name = packets.getAsString(k);
+                if (name != null && "template".equals(name.toString())
+                        && packets.getDirectObject(k + 1) instanceof PRStream packet) {
+                    stream = packet;
+                    break;
+                }
+            }
+        } else if (xfa instanceof PRStream whole) {
+            stream = whole;
+        }
+        if (stream == null) {
+            return null;
+        }
+        final var limits = ResourceLimits.configured();
+        final var handler = new TemplateHandler();
+        try (final var xml = limits.bounded(limits.inflate(stream))) {
+            final var xmlReader = limits.xmlReader();
+            xmlReader.setContentHandler(handler);
+            xmlReader.parse(new InputSource(xml));
+        } catch (SAXException e) {
+            ResourceLimits.rethrowLimit(e);
+            return null;
+        } catch (ParserConfigurationException e) {
+            // No standalone parser; the template's rules go unchecked rather than the fill failing.
+            return null;
+        }
+        return handler.template;
+    }
+
+    /**
+     * Binds the children of a template container into a data group, as XFA's merge would.
+     *
+     * @param container The template container.
+     * @param scope     The data group its children bind in.
+     * @param data      The group standing for <code>&lt;xfa:data&gt;</code>.
+     * @param record    The form-root group, once known.
+     */
+    private static void bind(final Container container, final Draft scope, final Draft data, final Draft record) {
+        for (final var child : container.children) {
+            RequestDeadline.checkInLoop();
+            final var unbound = child.name == null || "none".equals(child.bindMatch);
+            if (child.kind == ContainerKind.FIELD && unbound) {
+                continue;
+            }
+            if (child.kind == ContainerKind.TRANSPARENT || unbound) {
+                // Its children bind as if it were not there; the members of an unnamed exclusion group, each alone.
+                bind(child, scope, data, record);
+                continue;
+            }
+            switch (child.kind) {
+                case SUBFORM -> {
+                    final var group = target(child, Kind.GROUP, scope, data, record);
+                    if (group != null) {
+                        bind(child, group, data, record == null && scope == data ? group : record);
+                    }
+                }
+                case FIELD -> {
+                    final var field = target(child, Kind.FIELD, scope, data, record);
+                    if (field != null) {
+                        field.merge(child.maxChars, child.pictures, child.choices());
+                    }
+                }
+                case EXCLUSION_GROUP -> {
+                    final var field = target(child, Kind.FIELD, scope, data, record);
+                    if (field != null) {
+                        Set<String> choices = new LinkedHashSet<>();
+                        for (final var member : child.children) {
+                            final var memberChoices = member.kind == ContainerKind.FIELD ? member.choices() : null;
+                            if (memberChoices == null) {
+                                choices = null;
+                                break;
+                            }
+                            choices.addAll(memberChoices);
+                        }
+                        field.merge(-1, List.of(), choices);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The draft a container binds to, or <code>null</code> if its binding cannot be followed, in which case
+     * the scope is opened to whatever the container would have bound.
+     */
+    private static Draft target(final Container container, final Kind kind, final Draft scope, final Draft data,
+                                final Draft record) {
+        if (!"dataRef".equals(container.bindMatch)) {
+            return scope.child(container.name, kind);
+        }
+        final var steps = container.bindRef == null ? new String[0]
+                : container.bindRef.strip().replaceAll("\\[[^]]*]", "").split("\\.", -1);
+        Draft current;
+        var first = 1;
+        if (steps.length == 0 || steps[0].isEmpty()) {
+            current = null;
+        } else if ("$".equals(steps[0])) {
+            current = scope;
+        } else if ("$record".equals(steps[0])) {
+            current = record;
+        } else if ("$data".equals(steps[0])) {
+            current = data;
+        } else {
+            current = scope;
+            first = 0;
+        }
+        for (var i = first; current != null && i < steps.length; i++) {
+            if (!steps[i].matches("[\\p{L}_][\\p{L}\\p{N}_.-]*")) {
+                current = null;
+            } else {
+                current = current.child(steps[i], i == steps.length - 1 ? kind : Kind.GROUP);
+            }
+        }
+        if (current == null || current == scope && kind == Kind.FIELD) {
+            scope.open = true;
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * Accepts whatever the template's own data holds that the template does not describe.
+     */
+    private static void acceptExisting(final Element existing, final Draft group) {
+        for (var child = existing.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            final var name = RestPdfApi.localName(child);
+            final var draft = group.children.get(name);
+            if (draft == null) {
+                group.children.put(name, new Draft(Kind.ANY));
+            } else if (RestPdfApi.hasElementChild(child)) {
+                if (draft.kind == Kind.GROUP) {
+                    acceptExisting((Element) child, draft);
+                } else {
+                    draft.kind = Kind.ANY;
+                }
+            }
+        }
+    }
+
+    private static void write(final DataOutputStream out, final Rule rule) throws IOException {
+        out.writeByte(rule.kind().ordinal());
+        out.writeBoolean(rule.open());
+        out.writeInt(rule.maxChars());
+        out.writeInt(rule.pictures().size());
+        for (final var picture : rule.pictures()) {
+            out.writeUTF(picture.clause());
+        }
+        out.writeBoolean(rule.choices() != null);
+        if (rule.choices() != null) {
+            out.writeInt(rule.choices().size());
+            for (final var choice : rule.choices()) {
+                out.writeUTF(choice);
+            }
+        }
+        out.writeInt(rule.children().size());
+        for (final var child : rule.children().entrySet()) {
+            out.writeUTF(child.getKey());
+            write(out, child.getValue());
+        }
+    }
+
+    private static Rule read(final DataInputStream in) throws IOException {
+        final var kinds = Kind.values();
+        final var kind = in.readUnsignedByte();
+        if (kind >= kinds.length) {
+            throw new IOException("Unsupported rule kind.");
+        }
+        final var open = in.readBoolean();
+        final var maxChars = in.readInt();
+        final var pictures = new ArrayList<XfaPicture>();
+        for (var i = in.readInt(); i > 0; i--) {
+            final var picture = XfaPicture.compile(in.readUTF());
+            if (picture != null) {
+                pictures.add(picture);
+            }
+        }
+        Set<String> choices = null;
+        if (in.readBoolean()) {
+            choices = new LinkedHashSet<>();
+            for (var i = in.readInt(); i > 0; i--) {
+                choices.add(in.readUTF());
+            }
+        }
+        final var children = new LinkedHashMap<String, Rule>();
+        for (var i = in.readInt(); i > 0; i--) {
+            children.put(in.readUTF(), read(in));
+        }
+        return new Rule(kinds[kind], open, Collections.unmodifiableMap(children), maxChars, List.copyOf(pictures),
+                choices == null ? null : Collections.unmodifiableSet(choices));
+    }
+
+    private record Rejection(String rule, String message) {
+    }
+
+    private enum Kind {
+        /**
+         * A data group: a node with children.
+         */
+        GROUP,
+        /**
+         * A data value.
+         */
+        FIELD,
+        /**
+         * Anything: a node whose binding could not be read.
+         */
+        ANY
+    }
+
+    /**
+     * The compiled rules of one data node.
+     *
+     * @param kind     What the node is.
+     * @param open     For a group, whether children the template does not describe are accepted.
+     * @param children For a group, the rules of its children by name.
+     * @param maxChars For a value, the most characters it may hold, or <code>-1</code>.
+     * @param pictures For a value, the picture clauses it must match.
+     * @param choices  For a value, the values it may take, or <code>null</code> for any.
+     */
+    private record Rule(Kind kind, boolean open, Map<String, Rule> children, int maxChars,
+                        List<XfaPicture> pictures, Set<String> choices) {
+    }
+
+    /**
+     * A rule while the template is being bound, when several containers may still add to it.
+     */
+    private static final class Draft {
+        private Kind kind;
+        private boolean open;
+        private final Map<String, Draft> children = new LinkedHashMap<>();
+        private boolean bound;
+        private int maxChars = -1;
+        private List<String> pictures = List.of();
+        private Set<String> choices;
+
+        private Draft(final Kind kind) {
+            this.kind = kind;
+        }
+
+        /**
+         * @return The child of the given name, created as the given kind if new; a name bound both as a group and
+         * as a value becomes {@link Kind#ANY}.
+         */
+        private Draft child(final String name, final Kind childKind) {
+            final var child = children.computeIfAbsent(name, key -> new Draft(childKind));
+            if (child.kind != childKind) {
+                child.kind = Kind.ANY;
+            }
+            return child;
+        }
+
+        /**
+         * Adds a binding field's rules. Where fields share a value, the value may be anything either accepts: the
+         * larger length, the union of choices, and a picture only if all of them have it.
+         */
+        private void merge(final int fieldMaxChars, final List<String> fieldPictures, final Set<String> fieldChoices) {
+            if (!bound) {
+                bound = true;
+                maxChars = fieldMaxChars;
+                pictures = fieldPictures;
+                choices = fieldChoices == null ? null : new LinkedHashSet<>(fieldChoices);
+                return;
+            }
+            maxChars = maxChars < 0 || fieldMaxChars < 0 ? -1 : Math.max(maxChars, fieldMaxChars);
+            if (!pictures.equals(fieldPictures)) {
+                pictures = List.of();
+            }
+            if (choices == null || fieldChoices == null) {
+                choices = null;
+            } else {
+                choices.addAll(fieldChoices);
+            }
+        }
+
+        private Rule toRule() {
+            if (kind == Kind.ANY) {
+                return ANY;
+            }
+            final var childRules = new LinkedHashMap<String, Rule>();
+            children.forEach((name, child) -> childRules.put(name, child.toRule()));
+            final var compiled = new ArrayList<XfaPicture>();
+            for (final var clause : pictures) {
+                final var picture = XfaPicture.compile(clause);
+                if (picture != null) {
+                    compiled.add(picture);
+                }
+            }
+            // Kept in template order, so that messages list choices as the form does and encoding is repeatable.
+            return new Rule(kind, open, Collections.unmodifiableMap(childRules), kind == Kind.FIELD ? maxChars : -1,
+                    List.copyOf(compiled), kind == Kind.FIELD && choices != null
+                    ? Collections.unmodifiableSet(new LinkedHashSet<>(choices)) : null);
+        }
+    }
+
+    private enum ContainerKind {
+        SUBFORM, TRANSPARENT, FIELD, EXCLUSION_GROUP
+    }
+
+    /**
+     * A container of the template, with the properties of it that bear on its data.
+     */
+    private static final class Container {
+        private final ContainerKind kind;
+        private final String name;
+        private final List<Container> children = new ArrayList<>();
+        private String bindMatch;
+        private String bindRef;
+        private int maxChars = -1;
+        private final List<String> pictures = new ArrayList<>();
+        private final List<String> items = new ArrayList<>();
+        private final List<String> savedItems = new ArrayList<>();
+        private boolean hasItems;
+        private boolean hasSavedItems;
+        private boolean checkButton;
+        private boolean restrictedList;
+
+        private Container(final ContainerKind kind, final String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        /**
+         * @return The values the field may take, or <code>null</code> for any: only a check box or a closed list
+         * restricts them, to its items' saved values.
+         */
+        private Set<String> choices() {
+            if (!(checkButton || restrictedList) || !(hasItems || hasSavedItems)) {
+                return null;
+            }
+            return new LinkedHashSet<>(hasSavedItems ? savedItems : items);
+        }
+    }
+
+    /**
+     * Collects the template's containers and, relative to each, the properties {@link Container} keeps.
+     */
+    private static final class TemplateHandler extends DefaultHandler {
+        private Container template;
+        private final List<Container> containers = new ArrayList<>();
+        private final List<Integer> containerDepths = new ArrayList<>();
+        private final List<String> path = new ArrayList<>();
+        private int skipDepth = -1;
+        private StringBuilder text;
+        private List<String> textTarget;
+        private int textDepth;
+        private List<String> itemsTarget;
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName,
+                                 final Attributes attributes) {
+            path.add(localName);
+            final var depth = path.size();
+            if (skipDepth >= 0) {
+                return;
+            }
+            if (template == null) {
+                if ("template".equals(localName)) {
+                    template = new Container(ContainerKind.TRANSPARENT, null);
+                    push(template, depth);
+                }
+                return;
+            }
+            if (containers.isEmpty()) {
+                return;
+            }
+            final var owner = containers.get(containers.size() - 1);
+            final var kind = switch (localName) {
+                case "subform" -> ContainerKind.SUBFORM;
+                case "subformSet", "area", "pageSet", "pageArea" -> ContainerKind.TRANSPARENT;
+                case "field" -> ContainerKind.FIELD;
+                case "exclGroup" -> ContainerKind.EXCLUSION_GROUP;
+                default -> null;
+            };
+            if (kind != null && depth == containerDepths.get(containerDepths.size() - 1) + 1) {
+                final var name = attributes.getValue("name");
+                final var container = new Container(kind, name == null || name.isBlank() ? null : name);
+                owner.children.add(container);
+                push(container, depth);
+                return;
+            }
+            if ("proto".equals(localName) || "variables".equals(localName)) {
+                skipDepth = depth;
+                return;
+            }
+            property(owner, relativePath(), attributes);
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName) {
+            final var depth = path.size();
+            path.remove(depth - 1);
+            if (skipDepth == depth) {
+                skipDepth = -1;
+            }
+            if (text != null && textTarget != null && depth == textDepth) {
+                textTarget.add(text.toString().strip());
+                text = null;
+                textTarget = null;
+            }
+            if (!containerDepths.isEmpty() && containerDepths.get(containerDepths.size() - 1) == depth) {
+                containers.remove(containers.size() - 1);
+                containerDepths.remove(containerDepths.size() - 1);
+            }
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) {
+            if (text != null) {
+                text.append(ch, start, length);
+            }
+        }
+
+        private void push(final Container container, final int depth) {
+            containers.add(container);
+            containerDepths.add(depth);
+        }
+
+        /**
+         * @return The element names from the owning container down to the current element, such as
+         * <code>ui/textEdit/comb</code>.
+         */
+        private String relativePath() {
+            final var from = containerDepths.get(containerDepths.size() - 1);
+            return String.join("/", path.subList(from, path.size()));
+        }
+
+        private void property(final Container owner, final String relativePath, final Attributes attributes) {
+            switch (relativePath) {
+                case "bind" -> {
+                    owner.bindMatch = attributes.getValue("match");
+                    owner.bindRef = attributes.getValue("ref");
+                }
+                case "value/text" -> limit(owner, attributes.getValue("maxChars"));
+                case "value/exData" -> limit(owner, attributes.getValue("maxLength"));
+                case "ui/textEdit/comb" -> limit(owner, attributes.getValue("numberOfCells"));
+                case "ui/checkButton" -> owner.checkButton = true;
+                case "ui/choiceList" -> owner.restrictedList = !"1".equals(attributes.getValue("textEntry"))
+                        && !"multiSelect".equals(attributes.getValue("open"));
+                case "validate/picture", "bind/picture" -> collectText(owner.pictures);
+                case "items" -> {
+                    // A list with display and save values has two item lists; the saved one is what the data holds.
+                    if ("1".equals(attributes.getValue("save")) && !owner.hasSavedItems) {
+                        owner.hasSavedItems = true;
+                        owner.savedItems.clear();
+                        itemsTarget = owner.savedItems;
+                    } else if (!owner.hasItems) {
+                        owner.hasItems = true;
+                        itemsTarget = owner.items;
+                    } else {
+                        itemsTarget = null;
+                    }
+                }
+                default -> {
+                    if (relativePath.startsWith("items/") && relativePath.indexOf('/', 6) < 0
+                            && itemsTarget != null) {
+                        collectText(itemsTarget);
+                    }
+                }
+            }
+        }
+
+        private void collectText(final List<String> target) {
+            text = new StringBuilder();
+            textTarget = target;
+            textDepth = path.size();
+        }
+
+        private static void limit(final Container owner, final String value) {
+            try {
+                final var limit = value == null ? -1 : Integer.parseInt(value.strip());
+                if (limit > 0 && (owner.maxChars < 0 || limit < owner.maxChars)) {
+                    owner.maxChars = limit;
+                }
+            } catch (NumberFormatException e) {
+                // An unreadable limit is no limit.
+            }
+        }
+    }
+}
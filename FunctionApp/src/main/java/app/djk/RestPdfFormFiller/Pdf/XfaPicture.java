@@ -0,0 +1,333 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import java.math.BigDecimal;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * An XFA picture clause, compiled for checking data values against it.
+ * <p>
+ * Picture clauses are the patterns a template formats and validates values with: <code>text{999-99-9999}</code>,
+ * <code>num{zzzz9.99}</code>, <code>date{YYYYMMDD}</code>, or several alternatives separated by <code>|</code>. A
+ * value passes if any alternative accepts it, either as formatted, literals included, or in the canonical form the
+ * data of a form holds: the bare characters of a text picture, a plain decimal number for a numeric one, an ISO date
+ * for a date one. A caller may send either, and Acrobat shows both.
+ * <p>
+ * Only the part of the grammar that designers actually produce is compiled. A clause that uses anything else (time
+ * and date-time pictures, locale-qualified or exponent symbols) is not compiled at all ({@link #compile} returns
+ * <code>null</code>), so a value is never rejected by a rule this class cannot judge.
+ */
+final class XfaPicture {
+
+    private static final Pattern CANONICAL_NUMBER = Pattern.compile("[+-]?(\\d+(\\.\\d*)?|\\.\\d+)");
+
+    private final String clause;
+    private final List<Alternative> alternatives;
+
+    private XfaPicture(final String clause, final List<Alternative> alternatives) {
+        this.clause = clause;
+        this.alternatives = alternatives;
+    }
+
+    /**
+     * @param clause A picture clause as written in a template.
+     * @return The compiled clause, or <code>null</code> if it is empty or uses anything that is not compiled.
+     */
+    static XfaPicture compile(final String clause) {
+        if (clause == null || clause.isBlank()) {
+            return null;
+        }
+        final var alternatives = new ArrayList<Alternative>();
+        for (final var part : splitAlternatives(clause.strip())) {
+            final var open = part.indexOf('{');
+            if (open < 0 || !part.endsWith("}")) {
+                return null;
+            }
+            var category = part.substring(0, open).strip();
+            final var locale = category.indexOf('(');
+            if (locale >= 0) {
+                category = category.substring(0, locale);
+            }
+            final var pattern = part.substring(open + 1, part.length() - 1);
+            final Alternative alternative;
+            switch (category) {
+                case "text" -> alternative = text(pattern);
+                case "num" -> alternative = number(pattern);
+                case "date" -> alternative = date(pattern);
+                // An empty value is always accepted, and a zero is a number; neither adds a rule.
+                case "null", "zero" -> {
+                    continue;
+                }
+                default -> alternative = null;
+            }
+            if (alternative == null) {
+                return null;
+            }
+            alternatives.add(alternative);
+        }
+        return alternatives.isEmpty() ? null : new XfaPicture(clause.strip(), List.copyOf(alternatives));
+    }
+
+    /**
+     * @return The clause as written in the template.
+     */
+    String clause() {
+        return clause;
+    }
+
+    /**
+     * @param value A non-empty data value.
+     * @return <code>true</code> if an alternative accepts the value, formatted or canonical.
+     */
+    boolean accepts(final String value) {
+        for (final var alternative : alternatives) {
+            if (alternative.accepts(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The number of characters a value holds once the literals of a text picture it is formatted with are left out,
+     * which is what a template's <code>maxChars</code> counts.
+     *
+     * @param value A data value.
+     * @return Its length without the picture's literals if a text alternative matches it as formatted, else its
+     * length.
+     */
+    int contentLength(final String value) {
+        for (final var alternative : alternatives) {
+            if (alternative.formatted().matcher(value).matches() && alternative.placeholders() >= 0) {
+                return alternative.placeholders();
+            }
+        }
+        return value.codePointCount(0, value.length());
+    }
+
+    /**
+     * One alternative of a clause.
+     *
+     * @param formatted    Matches the value as formatted.
+     * @param canonical    Accepts the value in its canonical data form.
+     * @param placeholders For a text picture, the characters a formatted value holds besides literals; otherwise
+     *                     <code>-1</code>.
+     */
+    private record Alternative(Pattern formatted, Predicate<String> canonical, int placeholders) {
+        boolean accepts(final String value) {
+            return formatted.matcher(value).matches() || canonical.test(value);
+        }
+    }
+
+    /**
+     * <code>9</code> a digit, <code>A</code> a letter, <code>O</code> or <code>0</code> a letter or digit,
+     * <code>X</code> any character; anything else, and anything quoted, is a literal.
+     */
+    private static Alternative text(final String pattern) {
+        final var formatted = new StringBuilder();
+        final var bare = new StringBuilder();
+        var placeholders = 0;
+        for (final var token : tokens(pattern)) {
+            if (token.literal()) {
+                formatted.append(Pattern.quote(token.text()));
+                continue;
+            }
+            for (final var symbol : token.text().toCharArray()) {
+                final var regex = switch (symbol) {
+                    case '9' -> "[0-9]";
+                    case 'A' -> "\\p{L}";
+                    case 'O', '0' -> "[\\p{L}0-9]";
+                    case 'X' -> ".";
+                    default -> null;
+                };
+                if (regex == null) {
+                    formatted.append(Pattern.quote(String.valueOf(symbol)));
+                } else {
+                    formatted.append(regex);
+                    bare.append(regex);
+                    placeholders++;
+                }
+            }
+        }
+        final var bareValue = Pattern.compile(bare.toString(), Pattern.DOTALL);
+        return new Alternative(Pattern.compile(formatted.toString(), Pattern.DOTALL),
+                value -> bareValue.matcher(value).matches(), placeholders);
+    }
+
+    /**
+     * <code>9</code> a digit, <code>z</code> or <code>8</code> an optional digit, <code>Z</code> a digit or a space,
+     * <code>,</code> an optional grouping separator, <code>.</code> or <code>V</code> the decimal point,
+     * <code>v</code> an implied one, <code>s</code> or <code>S</code> a sign, <code>$</code> the currency symbol.
+     * A canonical number is accepted if its digits fit the picture's digit positions.
+     */
+    private static Alternative number(final String pattern) {
+        final var formatted = new StringBuilder();
+        var integerDigits = 0;
+        var fractionDigits = 0;
+        var inFraction = false;
+        for (final var token : tokens(pattern)) {
+            if (token.literal()) {
+                formatted.append(Pattern.quote(token.text()));
+                continue;
+            }
+            for (final var symbol : token.text().toCharArray()) {
+                switch (symbol) {
+                    case '9', 'z', 'Z', '8' -> {
+                        formatted.append(symbol == '9' ? "[0-9]" : symbol == 'Z' ? "[0-9 ]?" : "[0-9]?");
+                        if (inFraction) {
+                            fractionDigits++;
+                        } else {
+                            integerDigits++;
+                        }
+                    }
+                    case ',' -> formatted.append(",?");
+                    case '.', 'V' -> {
+                        formatted.append("\\.");
+                        inFraction = true;
+                    }
+                    case 'v' -> inFraction = true;
+                    case 's', 'S' -> formatted.append("[+-]?");
+                    case '$' -> formatted.append("\\$");
+                    default -> {
+                        if (Character.isLetter(symbol)) {
+                            return null;
+                        }
+                        formatted.append(Pattern.quote(String.valueOf(symbol)));
+                    }
+                }
+            }
+        }
+        final var maxIntegerDigits = integerDigits;
+        final var maxFractionDigits = fractionDigits;
+        return new Alternative(Pattern.compile(formatted.toString()), value -> {
+            if (!CANONICAL_NUMBER.matcher(value).matches()) {
+                return false;
+            }
+            final var number = new BigDecimal(value).abs().stripTrailingZeros();
+            final var fraction = Math.max(0, number.scale());
+            return fraction <= maxFractionDigits && number.precision() - number.scale() <= maxIntegerDigits;
+        }, -1);
+    }
+
+    /**
+     * <code>YYYY</code>, <code>YY</code>, <code>M</code> to <code>MMMM</code>, <code>D</code>, <code>DD</code>,
+     * <code>J</code>, <code>JJJ</code> and <code>EEE</code>, <code>EEEE</code>, read strictly, so that a month 13 is
+     * rejected. A canonical <code>YYYY-MM-DD</code> or <code>YYYYMMDD</code> date is accepted too.
+     */
+    private static Alternative date(final String pattern) {
+        final var javaPattern = new StringBuilder();
+        for (final var token : tokens(pattern)) {
+            if (token.literal() || !Character.isLetter(token.text().charAt(0))) {
+                javaPattern.append('\'').append(token.text().replace("'", "''")).append('\'');
+                continue;
+            }
+            final var symbol = switch (token.text()) {
+                case "YYYY" -> "uuuu";
+                case "YY" -> "uu";
+                case "M", "MM", "MMM", "MMMM" -> token.text();
+                case "D" -> "d";
+                case "DD" -> "dd";
+                case "J" -> "D";
+                case "JJJ" -> "DDD";
+                case "EEE", "EEEE" -> token.text();
+                default -> null;
+            };
+            if (symbol == null) {
+                return null;
+            }
+            javaPattern.append(symbol);
+        }
+        final DateTimeFormatter formatter;
+        try {
+            formatter = DateTimeFormatter.ofPattern(javaPattern.toString(), Locale.US)
+                    .withResolverStyle(ResolverStyle.STRICT);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return new Alternative(Pattern.compile("(?!)"),
+                value -> parses(formatter, value) || parses(DateTimeFormatter.ISO_LOCAL_DATE, value)
+                        || parses(DateTimeFormatter.BASIC_ISO_DATE, value), -1);
+    }
+
+    private static boolean parses(final DateTimeFormatter formatter, final String value) {
+        try {
+            formatter.parse(value);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Splits a clause at the <code>|</code> between alternatives, ignoring any inside braces or quotes.
+     */
+    private static List<String> splitAlternatives(final String clause) {
+        final var parts = new ArrayList<String>();
+        var depth = 0;
+        var quoted = false;
+        var start = 0;
+        for (var i = 0; i < clause.length(); i++) {
+            final var c = clause.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && c == '{') {
+                depth++;
+            } else if (!quoted && c == '}') {
+                depth--;
+            } else if (!quoted && depth == 0 && c == '|') {
+                parts.add(clause.substring(start, i).strip());
+                start = i + 1;
+            }
+        }
+        parts.add(clause.substring(start).strip());
+        return parts;
+    }
+
+    /**
+     * Splits a pattern into quoted literals and runs of the same symbol. Two quotes in a row stand for one.
+     */
+    private static List<Token> tokens(final String pattern) {
+        final var tokens = new ArrayList<Token>();
+        for (var i = 0; i < pattern.length(); ) {
+            final var c = pattern.charAt(i);
+            if (c == '\'') {
+                final var literal = new StringBuilder();
+                var j = i + 1;
+                while (j < pattern.length()) {
+                    if (pattern.charAt(j) == '\'') {
+                        if (j + 1 < pattern.length() && pattern.charAt(j + 1) == '\'') {
+                            literal.append('\'');
+                            j += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    literal.append(pattern.charAt(j++));
+                }
+                tokens.add(new Token(j == i + 1 && j < pattern.length() ? "'" : literal.toString(), true));
+                i = j + 1;
+            } else if (Character.isLetter(c)) {
+                var j = i + 1;
+                while (j < pattern.length() && pattern.charAt(j) == c) {
+                    j++;
+                }
+                // A date symbol is a run of one letter (MM, YYYY); text and numeric pictures read it per letter.
+                tokens.add(new Token(pattern.substring(i, j), false));
+                i = j;
+            } else {
+                tokens.add(new Token(String.valueOf(c), false));
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    private record Token(String text, boolean literal) {
+    }
+}
@@ -0,0 +1,314 @@
+package app.djk.RestPdfFormFiller.cache;
+
+import app.djk.RestPdfFormFiller.Pdf.CompressionProfile;
+import app.djk.RestPdfFormFiller.Pdf.PatchMode;
+import app.djk.RestPdfFormFiller.Pdf.WriteMode;
+import app.djk.RestPdfFormFiller.config.AppSettings;
+import app.djk.RestPdfFormFiller.projectExceptions.IdempotencyKeyReuseException;
+import app.djk.RestPdfFormFiller.projectExceptions.ServerBusyException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Size-bounded, time-limited cache of filled PDFs.
+ * <p>
+ * Power Automate retries a fill on timeout and flows frequently resubmit byte-identical requests. A fill is a pure
+ * function of its inputs (template bytes, form data, write and patch modes, compression profile), so an identical
+ * request within the TTL can be answered with the stored output instead of repeating the parse/merge/stamp cycle.
+ * <ul>
+ *   <li><em>Keys.</em> Entries are keyed by {@link #fingerprint a SHA-256 over every input}. The form data is
+ *       expected in canonical (compact, re-serialized) JSON so that formatting differences do not defeat the cache.
+ *       Property order is deliberately <em>not</em> normalized: it decides the order in which new fields are added
+ *       to the form, so two payloads that differ only in order can produce different documents.</li>
+ *   <li><em>Idempotency keys.</em> A caller-supplied <code>Idempotency-Key</code> is bound to the fingerprint of
+ *       the first request that used it successfully; a request that failed leaves the key free, so the caller can
+ *       retry it with corrected data. Presenting a bound key again with a different payload is rejected rather than
+ *       silently returning a document for other data. Keys are scoped to the caller by the endpoint (see
+ *       <code>HttpTriggerFunctions</code>), so two callers choosing the same key do not collide. A binding is only
+ *       dropped when its TTL runs out, never to make room: an instance holds at most
+ *       {@value #MAX_IDEMPOTENCY_KEYS} live bindings, and a request presenting a new key beyond that is turned away
+ *       with a {@link ServerBusyException} until the oldest binding expires, rather than silently forgetting a key a
+ *       caller may still retry with.</li>
+ *   <li><em>Storage.</em> Results are kept on the heap by default, or as files under a configured directory so that
+ *       a larger cache does not compete with in-flight requests for heap. Either way the total size is bounded and
+ *       the least recently used entries are evicted first.</li>
+ *   <li><em>Shared tier.</em> With a {@link SharedCacheTier}, a local miss is looked up there (and kept locally on a
+ *       hit) and every stored result is also published there for the same TTL, so a retry that a load balancer sends
+ *       to another instance is still answered from cache. Idempotency-key bindings stay per instance.</li>
+ * </ul>
+ * All methods are thread-safe. The cache is disabled (every lookup misses, nothing is stored) when its size bound
+ * is zero.
+ */
+public final class FillResultCache {
+
+    static final int MAX_IDEMPOTENCY_KEYS = 10_000;
+
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final Path directory;
+    private final LongSupplier clock;
+    private final SharedCacheTier shared;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Bindings in the order they expire: every binding lives for the same TTL and is moved to the end when renewed.
+     */
+    private final LinkedHashMap<String, Binding> idempotencyKeys = new LinkedHashMap<>();
+    private long totalBytes;
+
+    /**
+     * @param maxBytes   Maximum total size of stored results; <code>0</code> disables the cache.
+     * @param ttlMillis  How long a stored result (and an idempotency-key binding) stays valid.
+     * @param directory  Directory to store results in, or <code>null</code> to keep them on the heap.
+     * @param clock      Monotonic nanosecond clock (injectable for tests).
+     */
+    FillResultCache(final long maxBytes, final long ttlMillis, final Path directory, final LongSupplier clock) {
+        this(maxBytes, ttlMillis, directory, clock, SharedCacheTier.NONE);
+    }
+
+    /**
+     * @param maxBytes   Maximum total size of stored results; <code>0</code> disables the cache.
+     * @param ttlMillis  How long a stored result (and an idempotency-key binding) stays valid.
+     * @param directory  Directory to store results in, or <code>null</code> to keep them on the heap.
+     * @param clock      Monotonic nanosecond clock (injectable for tests).
+     * @param shared     The shared tier, consulted on a local miss and written on every store.
+     */
+    FillResultCache(final long maxBytes, final long ttlMillis, final Path directory, final LongSupplier clock,
+                    final SharedCacheTier shared) {
+        this.shared = shared;
+        this.maxBytes = Math.max(0, maxBytes);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ttlMillis));
+        this.directory = directory;
+        this.clock = clock;
+        if (directory != null && this.maxBytes > 0) {
+            prepareDirectory(directory);
+        }
+    }
+
+    /**
+     * Creates a cache from the <code>FILL_CACHE_*</code> settings: 32 MiB on the heap with a 10-minute TTL unless
+     * configured otherwise. It is on by default because <code>Idempotency-Key</code> is answered from it;
+     * <code>FILL_CACHE_MAX_BYTES=0</code> turns it, and idempotency keys, off. Results go to the configured shared
+     * cache too, unless <code>SHARED_CACHE_FILL_RESULTS</code> is <code>false</code>.
+     *
+     * @return The configured cache.
+     */
+    public static FillResultCache fromSettings() {
+        final var directory = AppSettings.getString("FILL_CACHE_DIRECTORY", null);
+        return new FillResultCache(
+                AppSettings.getLong("FILL_CACHE_MAX_BYTES", 32L * 1024 * 1024),
+                AppSettings.getLong("FILL_CACHE_TTL_MS", TimeUnit.MINUTES.toMillis(10)),
+                directory == null ? null : Path.of(directory),
+                System::nanoTime,
+                AppSettings.getBoolean("SHARED_CACHE_FILL_RESULTS", true) ? SharedCacheTier.configured()
+                        : SharedCacheTier.NONE);
+    }
+
+    /**
+     * @return <code>true</code> if results are cached at all.
+     */
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Computes the cache key for a fill request.
+     *
+     * @param templateBytes The source PDF.
+     * @param formDataJson  The form data as canonical (compact) JSON.
+     * @param writeMode     The requested write mode.
+     * @param patchMode     The requested patch mode.
+     * @param profile       The compression profile the output is written with.
+     * @return The request fingerprint.
+     */
+    public static String fingerprint(final byte[] templateBytes, final String formDataJson,
+                                     final WriteMode writeMode, final PatchMode patchMode,
+                                     final CompressionProfile profile) {
+        return Fingerprints.sha256(templateBytes, formDataJson, writeMode.value(), patchMode.value(),
+                profile.value());
+    }
+
+    /**
+     * Verifies that an idempotency key is free or already bound to this request, without binding it. Called before
+     * a fill, so a reused key, or a new one there is no room for, is rejected before any work is done.
+     *
+     * @param idempotencyKey The caller's (scoped) key.
+     * @param fingerprint    The fingerprint of the request presenting the key.
+     * @throws IdempotencyKeyReuseException If the key is already bound to a different, unexpired fingerprint.
+     * @throws ServerBusyException          If the key is new and {@value #MAX_IDEMPOTENCY_KEYS} unexpired keys are
+     *                                      already bound; it can be retried once the oldest of them expires.
+     */
+    public synchronized void checkIdempotencyKey(final String idempotencyKey, final String fingerprint) {
+        if (!isEnabled()) {
+            return;
+        }
+        final var now = clock.getAsLong();
+        removeExpiredBindings(now);
+        final var existing = idempotencyKeys.get(idempotencyKey);
+        if (existing == null) {
+            if (idempotencyKeys.size() >= MAX_IDEMPOTENCY_KEYS) {
+                final var oldest = idempotencyKeys.values().iterator().next();
+                throw new ServerBusyException(
+                        (int) Math.max(1, Math.ceilDiv(oldest.expiresAt() - now, TimeUnit.SECONDS.toNanos(1))));
+            }
+        } else if (!existing.fingerprint().equals(fingerprint)) {
+            throw new IdempotencyKeyReuseException();
+        }
+    }
+
+    /**
+     * Binds an idempotency key to a request fingerprint, or verifies an existing binding. Called once the request
+     * has succeeded, so that a failed request never holds the key.
+     *
+     * @param idempotencyKey The caller's (scoped) key.
+     * @param fingerprint    The fingerprint of the request presenting the key.
+     * @throws IdempotencyKeyReuseException If the key is already bound to a different, unexpired fingerprint.
+     */
+    public synchronized void bindIdempotencyKey(final String idempotencyKey, final String fingerprint) {
+        if (!isEnabled()) {
+            return;
+        }
+        final var now = clock.getAsLong();
+        removeExpiredBindings(now);
+        final var existing = idempotencyKeys.remove(idempotencyKey);
+        if (existing != null && !existing.fingerprint().equals(fingerprint)) {
+            idempotencyKeys.put(idempotencyKey, existing);
+            throw new IdempotencyKeyReuseException();
+        }
+        // Not checked against the capacity again: the request was admitted by checkIdempotencyKey and its work is
+        // done. Requests in flight can therefore take the map a little past the limit, never unboundedly.
+        idempotencyKeys.put(idempotencyKey, new Binding(fingerprint, now + ttlNanos));
+    }
+
+    private void removeExpiredBindings(final long now) {
+        final var oldest = idempotencyKeys.values().iterator();
+        while (oldest.hasNext() && oldest.next().expiresAt() - now <= 0) {
+            oldest.remove();
+        }
+    }
+
+    /**
+     * @param fingerprint The request fingerprint.
+     * @return The stored result, or empty if there is none or it has expired.
+     */
+    public Optional<byte[]> get(final String fingerprint) {
+        final var local = getLocal(fingerprint);
+        if (local.isPresent() || !isEnabled() || !shared.isEnabled()) {
+            return local;
+        }
+        // Outside the lock: a round trip to the shared cache must not hold up other lookups.
+        final var sharedResult = shared.get(sharedKey(fingerprint));
+        sharedResult.ifPresent(result -> putLocal(fingerprint, result));
+        return sharedResult;
+    }
+
+    private synchronized Optional<byte[]> getLocal(final String fingerprint) {
+        final var entry = entries.get(fingerprint);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        if (entry.expiresAt() - clock.getAsLong() <= 0) {
+            remove(fingerprint);
+            return Optional.empty();
+        }
+        if (entry.file() == null) {
+            return Optional.of(entry.bytes());
+        }
+        try {
+            return Optional.of(Files.readAllBytes(entry.file()));
+        } catch (IOException e) {
+            // A missing or unreadable spill file is just a miss; the caller recomputes and re-stores the result.
+            remove(fingerprint);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores a result, evicting least recently used entries as needed to stay within the size bound. Results
+     * larger than the whole bound are not stored.
+     *
+     * @param fingerprint The request fingerprint.
+     * @param result      The filled PDF.
+     */
+    public void put(final String fingerprint, final byte[] result) {
+        if (!isEnabled()) {
+            return;
+        }
+        putLocal(fingerprint, result);
+        shared.put(sharedKey(fingerprint), result, Duration.ofNanos(ttlNanos));
+    }
+
+    private static String sharedKey(final String fingerprint) {
+        return "fill:" + fingerprint;
+    }
+
+    private synchronized void putLocal(final String fingerprint, final byte[] result) {
+        if (result.length > maxBytes) {
+            return;
+        }
+        remove(fingerprint);
+        while (totalBytes + result.length > maxBytes && !entries.isEmpty()) {
+            remove(entries.keySet().iterator().next());
+        }
+
+        Path file = null;
+        if (directory != null) {
+            file = directory.resolve(fingerprint + ".pdf");
+            try {
+                Files.write(file, result);
+            } catch (IOException e) {
+                // Caching is an optimization; failing to spill must never fail the request.
+                deleteQuietly(file);
+                return;
+            }
+        }
+        entries.put(fingerprint, new Entry(file == null ? result : null, file, result.length,
+                clock.getAsLong() + ttlNanos));
+        totalBytes += result.length;
+    }
+
+    private void remove(final String fingerprint) {
+        final var removed = entries.remove(fingerprint);
+        if (removed != null) {
+            totalBytes -= removed.size();
+            if (removed.file() != null) {
+                deleteQuietly(removed.file());
+            }
+        }
+    }
+
+    /**
+     * Creates the spill directory and clears result files left by a previous process, which this instance has no
+     * index for and would otherwise never evict.
+     */
+    private static void prepareDirectory(final Path directory) {
+        try {
+            Files.createDirectories(directory);
+            try (final var stale = Files.newDirectoryStream(directory, "*.pdf")) {
+                stale.forEach(FillResultCache::deleteQuietly);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not prepare fill cache directory: " + directory, e);
+        }
+    }
+
+    private static void deleteQuietly(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Best effort: an orphaned file is cleared on the next start.
+        }
+    }
+
+    private record Entry(byte[] bytes, Path file, int size, long expiresAt) {
+    }
+
+    private record Binding(String fingerprint, long expiresAt) {
+    }
+}
@@ -0,0 +1,58 @@
+package app.djk.RestPdfFormFiller.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Content fingerprints used as cache and coalescing keys.
+ * <p>
+ * Keys are SHA-256 digests so that two requests only ever share a cached artifact when their inputs are
+ * byte-for-byte identical; a weaker or faster hash would risk serving one caller's document to another.
+ */
+public class Fingerprints {
+
+    private Fingerprints() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * @param bytes The content to fingerprint.
+     * @return The lowercase hex SHA-256 digest of <code>bytes</code>.
+     */
+    public static String sha256(final byte[] bytes) {
+        return HexFormat.of().formatHex(newDigest().digest(bytes));
+    }
+
+    /**
+     * Fingerprints a sequence of parts as a single value.
+     * <p>
+     * Each part is length-prefixed before hashing so that different splits of the same bytes (for example
+     * <code>"ab","c"</code> and <code>"a","bc"</code>) never produce the same fingerprint.
+     *
+     * @param parts The parts to fingerprint, each either a <code>byte[]</code> or an object whose
+     *              <code>toString()</code> form is hashed as UTF-8.
+     * @return The lowercase hex SHA-256 digest of the length-prefixed parts.
+     */
+    public static String sha256(final Object... parts) {
+        final var digest = newDigest();
+        for (final var part : parts) {
+            final var bytes = part instanceof byte[] raw
+                    ? raw : String.valueOf(part).getBytes(StandardCharsets.UTF_8);
+            digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+            digest.update(bytes);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is a mandatory algorithm on every Java platform.
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+}
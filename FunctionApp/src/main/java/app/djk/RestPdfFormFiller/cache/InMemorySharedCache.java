@@ -0,0 +1,56 @@
+package app.djk.RestPdfFormFiller.cache;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link SharedCache} held in this process: the stand-in for a shared cache in tests and in a single-instance
+ * deployment (<code>SHARED_CACHE=memory</code>) that wants to exercise the same code path. It is not bounded by size;
+ * values are dropped when their time-to-live has passed and they are next looked up.
+ */
+public final class InMemorySharedCache implements SharedCache {
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+
+    public InMemorySharedCache() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * @param clock Monotonic nanosecond clock (injectable for tests).
+     */
+    InMemorySharedCache(final LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) {
+        final var entry = entries.get(key);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        if (entry.expiresAt() - clock.getAsLong() <= 0) {
+            entries.remove(key, entry);
+            return Optional.empty();
+        }
+        return Optional.of(entry.value().clone());
+    }
+
+    @Override
+    public void put(final String key, final byte[] value, final Duration ttl) {
+        entries.put(key, new Entry(value.clone(), clock.getAsLong() + ttl.toNanos()));
+    }
+
+    /**
+     * @return The number of values held, including expired ones not yet looked up.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private record Entry(byte[] value, long expiresAt) {
+    }
+}
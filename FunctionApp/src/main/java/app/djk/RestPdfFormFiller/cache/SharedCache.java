@@ -0,0 +1,33 @@
+package app.djk.RestPdfFormFiller.cache;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * A byte-valued cache shared by every instance of the service, such as a Redis server. It is the second tier behind
+ * the per-instance caches (see {@link SharedCacheTier}), so that an instance added by a scale-out can reuse what the
+ * others have already computed instead of starting cold.
+ * <p>
+ * Implementations must be thread-safe. They report failures rather than hiding them; deciding that a failing shared
+ * cache is only a miss is the tier's job.
+ */
+public interface SharedCache {
+
+    /**
+     * @param key The full key.
+     * @return The stored value, or empty if there is none or it has expired.
+     * @throws IOException If the cache cannot be reached or refuses the request.
+     */
+    Optional<byte[]> get(String key) throws IOException;
+
+    /**
+     * Stores a value, replacing any value under the same key.
+     *
+     * @param key   The full key.
+     * @param value The value.
+     * @param ttl   How long the value is kept.
+     * @throws IOException If the cache cannot be reached or refuses the request.
+     */
+    void put(String key, byte[] value, Duration ttl) throws IOException;
+}
@@ -0,0 +1,197 @@
+package app.djk.RestPdfFormFiller.cache;
+
+import app.djk.RestPdfFormFiller.cache.redis.RedisSharedCache;
+import app.djk.RestPdfFormFiller.config.AppSettings;
+import app.djk.RestPdfFormFiller.execution.PipelineExecutor;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The shared second tier of the caches: a {@link SharedCache} used the way a cache must be, as an optimization that
+ * can never fail a request.
+ * <ul>
+ *   <li><em>Local first.</em> The per-instance caches consult this tier only on a miss of their own and keep what
+ *       they find, so a warm instance never makes a network call for a template it has already seen.</li>
+ *   <li><em>Failures are misses.</em> A shared cache that cannot be reached costs each request at most one timeout
+ *       and is then left alone for <code>SHARED_CACHE_RETRY_AFTER_MS</code>, so an outage degrades the service to
+ *       per-instance caching rather than adding a timeout to every request.</li>
+ *   <li><em>Writes are in the background.</em> A computed value is stored on the I/O stage of the
+ *       {@link PipelineExecutor}; the request that computed it does not wait for the round trip.</li>
+ * </ul>
+ * Every key is prefixed with <code>SHARED_CACHE_KEY_PREFIX</code>, so several deployments can share one server.
+ */
+public final class SharedCacheTier {
+
+    /**
+     * The tier of a deployment without a shared cache: every lookup misses and nothing is stored.
+     */
+    public static final SharedCacheTier NONE = new SharedCacheTier(null, "", Duration.ZERO, Duration.ZERO,
+            Long.MAX_VALUE, Runnable::run, System::nanoTime);
+
+    private static final Logger LOGGER = Logger.getLogger(SharedCacheTier.class.getName());
+    private static final Object LOCK = new Object();
+    private static volatile SharedCacheTier configured;
+
+    private final SharedCache cache;
+    private final String keyPrefix;
+    private final Duration artifactTtl;
+    private final long retryAfterNanos;
+    private final long maxValueBytes;
+    private final Executor writer;
+    private final LongSupplier clock;
+    private volatile long unavailableUntil;
+    private volatile boolean unavailable;
+
+    /**
+     * @param cache         The shared cache, or <code>null</code> for none.
+     * @param keyPrefix     Prefix of every key.
+     * @param artifactTtl   How long template artifacts are kept.
+     * @param retryAfter    How long the cache is left alone after a failure.
+     * @param maxValueBytes Largest value stored; larger values are only kept per instance.
+     * @param writer        Runs the background writes.
+     * @param clock         Monotonic nanosecond clock (injectable for tests).
+     */
+    SharedCacheTier(final SharedCache cache, final String keyPrefix, final Duration artifactTtl,
+                    final Duration retryAfter, final long maxValueBytes, final Executor writer,
+                    final LongSupplier clock) {
+        this.cache = cache;
+        this.keyPrefix = keyPrefix;
+        this.artifactTtl = artifactTtl;
+        this.retryAfterNanos = retryAfter.toNanos();
+        this.maxValueBytes = maxValueBytes;
+        this.writer = writer;
+        this.clock = clock;
+    }
+
+    /**
+     * Creates the tier selected by <code>SHARED_CACHE</code> on the first call and returns it afterwards. Creating it
+     * does not connect; the first lookup does.
+     *
+     * @return The configured tier, or {@link #NONE} when <code>SHARED_CACHE</code> is unset.
+     * @throws IllegalStateException If <code>SHARED_CACHE</code> names an unknown cache or its settings are missing.
+     */
+    public static SharedCacheTier configured() {
+        var tier = configured;
+        if (tier == null) {
+            synchronized (LOCK) {
+                tier = configured;
+                if (tier == null) {
+                    tier = fromSettings();
+                    configured = tier;
+                }
+            }
+        }
+        return tier;
+    }
+
+    private static SharedCacheTier fromSettings() {
+        final var name = AppSettings.getString("SHARED_CACHE", null);
+        if (name == null) {
+            return NONE;
+        }
+        final SharedCache cache = switch (name.toLowerCase(Locale.ROOT)) {
+            case "redis" -> RedisSharedCache.fromSettings();
+            case "memory" -> new InMemorySharedCache();
+            default -> throw new IllegalStateException("No shared cache named '" + name + "' is available.");
+        };
+        return new SharedCacheTier(cache,
+                AppSettings.getString("SHARED_CACHE_KEY_PREFIX", "rpff:"),
+                Duration.ofSeconds(AppSettings.getLong("SHARED_CACHE_TEMPLATE_TTL_SECONDS",
+                        TimeUnit.DAYS.toSeconds(1))),
+                Duration.ofMillis(AppSettings.getLong("SHARED_CACHE_RETRY_AFTER_MS", 30_000)),
+                AppSettings.getLong("SHARED_CACHE_MAX_VALUE_BYTES", 8L * 1024 * 1024),
+                task -> PipelineExecutor.shared().submit(PipelineExecutor.Stage.IO, Executors.callable(task)),
+                System::nanoTime);
+    }
+
+    /**
+     * @return <code>true</code> if there is a shared cache behind this tier.
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * @param key The key, without the deployment prefix.
+     * @return The shared value, or empty on a miss, while the cache is being left alone, or if the lookup failed.
+     */
+    public Optional<byte[]> get(final String key) {
+        if (!available()) {
+            return Optional.empty();
+        }
+        try {
+            final var value = cache.get(keyPrefix + key);
+            recovered();
+            return value;
+        } catch (IOException | RuntimeException e) {
+            failed(e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores a template artifact in the background for <code>SHARED_CACHE_TEMPLATE_TTL_SECONDS</code>. Template
+     * artifacts are keyed by content, so they never go stale; the time-to-live only bounds what the server holds.
+     *
+     * @param key   The key, without the deployment prefix.
+     * @param value The value; not modified afterwards.
+     */
+    public void put(final String key, final byte[] value) {
+        put(key, value, artifactTtl);
+    }
+
+    /**
+     * Stores a value in the background. Values over <code>SHARED_CACHE_MAX_VALUE_BYTES</code> are not shared.
+     *
+     * @param key   The key, without the deployment prefix.
+     * @param value The value; not modified afterwards.
+     * @param ttl   How long the value is kept.
+     */
+    public void put(final String key, final byte[] value, final Duration ttl) {
+        if (!available() || value.length > maxValueBytes || ttl.isZero() || ttl.isNegative()) {
+            return;
+        }
+        try {
+            writer.execute(() -> {
+                try {
+                    cache.put(keyPrefix + key, value, ttl);
+                    recovered();
+                } catch (IOException | RuntimeException e) {
+                    failed(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the value is simply not shared.
+        }
+    }
+
+    private boolean available() {
+        return cache != null && (!unavailable || unavailableUntil - clock.getAsLong() <= 0);
+    }
+
+    private void failed(final Exception e) {
+        if (!unavailable) {
+            LOGGER.log(Level.WARNING, "Shared cache unavailable; using per-instance caches for "
+                    + TimeUnit.NANOSECONDS.toMillis(retryAfterNanos) + " ms: " + e);
+        }
+        unavailableUntil = clock.getAsLong() + retryAfterNanos;
+        unavailable = true;
+    }
+
+    private void recovered() {
+        if (unavailable) {
+            unavailable = false;
+            LOGGER.info("Shared cache available again.");
+        }
+    }
+}
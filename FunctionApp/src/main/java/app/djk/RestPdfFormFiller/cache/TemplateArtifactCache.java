@@ -0,0 +1,220 @@
+package app.djk.RestPdfFormFiller.cache;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Small, entry-bounded cache of values derived from a template, keyed by the template's {@link Fingerprints content
+ * fingerprint}.
+ * <p>
+ * Flows fill the same handful of templates over and over, so anything that depends only on the template (and not on
+ * the caller's data) is worth computing once per template rather than once per request. The values are expected to
+ * be immutable and are shared between concurrent requests as-is. Entries are evicted least recently used first.
+ * <p>
+ * All methods are thread-safe. A value is computed outside the lock, so a slow computation never blocks lookups of
+ * other templates.
+ * <p>
+ * <strong>Why misses are coalesced.</strong> After a deploy or a scale-out every cache is cold, and a flow that fans
+ * out a hundred fills of the same template sends a hundred misses at once. Each would repeat the same parse on its
+ * own core before the first could store its result. Instead, the first miss computes the value and the others that
+ * arrive while it is running wait for it and share it (single flight). If the computation fails, every caller waiting
+ * on it receives the same exception and nothing is stored, so the next lookup tries again. Coalescing happens even
+ * when the cache is disabled (every lookup computes unless an identical one is in flight; nothing is stored), which
+ * is when its size bound is zero.
+ * <p>
+ * <strong>Why a shared tier.</strong> Coalescing stops one instance repeating a parse; it does nothing for the next
+ * instance a scale-out adds, which starts cold again. A cache created with a {@link SharedCacheTier} and a
+ * {@link Codec} consults the shared tier on a local miss before computing, and publishes what it computes, so each
+ * template is parsed once across the deployment rather than once per instance. The lookup runs inside the flight,
+ * so concurrent misses on one instance make one round trip between them.
+ *
+ * @param <V> The cached artifact type.
+ */
+public final class TemplateArtifactCache<V> {
+
+    private final int maxEntries;
+    private final String kind;
+    private final Codec<V> codec;
+    private final SharedCacheTier shared;
+    private final LinkedHashMap<String, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<V>> inFlight = new HashMap<>();
+
+    /**
+     * Computes a template artifact.
+     *
+     * @param <V> The artifact type.
+     * @param <E> The checked exception the computation may throw.
+     */
+    @FunctionalInterface
+    public interface Computation<V, E extends Exception> {
+        /**
+         * @param fingerprint The template fingerprint.
+         * @return The artifact; must not be <code>null</code>.
+         * @throws E If the artifact cannot be computed.
+         */
+        V compute(String fingerprint) throws E;
+    }
+
+    /**
+     * Serializes an artifact for the shared tier.
+     *
+     * @param <V> The artifact type.
+     */
+    public interface Codec<V> {
+        /**
+         * @param value The artifact.
+         * @return Its serialized form.
+         */
+        byte[] encode(V value);
+
+        /**
+         * @param bytes A serialized artifact.
+         * @return The artifact.
+         * @throws IOException If the bytes are not a serialized artifact of this version.
+         */
+        V decode(byte[] bytes) throws IOException;
+    }
+
+    /**
+     * @param maxEntries Maximum number of templates to keep artifacts for; <code>0</code> disables the cache.
+     */
+    public TemplateArtifactCache(final int maxEntries) {
+        this(maxEntries, null, null, SharedCacheTier.NONE);
+    }
+
+    /**
+     * @param maxEntries Maximum number of templates to keep artifacts for; <code>0</code> disables the local cache.
+     * @param kind       Names the artifact (and its serialized version) in shared keys, such as
+     *                   <code>schema:v1</code>.
+     * @param codec      Serializes the artifact for the shared tier.
+     * @param shared     The shared tier, consulted on a local miss.
+     */
+    public TemplateArtifactCache(final int maxEntries, final String kind, final Codec<V> codec,
+                                 final SharedCacheTier shared) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.kind = kind;
+        this.codec = codec;
+        this.shared = shared;
+    }
+
+    /**
+     * Returns the cached artifact for a template, computing and storing it on a miss. A miss while the same
+     * template's artifact is already being computed waits for that computation instead of starting another, and
+     * receives its result or its exception.
+     * <p>
+     * A waiting caller receives the computing caller's exception instance as it is, so the computations passed for
+     * one cache must throw the same checked exception types.
+     *
+     * @param fingerprint The template fingerprint.
+     * @param compute     Computes the artifact from the fingerprint; must not return <code>null</code>.
+     * @param <E>         The checked exception the computation may throw.
+     * @return The cached or freshly computed artifact.
+     * @throws E If the computation (this caller's, or the one it waited for) failed.
+     */
+    public <E extends Exception> V computeIfAbsent(final String fingerprint, final Computation<V, E> compute)
+            throws E {
+        final CompletableFuture<V> flight;
+        synchronized (this) {
+            final var cached = entries.get(fingerprint);
+            if (cached != null) {
+                return cached;
+            }
+            final var running = inFlight.get(fingerprint);
+            if (running != null) {
+                flight = running;
+            } else {
+                flight = null;
+                inFlight.put(fingerprint, new CompletableFuture<>());
+            }
+        }
+        return flight != null ? await(flight) : computeAsLeader(fingerprint, compute);
+    }
+
+    private <E extends Exception> V computeAsLeader(final String fingerprint, final Computation<V, E> compute)
+            throws E {
+        final V computed;
+        try {
+            final var sharedValue = fromShared(fingerprint);
+            computed = sharedValue != null ? sharedValue : compute.compute(fingerprint);
+            if (sharedValue == null && shared.isEnabled()) {
+                shared.put(kind + ":" + fingerprint, codec.encode(computed));
+            }
+        } catch (Throwable t) {
+            finish(fingerprint, null).completeExceptionally(t);
+            throw t;
+        }
+        finish(fingerprint, computed).complete(computed);
+        return computed;
+    }
+
+    /**
+     * @return The artifact from the shared tier, or <code>null</code> if it has none or what it has cannot be decoded
+     * (such as a value written by another version, which is then recomputed and replaced).
+     */
+    private V fromShared(final String fingerprint) {
+        if (!shared.isEnabled()) {
+            return null;
+        }
+        final var bytes = shared.get(kind + ":" + fingerprint);
+        if (bytes.isEmpty()) {
+            return null;
+        }
+        try {
+            return codec.decode(bytes.get());
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores a computed value (if any) and ends its flight in one step, so that a lookup never misses both the entry
+     * and the flight.
+     */
+    private synchronized CompletableFuture<V> finish(final String fingerprint, final V computed) {
+        if (computed != null) {
+            put(fingerprint, computed);
+        }
+        return inFlight.remove(fingerprint);
+    }
+
+    /**
+     * Waits for another caller's computation. The wait is not interruptible: it lasts no longer than the computation
+     * this caller would otherwise have run itself.
+     */
+    @SuppressWarnings("unchecked")
+    private static <V, E extends Exception> V await(final CompletableFuture<V> flight) throws E {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            final var cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw (E) cause;
+        }
+    }
+
+    /**
+     * @return The number of templates currently cached.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void put(final String fingerprint, final V value) {
+        if (maxEntries == 0) {
+            return;
+        }
+        entries.put(fingerprint, value);
+        while (entries.size() > maxEntries) {
+            entries.remove(entries.keySet().iterator().next());
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package app.djk.RestPdfFormFiller.cache.redis;
+
+import app.djk.RestPdfFormFiller.cache.SharedCache;
+import app.djk.RestPdfFormFiller.config.AppSettings;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A {@link SharedCache} on a Redis server (such as Azure Cache for Redis), spoken to directly in the Redis
+ * serialization protocol (RESP) over a plain or TLS socket.
+ * <p>
+ * <strong>Why not a client library.</strong> The cache needs three commands (<code>AUTH</code>, <code>GET</code> and
+ * <code>SET ... PX</code>). A full client brings its own connection management, codecs and event loop into every cold
+ * start for that; the protocol for those commands is a few dozen lines. Connections are pooled: each command borrows
+ * an idle connection (or opens one), and returns it only after a complete reply, so a connection is never reused in
+ * an unknown protocol state.
+ */
+public final class RedisSharedCache implements SharedCache {
+
+    private final String host;
+    private final int port;
+    private final boolean tls;
+    private final String user;
+    private final String password;
+    private final int timeoutMillis;
+    private final BlockingQueue<Connection> idle;
+
+    /**
+     * @param host          Server host name.
+     * @param port          Server port.
+     * @param tls           Whether to connect with TLS (verifying the server's host name).
+     * @param user          ACL user name, or <code>null</code> for the default user.
+     * @param password      Password or access key, or <code>null</code> to skip <code>AUTH</code>.
+     * @param timeout       Connect and read timeout of every command.
+     * @param maxIdle       Most idle connections kept open.
+     */
+    RedisSharedCache(final String host, final int port, final boolean tls, final String user, final String password,
+                     final Duration timeout, final int maxIdle) {
+        this.host = host;
+        this.port = port;
+        this.tls = tls;
+        this.user = user;
+        this.password = password;
+        this.timeoutMillis = (int) Math.min(Integer.MAX_VALUE, Math.max(1, timeout.toMillis()));
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, maxIdle));
+    }
+
+    /**
+     * Creates the cache from <code>REDIS_CONNECTION_STRING</code>, in the form the Azure portal shows:
+     * <code>host:port,password=...,ssl=True</code>, optionally with <code>user=...</code>. TLS is on unless
+     * <code>ssl=False</code>, and the port defaults to 6380 with TLS and 6379 without.
+     *
+     * @return The cache. No connection is opened yet.
+     * @throws IllegalStateException If the connection string is missing or malformed.
+     */
+    public static RedisSharedCache fromSettings() {
+        final var connectionString = AppSettings.getString("REDIS_CONNECTION_STRING", null);
+        if (connectionString == null) {
+            throw new IllegalStateException("REDIS_CONNECTION_STRING is required for the redis shared cache.");
+        }
+        return fromConnectionString(connectionString,
+                Duration.ofMillis(AppSettings.getLong("SHARED_CACHE_TIMEOUT_MS", 1000)),
+                AppSettings.getInt("SHARED_CACHE_MAX_IDLE_CONNECTIONS", 8));
+    }
+
+    static RedisSharedCache fromConnectionString(final String connectionString, final Duration timeout,
+                                                 final int maxIdle) {
+        final var parts = connectionString.split(",");
+        final var endpoint = parts[0].strip();
+        String user = null;
+        String password = null;
+        var tls = true;
+        for (var i = 1; i < parts.length; i++) {
+            final var separator = parts[i].indexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            final var value = parts[i].substring(separator + 1).strip();
+            switch (parts[i].substring(0, separator).strip().toLowerCase(Locale.ROOT)) {
+                case "password" -> password = value;
+                case "user" -> user = value;
+                case "ssl" -> tls = !value.equalsIgnoreCase("false");
+                default -> {
+                    // Client options such as abortConnect have no meaning here.
+                }
+            }
+        }
+        final var colon = endpoint.lastIndexOf(':');
+        final var host = colon < 0 ? endpoint : endpoint.substring(0, colon);
+        if (host.isBlank()) {
+            throw new IllegalStateException("REDIS_CONNECTION_STRING must start with the server's host name.");
+        }
+        final int port;
+        try {
+            port = colon < 0 ? (tls ? 6380 : 6379) : Integer.parseInt(endpoint.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("REDIS_CONNECTION_STRING has an invalid port.", e);
+        }
+        return new RedisSharedCache(host, port, tls, user, password, timeout, maxIdle);
+    }
+
+    /**
+     * @return The parsed settings, for tests. Never logged: it includes the password.
+     */
+    String describe() {
+        return host + ":" + port + (tls ? " tls" : " plain") + " user=" + user + " password=" + password;
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) throws IOException {
+        return Optional.ofNullable((byte[]) execute(bytes("GET"), bytes(key)));
+    }
+
+    @Override
+    public void put(final String key, final byte[] value, final Duration ttl) throws IOException {
+        execute(bytes("SET"), bytes(key), value, bytes("PX"), bytes(Long.toString(Math.max(1, ttl.toMillis()))));
+    }
+
+    /**
+     * Sends one command on a pooled connection and returns its reply: a <code>byte[]</code> for a bulk string,
+     * <code>null</code> for a nil reply, a <code>String</code> for a simple string, a <code>Long</code> for an
+     * integer.
+     *
+     * @throws IOException If the connection fails or the server replies with an error.
+     */
+    private Object execute(final byte[]... command) throws IOException {
+        var connection = idle.poll();
+        if (connection == null) {
+            connection = connect();
+        }
+        final Object reply;
+        try {
+            reply = connection.call(command);
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+        if (!idle.offer(connection)) {
+            connection.close();
+        }
+        if (reply instanceof ErrorReply error) {
+            throw new IOException("Redis replied with an error: " + error.message());
+        }
+        return reply;
+    }
+
+    private Connection connect() throws IOException {
+        final var socket = (tls ? SSLSocketFactory.getDefault() : SocketFactory.getDefault()).createSocket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+            if (socket instanceof SSLSocket sslSocket) {
+                final var parameters = sslSocket.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                sslSocket.setSSLParameters(parameters);
+                sslSocket.startHandshake();
+            }
+            final var connection = new Connection(socket);
+            if (password != null) {
+                final var reply = user == null
+                        ? connection.call(bytes("AUTH"), bytes(password))
+                        : connection.call(bytes("AUTH"), bytes(user), bytes(password));
+                if (reply instanceof ErrorReply) {
+                    // The server's message may echo the credential's form; it is not passed on.
+                    throw new IOException("Redis refused the credentials.");
+                }
+            }
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private record ErrorReply(String message) {
+    }
+
+    /**
+     * One socket with its buffered streams. Used by one command at a time.
+     */
+    private static final class Connection {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+
+        Connection(final Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        Object call(final byte[]... command) throws IOException {
+            out.write(bytes("*" + command.length + "\r\n"));
+            for (final var argument : command) {
+                out.write(bytes("$" + argument.length + "\r\n"));
+                out.write(argument);
+                out.write('\r');
+                out.write('\n');
+            }
+            out.flush();
+            return readReply();
+        }
+
+        private Object readReply() throws IOException {
+            final var type = in.read();
+            final var line = readLine();
+            return switch (type) {
+                case '+' -> line;
+                case '-' -> new ErrorReply(line);
+                case ':' -> Long.parseLong(line);
+                case '$' -> readBulk(Integer.parseInt(line));
+                case '*' -> readArray(Integer.parseInt(line));
+                case -1 -> throw new EOFException("Redis closed the connection.");
+                default -> throw new IOException("Unexpected Redis reply type: " + (char) type);
+            };
+        }
+
+        private byte[] readBulk(final int length) throws IOException {
+            if (length < 0) {
+                return null;
+            }
+            final var value = in.readNBytes(length);
+            if (value.length != length || in.read() != '\r' || in.read() != '\n') {
+                throw new EOFException("Truncated Redis reply.");
+            }
+            return value;
+        }
+
+        private List<Object> readArray(final int length) throws IOException {
+            if (length < 0) {
+                return null;
+            }
+            final var items = new ArrayList<>(length);
+            for (var i = 0; i < length; i++) {
+                items.add(readReply());
+            }
+            return items;
+        }
+
+        private String readLine() throws IOException {
+            final var line = new StringBuilder();
+            for (var b = in.read(); b != '\r'; b = in.read()) {
+                if (b < 0) {
+                    throw new EOFException("Truncated Redis reply.");
+                }
+                line.append((char) b);
+            }
+            if (in.read() != '\n') {
+                throw new IOException("Malformed Redis reply.");
+            }
+            return line.toString();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to release.
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package app.djk.RestPdfFormFiller.config;
+
+/**
+ * Reads deployment-level tuning settings.
+ * <p>
+ * In Azure, App Settings surface as environment variables, so that is the primary source. A JVM system property
+ * with the same name takes precedence so that tests and local/standalone runs can override a value without
+ * touching the process environment. Every setting has a code default, so an unconfigured deployment behaves
+ * sensibly, and a malformed value falls back to that default rather than failing the request.
+ */
+public class AppSettings {
+
+    private AppSettings() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * @param name         Setting name (App Setting / environment variable / system property).
+     * @param defaultValue Value used when the setting is absent or blank.
+     * @return The trimmed setting value, or <code>defaultValue</code>.
+     */
+    public static String getString(final String name, final String defaultValue) {
+        final var value = System.getProperty(name, System.getenv(name));
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    /**
+     * @param name         Setting name.
+     * @param defaultValue Value used when the setting is absent or not a valid integer.
+     * @return The setting parsed as an <code>int</code>, or <code>defaultValue</code>.
+     */
+    public static int getInt(final String name, final int defaultValue) {
+        final var value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param name         Setting name.
+     * @param defaultValue Value used when the setting is absent or not a valid integer.
+     * @return The setting parsed as a <code>long</code>, or <code>defaultValue</code>.
+     */
+    public static long getLong(final String name, final long defaultValue) {
+        final var value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param name         Setting name.
+     * @param defaultValue Value used when the setting is absent.
+     * @return <code>true</code> if the setting is <code>true</code> (case-insensitive), <code>false</code> for any
+     * other present value, or <code>defaultValue</code> when absent.
+     */
+    public static boolean getBoolean(final String name, final boolean defaultValue) {
+        final var value = getString(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,185 @@
+package app.djk.RestPdfFormFiller.execution;
+
+import app.djk.RestPdfFormFiller.config.AppSettings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Internal executor layer for requests that fan out into several independent pieces of work (batch fills, bulk
+ * reads, comparisons).
+ * <p>
+ * Work is split by what it waits on:
+ * <ul>
+ *   <li>{@link Stage#IO} stages (reading a body, fetching a blob, spilling to a temp file) run on virtual threads.
+ *       They spend most of their time blocked, so a thread per task is cheap and never starves the CPU pool.</li>
+ *   <li>{@link Stage#CPU} stages (PDF parse, merge, stamping) run on a fixed pool of platform threads sized to the
+ *       available cores. Running more CPU-bound work than there are cores only adds heap pressure (each task holds
+ *       its own copy of a multi-MB document) without adding throughput.</li>
+ * </ul>
+ * <p>
+ * <strong>Backpressure.</strong> The CPU pool has a bounded queue, and when it is full the submitting thread runs
+ * the task itself. That throttles producers to the rate the pool drains instead of letting queued documents pile
+ * up on the heap. On top of the shared bound, {@link #invokeAll} caps how many tasks a <em>single</em> request may
+ * have in flight, so one large batch cannot occupy every core while other requests wait.
+ * <p>
+ * <strong>Deadlines.</strong> A task runs under the {@link RequestDeadline} of the thread that submitted it, so the
+ * pipeline's deadline checks bound the fanned-out work just as they bound the request's own thread, and
+ * {@link #invokeAll} stops submitting once the deadline has passed.
+ */
+public final class PipelineExecutor {
+
+    /**
+     * The kind of work a task performs, which decides the thread it runs on.
+     */
+    public enum Stage {
+        /**
+         * Blocking I/O; runs on a virtual thread.
+         */
+        IO,
+        /**
+         * CPU-bound PDF/XML work; runs on the bounded platform-thread pool.
+         */
+        CPU
+    }
+
+    private static final PipelineExecutor SHARED = new PipelineExecutor(
+            AppSettings.getInt("PIPELINE_CPU_THREADS", Runtime.getRuntime().availableProcessors()),
+            AppSettings.getInt("PIPELINE_CPU_QUEUE_CAPACITY", 2 * Runtime.getRuntime().availableProcessors()),
+            AppSettings.getInt("PIPELINE_MAX_PARALLEL_PER_REQUEST", Runtime.getRuntime().availableProcessors()));
+
+    private final ExecutorService ioExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ThreadPoolExecutor cpuExecutor;
+    private final int defaultMaxParallel;
+
+    /**
+     * @param cpuThreads         Number of platform threads for {@link Stage#CPU} work.
+     * @param cpuQueueCapacity   Number of CPU tasks that may wait for a thread before submitters run tasks
+     *                           themselves.
+     * @param defaultMaxParallel Per-request in-flight task cap used by {@link #invokeAll(Stage, List)}.
+     */
+    PipelineExecutor(final int cpuThreads, final int cpuQueueCapacity, final int defaultMaxParallel) {
+        final var threads = Math.max(1, cpuThreads);
+        this.cpuExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, cpuQueueCapacity)),
+                Thread.ofPlatform().name("pdf-cpu-", 0).daemon(true).factory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.defaultMaxParallel = Math.max(1, defaultMaxParallel);
+    }
+
+    /**
+     * @return The process-wide executor, configured from the <code>PIPELINE_*</code> settings.
+     */
+    public static PipelineExecutor shared() {
+        return SHARED;
+    }
+
+    /**
+     * Submits a single task to the executor for its stage.
+     *
+     * @param stage The kind of work the task performs.
+     * @param task  The task to run.
+     * @param <T>   The task result type.
+     * @return A future for the task's result.
+     */
+    public <T> Future<T> submit(final Stage stage, final Callable<T> task) {
+        return executorFor(stage).submit(underCurrentDeadline(task));
+    }
+
+    /**
+     * Runs every task and returns their results in submission order, using the configured per-request parallelism
+     * cap.
+     *
+     * @see #invokeAll(Stage, List, int)
+     */
+    public <T> List<T> invokeAll(final Stage stage, final List<? extends Callable<T>> tasks) throws Exception {
+        return invokeAll(stage, tasks, defaultMaxParallel);
+    }
+
+    /**
+     * Runs every task and returns their results in submission order.
+     * <p>
+     * At most <code>maxParallel</code> of the tasks are in flight at once; the calling thread blocks before
+     * submitting the next task until one finishes. If any task fails, the tasks that have not finished are
+     * cancelled and the first failure (in submission order) is rethrown unwrapped, so callers see the same
+     * exception types as if they had run the work inline &mdash; which keeps the HTTP error mapping unchanged.
+     *
+     * @param stage       The kind of work the tasks perform.
+     * @param tasks       The tasks to run.
+     * @param maxParallel Maximum number of this call's tasks running or queued at once.
+     * @param <T>         The task result type.
+     * @return The task results, in the same order as <code>tasks</code>.
+     * @throws Exception The first task failure, unwrapped from its {@link ExecutionException}.
+     */
+    public <T> List<T> invokeAll(final Stage stage, final List<? extends Callable<T>> tasks, final int maxParallel)
+            throws Exception {
+        final var permits = new Semaphore(Math.max(1, maxParallel));
+        final var futures = new ArrayList<Future<T>>(tasks.size());
+        try {
+            for (final var task : underCurrentDeadline(tasks)) {
+                permits.acquire();
+                RequestDeadline.check();
+                futures.add(executorFor(stage).submit(() -> {
+                    try {
+                        return task.call();
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            final var results = new ArrayList<T>(futures.size());
+            for (final var future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            // No-op for completed futures; stops the rest of the batch once one task has failed.
+            for (final var future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static <T> List<Callable<T>> underCurrentDeadline(final List<? extends Callable<T>> tasks) {
+        final var wrapped = new ArrayList<Callable<T>>(tasks.size());
+        for (final var task : tasks) {
+            wrapped.add(underCurrentDeadline(task));
+        }
+        return wrapped;
+    }
+
+    /**
+     * @return <code>task</code>, made to run under the calling thread's {@link RequestDeadline} if it has one.
+     */
+    private static <T> Callable<T> underCurrentDeadline(final Callable<T> task) {
+        final var deadline = RequestDeadline.current();
+        if (deadline == null) {
+            return task;
+        }
+        return () -> deadline.call(task);
+    }
+
+    private ExecutorService executorFor(final Stage stage) {
+        return stage == Stage.IO ? ioExecutor : cpuExecutor;
+    }
+
+    private static Exception unwrap(final ExecutionException e) {
+        final var cause = e.getCause();
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return cause instanceof Exception exception ? exception : e;
+    }
+}
@@ -0,0 +1,326 @@
+package app.djk.RestPdfFormFiller.execution;
+
+import app.djk.RestPdfFormFiller.projectExceptions.DeadlineExceededException;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * The point in time by which a request must finish, and the cooperative checks that abandon its work once that
+ * point has passed.
+ * <p>
+ * A request's work is {@link #call(Callable) run under} its deadline, and the PDF pipeline calls
+ * {@link #check()} at its stage boundaries (after a parse, before stamping) and {@link #checkInLoop()} inside its
+ * per-node loops (JSON conversion, the PATCH merge, the skeleton fill, the comparison). Both are no-ops on a thread
+ * with no deadline, so library callers and fill jobs run unbounded as before. The {@link PipelineExecutor} carries the
+ * submitting thread's deadline over to the tasks it runs, so a fan-out is bounded by the request that started it.
+ * <p>
+ * <strong>Why cooperative.</strong> Nothing can safely stop a thread that is inside openpdf, and an interrupt is
+ * ignored by CPU-bound parsing. Instead, once the deadline has passed, the next check on any thread throws a
+ * {@link DeadlineExceededException} and every later check throws too, so the whole request unwinds within one check
+ * interval. openpdf's own loops are reached through the streams it reads and writes: {@link #guard(OutputStream)}
+ * checks on every write while a stamper serializes the document.
+ * <p>
+ * <strong>Wasted CPU.</strong> Work abandoned at its deadline produced nothing the caller will see. The CPU time
+ * each thread spent under an abandoned deadline is added to {@link #wastedCpu()} and to the process-wide
+ * {@link #totalWastedCpu()}, so the cost of requests that ran too long is visible rather than hidden in the load
+ * of the ones that succeeded. The JVM does not measure CPU time per virtual thread, which is what the standalone
+ * server and the executor's I/O work run on: abandoned work on one is left out of both figures and reported by
+ * {@link #wastedCpuMeasured()} and {@link #unmeasuredAbandonedThreads()} instead of being counted as zero.
+ */
+public final class RequestDeadline {
+
+    /**
+     * Loop iterations between two clock reads in {@link #checkInLoop()}. Reading the clock costs tens of
+     * nanoseconds, a merge step only a little more, so checking every node would add measurably to a large fill.
+     */
+    static final int LOOP_CHECK_INTERVAL = 256;
+
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final LongAdder EXCEEDED_REQUESTS = new LongAdder();
+    private static final LongAdder WASTED_CPU_NANOS = new LongAdder();
+    private static final LongAdder UNMEASURED_ABANDONED_THREADS = new LongAdder();
+    private static final AtomicBoolean UNMEASURED_LOGGED = new AtomicBoolean();
+    private static final Logger LOGGER = Logger.getLogger(RequestDeadline.class.getName());
+
+    /**
+     * {@link Scope} start of a task that runs inside the same deadline on the thread that is already in it, whose CPU
+     * time the outer scope counts.
+     */
+    private static final long COUNTED_BY_OUTER_SCOPE = Long.MIN_VALUE;
+
+    private final long timeoutMillis;
+    private final long expiresAtNanos;
+    private final LongSupplier clock;
+    private final AtomicBoolean exceeded = new AtomicBoolean();
+    private final AtomicLong wastedCpuNanos = new AtomicLong();
+    private final AtomicBoolean cpuUnmeasured = new AtomicBoolean();
+
+    /**
+     * @param timeoutMillis How long the request may take, from now.
+     * @param clock         Source of {@link System#nanoTime()}-style readings.
+     */
+    RequestDeadline(final long timeoutMillis, final LongSupplier clock) {
+        this.timeoutMillis = timeoutMillis;
+        this.clock = clock;
+        this.expiresAtNanos = clock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * @param timeoutMillis How long the request may take, from now.
+     * @return A deadline <code>timeoutMillis</code> from now.
+     */
+    public static RequestDeadline after(final long timeoutMillis) {
+        return new RequestDeadline(timeoutMillis, System::nanoTime);
+    }
+
+    /**
+     * @return The deadline of the work running on this thread, or <code>null</code> if it has none.
+     */
+    public static RequestDeadline current() {
+        final var scope = CURRENT.get();
+        return scope == null ? null : scope.deadline;
+    }
+
+    /**
+     * Checks the deadline of the work running on this thread, at a stage boundary.
+     *
+     * @throws DeadlineExceededException If the deadline has passed.
+     */
+    public static void check() {
+        final var scope = CURRENT.get();
+        if (scope != null) {
+            scope.deadline.checkNow();
+        }
+    }
+
+    /**
+     * Checks the deadline of the work running on this thread from inside a loop. Only every
+     * {@link #LOOP_CHECK_INTERVAL}th call reads the clock.
+     *
+     * @throws DeadlineExceededException If the deadline has passed.
+     */
+    public static void checkInLoop() {
+        final var scope = CURRENT.get();
+        if (scope != null && --scope.untilCheck <= 0) {
+            scope.untilCheck = LOOP_CHECK_INTERVAL;
+            scope.deadline.checkNow();
+        }
+    }
+
+    /**
+     * Wraps a stream that a library writes to, so that its own loops are bounded by the deadline of the work running
+     * on this thread.
+     *
+     * @param out The stream.
+     * @return A stream that checks the deadline before every write, or <code>out</code> itself if this thread has no
+     * deadline.
+     */
+    public static OutputStream guard(final OutputStream out) {
+        if (CURRENT.get() == null) {
+            return out;
+        }
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(final int b) throws IOException {
+                checkInLoop();
+                out.write(b);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                checkInLoop();
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Wraps a stream that a library reads from, as {@link #guard(OutputStream)} does for one it writes to.
+     *
+     * @param in The stream.
+     * @return A stream that checks the deadline before every read, or <code>in</code> itself if this thread has no
+     * deadline.
+     */
+    public static InputStream guard(final InputStream in) {
+        if (CURRENT.get() == null) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                checkInLoop();
+                return in.read();
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                checkInLoop();
+                return in.read(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * @return Requests whose work was abandoned at their deadline since the process started.
+     */
+    public static long exceededCount() {
+        return EXCEEDED_REQUESTS.sum();
+    }
+
+    /**
+     * @return CPU time spent on work abandoned at its deadline since the process started.
+     */
+    public static Duration totalWastedCpu() {
+        return Duration.ofNanos(WASTED_CPU_NANOS.sum());
+    }
+
+    /**
+     * @return Threads, since the process started, that left an abandoned deadline without their CPU time being
+     * measured, because they were virtual threads or the JVM does not measure per-thread CPU time. Their CPU time is
+     * missing from {@link #totalWastedCpu()}.
+     */
+    public static long unmeasuredAbandonedThreads() {
+        return UNMEASURED_ABANDONED_THREADS.sum();
+    }
+
+    /**
+     * Runs work on the current thread under this deadline, restoring the thread's previous deadline afterwards.
+     *
+     * @param work The work.
+     * @param <T>  The work's result type.
+     * @return The work's result.
+     * @throws DeadlineExceededException If a check in the work found this deadline passed.
+     * @throws Exception                 Whatever <code>work</code> throws.
+     */
+    public <T> T call(final Callable<T> work) throws Exception {
+        final var scope = new Scope(this, CURRENT.get());
+        try {
+            return work.call();
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * @return How long the request was allowed to take.
+     */
+    public long timeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return <code>true</code> once a check has found the deadline passed and the work has been abandoned.
+     */
+    public boolean exceeded() {
+        return exceeded.get();
+    }
+
+    /**
+     * @return CPU time the threads that had entered this deadline spent under it, counted as each thread leaves it
+     * after the work was abandoned. Zero while the deadline has not been exceeded.
+     */
+    public Duration wastedCpu() {
+        return Duration.ofNanos(wastedCpuNanos.get());
+    }
+
+    /**
+     * @return <code>false</code> if a thread left this deadline after it was exceeded without its CPU time being
+     * measured (see {@link #unmeasuredAbandonedThreads()}), so {@link #wastedCpu()} undercounts.
+     */
+    public boolean wastedCpuMeasured() {
+        return !cpuUnmeasured.get();
+    }
+
+    private void checkNow() {
+        if (exceeded.get()) {
+            throw new DeadlineExceededException(timeoutMillis);
+        }
+        if (clock.getAsLong() - expiresAtNanos >= 0) {
+            if (exceeded.compareAndSet(false, true)) {
+                EXCEEDED_REQUESTS.increment();
+            }
+            throw new DeadlineExceededException(timeoutMillis);
+        }
+    }
+
+    /**
+     * @return The current thread's CPU time, or <code>-1</code> on a virtual thread (for which the JVM reports
+     * <code>-1</code> rather than its CPU time) and on JVMs without per-thread CPU time.
+     */
+    private static long currentThreadCpuNanos() {
+        if (Thread.currentThread().isVirtual()) {
+            return -1;
+        }
+        try {
+            return THREADS.getCurrentThreadCpuTime();
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    private void recordUnmeasured() {
+        cpuUnmeasured.set(true);
+        UNMEASURED_ABANDONED_THREADS.increment();
+        if (UNMEASURED_LOGGED.compareAndSet(false, true)) {
+            LOGGER.info("Per-thread CPU time is not available on virtual threads or on this JVM; the CPU time of "
+                    + "abandoned work on such threads is left out of the wasted-CPU figures.");
+        }
+    }
+
+    /**
+     * The time a thread spends working under a deadline. Closing it restores the thread's previous deadline and,
+     * if the work was abandoned, records the CPU time the thread spent in the scope as wasted.
+     */
+    private static final class Scope {
+        private final RequestDeadline deadline;
+        private final Scope previous;
+        private final long startCpuNanos;
+        private int untilCheck = LOOP_CHECK_INTERVAL;
+
+        private Scope(final RequestDeadline deadline, final Scope previous) {
+            this.deadline = deadline;
+            this.previous = previous;
+            // A task the executor runs on the submitting thread enters the deadline that thread is already in; its
+            // CPU time is counted once, by the outer scope.
+            this.startCpuNanos = previous != null && previous.deadline == deadline
+                    ? COUNTED_BY_OUTER_SCOPE : currentThreadCpuNanos();
+            CURRENT.set(this);
+        }
+
+        void close() {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+            if (startCpuNanos == COUNTED_BY_OUTER_SCOPE || !deadline.exceeded()) {
+                return;
+            }
+            final var endCpuNanos = startCpuNanos < 0 ? -1 : currentThreadCpuNanos();
+            if (endCpuNanos < 0) {
+                deadline.recordUnmeasured();
+                return;
+            }
+            final var spent = endCpuNanos - startCpuNanos;
+            if (spent > 0) {
+                deadline.wastedCpuNanos.addAndGet(spent);
+                WASTED_CPU_NANOS.add(spent);
+            }
+        }
+    }
+}
@@ -1,31 +1,89 @@
 package app.djk.RestPdfFormFiller.functions;
 
+import app.djk.RestPdfFormFiller.Pdf.CompressionProfile;
 import app.djk.RestPdfFormFiller.Pdf.DataFormatter;
 import app.djk.RestPdfFormFiller.Pdf.PatchMode;
+import app.djk.RestPdfFormFiller.Pdf.ResourceLimits;
 import app.djk.RestPdfFormFiller.Pdf.RestPdfApi;
 import app.djk.RestPdfFormFiller.Pdf.WriteMode;
+import app.djk.RestPdfFormFiller.Pdf.XfaDataComparator;
+import app.djk.RestPdfFormFiller.cache.FillResultCache;
+import app.djk.RestPdfFormFiller.cache.Fingerprints;
+import app.djk.RestPdfFormFiller.config.AppSettings;
+import app.djk.RestPdfFormFiller.execution.RequestDeadline;
+import app.djk.RestPdfFormFiller.index.FormDataIndex;
+import app.djk.RestPdfFormFiller.jobs.FillJobStatus;
+import app.djk.RestPdfFormFiller.jobs.FillJobs;
+import app.djk.RestPdfFormFiller.projectExceptions.DeadlineExceededException;
 import app.djk.RestPdfFormFiller.projectExceptions.EmptyRequestBodyException;
+import app.djk.RestPdfFormFiller.projectExceptions.FormDataValidationException;
+import app.djk.RestPdfFormFiller.projectExceptions.IdempotencyKeyReuseException;
 import app.djk.RestPdfFormFiller.projectExceptions.InvalidReturnDataFormatException;
 import app.djk.RestPdfFormFiller.projectExceptions.InvalidSessionIdException;
 import app.djk.RestPdfFormFiller.projectExceptions.InvalidXfaFormException;
+import app.djk.RestPdfFormFiller.projectExceptions.NestingTooDeepException;
+import app.djk.RestPdfFormFiller.projectExceptions.PayloadTooLargeException;
 import app.djk.RestPdfFormFiller.projectExceptions.SafeToReturnIllegalArgumentException;
+import app.djk.RestPdfFormFiller.projectExceptions.ServerBusyException;
+import app.djk.RestPdfFormFiller.projectExceptions.StorageLocationExistsException;
+import app.djk.RestPdfFormFiller.projectExceptions.StorageLocationNotFoundException;
+import app.djk.RestPdfFormFiller.projectExceptions.StorageUnavailableException;
 import app.djk.RestPdfFormFiller.projectExceptions.WriteConflictException;
+import app.djk.RestPdfFormFiller.startup.WarmUp;
+import app.djk.RestPdfFormFiller.storage.StorageConnector;
+import app.djk.RestPdfFormFiller.storage.StorageConnectors;
+import app.djk.RestPdfFormFiller.storage.StoredDocument;
 import com.microsoft.azure.functions.*;
 import com.microsoft.azure.functions.annotation.AuthorizationLevel;
 import com.microsoft.azure.functions.annotation.FunctionName;
 import com.microsoft.azure.functions.annotation.HttpTrigger;
+import com.microsoft.azure.functions.annotation.QueueTrigger;
+import com.microsoft.azure.functions.annotation.WarmupTrigger;
+import tools.jackson.core.StreamReadConstraints;
+import tools.jackson.core.exc.StreamConstraintsException;
+import tools.jackson.core.json.JsonFactory;
 import tools.jackson.databind.JsonNode;
 import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
 import tools.jackson.databind.node.JsonNodeType;
+import tools.jackson.databind.node.ObjectNode;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Azure Functions with HTTP Trigger.
  */
 public class HttpTriggerFunctions {
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Logger LOGGER = Logger.getLogger(HttpTriggerFunctions.class.getName());
+    /**
+     * Reads request bodies with their nesting bounded just above the form data depth limit, so a body nested too deep
+     * is rejected while it is parsed. The form data itself, two levels down in <code>formData.data</code>, is held to
+     * the exact limit when it is converted.
+     */
+    private static final ObjectMapper OBJECT_MAPPER = JsonMapper.builder(JsonFactory.builder()
+            .streamReadConstraints(StreamReadConstraints.builder()
+                    .maxNestingDepth(ResourceLimits.configured().maxDepth() + 2)
+                    .build())
+            .build()).build();
+    private static final RequestGovernor REQUEST_GOVERNOR = RequestGovernor.fromSettings();
+    private static final FillResultCache FILL_RESULT_CACHE = FillResultCache.fromSettings();
+    private static final int FILL_JOB_RETRY_AFTER_SECONDS = AppSettings.getInt("FILL_JOBS_RETRY_AFTER_SECONDS", 5);
+    private static final int FILL_PACKAGE_MAX_TEMPLATES = AppSettings.getInt("FILL_PACKAGE_MAX_TEMPLATES", 10);
+    private static final int DEFAULT_QUERY_LIMIT = 100;
+    private static final int MAX_QUERY_LIMIT = 1000;
+    /**
+     * How long a request may run before its work is abandoned. The default stays just under the 230 seconds after
+     * which Azure's front end answers the caller itself, so nothing is computed for a response nobody will receive.
+     */
+    private static final long REQUEST_TIMEOUT_MS = AppSettings.getLong("REQUEST_TIMEOUT_MS", 220_000);
+    private static final String REQUEST_TIMEOUT_HEADER = "X-Request-Timeout-Ms";
 
     /**
      * Azure Function that receives a Base64-encoded PDF file and returns the XFA form field data.
@@ -64,11 +122,47 @@ public class HttpTriggerFunctions {
 
             context.getLogger().info("Request length (number of bytes): " + requestBytes.length);
 
-            var datasetsString = RestPdfApi.getXfaDatasetNodeAsString(requestBytes);
-            if (returnDataFormat.equals("json")) {
-                datasetsString = DataFormatter.convertXmlToJsonString(datasetsString);
+            return admitted(requestBytes.length, () -> request.createResponseBuilder(HttpStatus.OK)
+                    .body(formData(requestBytes, returnDataFormat))
+                    .build());
+        });
+    }
+
+    /**
+     * Azure Function that returns the XFA form field data of a PDF held in the configured store (see
+     * {@link StorageConnectors}) instead of one sent in the request, so a flow only passes a reference to the file.
+     * The <code>format</code> query parameter and the response are those of <code>GetXfaData</code>.
+     *
+     * @param request Azure Function parameter representing the HTTP request. The body is a JSON object with the
+     *                PDF's storage location in <code>location</code>.
+     * @param context Azure Function parameter representing the execution context.
+     * @return An HTTP Response whose body is the XFA form field data.
+     */
+    @FunctionName("GetStoredXfaData")
+    public HttpResponseMessage getStoredXfaData(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.POST},
+                    authLevel = AuthorizationLevel.FUNCTION)
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        return errorHandler(request, context, () -> {
+            final var requestBody = request.getBody().orElseThrow(EmptyRequestBodyException::new);
+            final var returnDataFormat = request.getQueryParameters().get("format");
+            if (returnDataFormat == null || !RestPdfApi.FORM_DATA_FORMATS.contains(returnDataFormat)) {
+                throw new InvalidReturnDataFormatException();
             }
-            return request.createResponseBuilder(HttpStatus.OK).body(datasetsString).build();
+            final var location = requireNonBlankString(parseRequestBodyAsJson(requestBody), "location");
+
+            // Memory is reserved for the document's size before it is downloaded, not after.
+            return admitted(sizeStored(location), () -> {
+                final var pdfBytes = readStored(location);
+                context.getLogger().info("Stored document length (number of bytes): " + pdfBytes.length);
+                return request.createResponseBuilder(HttpStatus.OK)
+                        .body(formData(pdfBytes, returnDataFormat))
+                        .build();
+            });
         });
     }
 
@@ -89,8 +183,10 @@ public class HttpTriggerFunctions {
             }
             context.getLogger().info("Request length (number of bytes): " + requestBytes.length);
 
-            final var dataSchema = DataFormatter.generateJsonSchema(RestPdfApi.getXfaDatasetNodeAsString(requestBytes));
-            return request.createResponseBuilder(HttpStatus.OK).body(dataSchema).build();
+            return admitted(requestBytes.length, () -> {
+                final var dataSchema = RestPdfApi.getXfaDataSchema(requestBytes);
+                return request.createResponseBuilder(HttpStatus.OK).body(dataSchema).build();
+            });
         });
     }
 
@@ -106,40 +202,647 @@ public class HttpTriggerFunctions {
 
         return errorHandler(request, context, () -> {
             final var requestBody = request.getBody().orElseThrow(EmptyRequestBodyException::new);
-            final var fillRequest = parseFillRequest(requestBody);
-            final var templateBytes = Base64.getDecoder().decode(fillRequest.templateBase64());
 
-            try {
-                if (!RestPdfApi.isXfaForm(templateBytes)) {
-                    throw new InvalidXfaFormException();
+            // The body is held as a String (Base64 template inside JSON), so its length is a fair proxy for its
+            // byte size when estimating the request's memory footprint.
+            return admitted(requestBody.length(), () -> {
+                final var fillRequest = parseFillRequest(requestBody);
+                if (fillRequest.validateOnly()) {
+                    final var templateBytes = Base64.getDecoder().decode(fillRequest.templateBase64());
+                    requireXfaForm(templateBytes);
+                    RestPdfApi.validateXfaFormData(templateBytes, fillRequest.formDataJson());
+                    return request.createResponseBuilder(HttpStatus.OK).body("Validation succeeded.").build();
+                }
+
+                final var outcome = fill(fillRequest, idempotencyKey(request));
+                return pdfResponse(request, outcome.pdfBytes(), outcome.cacheStatus(), outcome.unchanged(),
+                        outcome.compressionProfile().value());
+            });
+        });
+    }
+
+    /**
+     * Azure Function that fills one payload into several templates (a form and its sibling forms) and returns the
+     * filled PDFs together as a zip archive.
+     * <p>
+     * The body is that of <code>FillXfaData</code> with a <code>templates</code> array of
+     * <code>{"name", "templateBase64"}</code> objects in place of <code>templateBase64</code>. The payload is
+     * converted once and laid onto each template by path below the form-root, so each form receives only the fields
+     * it shares with the payload (see {@link RestPdfApi#fillXfaFormsWithResult}); the templates are filled in
+     * parallel. Each filled PDF is stored in the archive under its <code>name</code>, in request order. A template
+     * that the payload leaves unchanged is included as it was sent.
+     * <p>
+     * Results are not cached and the <code>Idempotency-Key</code> header is not honoured: the cache holds single
+     * fills, whose output differs from a package fill's wherever the payload has fields a template lacks.
+     *
+     * @param request Azure Function parameter representing the HTTP request.
+     * @param context Azure Function parameter representing the execution context.
+     * @return An HTTP Response whose body is the zip archive of filled PDFs.
+     */
+    @FunctionName("FillXfaDataPackage")
+    public HttpResponseMessage fillXfaDataPackage(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.POST},
+                    authLevel = AuthorizationLevel.FUNCTION)
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        return errorHandler(request, context, () -> {
+            final var requestBody = request.getBody().orElseThrow(EmptyRequestBodyException::new);
+
+            return admitted(requestBody.length(), () -> {
+                final var rootNode = parseRequestBodyAsJson(requestBody);
+                final var names = new ArrayList<String>();
+                final var templates = new ArrayList<byte[]>();
+                parsePackageTemplates(rootNode.path("templates"), names, templates);
+                final var fillRequest = parseFillRequest(rootNode, null);
+                if (fillRequest.validateOnly()) {
+                    templates.forEach(HttpTriggerFunctions::requireXfaForm);
+                    RestPdfApi.validateXfaFormsData(templates, fillRequest.formDataJson());
+                    return request.createResponseBuilder(HttpStatus.OK).body("Validation succeeded.").build();
                 }
-            } catch (java.io.IOException e) {
+
+                final var results = RestPdfApi.fillXfaFormsWithResult(templates, fillRequest.formDataJson(),
+                        fillRequest.writeMode(), fillRequest.patchMode(), fillRequest.compressionProfile());
+                final var archive = new java.io.ByteArrayOutputStream();
+                try (final var zip = new ZipOutputStream(archive)) {
+                    // Filled PDFs are mostly compressed streams already; a fast deflate takes what little is left.
+                    zip.setLevel(Deflater.BEST_SPEED);
+                    for (var i = 0; i < results.size(); i++) {
+                        zip.putNextEntry(new ZipEntry(names.get(i)));
+                        zip.write(results.get(i).pdfBytes());
+                        zip.closeEntry();
+                    }
+                }
+                return request.createResponseBuilder(HttpStatus.OK)
+                        .header("Content-Type", "application/zip")
+                        .header("Content-Disposition", "attachment; filename=\"filled-forms.zip\"")
+                        .body(archive.toByteArray())
+                        .build();
+            });
+        });
+    }
+
+    /**
+     * Azure Function that fills a template held in the configured store (see {@link StorageConnectors}) and writes the
+     * filled PDF back to it, returning only where it was written. The PDF never passes through the caller, so a flow
+     * moves a few hundred bytes of JSON instead of the template in and the filled form out.
+     * <p>
+     * The body is that of <code>FillXfaData</code> with <code>templateLocation</code> in place of
+     * <code>templateBase64</code>, plus <code>targetLocation</code>, where the filled PDF is created, and an optional
+     * <code>replaceExisting</code>: a document already at the target is only overwritten when it is <code>true</code>,
+     * and is otherwise a <code>409</code>. The response is <code>{"location", "size", "webUrl", "unchanged"}</code>,
+     * <code>location</code> being the written document in the store's stable form, with the <code>X-Fill-Cache</code>
+     * and <code>X-Fill-Unchanged</code> headers of <code>FillXfaData</code>. A no-op patch whose target is its
+     * template writes nothing.
+     *
+     * @param request Azure Function parameter representing the HTTP request.
+     * @param context Azure Function parameter representing the execution context.
+     * @return An HTTP Response describing the written document.
+     */
+    @FunctionName("FillStoredXfaData")
+    public HttpResponseMessage fillStoredXfaData(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.POST},
+                    authLevel = AuthorizationLevel.FUNCTION)
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        return errorHandler(request, context, () -> {
+            final var requestBody = request.getBody().orElseThrow(EmptyRequestBodyException::new);
+            final var rootNode = parseRequestBodyAsJson(requestBody);
+            final var templateLocation = requireNonBlankString(rootNode, "templateLocation");
+            final var targetLocation = requireNonBlankString(rootNode, "targetLocation");
+            final var replaceExisting = parseReplaceExisting(rootNode.path("replaceExisting"));
+            final var fillRequest = parseFillRequest(rootNode, null);
+
+            // The body is only a reference, so the template's size is what the request will hold in memory. It is
+            // reserved before the template is downloaded.
+            return admitted(sizeStored(templateLocation), () -> {
+                final var templateBytes = readStored(templateLocation);
+                context.getLogger().info("Stored template length (number of bytes): " + templateBytes.length);
+                if (fillRequest.validateOnly()) {
+                    requireXfaForm(templateBytes);
+                    RestPdfApi.validateXfaFormData(templateBytes, fillRequest.formDataJson());
+                    return request.createResponseBuilder(HttpStatus.OK).body("Validation succeeded.").build();
+                }
+
+                // The key covers the write as well as the fill, and a retry is answered with the recorded write:
+                // writing again would be a 409 once the first attempt created the target.
+                final var idempotencyKey = FILL_RESULT_CACHE.isEnabled() ? idempotencyKey(request) : null;
+                String writeFingerprint = null;
+                String recordKey = null;
+                if (idempotencyKey != null) {
+                    writeFingerprint = Fingerprints.sha256("stored-fill", FillResultCache.fingerprint(templateBytes,
+                                    fillRequest.formDataJson(), fillRequest.writeMode(), fillRequest.patchMode(),
+                                    fillRequest.compressionProfile()),
+                            targetLocation.strip(), replaceExisting);
+                    FILL_RESULT_CACHE.checkIdempotencyKey(idempotencyKey, writeFingerprint);
+                    recordKey = Fingerprints.sha256("stored-fill-result", idempotencyKey, writeFingerprint);
+                    final var recorded = FILL_RESULT_CACHE.get(recordKey);
+                    if (recorded.isPresent()) {
+                        final var written = (ObjectNode) OBJECT_MAPPER.readTree(recorded.get());
+                        return storedFillResponse(request, written, "hit");
+                    }
+                }
+
+                final var outcome = fill(templateBytes, fillRequest, null);
+                final var stored = outcome.unchanged() && targetLocation.strip().equals(templateLocation.strip())
+                        ? new StoredDocument(templateLocation.strip(), templateBytes.length, null)
+                        : writeStored(targetLocation, outcome.pdfBytes(), replaceExisting);
+
+                final var record = OBJECT_MAPPER.createObjectNode()
+                        .put("location", stored.location())
+                        .put("size", stored.size())
+                        .put("webUrl", stored.webUrl())
+                        .put("unchanged", outcome.unchanged())
+                        .put("compressionProfile", outcome.compressionProfile().value());
+                if (idempotencyKey != null) {
+                    FILL_RESULT_CACHE.bindIdempotencyKey(idempotencyKey, writeFingerprint);
+                    FILL_RESULT_CACHE.put(recordKey, record.toString().getBytes(StandardCharsets.UTF_8));
+                }
+                return storedFillResponse(request, record, outcome.cacheStatus());
+            });
+        });
+    }
+
+    /**
+     * Azure Function that accepts the same request as <code>FillXfaData</code> but fills it in the background. It
+     * answers <code>202 Accepted</code> at once, with the job's status as JSON, a <code>Location</code> header
+     * pointing at <code>GetFillJobResult</code> and a <code>Retry-After</code> header: the asynchronous request-reply
+     * pattern Power Automate follows on its own, so a flow action waits for the filled PDF however long the fill
+     * takes.
+     * <p>
+     * The request is validated before it is queued, so a malformed request still fails here with the same
+     * <code>400</code> as <code>FillXfaData</code>; failures that need the PDF opened are reported by the job. A
+     * repeated submission with the same <code>Idempotency-Key</code> returns the existing job rather than queueing
+     * another.
+     *
+     * @param request Azure Function parameter representing the HTTP request.
+     * @param context Azure Function parameter representing the execution context.
+     * @return An HTTP Response carrying the job's status.
+     */
+    @FunctionName("SubmitFillJob")
+    public HttpResponseMessage submitFillJob(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.POST},
+                    authLevel = AuthorizationLevel.FUNCTION)
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        return errorHandler(request, context, () -> {
+            final var requestBody = request.getBody().orElseThrow(EmptyRequestBodyException::new);
+            if (parseFillRequest(requestBody).validateOnly()) {
+                throw new SafeToReturnIllegalArgumentException(
+                        "Request field 'validateOnly' is not supported for fill jobs; use FillXfaData.");
+            }
+
+            final var status = fromJobBackend(() -> fillJobs().submit(
+                    requestBody.getBytes(StandardCharsets.UTF_8), idempotencyKey(request)));
+            context.getLogger().info("Fill job submitted: " + status.jobId());
+            return jobStatusResponse(request, HttpStatus.ACCEPTED, status);
+        });
+    }
+
+    /**
+     * Azure Function that reports the status of a fill job as JSON: <code>jobId</code>, <code>status</code>
+     * (<code>queued</code>, <code>running</code>, <code>succeeded</code> or <code>failed</code>),
+     * <code>attempts</code>, <code>submittedAt</code> and, once finished, <code>completedAt</code>,
+     * <code>httpStatus</code> and (for a failed job) <code>error</code>.
+     *
+     * @param request Azure Function parameter representing the HTTP request, with the job ID in the
+     *                <code>jobId</code> query parameter.
+     * @param context Azure Function parameter representing the execution context.
+     * @return An HTTP Response carrying the job's status, or <code>404</code> for an unknown or expired job.
+     */
+    @FunctionName("GetFillJob")
+    public HttpResponseMessage getFillJob(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.GET},
+                    authLevel = AuthorizationLevel.FUNCTION)
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        return errorHandler(request, context, () -> {
+            final var jobId = request.getQueryParameters().get("jobId");
+            final var status = fromJobBackend(() -> fillJobs().status(jobId));
+            if (status.isEmpty()) {
+                return request.createResponseBuilder(HttpStatus.NOT_FOUND).body("Fill job not found.").build();
+            }
+            return jobStatusResponse(request, HttpStatus.OK, status.get());
+        });
+    }
+
+    /**
+     * Azure Function that returns the outcome of a fill job. While the job is queued or running it answers
+     * <code>202</code> with the job's status and <code>Location</code> and <code>Retry-After</code> headers, as
+     * <code>SubmitFillJob</code> does. Once the job has succeeded it answers exactly as <code>FillXfaData</code>
+     * would have: the filled PDF with the same headers. A failed job answers with the status and message
+     * <code>FillXfaData</code> would have failed with.
+     *
+     * @param request Azure Function parameter representing the HTTP request, with the job ID in the
+     *                <code>jobId</code> query parameter.
+     * @param context Azure Function parameter representing the execution context.
+     * @return An HTTP Response as described, or <code>404</code> for an unknown or expired job.
+     */
+    @FunctionName("GetFillJobResult")
+    public HttpResponseMessage getFillJobResult(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.GET},
+                    authLevel = AuthorizationLevel.FUNCTION)
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        return errorHandler(request, context, () -> {
+            final var jobId = request.getQueryParameters().get("jobId");
+            final var status = fromJobBackend(() -> fillJobs().status(jobId));
+            if (status.isEmpty()) {
+                return request.createResponseBuilder(HttpStatus.NOT_FOUND).body("Fill job not found.").build();
+            }
+            if (!status.get().finished()) {
+                return jobStatusResponse(request, HttpStatus.ACCEPTED, status.get());
+            }
+            if (status.get().state() == FillJobStatus.State.FAILED) {
+                return request.createResponseBuilder(HttpStatus.valueOf(status.get().httpStatus()))
+                        .body(status.get().error())
+                        .build();
+            }
+            final var result = fromJobBackend(() -> fillJobs().result(jobId));
+            if (result.isEmpty()) {
+                // The status outlived the result by a moment when both expired together.
+                return request.createResponseBuilder(HttpStatus.NOT_FOUND).body("Fill job not found.").build();
+            }
+            return pdfResponse(request, result.get(), status.get().cacheStatus(), status.get().unchanged(),
+                    status.get().compressionProfile());
+        });
+    }
+
+    /**
+     * Azure Function that processes fill jobs from the <code>fill-jobs</code> queue of the function app's storage
+     * account when <code>FILL_JOBS_BACKEND</code> is <code>azure</code>. The host scales it out with the queue
+     * length. Failed fills are recorded on the job rather than thrown, so only a storage failure leaves the message
+     * to be retried by the host.
+     *
+     * @param message The job ID.
+     * @param context Azure Function parameter representing the execution context.
+     * @throws java.io.IOException If the job backend cannot be reached.
+     */
+    @FunctionName("ProcessFillJob")
+    public void processFillJob(
+            @QueueTrigger(name = "message", queueName = FillJobs.QUEUE_NAME, connection = "AzureWebJobsStorage")
+            final String message,
+            final ExecutionContext context) throws java.io.IOException {
+        context.getLogger().info("Processing fill job " + message.strip());
+        FillJobs.configured().process(message.strip(), HttpTriggerFunctions::runFillJob);
+    }
+
+    /**
+     * Starts the polling fill-job workers (<code>FILL_JOBS_WORKERS</code>) if they are not already running. They
+     * otherwise start with the first use of a fill-job endpoint, which is enough for the <code>local</code> backend,
+     * whose jobs can only arrive that way; a standalone server polling a shared queue calls this at startup.
+     *
+     * @throws IllegalStateException If the fill-job backend is misconfigured.
+     */
+    public static void startFillJobWorkers() {
+        fillJobs();
+    }
+
+    private static FillJobs fillJobs() {
+        final var jobs = FillJobs.configured();
+        jobs.startWorkers(FillJobs.configuredWorkers(), HttpTriggerFunctions::runFillJob);
+        return jobs;
+    }
+
+    /**
+     * Runs a fill job: the same parsing, admission and fill as <code>FillXfaData</code>, with the failures that
+     * endpoint would answer with recorded as the job's outcome.
+     *
+     * @throws ServerBusyException If the instance is too busy, so the job is retried later.
+     */
+    private static FillJobs.Outcome runFillJob(final byte[] request) {
+        final var requestBody = new String(request, StandardCharsets.UTF_8);
+        try {
+            return admitted(requestBody.length(), () -> {
+                final var outcome = fill(parseFillRequest(requestBody), null);
+                return FillJobs.Outcome.succeeded(outcome.pdfBytes(), outcome.cacheStatus(), outcome.unchanged(),
+                        outcome.compressionProfile().value());
+            });
+        } catch (ServerBusyException e) {
+            throw e;
+        } catch (Exception e) {
+            final var error = ErrorResponse.of(e);
+            LOGGER.log(error.level(), error.message(), e);
+            return FillJobs.Outcome.failed(error.status().value(), error.message());
+        }
+    }
+
+    /**
+     * Fills a template, answering an identical request (or a retry carrying the same Idempotency-Key) within the
+     * cache TTL from the stored result. The cache is checked before the XFA probe because a cached result proves the
+     * template already passed it, so a hit skips every PDF parse. A key already used for another request is rejected
+     * up front, but the key is only bound once the fill has succeeded: a request that fails (a conflict, a limit, a
+     * validation error, a deadline) leaves it free for the caller's corrected retry.
+     *
+     * @param fillRequest    The parsed request; not a <code>validateOnly</code> one.
+     * @param idempotencyKey The caller's scoped <code>Idempotency-Key</code> (see {@link #idempotencyKey}), or
+     *                       <code>null</code>.
+     * @return The filled PDF and how it was produced.
+     */
+    private static FillOutcome fill(final FillRequest fillRequest, final String idempotencyKey) throws Exception {
+        return fill(Base64.getDecoder().decode(fillRequest.templateBase64()), fillRequest, idempotencyKey);
+    }
+
+    private static FillOutcome fill(final byte[] templateBytes, final FillRequest fillRequest,
+                                    final String idempotencyKey) throws Exception {
+        String fingerprint = null;
+        if (FILL_RESULT_CACHE.isEnabled()) {
+            fingerprint = FillResultCache.fingerprint(templateBytes, fillRequest.formDataJson(),
+                    fillRequest.writeMode(), fillRequest.patchMode(), fillRequest.compressionProfile());
+            if (idempotencyKey != null) {
+                FILL_RESULT_CACHE.checkIdempotencyKey(idempotencyKey, fingerprint);
+            }
+            final var cached = FILL_RESULT_CACHE.get(fingerprint);
+            if (cached.isPresent()) {
+                bindIdempotencyKey(idempotencyKey, fingerprint);
+                return new FillOutcome(cached.get(), "hit", false, CompressionProfile.applied(templateBytes,
+                        cached.get(), fillRequest.compressionProfile()));
+            }
+        }
+
+        requireXfaForm(templateBytes);
+
+        final var fillResult = RestPdfApi.fillXfaFormWithResult(templateBytes, fillRequest.formDataJson(),
+                fillRequest.writeMode(), fillRequest.patchMode(), fillRequest.compressionProfile());
+        if (!fillResult.modified()) {
+            // A no-op PATCH hands back the caller's own template bytes. Caching those would only hold a
+            // second copy of the template, and recomputing the no-op never opens a stamper anyway.
+            bindIdempotencyKey(idempotencyKey, fingerprint);
+            return new FillOutcome(fillResult.pdfBytes(), null, true, CompressionProfile.PRESERVE);
+        }
+        if (fingerprint != null) {
+            bindIdempotencyKey(idempotencyKey, fingerprint);
+            FILL_RESULT_CACHE.put(fingerprint, fillResult.pdfBytes());
+        }
+        return new FillOutcome(fillResult.pdfBytes(), fingerprint != null ? "miss" : null, false,
+                CompressionProfile.applied(templateBytes, fillResult.pdfBytes(), fillRequest.compressionProfile()));
+    }
+
+    /**
+     * @param written     The written document, with the profile it was written with in <code>compressionProfile</code>.
+     * @param cacheStatus The <code>X-Fill-Cache</code> value, or <code>null</code>.
+     */
+    private static HttpResponseMessage storedFillResponse(final HttpRequestMessage<?> request,
+                                                          final ObjectNode written, final String cacheStatus) {
+        final var body = written.deepCopy();
+        body.remove("compressionProfile");
+        final var builder = request.createResponseBuilder(HttpStatus.OK)
+                .header("Content-Type", "application/json");
+        if (cacheStatus != null) {
+            builder.header("X-Fill-Cache", cacheStatus);
+        }
+        if (written.path("unchanged").asBoolean()) {
+            builder.header("X-Fill-Unchanged", "true");
+        }
+        builder.header("X-Compression-Profile", written.path("compressionProfile").asString(""));
+        return builder.body(body.toString()).build();
+    }
+
+    private static void bindIdempotencyKey(final String idempotencyKey, final String fingerprint) {
+        if (idempotencyKey != null && fingerprint != null) {
+            FILL_RESULT_CACHE.bindIdempotencyKey(idempotencyKey, fingerprint);
+        }
+    }
+
+    private static String formData(final byte[] pdfBytes, final String returnDataFormat) throws Exception {
+        final var datasetsString = RestPdfApi.getXfaDatasetNodeAsString(pdfBytes);
+        return returnDataFormat.equals("json") ? DataFormatter.convertXmlToJsonString(datasetsString) : datasetsString;
+    }
+
+    /**
+     * Reads a document from the configured store. Elsewhere in this class an <code>IOException</code> means the
+     * caller's PDF could not be parsed, so the store's failures are translated here into their own responses.
+     */
+    private static long sizeStored(final String location) {
+        return fromStorage(location, () -> storage().size(location));
+    }
+
+    private static byte[] readStored(final String location) {
+        return fromStorage(location, () -> storage().read(location));
+    }
+
+    private static StoredDocument writeStored(final String location, final byte[] content, final boolean replace) {
+        return fromStorage(location, () -> storage().write(location, content, replace));
+    }
+
+    /**
+     * Calls the configured storage connector, turning its failures into the exceptions the endpoints answer with.
+     */
+    private static <T> T fromStorage(final String location, final StorageCall<T> call) {
+        try {
+            return call.get();
+        } catch (java.nio.file.FileAlreadyExistsException e) {
+            throw new StorageLocationExistsException(location, e);
+        } catch (java.io.FileNotFoundException e) {
+            throw new StorageLocationNotFoundException(location, e);
+        } catch (java.io.IOException e) {
+            throw new StorageUnavailableException(e);
+        } catch (SafeToReturnIllegalArgumentException e) {
+            throw e;
+        } catch (IllegalArgumentException e) {
+            // Connectors describe what is wrong with the caller's location; it is the caller's own input.
+            throw new SafeToReturnIllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface StorageCall<T> {
+        T get() throws java.io.IOException;
+    }
+
+    private static StorageConnector storage() {
+        return StorageConnectors.configured().orElseThrow(() -> new SafeToReturnIllegalArgumentException(
+                "Storage locations are not enabled on this service."));
+    }
+
+    private static void requireXfaForm(final byte[] templateBytes) {
+        try {
+            if (!RestPdfApi.isXfaForm(templateBytes)) {
                 throw new InvalidXfaFormException();
             }
+        } catch (java.io.IOException e) {
+            throw new InvalidXfaFormException();
+        }
+    }
 
-            if (fillRequest.validateOnly()) {
-                return request.createResponseBuilder(HttpStatus.OK).body("Validation succeeded.").build();
+    /**
+     * Azure Function that compares the form data of two XFA PDFs (for example two revisions of a DA 4187) and returns
+     * the paths of the fields that differ, as <code>{"changed": [...], "added": [...], "removed": [...]}</code>.
+     * Field values are never included in the response.
+     *
+     * @param request Azure Function parameter representing the HTTP request. The body is a JSON object with the
+     *                Base64-encoded PDFs in <code>baseBase64</code> (earlier) and <code>revisedBase64</code> (later).
+     * @param context Azure Function parameter representing the execution context.
+     * @return An HTTP Response whose body is the JSON comparison result.
+     */
+    @FunctionName("CompareXfaData")
+    public HttpResponseMessage compareXfaData(
+            @HttpTrigger(
+                    name = "req",
+                    methods = {HttpMethod.POST},
+                    authLevel = AuthorizationLevel.FUNCTION)
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        return errorHandler(request, context, () -> {
+            final var requestBody = request.getBody().orElseThrow(EmptyRequestBodyException::new);
+
+            return admitted(requestBody.length(), () -> {
+                final var rootNode = parseRequestBodyAsJson(requestBody);
+                final var baseBytes = Base64.getDecoder().decode(requireNonBlankString(rootNode, "baseBase64"));
+                final var revisedBytes = Base64.getDecoder().decode(requireNonBlankString(rootNode, "revisedBase64"));
+
+                final var diff = XfaDataComparator.compare(baseBytes, revisedBytes);
+                return request.createResponseBuilder(HttpStatus.OK)
+                        .header("Content-Type", "application/json")
+                        .body(OBJECT_MAPPER.writeValueAsString(diff))
+                        .build();
+            });
+        });
+    }
+
+    /**
+     * Standalone-server endpoint that adds an XFA PDF's form data to the form data index (see {@link FormDataIndex}),
+     * so that <code>QueryXfaData</code> can find it without parsing the PDF again. It is deliberately not a Function:
+     * the index belongs to one process, and on a scaled-out host a query served by another instance would miss the
+     * document without any error. A document already indexed with the same content is not parsed; one indexed with
+     * other content is replaced. The response is <code>{"documentId", "hash", "outcome", "fields"}</code>,
+     * <code>outcome</code> being <code>added</code>, <code>updated</code>, <code>unchanged</code> or
+     * <code>removed</code>.
+     *
+     * @param request The HTTP request. The body is a JSON object with either the Base64-encoded PDF in
+     *                <code>documentBase64</code> and its ID in <code>documentId</code>, or the PDF's storage location
+     *                in <code>location</code> (which is also its ID unless <code>documentId</code> is given).
+     *                <code>"remove": true</code> with a <code>documentId</code> drops the document instead.
+     * @param context The execution context.
+     * @return An HTTP Response whose body is the JSON ingestion result.
+     */
+    public HttpResponseMessage indexXfaData(final HttpRequestMessage<Optional<String>> request,
+                                            final ExecutionContext context) {
+
+        return errorHandler(request, context, () -> {
+            final var requestBody = request.getBody().orElseThrow(EmptyRequestBodyException::new);
+            final var rootNode = parseRequestBodyAsJson(requestBody);
+            final var response = OBJECT_MAPPER.createObjectNode();
+
+            if (parseRemove(rootNode.path("remove"))) {
+                final var documentId = requireNonBlankString(rootNode, "documentId");
+                final var removed = FormDataIndex.configured().remove(documentId);
+                return request.createResponseBuilder(removed ? HttpStatus.OK : HttpStatus.NOT_FOUND)
+                        .header("Content-Type", "application/json")
+                        .body(response.put("documentId", documentId)
+                                .put("outcome", removed ? "removed" : "notFound").toString())
+                        .build();
             }
 
-            final var filledPdfBytes = RestPdfApi.fillXfaForm(
-                    templateBytes, fillRequest.formDataJson(), fillRequest.writeMode(), fillRequest.patchMode());
+            final String documentId;
+            final String location;
+            final long documentLength;
+            if (rootNode.has("location")) {
+                location = requireNonBlankString(rootNode, "location");
+                documentId = rootNode.has("documentId") ? requireNonBlankString(rootNode, "documentId") : location;
+                documentLength = sizeStored(location);
+            } else {
+                location = null;
+                documentId = requireNonBlankString(rootNode, "documentId");
+                documentLength = requestBody.length();
+            }
 
-            // Return the filled PDF as raw binary (application/pdf) so Power Automate treats the response as a file
-            // that drops straight into a "Create file" action -- no Base64-to-binary conversion, and no risk of the
-            // document being corrupted by passing it through a JSON string layer.
-            return request.createResponseBuilder(HttpStatus.OK)
-                    .header("Content-Type", "application/pdf")
-                    .body(filledPdfBytes)
-                    .build();
+            return admitted(documentLength, () -> {
+                final var pdfBytes = location != null ? readStored(location)
+                        : Base64.getDecoder().decode(requireNonBlankString(rootNode, "documentBase64"));
+                final var ingestion = FormDataIndex.configured().ingest(documentId, pdfBytes);
+                return request.createResponseBuilder(HttpStatus.OK)
+                        .header("Content-Type", "application/json")
+                        .body(response.put("documentId", ingestion.documentId())
+                                .put("hash", ingestion.hash())
+                                .put("outcome", ingestion.outcome().name().toLowerCase(Locale.ROOT))
+                                .put("fields", ingestion.fields())
+                                .toString())
+                        .build();
+            });
         });
     }
 
+    /**
+     * Standalone-server endpoint that finds the indexed documents whose form data holds every given field value (see
+     * <code>IndexXfaData</code>, and why neither is a Function). Values are matched exactly, after trimming, and are
+     * never included in the response, which is
+     * <code>{"total", "documents": [{"documentId", "hash", "indexedAt"}]}</code> with the documents in document ID
+     * order.
+     *
+     * @param request The HTTP request. The body is a JSON object with the field paths (such as
+     *                <code>form1/Page1/GRADE</code>) and values to match in <code>filters</code>, and optionally the
+     *                most documents to return in <code>limit</code> (1 to 1000, default 100).
+     * @param context The execution context.
+     * @return An HTTP Response whose body is the JSON query result.
+     */
+    public HttpResponseMessage queryXfaData(final HttpRequestMessage<Optional<String>> request,
+                                            final ExecutionContext context) {
+
+        return errorHandler(request, context, () -> {
+            final var requestBody = request.getBody().orElseThrow(EmptyRequestBodyException::new);
+
+            return admitted(requestBody.length(), () -> {
+                final var rootNode = parseRequestBodyAsJson(requestBody);
+                final var filters = parseIndexFilters(rootNode.path("filters"));
+                final var limit = parseQueryLimit(rootNode.path("limit"));
+
+                final var result = FormDataIndex.configured().query(filters, limit);
+                final var response = OBJECT_MAPPER.createObjectNode().put("total", result.total());
+                final var documents = response.putArray("documents");
+                for (final var match : result.documents()) {
+                    documents.addObject()
+                            .put("documentId", match.documentId())
+                            .put("hash", match.hash())
+                            .put("indexedAt", match.indexedAt().toString());
+                }
+                return request.createResponseBuilder(HttpStatus.OK)
+                        .header("Content-Type", "application/json")
+                        .body(response.toString())
+                        .build();
+            });
+        });
+    }
+
+    /**
+     * Azure Function run by the platform when an instance is added on a Premium or Dedicated plan, before the
+     * instance receives traffic. It waits for the shared warm-up so the instance only joins once the PDF paths are
+     * warm.
+     *
+     * @param warmupContext Azure Function parameter carrying the (empty) warmup trigger payload.
+     * @param context       Azure Function parameter representing the execution context.
+     */
+    @FunctionName("Warmup")
+    public void warmup(@WarmupTrigger(name = "warmupContext") final Object warmupContext,
+                       final ExecutionContext context) {
+        context.getLogger().info("Instance warm-up took " + WarmUp.await().toMillis() + " ms");
+    }
 
     /**
      * This abstracts all the error handling to a single method, to avoid duplication of the catch blocks.
      * <p>
      * Error messages from {@link SafeToReturnIllegalArgumentException} are returned to callers as-is.
      * Other {@link IllegalArgumentException} messages are replaced with a generic response.
+     * <p>
+     * The function runs under the request's {@link RequestDeadline} (see {@link #requestDeadline}). Work abandoned
+     * at the deadline is answered with <code>504</code>, whatever exception it unwound with: the checks throw a
+     * {@link DeadlineExceededException}, but openpdf may have wrapped it on the way out. The CPU time the request
+     * wasted, and the running totals for the instance, are logged with it.
      *
      * @param request  HTTP request from the caller.
      * @param context  ExecutionContext from the caller.
@@ -149,48 +852,144 @@ public class HttpTriggerFunctions {
     private HttpResponseMessage errorHandler(final HttpRequestMessage<?> request,
                                              final ExecutionContext context,
                                              final ThrowingSupplier<HttpResponseMessage> function) {
+        RequestDeadline deadline = null;
         try {
-            return function.get();
-        } // Local project exceptions
-        catch (EmptyRequestBodyException e) {
-            return logAndRespond(request, context, Level.WARNING, HttpStatus.BAD_REQUEST,
-                    "No content supplied in body.", e);
-        } catch (InvalidXfaFormException e) {
-            return logAndRespond(request, context, Level.WARNING, HttpStatus.BAD_REQUEST,
-                    "Invalid XFA form.", e);
-        } catch (InvalidReturnDataFormatException e) {
-            return logAndRespond(request, context, Level.WARNING, HttpStatus.BAD_REQUEST,
-                    "Invalid format parameter: Must be 'json' or 'xml'.", e);
-        } catch (InvalidSessionIdException e) {
-            return logAndRespond(request, context, Level.WARNING, HttpStatus.BAD_REQUEST,
-                    "Invalid session ID.", e);
-        } catch (SafeToReturnIllegalArgumentException e) {
-            return logAndRespond(request, context, Level.WARNING, HttpStatus.BAD_REQUEST,
-                    e.getMessage(), e);
-        } catch (WriteConflictException e) {
-            return logAndRespond(request, context, Level.WARNING, HttpStatus.CONFLICT,
-                    e.getMessage(), e);
-        }
-        // Dependency and built-in exceptions
-        catch (NumberFormatException e) {
-            return logAndRespond(request, context, Level.WARNING, HttpStatus.BAD_REQUEST,
-                    "Invalid integer argument in request.", e);
-        } catch (IllegalArgumentException e) {
-            return logAndRespond(request, context, Level.WARNING, HttpStatus.BAD_REQUEST,
-                    "Invalid argument in request.", e);
-        } catch (java.io.IOException | javax.xml.transform.TransformerException e) {
-            // Every request in this app is processed against in-memory PDF bytes, so an IOException here means the
-            // caller's PDF could not be parsed rather than a genuine infrastructure failure. A TransformerException
-            // likewise means the caller's XFA dataset could not be serialized. Both are client-side problems, so
-            // report them as a 400 rather than letting them fall through to the generic 500.
-            return logAndRespond(request, context, Level.WARNING, HttpStatus.BAD_REQUEST,
-                    "Invalid or corrupted PDF file.", e);
+            deadline = requestDeadline(request);
+            return deadline == null ? function.get() : deadline.call(function::get);
+        } catch (ServerBusyException e) {
+            // Load shedding: the instance is healthy but its memory budget is committed. 429 + Retry-After tells
+            // Power Automate (and other well-behaved clients) to back off and retry instead of failing the run.
+            context.getLogger().log(Level.WARNING, e.getMessage(), e);
+            return request.createResponseBuilder(HttpStatus.TOO_MANY_REQUESTS)
+                    .header("Retry-After", Integer.toString(e.getRetryAfterSeconds()))
+                    .body(e.getMessage())
+                    .build();
+        } catch (FormDataValidationException e) {
+            // Every field in error, as JSON a flow can act on; the paths and rules are safe to return.
+            context.getLogger().log(Level.WARNING, e.getMessage());
+            return request.createResponseBuilder(HttpStatus.UNPROCESSABLE_ENTITY)
+                    .header("Content-Type", "application/json")
+                    .body(validationErrorBody(e))
+                    .build();
         } catch (Exception e) {
-            return logAndRespond(request, context, Level.SEVERE, HttpStatus.INTERNAL_SERVER_ERROR,
-                    "Request failed.", e);
+            if (deadline != null && deadline.exceeded()) {
+                final var error = ErrorResponse.of(new DeadlineExceededException(deadline.timeoutMillis()));
+                final var cpu = deadline.wastedCpuMeasured() ? deadline.wastedCpu().toMillis() + " ms of CPU"
+                        : "an unmeasured amount of CPU (virtual threads)";
+                context.getLogger().log(error.level(), "Request abandoned at its deadline of "
+                        + deadline.timeoutMillis() + " ms after " + cpu + "; " + RequestDeadline.exceededCount()
+                        + " requests and " + RequestDeadline.totalWastedCpu().toMillis() + " ms of measured CPU "
+                        + "abandoned on this instance.", e);
+                return request.createResponseBuilder(error.status()).body(error.message()).build();
+            }
+            final var error = ErrorResponse.of(e);
+            return logAndRespond(request, context, error.level(), error.status(), error.message(), e);
+        }
+    }
+
+    /**
+     * The deadline of a request: <code>REQUEST_TIMEOUT_MS</code> from now, or sooner if the caller sends an
+     * <code>X-Request-Timeout-Ms</code> header with a shorter wait. A caller that gives up after 30 seconds gains
+     * nothing from work that runs for 200, and the header lets it say so; it cannot extend the configured limit.
+     *
+     * @param request HTTP request from the caller.
+     * @return The deadline, or <code>null</code> if neither the setting nor the caller sets one.
+     * @throws SafeToReturnIllegalArgumentException If the header is not a positive number of milliseconds.
+     */
+    private static RequestDeadline requestDeadline(final HttpRequestMessage<?> request) {
+        final var header = headerValue(request, REQUEST_TIMEOUT_HEADER);
+        var timeoutMillis = REQUEST_TIMEOUT_MS;
+        if (header != null) {
+            long requested;
+            try {
+                requested = Long.parseLong(header);
+            } catch (NumberFormatException e) {
+                requested = 0;
+            }
+            if (requested <= 0) {
+                throw new SafeToReturnIllegalArgumentException(
+                        "Header '" + REQUEST_TIMEOUT_HEADER + "' must be a positive number of milliseconds.");
+            }
+            timeoutMillis = timeoutMillis > 0 ? Math.min(timeoutMillis, requested) : requested;
+        }
+        return timeoutMillis > 0 ? RequestDeadline.after(timeoutMillis) : null;
+    }
+
+    /**
+     * How a failed request is answered: the log level, status and caller-facing message for each exception. Fill
+     * jobs record the same status and message as the outcome of a job that failed.
+     *
+     * @param level   Level the failure is logged at.
+     * @param status  Response status.
+     * @param message Response body.
+     */
+    private record ErrorResponse(Level level, HttpStatus status, String message) {
+
+        static ErrorResponse of(final Exception exception) {
+            return switch (exception) {
+                // Local project exceptions
+                case EmptyRequestBodyException e ->
+                        new ErrorResponse(Level.WARNING, HttpStatus.BAD_REQUEST, "No content supplied in body.");
+                case InvalidXfaFormException e ->
+                        new ErrorResponse(Level.WARNING, HttpStatus.BAD_REQUEST, "Invalid XFA form.");
+                case InvalidReturnDataFormatException e -> new ErrorResponse(Level.WARNING, HttpStatus.BAD_REQUEST,
+                        "Invalid format parameter: Must be 'json' or 'xml'.");
+                case InvalidSessionIdException e ->
+                        new ErrorResponse(Level.WARNING, HttpStatus.BAD_REQUEST, "Invalid session ID.");
+                case SafeToReturnIllegalArgumentException e ->
+                        new ErrorResponse(Level.WARNING, HttpStatus.BAD_REQUEST, e.getMessage());
+                case WriteConflictException e ->
+                        new ErrorResponse(Level.WARNING, HttpStatus.CONFLICT, e.getMessage());
+                case FormDataValidationException e ->
+                        new ErrorResponse(Level.WARNING, HttpStatus.UNPROCESSABLE_ENTITY, e.getMessage());
+                case IdempotencyKeyReuseException e ->
+                        new ErrorResponse(Level.WARNING, HttpStatus.UNPROCESSABLE_ENTITY, e.getMessage());
+                case StorageLocationNotFoundException e ->
+                        new ErrorResponse(Level.WARNING, HttpStatus.NOT_FOUND, e.getMessage());
+                case StorageLocationExistsException e ->
+                        new ErrorResponse(Level.WARNING, HttpStatus.CONFLICT, e.getMessage());
+                case StorageUnavailableException e ->
+                        new ErrorResponse(Level.SEVERE, HttpStatus.BAD_GATEWAY, e.getMessage());
+                case DeadlineExceededException e ->
+                        new ErrorResponse(Level.WARNING, HttpStatus.GATEWAY_TIMEOUT, e.getMessage());
+                case PayloadTooLargeException e ->
+                        new ErrorResponse(Level.WARNING, HttpStatus.PAYLOAD_TOO_LARGE, e.getMessage());
+                // Dependency and built-in exceptions
+                case NumberFormatException e -> new ErrorResponse(Level.WARNING, HttpStatus.BAD_REQUEST,
+                        "Invalid integer argument in request.");
+                case IllegalArgumentException e ->
+                        new ErrorResponse(Level.WARNING, HttpStatus.BAD_REQUEST, "Invalid argument in request.");
+                // Every request in this app is processed against in-memory PDF bytes, so an IOException here means
+                // the caller's PDF could not be parsed rather than a genuine infrastructure failure. A
+                // TransformerException likewise means the caller's XFA dataset could not be serialized. Both are
+                // client-side problems, so report them as a 400 rather than letting them fall through to the
+                // generic 500.
+                case java.io.IOException e ->
+                        new ErrorResponse(Level.WARNING, HttpStatus.BAD_REQUEST, "Invalid or corrupted PDF file.");
+                case javax.xml.transform.TransformerException e ->
+                        new ErrorResponse(Level.WARNING, HttpStatus.BAD_REQUEST, "Invalid or corrupted PDF file.");
+                default -> new ErrorResponse(Level.SEVERE, HttpStatus.INTERNAL_SERVER_ERROR, "Request failed.");
+            };
         }
     }
 
+    /**
+     * The body of a <code>422</code> for form data that breaks its template's rules:
+     * <code>{"message", "errors": [{"field", "rule", "message"}], "truncated"}</code>.
+     */
+    private static String validationErrorBody(final FormDataValidationException exception) {
+        final var body = OBJECT_MAPPER.createObjectNode().put("message", "Form data does not match the template.");
+        final var errors = body.putArray("errors");
+        for (final var error : exception.getErrors()) {
+            errors.addObject()
+                    .put("field", error.field())
+                    .put("rule", error.rule())
+                    .put("message", error.message());
+        }
+        body.put("truncated", exception.isTruncated());
+        return body.toString();
+    }
+
     private static HttpResponseMessage logAndRespond(final HttpRequestMessage<?> request,
                                                      final ExecutionContext context,
                                                      final Level level,
@@ -201,6 +1000,148 @@ public class HttpTriggerFunctions {
         return request.createResponseBuilder(status).body(responseBody).build();
     }
 
+    /**
+     * Builds the response for a filled PDF.
+     * <p>
+     * The PDF is returned as raw binary (<code>application/pdf</code>) so Power Automate treats the response as a
+     * file that drops straight into a "Create file" action -- no Base64-to-binary conversion, and no risk of the
+     * document being corrupted by passing it through a JSON string layer.
+     *
+     * @param request     HTTP request from the caller.
+     * @param pdfBytes    The filled PDF.
+     * @param cacheStatus <code>hit</code> or <code>miss</code> for the <code>X-Fill-Cache</code> header, or
+     *                    <code>null</code> to omit it when the result cache was not consulted.
+     * @param unchanged   <code>true</code> if the fill was a no-op and <code>pdfBytes</code> is the caller's template
+     *                    as sent; reported as <code>X-Fill-Unchanged: true</code> so a flow can skip saving a copy.
+     * @param profile     The compression profile the PDF was actually written with, for the
+     *                    <code>X-Compression-Profile</code> header: <code>preserve</code> where a document with signed
+     *                    permissions overrode the requested one. <code>null</code> omits the header.
+     * @return The HTTP response.
+     */
+    private static HttpResponseMessage pdfResponse(final HttpRequestMessage<?> request, final byte[] pdfBytes,
+                                                   final String cacheStatus, final boolean unchanged,
+                                                   final String profile) {
+        final var builder = request.createResponseBuilder(HttpStatus.OK).header("Content-Type", "application/pdf");
+        if (cacheStatus != null) {
+            builder.header("X-Fill-Cache", cacheStatus);
+        }
+        if (unchanged) {
+            builder.header("X-Fill-Unchanged", "true");
+        }
+        if (profile != null) {
+            builder.header("X-Compression-Profile", profile);
+        }
+        return builder.body(pdfBytes).build();
+    }
+
+    /**
+     * Builds a response carrying a fill job's status as JSON. While the job has not finished, it also carries a
+     * <code>Location</code> header pointing at <code>GetFillJobResult</code> (with the caller's <code>code</code>
+     * query parameter, if it authenticated with one) and a <code>Retry-After</code> header.
+     */
+    private static HttpResponseMessage jobStatusResponse(final HttpRequestMessage<?> request, final HttpStatus status,
+                                                         final FillJobStatus job) {
+        final var body = OBJECT_MAPPER.createObjectNode()
+                .put("jobId", job.jobId())
+                .put("status", job.state().value())
+                .put("attempts", job.attempts())
+                .put("submittedAt", job.submittedAt().toString());
+        if (job.finished()) {
+            body.put("completedAt", job.completedAt().toString()).put("httpStatus", job.httpStatus());
+            if (job.error() != null) {
+                body.put("error", job.error());
+            }
+        }
+        final var builder = request.createResponseBuilder(status).header("Content-Type", "application/json");
+        if (!job.finished()) {
+            final var code = request.getQueryParameters().get("code");
+            builder.header("Location", request.getUri().resolve("GetFillJobResult?jobId=" + job.jobId()
+                            + (code == null ? "" : "&code=" + URLEncoder.encode(code, StandardCharsets.UTF_8)))
+                            .toString())
+                    .header("Retry-After", Integer.toString(FILL_JOB_RETRY_AFTER_SECONDS));
+        }
+        return builder.body(body.toString()).build();
+    }
+
+    /**
+     * Calls the fill-job backend. Elsewhere in this class an <code>IOException</code> means the caller's PDF could
+     * not be read; here it means the backend could not be reached, which is reported as a 500 instead.
+     */
+    private static <T> T fromJobBackend(final ThrowingSupplier<T> call) throws Exception {
+        try {
+            return call.get();
+        } catch (java.io.IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the caller's <code>Idempotency-Key</code> and scopes it to the caller: the key is fingerprinted together
+     * with the function key the request presented (the <code>x-functions-key</code> header or <code>code</code> query
+     * parameter), so two callers that happen to choose the same key never see each other's binding or job. Requests
+     * without a function key (a standalone server without one) share one scope.
+     *
+     * @param request HTTP request from the caller.
+     * @return The scoped key, or <code>null</code> if the caller sent none.
+     */
+    private static String idempotencyKey(final HttpRequestMessage<?> request) {
+        final var key = headerValue(request, "Idempotency-Key");
+        if (key == null) {
+            return null;
+        }
+        var caller = headerValue(request, "x-functions-key");
+        if (caller == null && request.getQueryParameters() != null) {
+            caller = request.getQueryParameters().get("code");
+        }
+        return Fingerprints.sha256("idempotency-key", caller == null ? "" : caller, key);
+    }
+
+    /**
+     * Looks up a request header by name, ignoring case. The Functions host normalizes header names, but not
+     * consistently across hosts and versions, so an exact-case lookup could miss a header the caller did send.
+     *
+     * @param request HTTP request from the caller.
+     * @param name    Header name.
+     * @return The header value, or <code>null</code> if absent or blank.
+     */
+    private static String headerValue(final HttpRequestMessage<?> request, final String name) {
+        final var headers = request.getHeaders();
+        if (headers == null) {
+            return null;
+        }
+        for (final var header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                final var value = header.getValue();
+                return value == null || value.isBlank() ? null : value.trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs <code>function</code> once the request governor has admitted a request of the given body size, and
+     * releases the admission afterwards whether or not the function succeeds.
+     * <p>
+     * Admission happens after the cheap request checks (empty body, missing format) so that malformed requests are
+     * rejected immediately rather than queued, but before any PDF is parsed.
+     *
+     * @param bodyLength Size of the request body, used to estimate the request's memory footprint.
+     * @param function   The request work to run.
+     * @return The function's result.
+     * @throws ServerBusyException If the instance's memory budget could not be reserved in time.
+     * @throws Exception           Whatever <code>function</code> throws.
+     */
+    private static <T> T admitted(final long bodyLength, final ThrowingSupplier<T> function) throws Exception {
+        final var admission = REQUEST_GOVERNOR.admit(bodyLength);
+        try {
+            // Time spent waiting for the budget counts against the deadline too.
+            RequestDeadline.check();
+            return function.get();
+        } finally {
+            admission.close();
+        }
+    }
+
     /**
      * The built-in <code>Supplier</code> does not throw checked exceptions, so this provides that capability
      * for use in lambda expressions.
@@ -221,16 +1162,18 @@ public class HttpTriggerFunctions {
      */
     private static FillRequest parseFillRequest(final String requestBody) {
         final var rootNode = parseRequestBodyAsJson(requestBody);
+        return parseFillRequest(rootNode, requireNonBlankString(rootNode, "templateBase64"));
+    }
 
-        final var templateNode = rootNode.path("templateBase64");
-        if (templateNode.getNodeType() != JsonNodeType.STRING) {
-            throw new SafeToReturnIllegalArgumentException("Request field 'templateBase64' must be a non-empty string.");
-        }
-        final var templateBase64 = templateNode.stringValue();
-        if (templateBase64 == null || templateBase64.isBlank()) {
-            throw new SafeToReturnIllegalArgumentException("Request field 'templateBase64' must be a non-empty string.");
-        }
-
+    /**
+     * Parses the fill options shared by <code>FillXfaData</code> and <code>FillStoredXfaData</code>.
+     *
+     * @param rootNode       The parsed request body.
+     * @param templateBase64 The template, or <code>null</code> when it is read from a storage location.
+     * @return Parsed fill request payload.
+     * @throws SafeToReturnIllegalArgumentException If the payload is not valid for the endpoint's contract.
+     */
+    private static FillRequest parseFillRequest(final JsonNode rootNode, final String templateBase64) {
         final var formDataNode = rootNode.path("formData");
         if (!formDataNode.isObject()) {
             throw new SafeToReturnIllegalArgumentException("Request field 'formData' must be a JSON object.");
@@ -253,9 +1196,59 @@ public class HttpTriggerFunctions {
                     "Request field 'patchMode' is only valid when 'writeMode' is 'patch'.");
         }
 
+        final var compressionProfile = parseCompressionProfile(rootNode.path("compressionProfile"));
         final var validateOnly = parseValidateOnly(rootNode.path("validateOnly"));
 
-        return new FillRequest(templateBase64, formDataNode.toString(), writeMode, patchMode, validateOnly);
+        return new FillRequest(templateBase64, formDataNode.toString(), writeMode, patchMode, compressionProfile,
+                validateOnly);
+    }
+
+    /**
+     * Reads a required, non-blank string field from a request object.
+     *
+     * @param rootNode  The parsed request body.
+     * @param fieldName The field to read.
+     * @return The field's value.
+     * @throws SafeToReturnIllegalArgumentException If the field is missing, not a string, or blank.
+     */
+    private static String requireNonBlankString(final JsonNode rootNode, final String fieldName) {
+        final var node = rootNode.path(fieldName);
+        final var value = node.getNodeType() == JsonNodeType.STRING ? node.stringValue() : null;
+        if (value == null || value.isBlank()) {
+            throw new SafeToReturnIllegalArgumentException(
+                    "Request field '" + fieldName + "' must be a non-empty string.");
+        }
+        return value;
+    }
+
+    /**
+     * Parses the <code>templates</code> array of <code>FillXfaDataPackage</code> into the entry names and the decoded
+     * templates. Names become zip entry names, so they must be distinct plain file names.
+     */
+    private static void parsePackageTemplates(final JsonNode templatesNode, final List<String> names,
+                                              final List<byte[]> templates) {
+        if (!templatesNode.isArray() || templatesNode.isEmpty() || templatesNode.size() > FILL_PACKAGE_MAX_TEMPLATES) {
+            throw new SafeToReturnIllegalArgumentException("Request field 'templates' must be an array of 1 to "
+                    + FILL_PACKAGE_MAX_TEMPLATES + " objects.");
+        }
+        final var seen = new HashSet<String>();
+        for (final var templateNode : templatesNode) {
+            if (!templateNode.isObject()) {
+                throw new SafeToReturnIllegalArgumentException(
+                        "Request field 'templates' must contain only objects.");
+            }
+            final var name = requireNonBlankString(templateNode, "name");
+            if (name.length() > 255 || name.equals(".") || name.equals("..")
+                    || name.chars().anyMatch(c -> c == '/' || c == '\\' || Character.isISOControl(c))) {
+                throw new SafeToReturnIllegalArgumentException(
+                        "Template names must be file names without path separators.");
+            }
+            if (!seen.add(name)) {
+                throw new SafeToReturnIllegalArgumentException("Template names must be distinct.");
+            }
+            names.add(name);
+            templates.add(Base64.getDecoder().decode(requireNonBlankString(templateNode, "templateBase64")));
+        }
     }
 
     private static WriteMode parseWriteMode(final JsonNode writeModeNode) {
@@ -284,6 +1277,19 @@ public class HttpTriggerFunctions {
         return mode;
     }
 
+    private static CompressionProfile parseCompressionProfile(final JsonNode profileNode) {
+        if (profileNode.isMissingNode() || profileNode.isNull()) {
+            return CompressionProfile.configured();
+        }
+        final var profile = profileNode.getNodeType() == JsonNodeType.STRING
+                ? CompressionProfile.fromValue(profileNode.stringValue()) : null;
+        if (profile == null) {
+            throw new SafeToReturnIllegalArgumentException(
+                    "Request field 'compressionProfile' must be one of the following strings: fast, balanced, max, preserve.");
+        }
+        return profile;
+    }
+
     private static boolean parseValidateOnly(final JsonNode validateOnlyNode) {
         if (validateOnlyNode.isMissingNode() || validateOnlyNode.isNull()) {
             return false;
@@ -294,6 +1300,54 @@ public class HttpTriggerFunctions {
         return validateOnlyNode.booleanValue();
     }
 
+    private static boolean parseReplaceExisting(final JsonNode replaceNode) {
+        if (replaceNode.isMissingNode() || replaceNode.isNull()) {
+            return false;
+        }
+        if (!replaceNode.isBoolean()) {
+            throw new SafeToReturnIllegalArgumentException("Request field 'replaceExisting' must be a boolean.");
+        }
+        return replaceNode.booleanValue();
+    }
+
+    private static boolean parseRemove(final JsonNode removeNode) {
+        if (removeNode.isMissingNode() || removeNode.isNull()) {
+            return false;
+        }
+        if (!removeNode.isBoolean()) {
+            throw new SafeToReturnIllegalArgumentException("Request field 'remove' must be a boolean.");
+        }
+        return removeNode.booleanValue();
+    }
+
+    private static Map<String, String> parseIndexFilters(final JsonNode filtersNode) {
+        if (!filtersNode.isObject() || filtersNode.isEmpty()) {
+            throw new SafeToReturnIllegalArgumentException(
+                    "Request field 'filters' must be an object with at least one field path.");
+        }
+        final var filters = new LinkedHashMap<String, String>();
+        for (final var filter : filtersNode.properties()) {
+            if (filter.getValue().getNodeType() != JsonNodeType.STRING) {
+                throw new SafeToReturnIllegalArgumentException(
+                        "Filter '" + filter.getKey() + "' must have a string value.");
+            }
+            filters.put(filter.getKey(), filter.getValue().stringValue());
+        }
+        return filters;
+    }
+
+    private static int parseQueryLimit(final JsonNode limitNode) {
+        if (limitNode.isMissingNode() || limitNode.isNull()) {
+            return DEFAULT_QUERY_LIMIT;
+        }
+        if (!limitNode.canConvertToInt() || !limitNode.isIntegralNumber()
+                || limitNode.intValue() < 1 || limitNode.intValue() > MAX_QUERY_LIMIT) {
+            throw new SafeToReturnIllegalArgumentException(
+                    "Request field 'limit' must be a whole number from 1 to " + MAX_QUERY_LIMIT + ".");
+        }
+        return limitNode.intValue();
+    }
+
     /**
      * Parses the request body into a JSON node and translates parsing failures into a caller-facing
      * <code>SafeToReturnIllegalArgumentException</code>.
@@ -301,10 +1355,14 @@ public class HttpTriggerFunctions {
      * @param requestBody Raw HTTP request body content.
      * @return Parsed JSON root node.
      * @throws SafeToReturnIllegalArgumentException If parsing fails.
+     * @throws NestingTooDeepException              If the body is nested deeper than allowed.
      */
     private static JsonNode parseRequestBodyAsJson(final String requestBody) {
         try {
             return OBJECT_MAPPER.readTree(requestBody);
+        } catch (StreamConstraintsException e) {
+            throw new NestingTooDeepException("Request body",
+                    OBJECT_MAPPER.tokenStreamFactory().streamReadConstraints().getMaxNestingDepth());
         } catch (RuntimeException e) {
             throw new SafeToReturnIllegalArgumentException("Request body must be valid JSON.", e);
         }
@@ -313,7 +1371,8 @@ public class HttpTriggerFunctions {
     /**
      * Request payload contract for <code>FillXfaData</code>.
      *
-     * @param templateBase64 Base64-encoded source PDF content.
+     * @param templateBase64 Base64-encoded source PDF content, or <code>null</code> when the template is read from a
+     *                       storage location.
      * @param formDataJson   JSON object string containing a single <code>data</code> object.
      * @param writeMode      Overall fill strategy. <code>PATCH</code> merges the request into the existing form
      *                       (omitted fields preserved); <code>PUT</code> replaces the whole form (omitted fields
@@ -322,6 +1381,8 @@ public class HttpTriggerFunctions {
      *                       <code>OVERWRITE</code> replaces existing values, <code>IF_EMPTY</code> writes only into
      *                       empty targets, and <code>FAIL_ON_CONFLICT</code> rejects a different non-empty target.
      *                       Ignored under <code>PUT</code> (and rejected if supplied with it).
+     * @param compressionProfile How the filled PDF is compressed; the <code>COMPRESSION_PROFILE</code> setting when
+     *                       the request does not choose one.
      * @param validateOnly   If true, run request validation and return success/failure without returning
      *                       a filled document body. This mode is for validation workflows where callers
      *                       want contract checks without emitting filled output.
@@ -331,6 +1392,21 @@ public class HttpTriggerFunctions {
             String formDataJson,
             WriteMode writeMode,
             PatchMode patchMode,
+            CompressionProfile compressionProfile,
             boolean validateOnly) {
     }
+
+    /**
+     * A filled PDF and how it was produced.
+     *
+     * @param pdfBytes           The filled PDF.
+     * @param cacheStatus        <code>hit</code> or <code>miss</code> when the result cache was consulted, otherwise
+     *                           <code>null</code>.
+     * @param unchanged          <code>true</code> if the fill was a no-op and <code>pdfBytes</code> is the template as
+     *                           sent.
+     * @param compressionProfile The compression profile the PDF was actually written with.
+     */
+    private record FillOutcome(byte[] pdfBytes, String cacheStatus, boolean unchanged,
+                               CompressionProfile compressionProfile) {
+    }
 }
\ No newline at end of file
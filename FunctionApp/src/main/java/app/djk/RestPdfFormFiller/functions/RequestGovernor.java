@@ -0,0 +1,121 @@
+package app.djk.RestPdfFormFiller.functions;
+
+import app.djk.RestPdfFormFiller.config.AppSettings;
+import app.djk.RestPdfFormFiller.projectExceptions.ServerBusyException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory-aware admission control for a single function instance.
+ * <p>
+ * Every request in this app holds several full copies of its PDF at once (the request body, the decoded template,
+ * openpdf's parsed objects and XFA DOM, and the output buffer), so heap use scales with body size rather than with
+ * request count. A plain concurrency limit therefore either wastes capacity on small forms or still runs out of
+ * heap on large ones. Instead, each request reserves an <em>estimated</em> share of a fixed heap budget before it
+ * starts and returns it when it finishes:
+ * <ul>
+ *   <li>The estimate is the body size times a configurable amplification factor, with a floor for fixed per-request
+ *       overhead. A request larger than the whole budget is capped to it, so it can still run once the instance is
+ *       otherwise idle instead of being rejected forever.</li>
+ *   <li>A request that does not fit waits briefly (fairly, so large requests are not starved by a stream of small
+ *       ones). If the budget does not free up in time it is shed with a {@link ServerBusyException}, which the
+ *       function layer reports as <code>429</code> with <code>Retry-After</code> &mdash; a response Power Automate
+ *       retries on its own &mdash; rather than running into an <code>OutOfMemoryError</code> that takes down every
+ *       request on the instance.</li>
+ * </ul>
+ */
+final class RequestGovernor {
+
+    private static final long BYTES_PER_PERMIT = 1024;
+
+    private final Semaphore permits;
+    private final int budgetPermits;
+    private final long bytesPerBodyByte;
+    private final long minimumRequestBytes;
+    private final long queueTimeoutMillis;
+    private final int retryAfterSeconds;
+
+    /**
+     * @param budgetBytes         Total heap (in bytes) that admitted requests may reserve at once.
+     * @param bytesPerBodyByte    Estimated heap bytes used per byte of request body.
+     * @param minimumRequestBytes Estimated heap bytes used by any request, regardless of body size.
+     * @param queueTimeoutMillis  How long a request may wait for budget before it is shed.
+     * @param retryAfterSeconds   <code>Retry-After</code> value suggested to shed callers.
+     */
+    RequestGovernor(final long budgetBytes, final long bytesPerBodyByte, final long minimumRequestBytes,
+                    final long queueTimeoutMillis, final int retryAfterSeconds) {
+        this.budgetPermits = Math.clamp(budgetBytes / BYTES_PER_PERMIT, 1, Integer.MAX_VALUE);
+        this.permits = new Semaphore(budgetPermits, true);
+        this.bytesPerBodyByte = Math.max(1, bytesPerBodyByte);
+        this.minimumRequestBytes = Math.max(0, minimumRequestBytes);
+        this.queueTimeoutMillis = Math.max(0, queueTimeoutMillis);
+        this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+    }
+
+    /**
+     * Creates a governor from the <code>GOVERNOR_*</code> settings. The budget defaults to 60% of the maximum heap,
+     * leaving headroom for the Functions worker itself and for estimate error.
+     *
+     * @return A governor for this instance.
+     */
+    static RequestGovernor fromSettings() {
+        final var heapPercent = Math.clamp(AppSettings.getInt("GOVERNOR_HEAP_BUDGET_PERCENT", 60), 1, 100);
+        return new RequestGovernor(
+                Runtime.getRuntime().maxMemory() / 100 * heapPercent,
+                AppSettings.getLong("GOVERNOR_MEMORY_PER_BODY_BYTE", 8),
+                AppSettings.getLong("GOVERNOR_MIN_REQUEST_BYTES", 1024 * 1024),
+                AppSettings.getLong("GOVERNOR_QUEUE_TIMEOUT_MS", 2000),
+                AppSettings.getInt("GOVERNOR_RETRY_AFTER_SECONDS", 5));
+    }
+
+    /**
+     * Reserves budget for a request, waiting up to the configured queue timeout for it to become available.
+     *
+     * @param bodyBytes Size of the request body in bytes.
+     * @return The admission, which must be {@link Admission#close() closed} when the request finishes.
+     * @throws ServerBusyException If the budget could not be reserved in time.
+     */
+    Admission admit(final long bodyBytes) {
+        final var bodyEstimate = bodyBytes > Long.MAX_VALUE / bytesPerBodyByte
+                ? Long.MAX_VALUE : bodyBytes * bytesPerBodyByte;
+        final var estimate = Math.max(minimumRequestBytes, bodyEstimate);
+        final var requested = Math.clamp(Math.ceilDiv(estimate, BYTES_PER_PERMIT), 1, budgetPermits);
+        try {
+            if (!permits.tryAcquire(requested, queueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new ServerBusyException(retryAfterSeconds);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerBusyException(retryAfterSeconds);
+        }
+        return new Admission(requested);
+    }
+
+    /**
+     * @return Budget (in bytes) not currently reserved by admitted requests.
+     */
+    long availableBytes() {
+        return permits.availablePermits() * BYTES_PER_PERMIT;
+    }
+
+    /**
+     * A reservation against the heap budget. Closing it returns the reservation exactly once.
+     */
+    final class Admission implements AutoCloseable {
+        private final int reserved;
+        private boolean closed;
+
+        private Admission(final int reserved) {
+            this.reserved = reserved;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                permits.release(reserved);
+            }
+        }
+    }
+}
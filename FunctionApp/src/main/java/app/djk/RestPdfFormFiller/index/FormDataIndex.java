@@ -0,0 +1,512 @@
+package app.djk.RestPdfFormFiller.index;
+
+import app.djk.RestPdfFormFiller.Pdf.RestPdfApi;
+import app.djk.RestPdfFormFiller.cache.Fingerprints;
+import app.djk.RestPdfFormFiller.config.AppSettings;
+import app.djk.RestPdfFormFiller.execution.RequestDeadline;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.node.ObjectNode;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An index of the form data of XFA documents: each document's field values are extracted once and kept, flattened to
+ * field paths, in an inverted index from path and value to documents, so that "which documents have field X = Y" is
+ * answered by set lookups instead of by parsing every PDF again.
+ * <p>
+ * <strong>Why an index.</strong> Answering such a question from the PDFs costs a full datasets read per document per
+ * question, so a compliance query over a few thousand forms takes minutes and is repeated from scratch the next day.
+ * Here a document is parsed when it is ingested, and only again when its content changes: each ingestion is keyed by
+ * the caller's document ID and by the SHA-256 of the PDF, so re-ingesting an unchanged document costs one hash, and a
+ * document whose bytes match one already indexed under another ID reuses that document's fields. A query intersects
+ * the posting sets of its filters, smallest first, so its cost depends on the number of matches rather than the
+ * number of documents.
+ * <p>
+ * <strong>What it keeps.</strong> Field values are not kept. Each field is reduced to one term, an HMAC-SHA256 of its
+ * path and trimmed value under the index key, which is all an exact-match filter needs: a query computes the terms of
+ * its filters and looks them up. Without the key a term reveals nothing; with it, a value from a small set (an SSN, a
+ * grade) can be found by trying every candidate, so the key is kept apart from the log where possible
+ * (<code>FORM_INDEX_KEY</code>).
+ * <p>
+ * <strong>How it is kept.</strong> The index lives on the heap. With <code>FORM_INDEX_DIRECTORY</code> set, every
+ * change is also appended to a log in that directory (one JSON record per line) and the index is rebuilt from the
+ * log when the instance starts; once the log holds more than twice as many records as there are documents, it is
+ * rewritten with one record per document. A record cut short by a crash, or written under another key, is skipped
+ * when the log is read. The log is written by one process only, so the index belongs to a single process: it is only
+ * served by the standalone server, never by the scaled-out Functions host, where a query answered by an instance that
+ * did not ingest the documents would silently miss them.
+ */
+public final class FormDataIndex implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(FormDataIndex.class.getName());
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String LOG_FILE = "form-data-index.jsonl";
+    private static final String KEY_FILE = "form-data-index.key";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final Object LOCK = new Object();
+    private static volatile FormDataIndex configured;
+
+    private final Path log;
+    private final SecretKeySpec key;
+    private final String keyId;
+    private final Clock clock;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, IndexedDocument> documents = new HashMap<>();
+    private final Map<String, Set<String>> documentsByHash = new HashMap<>();
+    private final Map<String, Set<String>> postings = new HashMap<>();
+    private Writer writer;
+    private int logRecords;
+
+    /**
+     * Opens an index, rebuilding it from the log in <code>directory</code> if there is one.
+     *
+     * @param directory Directory to keep the log in, or <code>null</code> to keep the index on the heap only.
+     * @param key       Secret the field terms are computed with, or <code>null</code> to use a random one (kept in
+     *                  <code>directory</code>, readable by its owner only, when there is a directory).
+     * @param clock     Clock the ingestion times are read from (injectable for tests).
+     * @throws IOException If the directory, its log or its key cannot be read or created.
+     */
+    public FormDataIndex(final Path directory, final String key, final Clock clock) throws IOException {
+        this.clock = clock;
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        final var keyBytes = key != null ? key.getBytes(StandardCharsets.UTF_8)
+                : directory != null ? readOrCreateKey(directory.resolve(KEY_FILE)) : randomKey();
+        this.key = new SecretKeySpec(keyBytes, MAC_ALGORITHM);
+        this.keyId = Fingerprints.sha256("form-data-index-key", keyBytes).substring(0, 16);
+        if (directory == null) {
+            this.log = null;
+            return;
+        }
+        this.log = directory.resolve(LOG_FILE);
+        if (Files.exists(log)) {
+            replay();
+        }
+        writer = Files.newBufferedWriter(log, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+        compactIfSuperseded();
+    }
+
+    /**
+     * Opens the index <code>FORM_INDEX_DIRECTORY</code> and <code>FORM_INDEX_KEY</code> ask for on the first call and
+     * returns the same instance afterwards. A failure to open it is not remembered.
+     *
+     * @return The configured index.
+     * @throws IllegalStateException If the directory cannot be read or created.
+     */
+    public static FormDataIndex configured() {
+        var index = configured;
+        if (index == null) {
+            synchronized (LOCK) {
+                index = configured;
+                if (index == null) {
+                    final var directory = AppSettings.getString("FORM_INDEX_DIRECTORY", null);
+                    try {
+                        index = new FormDataIndex(directory == null ? null : Path.of(directory),
+                                AppSettings.getString("FORM_INDEX_KEY", null), Clock.systemUTC());
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Could not open the form data index: " + directory, e);
+                    }
+                    configured = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Indexes the form data of a document, or re-indexes it if its content changed since it was last ingested.
+     *
+     * @param documentId The caller's ID for the document, such as its storage location. Ingesting another document
+     *                   under the same ID replaces it.
+     * @param pdfBytes   The XFA PDF.
+     * @return What the ingestion did.
+     * @throws app.djk.RestPdfFormFiller.projectExceptions.InvalidXfaFormException If the PDF has no XFA datasets.
+     * @throws IOException If the PDF cannot be parsed, or the log cannot be written.
+     */
+    public Ingestion ingest(final String documentId, final byte[] pdfBytes) throws IOException {
+        final var hash = Fingerprints.sha256(pdfBytes);
+        Set<String> terms;
+        lock.readLock().lock();
+        try {
+            final var existing = documents.get(documentId);
+            if (existing != null && existing.hash().equals(hash)) {
+                return new Ingestion(documentId, hash, Outcome.UNCHANGED, existing.terms().size());
+            }
+            terms = termsOfHash(hash);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (terms == null) {
+            // Parsed outside the lock: queries and other ingestions go on meanwhile.
+            final var mac = newMac();
+            final var computed = new HashSet<String>();
+            RestPdfApi.getXfaFieldValues(pdfBytes).forEach((path, value) -> computed.add(term(mac, path, value)));
+            terms = Set.copyOf(computed);
+        }
+        RequestDeadline.check();
+
+        final var document = new IndexedDocument(documentId, hash, terms, clock.instant());
+        lock.writeLock().lock();
+        try {
+            final var replaced = documents.containsKey(documentId);
+            append(putRecord(document));
+            apply(document);
+            compactIfSuperseded();
+            return new Ingestion(documentId, hash, replaced ? Outcome.UPDATED : Outcome.ADDED, terms.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops a document from the index.
+     *
+     * @param documentId The document's ID.
+     * @return <code>true</code> if it was indexed.
+     * @throws IOException If the log cannot be written.
+     */
+    public boolean remove(final String documentId) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!documents.containsKey(documentId)) {
+                return false;
+            }
+            append(OBJECT_MAPPER.createObjectNode().put("op", "remove").put("keyId", keyId)
+                    .put("documentId", documentId));
+            unapply(documentId);
+            compactIfSuperseded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the documents whose fields hold all the given values.
+     *
+     * @param filters Field paths and the (trimmed) values they must hold; at least one.
+     * @param limit   Most documents to return.
+     * @return The number of matching documents, and the first <code>limit</code> of them by document ID.
+     */
+    public QueryResult query(final Map<String, String> filters, final int limit) {
+        final var mac = newMac();
+        final var terms = new ArrayList<String>(filters.size());
+        filters.forEach((path, value) -> terms.add(term(mac, path, value)));
+        lock.readLock().lock();
+        try {
+            final var sets = new ArrayList<Set<String>>(filters.size());
+            for (final var term : terms) {
+                final var matches = postings.get(term);
+                if (matches == null) {
+                    return new QueryResult(0, List.of());
+                }
+                sets.add(matches);
+            }
+            sets.sort((a, b) -> Integer.compare(a.size(), b.size()));
+            final var ids = new ArrayList<String>();
+            for (final var id : sets.getFirst()) {
+                RequestDeadline.checkInLoop();
+                var all = true;
+                for (var i = 1; all && i < sets.size(); i++) {
+                    all = sets.get(i).contains(id);
+                }
+                if (all) {
+                    ids.add(id);
+                }
+            }
+            Collections.sort(ids);
+            final var matches = new ArrayList<Match>(Math.min(limit, ids.size()));
+            for (final var id : ids.subList(0, Math.min(limit, ids.size()))) {
+                final var document = documents.get(id);
+                matches.add(new Match(id, document.hash(), document.indexedAt()));
+            }
+            return new QueryResult(ids.size(), matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of documents indexed.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The terms of a document already indexed with the same content, or <code>null</code>.
+     */
+    private Set<String> termsOfHash(final String hash) {
+        final var ids = documentsByHash.get(hash);
+        return ids == null || ids.isEmpty() ? null : documents.get(ids.iterator().next()).terms();
+    }
+
+    /**
+     * @return The term a field's path and trimmed value are indexed and looked up by: their HMAC under the index key,
+     * in hex. The path and value are length-prefixed so that no other split of the same characters shares the term.
+     */
+    private static String term(final Mac mac, final String path, final String value) {
+        final var pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        final var valueBytes = value.strip().getBytes(StandardCharsets.UTF_8);
+        mac.update(ByteBuffer.allocate(Integer.BYTES).putInt(pathBytes.length).array());
+        mac.update(pathBytes);
+        mac.update(ByteBuffer.allocate(Integer.BYTES).putInt(valueBytes.length).array());
+        return HexFormat.of().formatHex(mac.doFinal(valueBytes));
+    }
+
+    private Mac newMac() {
+        try {
+            final var mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256 is a mandatory algorithm on every Java platform.
+            throw new IllegalStateException("HmacSHA256 is not available.", e);
+        }
+    }
+
+    private static byte[] randomKey() {
+        final var bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads the generated key kept next to the log, or creates it, readable by its owner only where the file system
+     * has POSIX permissions.
+     */
+    private static byte[] readOrCreateKey(final Path keyFile) throws IOException {
+        if (Files.exists(keyFile)) {
+            return HexFormat.of().parseHex(Files.readString(keyFile, StandardCharsets.US_ASCII).strip());
+        }
+        final var bytes = randomKey();
+        if (keyFile.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(keyFile,
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        Files.writeString(keyFile, HexFormat.of().formatHex(bytes), StandardCharsets.US_ASCII);
+        return bytes;
+    }
+
+    private void apply(final IndexedDocument document) {
+        unapply(document.documentId());
+        documents.put(document.documentId(), document);
+        documentsByHash.computeIfAbsent(document.hash(), hash -> new HashSet<>()).add(document.documentId());
+        for (final var term : document.terms()) {
+            postings.computeIfAbsent(term, t -> new HashSet<>()).add(document.documentId());
+        }
+    }
+
+    private void unapply(final String documentId) {
+        final var document = documents.remove(documentId);
+        if (document == null) {
+            return;
+        }
+        final var sameHash = documentsByHash.get(document.hash());
+        sameHash.remove(documentId);
+        if (sameHash.isEmpty()) {
+            documentsByHash.remove(document.hash());
+        }
+        for (final var term : document.terms()) {
+            final var ids = postings.get(term);
+            ids.remove(documentId);
+            if (ids.isEmpty()) {
+                postings.remove(term);
+            }
+        }
+    }
+
+    /**
+     * Writes a change to the log before it is applied, so that the index never holds what a restart would lose.
+     * Called under the write lock.
+     */
+    private void append(final ObjectNode record) throws IOException {
+        if (log == null) {
+            return;
+        }
+        writer.write(record.toString());
+        writer.write('\n');
+        writer.flush();
+        logRecords++;
+    }
+
+    /**
+     * Compacts the log once it holds more than twice as many records as there are documents. Called under the write
+     * lock, after a change is applied.
+     */
+    private void compactIfSuperseded() throws IOException {
+        if (log != null && logRecords > 2 * (documents.size() + 1)) {
+            writer.close();
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the log with one record per document, aside and then moved into place, so that a crash leaves either
+     * the old log or the new one.
+     */
+    private void compact() throws IOException {
+        final var temporary = Files.createTempFile(log.getParent(), ".index-", ".tmp");
+        try {
+            try (final var out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                for (final var document : documents.values()) {
+                    out.write(putRecord(document).toString());
+                    out.write('\n');
+                }
+            }
+            try {
+                Files.move(temporary, log, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, log, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        logRecords = documents.size();
+        writer = Files.newBufferedWriter(log, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+
+    private void replay() throws IOException {
+        var skippedForKey = 0;
+        try (final var lines = Files.lines(log, StandardCharsets.UTF_8)) {
+            for (final var line : (Iterable<String>) lines::iterator) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                logRecords++;
+                try {
+                    final var record = OBJECT_MAPPER.readTree(line);
+                    if (!keyId.equals(record.path("keyId").asString())) {
+                        // Terms under another key match nothing; the document is indexed again when next sent.
+                        skippedForKey++;
+                        continue;
+                    }
+                    final var documentId = record.path("documentId").asString();
+                    if ("remove".equals(record.path("op").asString())) {
+                        unapply(documentId);
+                        continue;
+                    }
+                    final var terms = new HashSet<String>();
+                    for (final var term : record.path("terms")) {
+                        terms.add(term.asString());
+                    }
+                    apply(new IndexedDocument(documentId, record.path("hash").asString(), Set.copyOf(terms),
+                            Instant.parse(record.path("indexedAt").asString())));
+                } catch (JacksonException | DateTimeParseException e) {
+                    LOGGER.log(Level.WARNING, "Skipping an unreadable record of the form data index log.", e);
+                }
+            }
+        }
+        if (skippedForKey > 0) {
+            LOGGER.warning(() -> "Skipped form data index log records written under another FORM_INDEX_KEY; "
+                    + "their documents must be indexed again.");
+        }
+    }
+
+    private ObjectNode putRecord(final IndexedDocument document) {
+        final var record = OBJECT_MAPPER.createObjectNode()
+                .put("op", "put")
+                .put("keyId", keyId)
+                .put("documentId", document.documentId())
+                .put("hash", document.hash())
+                .put("indexedAt", document.indexedAt().toString());
+        final var terms = record.putArray("terms");
+        document.terms().forEach(terms::add);
+        return record;
+    }
+
+    /**
+     * What an ingestion did.
+     */
+    public enum Outcome {
+        /**
+         * The document was not indexed before.
+         */
+        ADDED,
+        /**
+         * The document was indexed with other content, which it replaced.
+         */
+        UPDATED,
+        /**
+         * The document was indexed with the same content; nothing was parsed or written.
+         */
+        UNCHANGED
+    }
+
+    /**
+     * @param documentId The document's ID.
+     * @param hash       SHA-256 of the PDF, in hex.
+     * @param outcome    What the ingestion did.
+     * @param fields     Number of fields indexed for the document.
+     */
+    public record Ingestion(String documentId, String hash, Outcome outcome, int fields) {
+    }
+
+    /**
+     * @param documentId The document's ID.
+     * @param hash       SHA-256 of the PDF it was last ingested with, in hex.
+     * @param indexedAt  When that content was ingested.
+     */
+    public record Match(String documentId, String hash, Instant indexedAt) {
+    }
+
+    /**
+     * @param total     Number of documents that match.
+     * @param documents The first of them, by document ID.
+     */
+    public record QueryResult(int total, List<Match> documents) {
+    }
+
+    private record IndexedDocument(String documentId, String hash, Set<String> terms, Instant indexedAt) {
+    }
+}
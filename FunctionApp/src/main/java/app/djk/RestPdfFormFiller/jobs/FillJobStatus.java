@@ -0,0 +1,78 @@
+package app.djk.RestPdfFormFiller.jobs;
+
+import java.time.Instant;
+
+/**
+ * Where a fill job stands, as stored next to the job and reported by the status endpoint.
+ *
+ * @param jobId              The job ID.
+ * @param state              Where the job stands.
+ * @param requestFingerprint SHA-256 of the submitted request, to tell a retried submission from a different one
+ *                           under the same <code>Idempotency-Key</code>.
+ * @param attempts           How many times processing has started.
+ * @param submittedAt        When the job was submitted.
+ * @param completedAt        When the job finished, or <code>null</code> while it has not.
+ * @param httpStatus         The status the synchronous fill would have answered with, or <code>0</code> while the job
+ *                           has not finished.
+ * @param error              The error message of a failed job, or <code>null</code>.
+ * @param cacheStatus        <code>hit</code> or <code>miss</code> when the fill result cache was consulted, or
+ *                           <code>null</code>.
+ * @param unchanged          <code>true</code> if the fill was a no-op and the result is the submitted template.
+ * @param compressionProfile The compression profile the result was written with, or <code>null</code> while the
+ *                           job has not succeeded.
+ */
+public record FillJobStatus(
+        String jobId,
+        State state,
+        String requestFingerprint,
+        int attempts,
+        Instant submittedAt,
+        Instant completedAt,
+        int httpStatus,
+        String error,
+        String cacheStatus,
+        boolean unchanged,
+        String compressionProfile) {
+
+    /**
+     * The lifecycle of a fill job.
+     */
+    public enum State {
+        /**
+         * Waiting in the queue, or waiting to be retried after the instance was busy.
+         */
+        QUEUED("queued"),
+        /**
+         * Being filled.
+         */
+        RUNNING("running"),
+        /**
+         * Filled; the result is available.
+         */
+        SUCCEEDED("succeeded"),
+        /**
+         * Finished without a result; {@link FillJobStatus#error()} says why.
+         */
+        FAILED("failed");
+
+        private final String value;
+
+        State(final String value) {
+            this.value = value;
+        }
+
+        /**
+         * @return The wire value reported by the status endpoint.
+         */
+        public String value() {
+            return value;
+        }
+    }
+
+    /**
+     * @return <code>true</code> once the job has succeeded or failed.
+     */
+    public boolean finished() {
+        return state == State.SUCCEEDED || state == State.FAILED;
+    }
+}
@@ -0,0 +1,382 @@
+package app.djk.RestPdfFormFiller.jobs;
+
+import app.djk.RestPdfFormFiller.cache.Fingerprints;
+import app.djk.RestPdfFormFiller.config.AppSettings;
+import app.djk.RestPdfFormFiller.jobs.azure.AzureStorageAccount;
+import app.djk.RestPdfFormFiller.projectExceptions.IdempotencyKeyReuseException;
+import app.djk.RestPdfFormFiller.projectExceptions.ServerBusyException;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Asynchronous fills: a caller submits a fill and gets a job ID back at once, a worker fills it from a queue, and the
+ * caller polls for the status and fetches the result.
+ * <p>
+ * <strong>Why.</strong> Power Automate gives up on a synchronous HTTP action after 120 seconds and retries it, and
+ * every retry runs the whole fill again, so a slow fill under load turns into several. A submission only stores the
+ * request and queues its ID, so it answers in milliseconds whatever the fill costs, and a retried submission that
+ * carries the same <code>Idempotency-Key</code> gets the job it already created instead of a second one.
+ * <p>
+ * A job is three values in the {@link JobStore} (<code>{id}/request.json</code>, <code>{id}/status.json</code> and,
+ * once filled, <code>{id}/result.pdf</code>) and a message carrying its ID in the {@link JobQueue}. Delivery is at
+ * least once: a job whose worker died is picked up again when its message reappears, and gives up after
+ * <code>FILL_JOBS_MAX_ATTEMPTS</code> attempts. A job that finds the instance too busy (the request governor's 429)
+ * is put back in the queue after the suggested delay rather than failed.
+ * <p>
+ * The backend is chosen by <code>FILL_JOBS_BACKEND</code>: <code>local</code> (the default) keeps the queue and the
+ * store in this process, which only suits a single instance; <code>azure</code> uses an Azure Storage queue and blob
+ * container (see {@link AzureStorageAccount}), which every instance shares and which the <code>ProcessFillJob</code>
+ * queue trigger drains.
+ */
+public final class FillJobs {
+
+    /**
+     * Name of the queue, and of the blob container, an Azure deployment keeps its jobs in.
+     */
+    public static final String QUEUE_NAME = "fill-jobs";
+
+    private static final Logger LOGGER = Logger.getLogger(FillJobs.class.getName());
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Pattern JOB_ID = Pattern.compile("[0-9a-f]{32}");
+    private static final Object LOCK = new Object();
+    private static volatile FillJobs configured;
+
+    private final JobQueue queue;
+    private final JobStore store;
+    private final Clock clock;
+    private final int maxAttempts;
+    private final Duration visibilityTimeout;
+    private final Duration pollInterval;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean stopping;
+
+    /**
+     * @param queue             Where job IDs wait.
+     * @param store             Where requests, statuses and results are kept.
+     * @param clock             Clock for the submitted and completed times.
+     * @param maxAttempts       Attempts a job gets before it is failed.
+     * @param visibilityTimeout How long a polling worker's message stays hidden; it must exceed the longest fill.
+     * @param pollInterval      How often an idle polling worker looks for a message.
+     */
+    FillJobs(final JobQueue queue, final JobStore store, final Clock clock, final int maxAttempts,
+             final Duration visibilityTimeout, final Duration pollInterval) {
+        this.queue = queue;
+        this.store = store;
+        this.clock = clock;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.visibilityTimeout = visibilityTimeout;
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Resolves the configured backend on the first call and returns the same instance afterwards. As with the storage
+     * connector, nothing job-related is loaded until a job endpoint is used, and a failed resolution (an unknown
+     * backend, missing storage settings) is not remembered.
+     *
+     * @return The configured fill jobs.
+     * @throws IllegalStateException If the backend is unknown or its settings are missing.
+     */
+    public static FillJobs configured() {
+        var jobs = configured;
+        if (jobs == null) {
+            synchronized (LOCK) {
+                jobs = configured;
+                if (jobs == null) {
+                    jobs = fromSettings();
+                    configured = jobs;
+                }
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * @return The number of polling workers <code>FILL_JOBS_WORKERS</code> asks for: by default one per core for the
+     * <code>local</code> backend, and none for <code>azure</code>, whose queue trigger does the work.
+     */
+    public static int configuredWorkers() {
+        return AppSettings.getInt("FILL_JOBS_WORKERS",
+                isLocal() ? Runtime.getRuntime().availableProcessors() : 0);
+    }
+
+    private static FillJobs fromSettings() {
+        final JobQueue queue;
+        final JobStore store;
+        if (isLocal()) {
+            final var directory = AppSettings.getString("FILL_JOBS_DIRECTORY", null);
+            queue = new InMemoryJobQueue();
+            store = new LocalJobStore(directory == null ? null : Path.of(directory),
+                    Duration.ofMinutes(AppSettings.getLong("FILL_JOBS_RETENTION_MINUTES", 60)), Clock.systemUTC());
+        } else if ("azure".equalsIgnoreCase(AppSettings.getString("FILL_JOBS_BACKEND", "local"))) {
+            final var account = AzureStorageAccount.fromSettings();
+            queue = account.queue(QUEUE_NAME);
+            store = account.container(QUEUE_NAME);
+        } else {
+            throw new IllegalStateException("No fill job backend named '"
+                    + AppSettings.getString("FILL_JOBS_BACKEND", null) + "' is available.");
+        }
+        return new FillJobs(queue, store, Clock.systemUTC(),
+                AppSettings.getInt("FILL_JOBS_MAX_ATTEMPTS", 5),
+                Duration.ofSeconds(AppSettings.getLong("FILL_JOBS_VISIBILITY_TIMEOUT_SECONDS", 600)),
+                Duration.ofMillis(AppSettings.getLong("FILL_JOBS_POLL_INTERVAL_MS", 1000)));
+    }
+
+    private static boolean isLocal() {
+        return "local".equalsIgnoreCase(AppSettings.getString("FILL_JOBS_BACKEND", "local"));
+    }
+
+    /**
+     * Stores a fill request and queues it.
+     *
+     * @param request        The request body, exactly as the synchronous fill endpoint takes it.
+     * @param idempotencyKey The caller's <code>Idempotency-Key</code>, or <code>null</code>. A job submitted again
+     *                       with the same key and request is returned as it stands instead of being queued again.
+     * @return The status of the new (or, for a repeated key, the existing) job.
+     * @throws IdempotencyKeyReuseException If the key was already used for a different request.
+     * @throws IOException                  If the backend cannot be reached.
+     */
+    public FillJobStatus submit(final byte[] request, final String idempotencyKey) throws IOException {
+        final var fingerprint = Fingerprints.sha256(request);
+        final String jobId;
+        if (idempotencyKey != null) {
+            jobId = Fingerprints.sha256("fill-job", idempotencyKey).substring(0, 32);
+            final var existing = status(jobId);
+            if (existing.isPresent()) {
+                if (!existing.get().requestFingerprint().equals(fingerprint)) {
+                    throw new IdempotencyKeyReuseException();
+                }
+                return existing.get();
+            }
+        } else {
+            jobId = UUID.randomUUID().toString().replace("-", "");
+        }
+
+        store.put(requestKey(jobId), request);
+        final var status = new FillJobStatus(jobId, FillJobStatus.State.QUEUED, fingerprint, 0, clock.instant(),
+                null, 0, null, null, false, null);
+        putStatus(status);
+        queue.send(jobId, Duration.ZERO);
+        return status;
+    }
+
+    /**
+     * @param jobId A job ID, as given by the caller.
+     * @return The job's status, or empty if there is no such job (or it has expired).
+     * @throws IOException If the backend cannot be reached.
+     */
+    public Optional<FillJobStatus> status(final String jobId) throws IOException {
+        if (jobId == null || !JOB_ID.matcher(jobId).matches()) {
+            return Optional.empty();
+        }
+        final var stored = store.get(statusKey(jobId));
+        return stored.isEmpty() ? Optional.empty()
+                : Optional.of(OBJECT_MAPPER.readValue(stored.get(), FillJobStatus.class));
+    }
+
+    /**
+     * @param jobId A job ID, as given by the caller.
+     * @return The filled PDF of a succeeded job, or empty if there is none (yet, or any more).
+     * @throws IOException If the backend cannot be reached.
+     */
+    public Optional<byte[]> result(final String jobId) throws IOException {
+        if (jobId == null || !JOB_ID.matcher(jobId).matches()) {
+            return Optional.empty();
+        }
+        return store.get(resultKey(jobId));
+    }
+
+    /**
+     * Processes one queued job. Calling it again for a job that has finished, or for an ID that is not a job, does
+     * nothing, so a message delivered twice is harmless.
+     *
+     * @param jobId     The ID from the queue message.
+     * @param processor Runs the fill.
+     * @throws IOException If the backend cannot be reached; the message should then be left to reappear.
+     */
+    public void process(final String jobId, final Processor processor) throws IOException {
+        final var current = status(jobId);
+        if (current.isEmpty() || current.get().finished()) {
+            return;
+        }
+        final var status = current.get();
+        if (status.attempts() >= maxAttempts) {
+            // Every earlier attempt ended without an outcome: the process died mid-fill, or storage failed.
+            complete(status, Outcome.failed(500, "Request failed."));
+            return;
+        }
+        final var request = store.get(requestKey(jobId));
+        if (request.isEmpty()) {
+            complete(status, Outcome.failed(410, "The job's request is no longer available."));
+            return;
+        }
+
+        final var running = new FillJobStatus(jobId, FillJobStatus.State.RUNNING, status.requestFingerprint(),
+                status.attempts() + 1, status.submittedAt(), null, 0, null, null, false, null);
+        putStatus(running);
+        final Outcome outcome;
+        try {
+            outcome = processor.process(request.get());
+        } catch (ServerBusyException e) {
+            if (running.attempts() >= maxAttempts) {
+                complete(running, Outcome.failed(503, e.getMessage()));
+            } else {
+                putStatus(new FillJobStatus(jobId, FillJobStatus.State.QUEUED, status.requestFingerprint(),
+                        running.attempts(), status.submittedAt(), null, 0, null, null, false, null));
+                queue.send(jobId, Duration.ofSeconds(e.getRetryAfterSeconds()));
+            }
+            return;
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Fill job " + jobId + " failed.", e);
+            complete(running, Outcome.failed(500, "Request failed."));
+            return;
+        }
+        complete(running, outcome);
+    }
+
+    /**
+     * Starts polling workers, each taking one job at a time from the queue. Only the first call starts any.
+     *
+     * @param count     Number of workers; <code>0</code> starts none.
+     * @param processor Runs the fills.
+     */
+    public void startWorkers(final int count, final Processor processor) {
+        synchronized (workers) {
+            if (!workers.isEmpty() || stopping) {
+                return;
+            }
+            final var factory = Thread.ofPlatform().name("fill-job-worker-", 0).daemon(true).factory();
+            for (var i = 0; i < count; i++) {
+                final var worker = factory.newThread(() -> poll(processor));
+                workers.add(worker);
+                worker.start();
+            }
+        }
+    }
+
+    /**
+     * Stops the polling workers once their current job is done.
+     */
+    public void stopWorkers() {
+        stopping = true;
+        synchronized (workers) {
+            workers.forEach(Thread::interrupt);
+        }
+    }
+
+    private void poll(final Processor processor) {
+        while (!stopping) {
+            try {
+                final var started = System.nanoTime();
+                final var message = queue.receive(visibilityTimeout, pollInterval);
+                if (message.isPresent()) {
+                    process(message.get().text(), processor);
+                    queue.delete(message.get());
+                } else {
+                    // A remote queue answers at once; wait out the rest of the interval before asking again.
+                    Thread.sleep(Math.max(0, pollInterval.toMillis() - (System.nanoTime() - started) / 1_000_000));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Fill job worker could not reach the job backend.", e);
+                try {
+                    Thread.sleep(pollInterval.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void complete(final FillJobStatus status, final Outcome outcome) throws IOException {
+        if (outcome.pdfBytes() != null) {
+            store.put(resultKey(status.jobId()), outcome.pdfBytes());
+        }
+        final var state = outcome.pdfBytes() != null ? FillJobStatus.State.SUCCEEDED : FillJobStatus.State.FAILED;
+        putStatus(new FillJobStatus(status.jobId(), state, status.requestFingerprint(), status.attempts(),
+                status.submittedAt(), clock.instant(), outcome.httpStatus(), outcome.error(), outcome.cacheStatus(),
+                outcome.unchanged(), outcome.compressionProfile()));
+        store.delete(requestKey(status.jobId()));
+    }
+
+    private void putStatus(final FillJobStatus status) throws IOException {
+        store.put(statusKey(status.jobId()), OBJECT_MAPPER.writeValueAsBytes(status));
+    }
+
+    private static String requestKey(final String jobId) {
+        return jobId + "/request.json";
+    }
+
+    private static String statusKey(final String jobId) {
+        return jobId + "/status.json";
+    }
+
+    private static String resultKey(final String jobId) {
+        return jobId + "/result.pdf";
+    }
+
+    /**
+     * Runs the fill of a job.
+     */
+    @FunctionalInterface
+    public interface Processor {
+
+        /**
+         * @param request The submitted request body.
+         * @return How the fill ended; a fill that fails on its input is an outcome, not an exception.
+         * @throws ServerBusyException If the instance is too busy; the job is retried after the suggested delay.
+         * @throws Exception           Anything unexpected; the job is failed with a 500.
+         */
+        Outcome process(byte[] request) throws Exception;
+    }
+
+    /**
+     * How a fill ended.
+     *
+     * @param httpStatus  The status the synchronous fill answers with.
+     * @param pdfBytes    The filled PDF, or <code>null</code> if the fill failed.
+     * @param error       The error message of a failed fill, or <code>null</code>.
+     * @param cacheStatus <code>hit</code> or <code>miss</code> when the fill result cache was consulted, or
+     *                    <code>null</code>.
+     * @param unchanged          <code>true</code> if the fill was a no-op.
+     * @param compressionProfile The compression profile the PDF was written with, or <code>null</code> if the fill
+     *                           failed.
+     */
+    public record Outcome(int httpStatus, byte[] pdfBytes, String error, String cacheStatus, boolean unchanged,
+                          String compressionProfile) {
+
+        /**
+         * @param pdfBytes           The filled PDF.
+         * @param cacheStatus        <code>hit</code>, <code>miss</code> or <code>null</code>.
+         * @param unchanged          <code>true</code> if the fill was a no-op.
+         * @param compressionProfile The compression profile the PDF was written with.
+         * @return A successful outcome.
+         */
+        public static Outcome succeeded(final byte[] pdfBytes, final String cacheStatus, final boolean unchanged,
+                                        final String compressionProfile) {
+            return new Outcome(200, pdfBytes, null, cacheStatus, unchanged, compressionProfile);
+        }
+
+        /**
+         * @param httpStatus The status the synchronous fill answers with.
+         * @param error      The message it answers with.
+         * @return A failed outcome.
+         */
+        public static Outcome failed(final int httpStatus, final String error) {
+            return new Outcome(httpStatus, null, error, null, false, null);
+        }
+    }
+}
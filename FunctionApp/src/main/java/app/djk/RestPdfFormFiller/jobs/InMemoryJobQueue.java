@@ -0,0 +1,120 @@
+package app.djk.RestPdfFormFiller.jobs;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link JobQueue} on the heap of this process, with the same visibility-timeout behavior as an Azure Storage
+ * queue. It is meant for local runs, tests and single-instance standalone servers: messages do not survive a restart
+ * and are not shared between instances.
+ */
+public final class InMemoryJobQueue implements JobQueue {
+
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Creates a queue on the system's monotonic clock.
+     */
+    public InMemoryJobQueue() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * @param clock Monotonic nanosecond clock (injectable for tests).
+     */
+    InMemoryJobQueue(final LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public void send(final String text, final Duration delay) {
+        lock.lock();
+        try {
+            entries.add(new Entry(text, UUID.randomUUID().toString(), clock.getAsLong() + delay.toNanos()));
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<Message> receive(final Duration visibilityTimeout, final Duration maxWait) {
+        lock.lock();
+        try {
+            final var deadline = clock.getAsLong() + maxWait.toNanos();
+            while (true) {
+                final var now = clock.getAsLong();
+                var nextVisibleAt = deadline;
+                for (final var entry : entries) {
+                    if (entry.visibleAt - now <= 0) {
+                        entry.visibleAt = now + visibilityTimeout.toNanos();
+                        entry.receipt = UUID.randomUUID().toString();
+                        entry.dequeueCount++;
+                        return Optional.of(new Message(entry.text, entry.messageId, entry.receipt,
+                                entry.dequeueCount));
+                    }
+                    if (entry.visibleAt - nextVisibleAt < 0) {
+                        nextVisibleAt = entry.visibleAt;
+                    }
+                }
+                if (deadline - now <= 0) {
+                    return Optional.empty();
+                }
+                changed.await(nextVisibleAt - now, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(final Message message) {
+        lock.lock();
+        try {
+            // A message received again after its visibility timeout has a new receipt; the old one no longer works.
+            entries.removeIf(entry -> entry.messageId.equals(message.messageId())
+                    && message.receipt().equals(entry.receipt));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of messages in the queue, visible or not.
+     */
+    int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Entry {
+        private final String text;
+        private final String messageId;
+        private long visibleAt;
+        private String receipt;
+        private int dequeueCount;
+
+        private Entry(final String text, final String messageId, final long visibleAt) {
+            this.text = text;
+            this.messageId = messageId;
+            this.visibleAt = visibleAt;
+        }
+    }
+}
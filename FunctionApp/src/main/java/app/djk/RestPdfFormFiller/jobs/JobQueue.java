@@ -0,0 +1,54 @@
+package app.djk.RestPdfFormFiller.jobs;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * The queue fill jobs wait in, carrying job IDs (the job itself is kept in a {@link JobStore}).
+ * <p>
+ * The contract is that of Azure Storage queues: a received message is hidden for a visibility timeout rather than
+ * removed, and only {@link #delete deleting} it after the job was processed removes it for good. A worker that dies
+ * mid-job therefore leaves its message to reappear and be picked up again. Implementations must be thread-safe.
+ */
+public interface JobQueue {
+
+    /**
+     * Adds a message.
+     *
+     * @param text  The message text.
+     * @param delay How long the message stays invisible before it can be received; zero for immediately.
+     * @throws IOException If the queue cannot be reached.
+     */
+    void send(String text, Duration delay) throws IOException;
+
+    /**
+     * Receives the next visible message and hides it for <code>visibilityTimeout</code>.
+     *
+     * @param visibilityTimeout How long the message stays hidden from other receivers.
+     * @param maxWait           How long to wait for a message when none is visible. Implementations that cannot
+     *                          wait (a remote queue polled over HTTP) return immediately.
+     * @return The message, or empty if none is visible.
+     * @throws IOException If the queue cannot be reached.
+     */
+    Optional<Message> receive(Duration visibilityTimeout, Duration maxWait) throws IOException;
+
+    /**
+     * Removes a received message. A message that is already gone is ignored.
+     *
+     * @param message The message, as received.
+     * @throws IOException If the queue cannot be reached.
+     */
+    void delete(Message message) throws IOException;
+
+    /**
+     * A received message.
+     *
+     * @param text         The message text.
+     * @param messageId    The queue's ID for the message.
+     * @param receipt      Proof of this particular receipt, needed to delete the message.
+     * @param dequeueCount How many times the message has been received, this time included.
+     */
+    record Message(String text, String messageId, String receipt, int dequeueCount) {
+    }
+}
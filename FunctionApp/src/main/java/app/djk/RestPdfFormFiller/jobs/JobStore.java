@@ -0,0 +1,38 @@
+package app.djk.RestPdfFormFiller.jobs;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Holds what a fill job is made of: its request, its status and its result, each stored under its own key.
+ * <p>
+ * Keys are made of letters, digits, <code>.</code>, <code>-</code> and <code>/</code>, such as
+ * <code>{job-id}/result.pdf</code>. Implementations must be thread-safe, and a {@link #get} must never see a
+ * partially written value.
+ */
+public interface JobStore {
+
+    /**
+     * Creates or replaces the value stored under <code>key</code>.
+     *
+     * @param key     The key.
+     * @param content The value.
+     * @throws IOException If the store cannot be reached.
+     */
+    void put(String key, byte[] content) throws IOException;
+
+    /**
+     * @param key The key.
+     * @return The value, or empty if there is none (never stored, deleted or expired).
+     * @throws IOException If the store cannot be reached.
+     */
+    Optional<byte[]> get(String key) throws IOException;
+
+    /**
+     * Removes the value stored under <code>key</code>, if any.
+     *
+     * @param key The key.
+     * @throws IOException If the store cannot be reached.
+     */
+    void delete(String key) throws IOException;
+}
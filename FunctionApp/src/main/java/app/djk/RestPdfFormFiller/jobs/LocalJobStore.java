@@ -0,0 +1,150 @@
+package app.djk.RestPdfFormFiller.jobs;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link JobStore} on this machine: on the heap by default, or as files under a directory so that results do not
+ * compete with in-flight requests for heap (as with the fill result cache). Like {@link InMemoryJobQueue} it serves
+ * local runs, tests and single-instance standalone servers.
+ * <p>
+ * Values are dropped once they have not been written for the retention period; an Azure deployment gets the same
+ * effect from a lifecycle-management rule on the job container. Expired values are swept while storing new ones, at
+ * most once per tenth of the retention period.
+ */
+public final class LocalJobStore implements JobStore {
+
+    private static final Pattern KEY = Pattern.compile("[A-Za-z0-9.-]+(/[A-Za-z0-9.-]+)*");
+
+    private final Path directory;
+    private final Duration retention;
+    private final Clock clock;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile Instant nextSweep = Instant.MIN;
+
+    /**
+     * @param directory Directory to store values in, or <code>null</code> to keep them on the heap.
+     * @param retention How long a value is kept after it was last written.
+     * @param clock     Clock the retention is measured against (injectable for tests).
+     */
+    public LocalJobStore(final Path directory, final Duration retention, final Clock clock) {
+        this.directory = directory;
+        this.retention = retention;
+        this.clock = clock;
+        if (directory != null) {
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not create fill job directory: " + directory, e);
+            }
+        }
+    }
+
+    @Override
+    public void put(final String key, final byte[] content) throws IOException {
+        final var now = clock.instant();
+        if (directory == null) {
+            entries.put(checkKey(key), new Entry(content, now));
+        } else {
+            final var file = file(key);
+            // Write aside and move into place, so a concurrent get never reads a half-written status or result.
+            final var temporary = Files.createTempFile(file.getParent(), ".put-", ".tmp");
+            try {
+                Files.write(temporary, content);
+                move(temporary, file);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        if (now.isAfter(nextSweep)) {
+            nextSweep = now.plus(retention.dividedBy(10));
+            sweep(now.minus(retention));
+        }
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) throws IOException {
+        final var expiredBefore = clock.instant().minus(retention);
+        if (directory == null) {
+            final var entry = entries.get(checkKey(key));
+            return entry == null || entry.storedAt().isBefore(expiredBefore)
+                    ? Optional.empty() : Optional.of(entry.content());
+        }
+        final var file = file(key);
+        try {
+            if (Files.getLastModifiedTime(file).toInstant().isBefore(expiredBefore)) {
+                return Optional.empty();
+            }
+            return Optional.of(Files.readAllBytes(file));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void delete(final String key) throws IOException {
+        if (directory == null) {
+            entries.remove(checkKey(key));
+        } else {
+            Files.deleteIfExists(file(key));
+        }
+    }
+
+    /**
+     * Every value is a file directly in the directory; <code>_</code> stands in for <code>/</code>, which keys never
+     * contain otherwise.
+     */
+    private Path file(final String key) {
+        return directory.resolve(checkKey(key).replace('/', '_'));
+    }
+
+    /**
+     * Keys become file names, so anything that could leave the directory (<code>..</code>, absolute paths) is
+     * refused.
+     */
+    private static String checkKey(final String key) {
+        if (!KEY.matcher(key).matches() || key.contains("..")) {
+            throw new IllegalArgumentException("Invalid job store key.");
+        }
+        return key;
+    }
+
+    private static void move(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void sweep(final Instant expiredBefore) throws IOException {
+        if (directory == null) {
+            entries.values().removeIf(entry -> entry.storedAt().isBefore(expiredBefore));
+            return;
+        }
+        try (final var files = Files.list(directory)) {
+            for (final var file : (Iterable<Path>) files::iterator) {
+                try {
+                    if (Files.getLastModifiedTime(file).toInstant().isBefore(expiredBefore)) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (NoSuchFileException e) {
+                    // Deleted (or moved into place over) since it was listed.
+                }
+            }
+        }
+    }
+
+    private record Entry(byte[] content, Instant storedAt) {
+    }
+}
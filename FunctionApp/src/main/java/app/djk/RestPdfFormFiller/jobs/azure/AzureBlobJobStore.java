@@ -0,0 +1,76 @@
+package app.djk.RestPdfFormFiller.jobs.azure;
+
+import app.djk.RestPdfFormFiller.jobs.JobStore;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A {@link JobStore} backed by an Azure Storage blob container, one block blob per key. A single <code>Put Blob</code>
+ * replaces a blob atomically, so readers never see a partial value. Nothing expires here; a lifecycle-management rule
+ * on the container deletes old jobs (see the README).
+ */
+final class AzureBlobJobStore implements JobStore {
+
+    private final AzureStorageAccount account;
+    private final String container;
+
+    AzureBlobJobStore(final AzureStorageAccount account, final String container) {
+        this.account = account;
+        this.container = "/" + container;
+    }
+
+    @Override
+    public void put(final String key, final byte[] content) throws IOException {
+        final var headers = Map.of("x-ms-blob-type", "BlockBlob", "Content-Type", "application/octet-stream");
+        var response = account.send("PUT", account.blobEndpoint(), blob(key), Map.of(), headers, content);
+        if (response.statusCode() == 404) {
+            createContainer();
+            response = account.send("PUT", account.blobEndpoint(), blob(key), Map.of(), headers, content);
+        }
+        if (response.statusCode() != 201) {
+            throw AzureStorageAccount.unexpected(response, "a blob upload");
+        }
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) throws IOException {
+        final var response = account.send("GET", account.blobEndpoint(), blob(key), Map.of(), Map.of(), null);
+        if (response.statusCode() == 404) {
+            return Optional.empty();
+        }
+        if (response.statusCode() != 200) {
+            throw AzureStorageAccount.unexpected(response, "a blob download");
+        }
+        return Optional.of(response.body());
+    }
+
+    @Override
+    public void delete(final String key) throws IOException {
+        final var response = account.send("DELETE", account.blobEndpoint(), blob(key), Map.of(), Map.of(), null);
+        if (response.statusCode() != 202 && response.statusCode() != 404) {
+            throw AzureStorageAccount.unexpected(response, "a blob delete");
+        }
+    }
+
+    private void createContainer() throws IOException {
+        final var response = account.send("PUT", account.blobEndpoint(), container,
+                Map.of("restype", "container"), Map.of(), null);
+        // 409: another instance created it first.
+        if (response.statusCode() != 201 && response.statusCode() != 409) {
+            throw AzureStorageAccount.unexpected(response, "a container creation");
+        }
+    }
+
+    /**
+     * Job store keys (letters, digits, <code>.</code>, <code>-</code> and <code>/</code>) are valid blob names as
+     * they are, with <code>/</code> as the virtual directory separator.
+     */
+    private String blob(final String key) {
+        if (!key.matches("[A-Za-z0-9.-]+(/[A-Za-z0-9.-]+)*") || key.contains("..")) {
+            throw new IllegalArgumentException("Invalid job store key.");
+        }
+        return container + "/" + key;
+    }
+}
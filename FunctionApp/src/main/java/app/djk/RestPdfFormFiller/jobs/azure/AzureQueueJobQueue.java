@@ -0,0 +1,122 @@
+package app.djk.RestPdfFormFiller.jobs.azure;
+
+import app.djk.RestPdfFormFiller.jobs.JobQueue;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A {@link JobQueue} backed by an Azure Storage queue. Message text is base64-encoded, which is what the Functions
+ * queue trigger decodes by default, so messages sent here are the ones <code>ProcessFillJob</code> receives.
+ */
+final class AzureQueueJobQueue implements JobQueue {
+
+    private static final int MAX_VISIBILITY_SECONDS = 7 * 24 * 60 * 60;
+
+    private final AzureStorageAccount account;
+    private final String path;
+
+    AzureQueueJobQueue(final AzureStorageAccount account, final String name) {
+        this.account = account;
+        this.path = "/" + name;
+    }
+
+    @Override
+    public void send(final String text, final Duration delay) throws IOException {
+        final var body = ("<QueueMessage><MessageText>"
+                + Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8))
+                + "</MessageText></QueueMessage>").getBytes(StandardCharsets.UTF_8);
+        final var query = Map.of("visibilitytimeout", Long.toString(seconds(delay, 0)));
+        final var headers = Map.of("Content-Type", "application/xml");
+        var response = account.send("POST", account.queueEndpoint(), path + "/messages", query, headers, body);
+        if (response.statusCode() == 404) {
+            createQueue();
+            response = account.send("POST", account.queueEndpoint(), path + "/messages", query, headers, body);
+        }
+        if (response.statusCode() != 201) {
+            throw AzureStorageAccount.unexpected(response, "a queue message");
+        }
+    }
+
+    @Override
+    public Optional<Message> receive(final Duration visibilityTimeout, final Duration maxWait) throws IOException {
+        final var response = account.send("GET", account.queueEndpoint(), path + "/messages",
+                Map.of("numofmessages", "1", "visibilitytimeout", Long.toString(seconds(visibilityTimeout, 1))),
+                Map.of(), null);
+        if (response.statusCode() == 404) {
+            // Nothing has been sent yet, so the queue has not been created.
+            return Optional.empty();
+        }
+        if (response.statusCode() != 200) {
+            throw AzureStorageAccount.unexpected(response, "a queue receive");
+        }
+        return parse(response.body());
+    }
+
+    @Override
+    public void delete(final Message message) throws IOException {
+        final var response = account.send("DELETE", account.queueEndpoint(),
+                path + "/messages/" + message.messageId(), Map.of("popreceipt", message.receipt()), Map.of(), null);
+        if (response.statusCode() != 204 && response.statusCode() != 404) {
+            throw AzureStorageAccount.unexpected(response, "a queue message delete");
+        }
+    }
+
+    private void createQueue() throws IOException {
+        final var response = account.send("PUT", account.queueEndpoint(), path, Map.of(), Map.of(), null);
+        if (response.statusCode() != 201 && response.statusCode() != 204) {
+            throw AzureStorageAccount.unexpected(response, "a queue creation");
+        }
+    }
+
+    /**
+     * Reads the first <code>QueueMessage</code> of a <code>QueueMessagesList</code>.
+     */
+    static Optional<Message> parse(final byte[] xml) throws IOException {
+        final Element root;
+        try {
+            final var factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            final var builder = factory.newDocumentBuilder();
+            builder.setErrorHandler(new DefaultHandler());
+            root = builder.parse(new ByteArrayInputStream(xml)).getDocumentElement();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Azure Storage returned an unreadable queue receive.", e);
+        }
+        final var messages = root.getElementsByTagName("QueueMessage");
+        if (messages.getLength() == 0) {
+            return Optional.empty();
+        }
+        final var message = (Element) messages.item(0);
+        try {
+            return Optional.of(new Message(
+                    new String(Base64.getDecoder().decode(text(message, "MessageText")), StandardCharsets.UTF_8),
+                    text(message, "MessageId"),
+                    text(message, "PopReceipt"),
+                    Integer.parseInt(text(message, "DequeueCount"))));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Azure Storage returned an unreadable queue message.", e);
+        }
+    }
+
+    private static String text(final Element parent, final String name) {
+        final var elements = parent.getElementsByTagName(name);
+        return elements.getLength() == 0 ? "" : elements.item(0).getTextContent().strip();
+    }
+
+    private static long seconds(final Duration duration, final long minimum) {
+        return Math.min(MAX_VISIBILITY_SECONDS, Math.max(minimum, duration.toSeconds()));
+    }
+}
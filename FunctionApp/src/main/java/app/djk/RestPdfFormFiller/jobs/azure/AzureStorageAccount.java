@@ -0,0 +1,261 @@
+package app.djk.RestPdfFormFiller.jobs.azure;
+
+import app.djk.RestPdfFormFiller.config.AppSettings;
+import app.djk.RestPdfFormFiller.jobs.JobQueue;
+import app.djk.RestPdfFormFiller.jobs.JobStore;
+import app.djk.RestPdfFormFiller.storage.AccessTokenProvider;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * The storage account of the function app (the <code>AzureWebJobsStorage</code> connection), for the fill-job
+ * backend: {@link #queue} gives a queue of it and {@link #container} a blob container.
+ * <p>
+ * <strong>Why not the Azure Storage SDK.</strong> The backend needs six REST calls (send, receive and delete a
+ * message; put, get and delete a blob). The SDK would load azure-core, a Netty transport and Reactor on every
+ * instance that runs fill jobs, for calls the JDK client makes as well, so requests are signed here instead.
+ * <p>
+ * The connection is read the way the Functions host reads it, so the queue trigger and this backend always use the
+ * same account:
+ * <ul>
+ *   <li><code>AzureWebJobsStorage</code> as a connection string with an <code>AccountKey</code> (Shared Key
+ *       authorization), or <code>UseDevelopmentStorage=true</code> for Azurite;</li>
+ *   <li>otherwise <code>AzureWebJobsStorage__accountName</code> (with optional <code>__blobServiceUri</code>,
+ *       <code>__queueServiceUri</code> and <code>__clientId</code>), authorized with the managed identity the host
+ *       advertises, or with azure-identity's <code>DefaultAzureCredential</code> when
+ *       <code>FILL_JOBS_STORAGE_CREDENTIAL</code> is <code>azure-identity</code>. The identity needs the Storage
+ *       Blob Data Contributor and Storage Queue Data Contributor roles.</li>
+ * </ul>
+ */
+public final class AzureStorageAccount {
+
+    static final String API_VERSION = "2021-08-06";
+
+    private static final String CONNECTION = "AzureWebJobsStorage";
+    private static final String DEVELOPMENT_ACCOUNT = "devstoreaccount1";
+    private static final String DEVELOPMENT_KEY =
+            "Eby8vdM02xNOcqFlqUwJPLlmEtlCDXJ1OUzFT50uSRZ6IFsuFq2UVErCz4I6tq/K1SZFPTOtr/KBHBeksoGMGw==";
+    private static final DateTimeFormatter DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private final HttpClient client;
+    private final String accountName;
+    private final String blobEndpoint;
+    private final String queueEndpoint;
+    private final byte[] accountKey;
+    private final AccessTokenProvider tokens;
+    private final Duration timeout;
+    private final Clock clock;
+
+    /**
+     * @param accountKey Decoded account key for Shared Key authorization, or <code>null</code> to use
+     *                   <code>tokens</code>.
+     * @param tokens     Token provider for the <code>https://storage.azure.com</code> audience, or <code>null</code>
+     *                   when an account key is given.
+     */
+    AzureStorageAccount(final HttpClient client, final String accountName, final String blobEndpoint,
+                        final String queueEndpoint, final byte[] accountKey, final AccessTokenProvider tokens,
+                        final Duration timeout, final Clock clock) {
+        this.client = client;
+        this.accountName = accountName;
+        this.blobEndpoint = stripTrailingSlash(blobEndpoint);
+        this.queueEndpoint = stripTrailingSlash(queueEndpoint);
+        this.accountKey = accountKey;
+        this.tokens = tokens;
+        this.timeout = timeout;
+        this.clock = clock;
+    }
+
+    /**
+     * Creates the account from the <code>AzureWebJobsStorage</code> settings described above.
+     *
+     * @return The account.
+     * @throws IllegalStateException If the connection is missing or cannot be used.
+     */
+    public static AzureStorageAccount fromSettings() {
+        final var timeout = Duration.ofSeconds(AppSettings.getInt("FILL_JOBS_STORAGE_TIMEOUT_SECONDS", 30));
+        final var client = HttpClient.newBuilder().connectTimeout(timeout).build();
+        final var connectionString = AppSettings.getString(CONNECTION, null);
+        if (connectionString != null) {
+            return fromConnectionString(client, connectionString, timeout);
+        }
+        final var accountName = AppSettings.getString(CONNECTION + "__accountName", null);
+        if (accountName == null) {
+            throw new IllegalStateException("The azure fill job backend needs " + CONNECTION + " or "
+                    + CONNECTION + "__accountName.");
+        }
+        final var scope = "https://storage.azure.com/.default";
+        final var clientId = AppSettings.getString(CONNECTION + "__clientId", null);
+        final var credential = AppSettings.getString("FILL_JOBS_STORAGE_CREDENTIAL", "managed-identity");
+        final AccessTokenProvider tokens;
+        if ("azure-identity".equalsIgnoreCase(credential)) {
+            tokens = AccessTokenProvider.azureIdentity(scope, clientId);
+        } else if ("managed-identity".equalsIgnoreCase(credential)) {
+            tokens = AccessTokenProvider.managedIdentity(client, timeout, scope, clientId);
+        } else {
+            throw new IllegalStateException("FILL_JOBS_STORAGE_CREDENTIAL must be managed-identity or "
+                    + "azure-identity.");
+        }
+        return new AzureStorageAccount(client, accountName,
+                AppSettings.getString(CONNECTION + "__blobServiceUri",
+                        "https://" + accountName + ".blob.core.windows.net"),
+                AppSettings.getString(CONNECTION + "__queueServiceUri",
+                        "https://" + accountName + ".queue.core.windows.net"),
+                null, tokens, timeout, Clock.systemUTC());
+    }
+
+    static AzureStorageAccount fromConnectionString(final HttpClient client, final String connectionString,
+                                                    final Duration timeout) {
+        final var parts = new HashMap<String, String>();
+        for (final var part : connectionString.split(";")) {
+            final var equals = part.indexOf('=');
+            if (equals > 0) {
+                parts.put(part.substring(0, equals).strip().toLowerCase(Locale.ROOT),
+                        part.substring(equals + 1).strip());
+            }
+        }
+        if ("true".equalsIgnoreCase(parts.get("usedevelopmentstorage"))) {
+            return new AzureStorageAccount(client, DEVELOPMENT_ACCOUNT,
+                    "http://127.0.0.1:10000/" + DEVELOPMENT_ACCOUNT, "http://127.0.0.1:10001/" + DEVELOPMENT_ACCOUNT,
+                    Base64.getDecoder().decode(DEVELOPMENT_KEY), null, timeout, Clock.systemUTC());
+        }
+        final var accountName = parts.get("accountname");
+        final var accountKey = parts.get("accountkey");
+        if (accountName == null || accountKey == null) {
+            throw new IllegalStateException("The " + CONNECTION + " connection string needs AccountName and "
+                    + "AccountKey; use " + CONNECTION + "__accountName for a managed identity.");
+        }
+        final var protocol = parts.getOrDefault("defaultendpointsprotocol", "https");
+        final var suffix = parts.getOrDefault("endpointsuffix", "core.windows.net");
+        return new AzureStorageAccount(client, accountName,
+                parts.getOrDefault("blobendpoint", protocol + "://" + accountName + ".blob." + suffix),
+                parts.getOrDefault("queueendpoint", protocol + "://" + accountName + ".queue." + suffix),
+                Base64.getDecoder().decode(accountKey), null, timeout, Clock.systemUTC());
+    }
+
+    /**
+     * @param name Queue name; the queue is created on first use.
+     * @return A job queue backed by the named storage queue.
+     */
+    public JobQueue queue(final String name) {
+        return new AzureQueueJobQueue(this, name);
+    }
+
+    /**
+     * @param name Container name; the container is created on first use.
+     * @return A job store backed by the named blob container.
+     */
+    public JobStore container(final String name) {
+        return new AzureBlobJobStore(this, name);
+    }
+
+    String blobEndpoint() {
+        return blobEndpoint;
+    }
+
+    String queueEndpoint() {
+        return queueEndpoint;
+    }
+
+    /**
+     * Sends an authorized request.
+     *
+     * @param method  HTTP method.
+     * @param base    Service endpoint ({@link #blobEndpoint()} or {@link #queueEndpoint()}).
+     * @param path    Path below the endpoint, starting with <code>/</code>; already URI-safe.
+     * @param query   Query parameters, unencoded.
+     * @param headers Headers other than the date, version and authorization, which are added here.
+     * @param body    Request body, or <code>null</code> for none.
+     * @return The response, whatever its status.
+     * @throws IOException If the service cannot be reached or a token cannot be obtained.
+     */
+    HttpResponse<byte[]> send(final String method, final String base, final String path,
+                              final Map<String, String> query, final Map<String, String> headers, final byte[] body)
+            throws IOException {
+        final var uri = URI.create(base + path + (query.isEmpty() ? "" : "?" + query.entrySet().stream()
+                .map(entry -> entry.getKey() + "=" + URLEncoder.encode(entry.getValue(), StandardCharsets.UTF_8))
+                .collect(Collectors.joining("&"))));
+        final var allHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        allHeaders.putAll(headers);
+        allHeaders.put("x-ms-date", DATE.format(clock.instant()));
+        allHeaders.put("x-ms-version", API_VERSION);
+        final var contentLength = body == null ? 0 : body.length;
+        allHeaders.put("Authorization", accountKey != null
+                ? "SharedKey " + accountName + ":" + sign(method, uri, query, allHeaders, contentLength)
+                : "Bearer " + tokens.accessToken());
+
+        final var builder = HttpRequest.newBuilder(uri).timeout(timeout)
+                .method(method, body == null || body.length == 0
+                        ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body));
+        allHeaders.forEach(builder::header);
+        try {
+            return client.send(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while calling Azure Storage.");
+        }
+    }
+
+    /**
+     * The Shared Key signature of a request: the standard headers in their fixed order, the <code>x-ms-</code>
+     * headers sorted, then the account, path and sorted query parameters. An empty body signs an empty
+     * <code>Content-Length</code>, as the service expects from version 2015-02-21 on.
+     */
+    String sign(final String method, final URI uri, final Map<String, String> query,
+                final Map<String, String> headers, final long contentLength) {
+        final var toSign = new StringBuilder(256).append(method).append('\n');
+        for (final var name : new String[]{"Content-Encoding", "Content-Language"}) {
+            toSign.append(headers.getOrDefault(name, "")).append('\n');
+        }
+        toSign.append(contentLength == 0 ? "" : Long.toString(contentLength)).append('\n');
+        for (final var name : new String[]{"Content-MD5", "Content-Type", "Date", "If-Modified-Since", "If-Match",
+                "If-None-Match", "If-Unmodified-Since", "Range"}) {
+            toSign.append(headers.getOrDefault(name, "")).append('\n');
+        }
+        headers.entrySet().stream()
+                .filter(entry -> entry.getKey().toLowerCase(Locale.ROOT).startsWith("x-ms-"))
+                .sorted(Map.Entry.comparingByKey(Comparator.comparing(key -> key.toLowerCase(Locale.ROOT))))
+                .forEach(entry -> toSign.append(entry.getKey().toLowerCase(Locale.ROOT)).append(':')
+                        .append(entry.getValue().strip()).append('\n'));
+        toSign.append('/').append(accountName).append(uri.getRawPath());
+        new TreeMap<>(query).forEach((name, value) ->
+                toSign.append('\n').append(name.toLowerCase(Locale.ROOT)).append(':').append(value));
+
+        try {
+            final var mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(accountKey, "HmacSHA256"));
+            return Base64.getEncoder().encodeToString(mac.doFinal(toSign.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available.", e);
+        }
+    }
+
+    static IOException unexpected(final HttpResponse<byte[]> response, final String what) {
+        return new IOException("Azure Storage returned HTTP " + response.statusCode() + " to " + what + ".");
+    }
+
+    private static String stripTrailingSlash(final String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+}
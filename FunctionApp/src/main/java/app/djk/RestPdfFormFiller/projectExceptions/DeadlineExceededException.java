@@ -0,0 +1,15 @@
+package app.djk.RestPdfFormFiller.projectExceptions;
+
+/**
+ * Thrown when a request's deadline passes while it is still being processed. The work is abandoned at the next
+ * check rather than run to completion for a caller that has stopped waiting.
+ * <p>
+ * The message carries only the deadline itself, so it is safe to return to API callers.
+ */
+public class DeadlineExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException(final long timeoutMillis) {
+        super("Request did not complete within its deadline of " + timeoutMillis + " ms.");
+    }
+}
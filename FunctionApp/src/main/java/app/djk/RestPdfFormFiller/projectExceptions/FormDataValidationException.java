@@ -0,0 +1,64 @@
+package app.djk.RestPdfFormFiller.projectExceptions;
+
+import java.util.List;
+
+/**
+ * Thrown when form data does not satisfy the rules of the template it is filled into: a field the template does not
+ * have, or a value longer than its field allows, not matching its picture clause or not among its choices. Every
+ * field in error is reported, not only the first, so a caller can correct a payload in one round trip.
+ * <p>
+ * Each error names the field by its structural path and the rule by the template's own terms (never the submitted
+ * value), so the message and the errors are safe to return to API callers.
+ */
+public class FormDataValidationException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<FieldError> errors;
+    private final boolean truncated;
+
+    /**
+     * @param errors    The fields in error, in document order.
+     * @param truncated Whether more fields were in error than are listed.
+     */
+    public FormDataValidationException(final List<FieldError> errors, final boolean truncated) {
+        super(message(errors, truncated));
+        this.errors = List.copyOf(errors);
+        this.truncated = truncated;
+    }
+
+    /**
+     * @return The fields in error, in document order.
+     */
+    public List<FieldError> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return Whether more fields were in error than {@link #getErrors()} lists.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    private static String message(final List<FieldError> errors, final boolean truncated) {
+        final var message = new StringBuilder("Form data does not match the template:");
+        for (final var error : errors) {
+            message.append("\n").append(error.field()).append(": ").append(error.message());
+        }
+        if (truncated) {
+            message.append("\n...");
+        }
+        return message.toString();
+    }
+
+    /**
+     * One field in error.
+     *
+     * @param field   The field's path from the form-root, such as <code>form1/Page1/SSN</code>.
+     * @param rule    The rule it breaks: <code>unknownField</code>, <code>notAField</code>, <code>maxChars</code>,
+     *                <code>picture</code> or <code>choice</code>.
+     * @param message What is wrong, in a sentence.
+     */
+    public record FieldError(String field, String rule, String message) {
+    }
+}
@@ -0,0 +1,17 @@
+package app.djk.RestPdfFormFiller.projectExceptions;
+
+/**
+ * Thrown when an <code>Idempotency-Key</code> that was already used for one fill request is presented again with a
+ * different request payload.
+ * <p>
+ * Replaying the stored result would silently hand the caller a document for data it did not send, and re-running
+ * the fill would break the key's "same key, same result" contract, so the request is rejected instead. The message
+ * contains no request content, so it is safe to return to API callers.
+ */
+public class IdempotencyKeyReuseException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public IdempotencyKeyReuseException() {
+        super("Idempotency-Key was already used with a different request.");
+    }
+}
@@ -0,0 +1,14 @@
+package app.djk.RestPdfFormFiller.projectExceptions;
+
+/**
+ * Thrown when a request's form data, or the XFA of its PDF, is nested deeper than the configured limit (see
+ * <code>ResourceLimits</code>). No real form nests that deep, so it is reported as invalid input rather than as a
+ * payload that is merely too large.
+ */
+public class NestingTooDeepException extends SafeToReturnIllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    public NestingTooDeepException(final String what, final int maxDepth) {
+        super(what + " is nested deeper than " + maxDepth + " levels.");
+    }
+}
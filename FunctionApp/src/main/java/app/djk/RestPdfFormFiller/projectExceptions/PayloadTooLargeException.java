@@ -0,0 +1,16 @@
+package app.djk.RestPdfFormFiller.projectExceptions;
+
+/**
+ * Thrown when a request's form data, or the XFA of its PDF, is larger than a configured resource limit allows (see
+ * <code>ResourceLimits</code>). It is raised while the input is still being read, before the oversized structure
+ * exists in memory.
+ * <p>
+ * The message names only the limit that was exceeded, so it is safe to return to API callers.
+ */
+public class PayloadTooLargeException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public PayloadTooLargeException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,23 @@
+package app.djk.RestPdfFormFiller.projectExceptions;
+
+/**
+ * Thrown when a request cannot be admitted because the instance's memory budget is fully committed to requests
+ * already in progress.
+ * <p>
+ * This is a load-shedding signal, not a caller error: the same request is expected to succeed if retried after
+ * {@link #getRetryAfterSeconds()} seconds, which is surfaced to the caller as a <code>Retry-After</code> header.
+ */
+public class ServerBusyException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int retryAfterSeconds;
+
+    public ServerBusyException(final int retryAfterSeconds) {
+        super("Server is busy. Retry after " + retryAfterSeconds + " seconds.");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,16 @@
+package app.djk.RestPdfFormFiller.projectExceptions;
+
+/**
+ * Thrown when a request would write a document over one that already exists in the configured store without asking
+ * to replace it.
+ * <p>
+ * The message repeats only the location the caller sent, so it is safe to return to API callers.
+ */
+public class StorageLocationExistsException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public StorageLocationExistsException(final String location, final Throwable cause) {
+        super("A document already exists at storage location '" + location
+                + "'; set replaceExisting to overwrite it.", cause);
+    }
+}
@@ -0,0 +1,15 @@
+package app.djk.RestPdfFormFiller.projectExceptions;
+
+/**
+ * Thrown when a request names a storage location (a template to read, or the folder of a document to write) that
+ * does not exist in the configured store.
+ * <p>
+ * The message repeats only the location the caller sent, so it is safe to return to API callers.
+ */
+public class StorageLocationNotFoundException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public StorageLocationNotFoundException(final String location, final Throwable cause) {
+        super("Nothing found at storage location '" + location + "'.", cause);
+    }
+}
@@ -0,0 +1,16 @@
+package app.djk.RestPdfFormFiller.projectExceptions;
+
+/**
+ * Thrown when the configured store cannot be reached or refuses a read or write (for example because the app's
+ * identity lacks permission on the drive).
+ * <p>
+ * The store's own response can echo request details, so it is kept in the cause for the log and the caller gets a
+ * fixed message.
+ */
+public class StorageUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public StorageUnavailableException(final Throwable cause) {
+        super("The storage service could not complete the request.", cause);
+    }
+}
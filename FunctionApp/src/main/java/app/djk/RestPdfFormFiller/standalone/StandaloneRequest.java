@@ -0,0 +1,69 @@
+package app.djk.RestPdfFormFiller.standalone;
+
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.HttpStatusType;
+
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * Presents a request received by the standalone server as the {@link HttpRequestMessage} the function methods
+ * expect, so the functions run unchanged outside the Functions host.
+ *
+ * @param <T> The body type the target function declares.
+ */
+final class StandaloneRequest<T> implements HttpRequestMessage<T> {
+
+    private final URI uri;
+    private final HttpMethod method;
+    private final Map<String, String> headers;
+    private final Map<String, String> queryParameters;
+    private final T body;
+
+    StandaloneRequest(final URI uri, final HttpMethod method, final Map<String, String> headers,
+                      final Map<String, String> queryParameters, final T body) {
+        this.uri = uri;
+        this.method = method;
+        this.headers = headers;
+        this.queryParameters = queryParameters;
+        this.body = body;
+    }
+
+    @Override
+    public URI getUri() {
+        return uri;
+    }
+
+    @Override
+    public HttpMethod getHttpMethod() {
+        return method;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public Map<String, String> getQueryParameters() {
+        return queryParameters;
+    }
+
+    @Override
+    public T getBody() {
+        return body;
+    }
+
+    @Override
+    public HttpResponseMessage.Builder createResponseBuilder(final HttpStatus status) {
+        return new StandaloneResponse.Builder(status);
+    }
+
+    @Override
+    public HttpResponseMessage.Builder createResponseBuilder(final HttpStatusType status) {
+        return new StandaloneResponse.Builder(status);
+    }
+}
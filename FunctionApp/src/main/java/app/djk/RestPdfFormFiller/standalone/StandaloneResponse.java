@@ -0,0 +1,77 @@
+package app.djk.RestPdfFormFiller.standalone;
+
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatusType;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@link HttpResponseMessage} a function builds through a {@link StandaloneRequest}. The server copies its
+ * status, headers and body onto the HTTP exchange.
+ */
+final class StandaloneResponse implements HttpResponseMessage {
+
+    private final HttpStatusType status;
+    private final Map<String, String> headers;
+    private final Object body;
+
+    private StandaloneResponse(final HttpStatusType status, final Map<String, String> headers, final Object body) {
+        this.status = status;
+        this.headers = Collections.unmodifiableMap(headers);
+        this.body = body;
+    }
+
+    @Override
+    public HttpStatusType getStatus() {
+        return status;
+    }
+
+    @Override
+    public String getHeader(final String key) {
+        return headers.get(key);
+    }
+
+    @Override
+    public Object getBody() {
+        return body;
+    }
+
+    Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    static final class Builder implements HttpResponseMessage.Builder {
+        private HttpStatusType status;
+        private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private Object body;
+
+        Builder(final HttpStatusType status) {
+            this.status = status;
+        }
+
+        @Override
+        public HttpResponseMessage.Builder status(final HttpStatusType status) {
+            this.status = status;
+            return this;
+        }
+
+        @Override
+        public HttpResponseMessage.Builder header(final String key, final String value) {
+            headers.put(key, value);
+            return this;
+        }
+
+        @Override
+        public HttpResponseMessage.Builder body(final Object body) {
+            this.body = body;
+            return this;
+        }
+
+        @Override
+        public HttpResponseMessage build() {
+            return new StandaloneResponse(status, headers, body);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package app.djk.RestPdfFormFiller.standalone;
+
+import app.djk.RestPdfFormFiller.config.AppSettings;
+import app.djk.RestPdfFormFiller.functions.HttpTriggerFunctions;
+import app.djk.RestPdfFormFiller.startup.WarmUp;
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves the HTTP functions from a plain JDK HTTP server, for self-hosted deployments (for example a container next
+ * to an on-premises data gateway) that should not pay Functions cold starts or per-execution overhead.
+ * <p>
+ * <strong>Why it delegates to {@link HttpTriggerFunctions}.</strong> Each route adapts the exchange to the
+ * {@link HttpRequestMessage} the function method expects and calls that method, so validation, admission control,
+ * caching and the <code>errorHandler</code> status mapping are the same code in both hosts rather than a second
+ * implementation that could drift. The routes (<code>/api/&lt;FunctionName&gt;</code>) and the function-key
+ * check (<code>x-functions-key</code> header or <code>code</code> query parameter) also mirror the Functions host, so
+ * a custom connector only needs its host changed. Each route accepts the one method its function declares.
+ * <code>IndexXfaData</code> and <code>QueryXfaData</code> are routed here only: the form data index belongs to one
+ * process, so they are not Functions.
+ * <p>
+ * Every request runs on its own virtual thread. The PDF work itself is CPU-bound and bounded by the request
+ * governor, so the virtual threads only make waiting (slow clients, governor queueing) cheap. Request bodies are read
+ * once into the array the engine parses from (openpdf needs random access to the whole file), capped by
+ * <code>STANDALONE_MAX_BODY_BYTES</code> before any of it is buffered. Responses are written straight from the
+ * function's result with a known length, without an intermediate copy.
+ */
+public final class StandaloneServer {
+
+    private static final Logger LOGGER = Logger.getLogger(StandaloneServer.class.getName());
+    private static final String ROUTE_PREFIX = "/api/";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final HttpTriggerFunctions functions = new HttpTriggerFunctions();
+    private final Map<String, Route> routes = Map.ofEntries(
+            Map.entry("GetXfaData", new Route("POST", (exchange, body) ->
+                    functions.getXfaData(request(exchange, binary(body)), context("GetXfaData")))),
+            Map.entry("GetStoredXfaData", new Route("POST", (exchange, body) ->
+                    functions.getStoredXfaData(request(exchange, text(body)), context("GetStoredXfaData")))),
+            Map.entry("GetXfaSchema", new Route("POST", (exchange, body) ->
+                    functions.getXfaSchema(request(exchange, binary(body)), context("GetXfaSchema")))),
+            Map.entry("FillXfaData", new Route("POST", (exchange, body) ->
+                    functions.fillXfaData(request(exchange, text(body)), context("FillXfaData")))),
+            Map.entry("FillStoredXfaData", new Route("POST", (exchange, body) ->
+                    functions.fillStoredXfaData(request(exchange, text(body)), context("FillStoredXfaData")))),
+            Map.entry("FillXfaDataPackage", new Route("POST", (exchange, body) ->
+                    functions.fillXfaDataPackage(request(exchange, text(body)), context("FillXfaDataPackage")))),
+            Map.entry("CompareXfaData", new Route("POST", (exchange, body) ->
+                    functions.compareXfaData(request(exchange, text(body)), context("CompareXfaData")))),
+            Map.entry("IndexXfaData", new Route("POST", (exchange, body) ->
+                    functions.indexXfaData(request(exchange, text(body)), context("IndexXfaData")))),
+            Map.entry("QueryXfaData", new Route("POST", (exchange, body) ->
+                    functions.queryXfaData(request(exchange, text(body)), context("QueryXfaData")))),
+            Map.entry("SubmitFillJob", new Route("POST", (exchange, body) ->
+                    functions.submitFillJob(request(exchange, text(body)), context("SubmitFillJob")))),
+            Map.entry("GetFillJob", new Route("GET", (exchange, body) ->
+                    functions.getFillJob(request(exchange, text(body)), context("GetFillJob")))),
+            Map.entry("GetFillJobResult", new Route("GET", (exchange, body) ->
+                    functions.getFillJobResult(request(exchange, text(body)), context("GetFillJobResult")))));
+    private final byte[] apiKey;
+    private final long maxBodyBytes;
+
+    /**
+     * Binds the server; call {@link #start()} to begin serving.
+     *
+     * @param address      Address and port to listen on (port <code>0</code> picks a free port).
+     * @param apiKey       Key callers must present, or <code>null</code> to accept unauthenticated requests (only
+     *                     appropriate behind a gateway that authenticates them).
+     * @param maxBodyBytes Largest accepted request body; larger requests get <code>413</code>.
+     * @throws IOException If the address cannot be bound.
+     */
+    public StandaloneServer(final InetSocketAddress address, final String apiKey, final long maxBodyBytes)
+            throws IOException {
+        this.apiKey = apiKey == null ? null : apiKey.getBytes(StandardCharsets.UTF_8);
+        this.maxBodyBytes = Math.clamp(maxBodyBytes, 0, Integer.MAX_VALUE - 8);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts the server configured by the <code>STANDALONE_*</code> settings and serves until the process is
+     * stopped. The port is only opened once the warm-up has finished, so a load balancer or container probe never
+     * routes a request to a cold process. The fill-job workers start with it, so a server sharing an Azure queue
+     * polls it from the start.
+     *
+     * @param args Unused.
+     * @throws IOException If the port cannot be bound.
+     */
+    public static void main(final String[] args) throws IOException {
+        final var server = new StandaloneServer(
+                new InetSocketAddress(AppSettings.getInt("STANDALONE_PORT", 8080)),
+                AppSettings.getString("STANDALONE_API_KEY", null),
+                AppSettings.getLong("STANDALONE_MAX_BODY_BYTES", 100L * 1024 * 1024));
+        final var graceSeconds = AppSettings.getInt("STANDALONE_SHUTDOWN_GRACE_SECONDS", 30);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(graceSeconds), "standalone-shutdown"));
+        WarmUp.await();
+        HttpTriggerFunctions.startFillJobWorkers();
+        server.start();
+        LOGGER.info("Serving on port " + server.port());
+    }
+
+    /**
+     * Starts serving requests on a background thread.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and waits up to <code>graceSeconds</code> for in-flight requests to finish.
+     *
+     * @param graceSeconds Maximum time to wait for in-flight requests.
+     */
+    public void stop(final int graceSeconds) {
+        server.stop(graceSeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * @return The bound port.
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(final HttpExchange exchange) {
+        try {
+            final var path = exchange.getRequestURI().getPath();
+            final var route = path.startsWith(ROUTE_PREFIX)
+                    ? routes.get(path.substring(ROUTE_PREFIX.length())) : null;
+            // Like the Functions host, a method a function does not declare simply matches no function.
+            if (route == null || !route.method().equals(exchange.getRequestMethod())) {
+                sendStatus(exchange, 404);
+                return;
+            }
+            if (!isAuthorized(exchange)) {
+                sendStatus(exchange, 401);
+                return;
+            }
+            final var body = readBody(exchange);
+            if (body == null) {
+                sendStatus(exchange, 413);
+                return;
+            }
+            writeResponse(exchange, route.handler().invoke(exchange, body));
+        } catch (IOException e) {
+            // The client went away mid-request; there is no one left to answer.
+            LOGGER.log(Level.FINE, "Standalone request aborted.", e);
+        } catch (RuntimeException e) {
+            // The functions map their own failures to responses, so this is a fault in the adapter itself.
+            LOGGER.log(Level.SEVERE, "Standalone request failed.", e);
+            sendStatusQuietly(exchange, 500);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean isAuthorized(final HttpExchange exchange) {
+        if (apiKey == null) {
+            return true;
+        }
+        var presented = exchange.getRequestHeaders().getFirst("x-functions-key");
+        if (presented == null) {
+            presented = parseQuery(exchange.getRequestURI().getRawQuery()).get("code");
+        }
+        return presented != null && MessageDigest.isEqual(apiKey, presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads the request body, refusing (by returning <code>null</code>) as soon as it is known to exceed the limit:
+     * up front from <code>Content-Length</code>, or while reading when the body is chunked.
+     */
+    private byte[] readBody(final HttpExchange exchange) throws IOException {
+        final var declaredLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (declaredLength != null) {
+            try {
+                if (Long.parseLong(declaredLength.trim()) > maxBodyBytes) {
+                    return null;
+                }
+            } catch (NumberFormatException e) {
+                // Malformed lengths are rejected by the JDK server itself; fall through to the bounded read.
+            }
+        }
+        try (final var in = exchange.getRequestBody()) {
+            final var body = in.readNBytes((int) maxBodyBytes + 1);
+            return body.length > maxBodyBytes ? null : body;
+        }
+    }
+
+    private static void writeResponse(final HttpExchange exchange, final HttpResponseMessage response)
+            throws IOException {
+        final byte[] body;
+        if (response.getBody() == null) {
+            body = new byte[0];
+        } else if (response.getBody() instanceof byte[] bytes) {
+            body = bytes;
+        } else {
+            body = String.valueOf(response.getBody()).getBytes(StandardCharsets.UTF_8);
+        }
+
+        final var headers = exchange.getResponseHeaders();
+        if (response instanceof StandaloneResponse standaloneResponse) {
+            standaloneResponse.getHeaders().forEach(headers::set);
+        }
+        if (!headers.containsKey("Content-Type") && response.getBody() instanceof String) {
+            headers.set("Content-Type", "text/plain; charset=utf-8");
+        }
+        // A length of -1 means "no body"; 0 would mean "chunked".
+        exchange.sendResponseHeaders(response.getStatusCode(), body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (final var out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static void sendStatus(final HttpExchange exchange, final int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    private static void sendStatusQuietly(final HttpExchange exchange, final int status) {
+        try {
+            sendStatus(exchange, status);
+        } catch (IOException | RuntimeException e) {
+            // Headers may already have been sent; closing the exchange is all that is left to do.
+        }
+    }
+
+    private static <T> StandaloneRequest<T> request(final HttpExchange exchange, final T body) {
+        // The Functions host presents header names in lower case; the functions look them up case-insensitively.
+        final var headers = new HashMap<String, String>();
+        exchange.getRequestHeaders().forEach((name, values) -> {
+            if (!values.isEmpty()) {
+                headers.put(name.toLowerCase(Locale.ROOT), values.getFirst());
+            }
+        });
+        return new StandaloneRequest<>(exchange.getRequestURI(), HttpMethod.value(exchange.getRequestMethod()), headers,
+                parseQuery(exchange.getRequestURI().getRawQuery()), body);
+    }
+
+    /**
+     * The Functions host hands an empty body to a function as an empty <code>Optional</code>.
+     */
+    private static Optional<byte[]> binary(final byte[] body) {
+        return body.length == 0 ? Optional.empty() : Optional.of(body);
+    }
+
+    private static Optional<String> text(final byte[] body) {
+        return body.length == 0 ? Optional.empty() : Optional.of(new String(body, StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, String> parseQuery(final String rawQuery) {
+        final var parameters = new HashMap<String, String>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (final var pair : rawQuery.split("&")) {
+            final var separator = pair.indexOf('=');
+            final var name = separator < 0 ? pair : pair.substring(0, separator);
+            final var value = separator < 0 ? "" : pair.substring(separator + 1);
+            parameters.putIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static ExecutionContext context(final String functionName) {
+        return new StandaloneContext(UUID.randomUUID().toString(), functionName);
+    }
+
+    private record Route(String method, Handler handler) {
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        HttpResponseMessage invoke(HttpExchange exchange, byte[] body);
+    }
+
+    private record StandaloneContext(String invocationId, String functionName) implements ExecutionContext {
+        private static final Logger FUNCTION_LOGGER = Logger.getLogger(HttpTriggerFunctions.class.getName());
+
+        @Override
+        public Logger getLogger() {
+            return FUNCTION_LOGGER;
+        }
+
+        @Override
+        public String getInvocationId() {
+            return invocationId;
+        }
+
+        @Override
+        public String getFunctionName() {
+            return functionName;
+        }
+    }
+}
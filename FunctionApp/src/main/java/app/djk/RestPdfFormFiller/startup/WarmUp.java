@@ -0,0 +1,149 @@
+package app.djk.RestPdfFormFiller.startup;
+
+import app.djk.RestPdfFormFiller.Pdf.DataFormatter;
+import app.djk.RestPdfFormFiller.Pdf.PatchMode;
+import app.djk.RestPdfFormFiller.Pdf.RestPdfApi;
+import app.djk.RestPdfFormFiller.Pdf.WriteMode;
+import app.djk.RestPdfFormFiller.Pdf.XfaDataComparator;
+import app.djk.RestPdfFormFiller.config.AppSettings;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the read and fill paths once against the bundled sample DA 4187 so that a new instance pays its class
+ * loading, static initialization and first interpreted passes before real traffic arrives.
+ * <p>
+ * <strong>Why a real form.</strong> Most of a cold first request is not our code: it is openpdf, BouncyCastle (the
+ * sample is AES-encrypted, like most government XFA forms), the JDK XML parser and transformer, and Jackson, each
+ * loading hundreds of classes on first use. Exercising them with a synthetic PDF would miss the decryption and XFA
+ * paths, so the warm-up drives the same public entry points a request does, with the form the project is built
+ * around. It calls {@link RestPdfApi} and {@link DataFormatter} directly rather than the functions, so it neither
+ * consumes admission budget nor leaves entries in the fill-result cache.
+ * <p>
+ * It is started only where readiness can wait for it: by the <code>Warmup</code> function, which the platform runs
+ * before routing traffic to a new instance, and by the standalone server before it opens its port. Started beside a
+ * request instead, it would compete for the CPU with it outside the request governor.
+ * <p>
+ * The warm-up runs at most once per JVM; {@link #start()} and {@link #await()} share that single run. Failures are
+ * logged and swallowed: a warm-up that cannot run must never keep an instance from serving.
+ */
+public final class WarmUp {
+
+    private static final Logger LOGGER = Logger.getLogger(WarmUp.class.getName());
+
+    /**
+     * Classpath location of the sample form; the build copies it from <code>resources/DA4187</code>.
+     */
+    static final String SAMPLE_RESOURCE = "/warmup/A4187.pdf";
+
+    private static final String PATCH_DATA = "{\"data\":{\"form1\":{\"Page1\":"
+            + "{\"SSN\":\"999-99-9999\",\"GRADE\":\"SSG\",\"YEAR\":\"2026\"}}}}";
+
+    private static final AtomicReference<CompletableFuture<Duration>> RUN = new AtomicReference<>();
+
+    private WarmUp() {
+    }
+
+    /**
+     * Runs the warm-up once and exits. Used by the <code>appcds</code> build profile as the training run whose loaded
+     * classes are written to the class-data sharing archive; unlike {@link #start()} it fails loudly, so a broken
+     * warm-up fails the build instead of producing an archive of nothing.
+     *
+     * @param args Unused.
+     * @throws Exception If any path fails against the sample form.
+     */
+    public static void main(final String[] args) throws Exception {
+        final var elapsed = exercise(AppSettings.getInt("WARMUP_ITERATIONS", 2));
+        System.out.println("Warm-up completed in " + elapsed.toMillis() + " ms");
+    }
+
+    /**
+     * Starts the warm-up on a background daemon thread unless it is disabled with <code>WARMUP_ENABLED=false</code>,
+     * has already been started, or the process is a native image (which has no class loading or JIT compilation left
+     * to warm up).
+     *
+     * @return The shared run, completing with its duration (or {@link Duration#ZERO} when disabled or failed).
+     */
+    public static CompletableFuture<Duration> start() {
+        final var existing = RUN.get();
+        if (existing != null) {
+            return existing;
+        }
+        final var run = new CompletableFuture<Duration>();
+        if (!RUN.compareAndSet(null, run)) {
+            return RUN.get();
+        }
+        if (!AppSettings.getBoolean("WARMUP_ENABLED", true)
+                || "runtime".equals(System.getProperty("org.graalvm.nativeimage.imagecode"))) {
+            run.complete(Duration.ZERO);
+            return run;
+        }
+        final var thread = new Thread(() -> run.complete(runQuietly()), "pdf-warmup");
+        thread.setDaemon(true);
+        thread.start();
+        return run;
+    }
+
+    /**
+     * Starts the warm-up if needed and waits for it to finish.
+     *
+     * @return How long the warm-up took.
+     */
+    public static Duration await() {
+        return start().join();
+    }
+
+    private static Duration runQuietly() {
+        try {
+            final var elapsed = exercise(AppSettings.getInt("WARMUP_ITERATIONS", 2));
+            LOGGER.info("Warm-up completed in " + elapsed.toMillis() + " ms");
+            return elapsed;
+        } catch (Exception | LinkageError e) {
+            LOGGER.log(Level.WARNING, "Warm-up failed; the first requests will be served cold.", e);
+            return Duration.ZERO;
+        }
+    }
+
+    /**
+     * Drives every request path against the sample form.
+     * <p>
+     * More than one iteration lets the hottest methods (XML parsing and serialization, the PDF tokenizer) reach the
+     * first JIT tier as well; beyond a few iterations the warm-up only delays readiness.
+     *
+     * @param iterations How many times to run the paths; at least one run is always made.
+     * @return How long the warm-up took.
+     * @throws Exception If any path fails against the sample form.
+     */
+    static Duration exercise(final int iterations) throws Exception {
+        final var started = System.nanoTime();
+        final var pdfBytes = readSample();
+        for (var i = 0; i < Math.max(1, iterations); i++) {
+            // Read path, in both output formats, and schema discovery.
+            final var datasetsXml = RestPdfApi.getXfaDatasetNodeAsString(pdfBytes);
+            final var datasetsJson = DataFormatter.convertXmlToJsonString(datasetsXml);
+            DataFormatter.generateJsonSchema(datasetsXml);
+
+            // Fill path: a PATCH that changes values (so the stamper and XFA write-back run) and a full PUT.
+            final var patched = RestPdfApi.fillXfaFormWithResult(pdfBytes, PATCH_DATA, WriteMode.PATCH,
+                    PatchMode.OVERWRITE);
+            RestPdfApi.fillXfaFormWithResult(pdfBytes, datasetsJson, WriteMode.PUT, PatchMode.OVERWRITE);
+
+            XfaDataComparator.compare(pdfBytes, patched.pdfBytes());
+        }
+        return Duration.ofNanos(System.nanoTime() - started);
+    }
+
+    private static byte[] readSample() throws IOException {
+        try (final var in = WarmUp.class.getResourceAsStream(SAMPLE_RESOURCE)) {
+            if (in == null) {
+                throw new IOException("Warm-up form " + SAMPLE_RESOURCE + " is not on the classpath.");
+            }
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package app.djk.RestPdfFormFiller.storage;
+
+import app.djk.RestPdfFormFiller.config.AppSettings;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Supplier;
+
+/**
+ * Obtains and caches Microsoft Entra ID access tokens. The Graph storage connector and the Azure Storage fill-job
+ * backend use it.
+ * <p>
+ * The two flows a function app on App Service needs, its managed identity and an app registration with a client
+ * secret, are one HTTP request each and are made here with the JDK client. Every other credential (workload
+ * identity, certificates, managed identity on other hosts, developer sign-ins) comes from azure-identity through
+ * {@link #azureIdentity}, which is only available in packages built with the <code>azure-identity</code> Maven
+ * profile, so the SDK's transport, MSAL and Reactor stay out of deployments that do not need them. A token is reused until five minutes before it expires; concurrent
+ * callers share a single refresh.
+ */
+public final class AccessTokenProvider {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Duration REFRESH_MARGIN = Duration.ofMinutes(5);
+    private static final Duration DEFAULT_LIFETIME = Duration.ofMinutes(5);
+
+    private final TokenSource source;
+    private final Clock clock;
+    private String accessToken;
+    private Instant refreshAt = Instant.MIN;
+
+    /**
+     * @param source Obtains a new token; called for every refresh.
+     * @param clock  Clock the token lifetime is measured against.
+     */
+    public AccessTokenProvider(final TokenSource source, final Clock clock) {
+        this.source = source;
+        this.clock = clock;
+    }
+
+    /**
+     * @param client       Client to request tokens with.
+     * @param tokenRequest Builds the token request (an Entra ID token endpoint or the managed identity endpoint);
+     *                     called for every refresh.
+     * @param clock        Clock the token lifetime is measured against.
+     */
+    public AccessTokenProvider(final HttpClient client, final Supplier<HttpRequest> tokenRequest, final Clock clock) {
+        this(now -> requestToken(client, tokenRequest.get(), now), clock);
+    }
+
+    /**
+     * Creates a provider for an app registration (the client-credentials flow).
+     *
+     * @param client        Client to request tokens with.
+     * @param timeout       Timeout of each token request.
+     * @param authorityHost Token authority, such as <code>https://login.microsoftonline.com</code>.
+     * @param tenantId      Directory (tenant) ID.
+     * @param clientId      Application (client) ID.
+     * @param clientSecret  Client secret.
+     * @param scope         Requested scope, such as <code>https://graph.microsoft.com/.default</code>.
+     * @return The token provider.
+     */
+    public static AccessTokenProvider clientSecret(final HttpClient client, final Duration timeout,
+                                                   final String authorityHost, final String tenantId,
+                                                   final String clientId, final String clientSecret,
+                                                   final String scope) {
+        final var uri = URI.create(stripTrailingSlash(authorityHost) + "/" + encode(tenantId) + "/oauth2/v2.0/token");
+        final var form = "grant_type=client_credentials&client_id=" + encode(clientId)
+                + "&client_secret=" + encode(clientSecret) + "&scope=" + encode(scope);
+        return new AccessTokenProvider(client, () -> HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build(), Clock.systemUTC());
+    }
+
+    /**
+     * Creates a provider backed by azure-identity's <code>DefaultAzureCredential</code>. The library is looked up
+     * reflectively, as it is only packaged by the <code>azure-identity</code> Maven profile.
+     *
+     * @param scope                   Requested scope, such as <code>https://graph.microsoft.com/.default</code>.
+     * @param managedIdentityClientId Client ID of a user-assigned identity, or <code>null</code> for the
+     *                                system-assigned one.
+     * @return The token provider.
+     * @throws IllegalStateException If the package was built without azure-identity.
+     */
+    public static AccessTokenProvider azureIdentity(final String scope, final String managedIdentityClientId) {
+        return azureIdentity(scope, managedIdentityClientId, AccessTokenProvider.class.getClassLoader());
+    }
+
+    static AccessTokenProvider azureIdentity(final String scope, final String managedIdentityClientId,
+                                             final ClassLoader loader) {
+        final Method factory;
+        try {
+            Class.forName("com.azure.identity.DefaultAzureCredentialBuilder", false, loader);
+            factory = Class.forName(AccessTokenProvider.class.getPackageName() + ".AzureIdentityTokens", true, loader)
+                    .getDeclaredMethod("defaultCredential", String.class, String.class);
+        } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+            throw new IllegalStateException("The azure-identity credential needs a package built with "
+                    + "-Pazure-identity.", e);
+        }
+        try {
+            return (AccessTokenProvider) factory.invoke(null, scope, managedIdentityClientId);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("azure-identity could not be set up.", e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("azure-identity could not be set up.", e);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the host advertises a managed identity through <code>IDENTITY_ENDPOINT</code> and
+     * <code>IDENTITY_HEADER</code>, as the Functions host and App Service do.
+     */
+    public static boolean isManagedIdentityAvailable() {
+        return AppSettings.getString("IDENTITY_ENDPOINT", null) != null
+                && AppSettings.getString("IDENTITY_HEADER", null) != null;
+    }
+
+    /**
+     * Creates a provider for the managed identity the host advertises.
+     *
+     * @param client   Client to request tokens with.
+     * @param timeout  Timeout of each token request.
+     * @param scope    Requested scope; the managed identity endpoint takes it without <code>/.default</code>.
+     * @param clientId Client ID of a user-assigned identity, or <code>null</code> for the system-assigned one.
+     * @return The token provider.
+     * @throws IllegalStateException If no managed identity is available (see {@link #isManagedIdentityAvailable()}).
+     */
+    public static AccessTokenProvider managedIdentity(final HttpClient client, final Duration timeout,
+                                                      final String scope, final String clientId) {
+        final var endpoint = AppSettings.getString("IDENTITY_ENDPOINT", null);
+        final var identityHeader = AppSettings.getString("IDENTITY_HEADER", null);
+        if (endpoint == null || identityHeader == null) {
+            throw new IllegalStateException("No managed identity is available: IDENTITY_ENDPOINT and "
+                    + "IDENTITY_HEADER are not set.");
+        }
+        // The managed identity endpoint takes a resource rather than a scope.
+        final var resource = scope.endsWith("/.default") ? scope.substring(0, scope.length() - 9) : scope;
+        final var uri = URI.create(endpoint + "?api-version=2019-08-01&resource=" + encode(resource)
+                + (clientId == null ? "" : "&client_id=" + encode(clientId)));
+        return new AccessTokenProvider(client, () -> HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .header("X-IDENTITY-HEADER", identityHeader)
+                .GET()
+                .build(), Clock.systemUTC());
+    }
+
+    /**
+     * @return A valid access token, from the cache when it is not close to expiry.
+     * @throws IOException If a new token cannot be obtained.
+     */
+    public synchronized String accessToken() throws IOException {
+        final var now = clock.instant();
+        if (accessToken != null && now.isBefore(refreshAt)) {
+            return accessToken;
+        }
+
+        final var issued = source.requestToken(now);
+        accessToken = issued.accessToken();
+        refreshAt = issued.expiresAt().minus(REFRESH_MARGIN);
+        return accessToken;
+    }
+
+    private static IssuedToken requestToken(final HttpClient client, final HttpRequest request, final Instant now)
+            throws IOException {
+        final HttpResponse<String> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while requesting an access token.");
+        }
+        if (response.statusCode() != 200) {
+            // The body can echo request details; the status is enough to diagnose a credential problem.
+            throw new IOException("Token request failed with HTTP " + response.statusCode() + ".");
+        }
+
+        final JsonNode body;
+        try {
+            body = OBJECT_MAPPER.readTree(response.body());
+        } catch (JacksonException e) {
+            throw new IOException("Token response is not valid JSON.", e);
+        }
+        final var token = body.path("access_token").asString("");
+        if (token.isEmpty()) {
+            throw new IOException("Token response has no access_token.");
+        }
+        return new IssuedToken(token, expiry(body, now));
+    }
+
+    /**
+     * The client-credentials endpoint reports <code>expires_in</code> seconds; the managed identity endpoint reports
+     * <code>expires_on</code> epoch seconds, as a string.
+     */
+    private static Instant expiry(final JsonNode body, final Instant now) {
+        final var expiresIn = body.path("expires_in").asLong(0);
+        if (expiresIn > 0) {
+            return now.plusSeconds(expiresIn);
+        }
+        final var expiresOn = body.path("expires_on").asLong(0);
+        if (expiresOn > 0) {
+            return Instant.ofEpochSecond(expiresOn);
+        }
+        return now.plus(DEFAULT_LIFETIME).plus(REFRESH_MARGIN);
+    }
+
+    private static String encode(final String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String stripTrailingSlash(final String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /**
+     * Where a provider gets new tokens from.
+     */
+    @FunctionalInterface
+    public interface TokenSource {
+        /**
+         * @param now The current time, for sources that report a lifetime rather than an expiry.
+         * @return A new token.
+         * @throws IOException If no token can be obtained.
+         */
+        IssuedToken requestToken(Instant now) throws IOException;
+    }
+
+    /**
+     * @param accessToken The bearer token.
+     * @param expiresAt   When it stops being accepted.
+     */
+    public record IssuedToken(String accessToken, Instant expiresAt) {
+    }
+}
@@ -0,0 +1,62 @@
+package app.djk.RestPdfFormFiller.storage;
+
+import com.azure.core.credential.TokenCredential;
+import com.azure.core.credential.TokenRequestContext;
+import com.azure.identity.DefaultAzureCredentialBuilder;
+
+import java.io.IOException;
+import java.time.Clock;
+
+/**
+ * Tokens from azure-identity, for the credentials {@link AccessTokenProvider} does not obtain itself.
+ * <p>
+ * <code>DefaultAzureCredential</code> tries, in order, the <code>AZURE_*</code> environment variables (client secret,
+ * client certificate), workload identity (AKS, Container Apps), managed identity on any Azure host, and the developer
+ * sign-ins (Azure CLI, Azure PowerShell, Azure Developer CLI), so the same deployment works on and off App Service.
+ * <p>
+ * <strong>Why a separate class.</strong> This is the only class that refers to azure-identity, which is only packaged
+ * by the <code>azure-identity</code> Maven profile. Nothing links to it: {@link AccessTokenProvider#azureIdentity}
+ * loads it reflectively once a deployment selects that credential, so a package built without the profile holds
+ * neither the SDK nor its Netty transport, MSAL and Reactor, and never tries to load them.
+ */
+final class AzureIdentityTokens {
+
+    private AzureIdentityTokens() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Creates a provider backed by <code>DefaultAzureCredential</code>.
+     *
+     * @param scope                   Requested scope, such as <code>https://graph.microsoft.com/.default</code>.
+     * @param managedIdentityClientId Client ID of a user-assigned identity, or <code>null</code> for the
+     *                                system-assigned one.
+     * @return The token provider.
+     */
+    static AccessTokenProvider defaultCredential(final String scope, final String managedIdentityClientId) {
+        final var builder = new DefaultAzureCredentialBuilder();
+        if (managedIdentityClientId != null) {
+            builder.managedIdentityClientId(managedIdentityClientId);
+        }
+        return of(builder.build(), scope, Clock.systemUTC());
+    }
+
+    /**
+     * @param credential Any azure-identity credential.
+     * @param scope      Requested scope.
+     * @param clock      Clock the token lifetime is measured against.
+     * @return A provider that caches the credential's tokens like the built-in flows.
+     */
+    static AccessTokenProvider of(final TokenCredential credential, final String scope, final Clock clock) {
+        final var context = new TokenRequestContext().addScopes(scope);
+        return new AccessTokenProvider(now -> {
+            try {
+                final var token = credential.getTokenSync(context);
+                return new AccessTokenProvider.IssuedToken(token.getToken(), token.getExpiresAt().toInstant());
+            } catch (RuntimeException e) {
+                // azure-identity reports every failure unchecked; callers expect a failed token request as IOException.
+                throw new IOException("azure-identity could not obtain a token.", e);
+            }
+        }, clock);
+    }
+}
@@ -0,0 +1,51 @@
+package app.djk.RestPdfFormFiller.storage;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+
+/**
+ * Reads and writes whole documents in an external store (for example a SharePoint or OneDrive drive), so a caller
+ * can name a template and a destination instead of sending the PDF bytes through the request.
+ * <p>
+ * A location is an opaque, connector-specific string; each implementation documents its own format. Implementations
+ * must be thread-safe, since one instance serves every request.
+ */
+public interface StorageConnector {
+
+    /**
+     * Looks up a document's size without reading it, so a request can reserve memory for the document before
+     * downloading it.
+     *
+     * @param location Connector-specific document location.
+     * @return The document's size in bytes.
+     * @throws FileNotFoundException    If nothing exists at <code>location</code>.
+     * @throws IllegalArgumentException If <code>location</code> is not valid for this connector.
+     * @throws IOException              If the store cannot be reached or refuses the request.
+     */
+    long size(String location) throws IOException;
+
+    /**
+     * @param location Connector-specific document location.
+     * @return The document's content.
+     * @throws FileNotFoundException    If nothing exists at <code>location</code>.
+     * @throws IllegalArgumentException If <code>location</code> is not valid for this connector.
+     * @throws IOException              If the store cannot be reached or refuses the request.
+     */
+    byte[] read(String location) throws IOException;
+
+    /**
+     * Creates the document at <code>location</code>, or replaces it if <code>replace</code> is set.
+     *
+     * @param location Connector-specific document location.
+     * @param content  The new content.
+     * @param replace  Whether an existing document at <code>location</code> may be overwritten.
+     * @return Where the document was stored.
+     * @throws FileAlreadyExistsException If a document exists at <code>location</code> and <code>replace</code> is
+     *                                    not set.
+     * @throws FileNotFoundException      If the parent of <code>location</code> does not exist.
+     * @throws IllegalArgumentException   If <code>location</code> is not valid for this connector.
+     * @throws IOException                If the store cannot be reached or refuses the request.
+     */
+    StoredDocument write(String location, byte[] content, boolean replace) throws IOException;
+}
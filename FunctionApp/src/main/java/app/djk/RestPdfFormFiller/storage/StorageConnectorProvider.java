@@ -0,0 +1,26 @@
+package app.djk.RestPdfFormFiller.storage;
+
+/**
+ * Service-provider interface through which {@link StorageConnectors} discovers connectors. Providers are registered
+ * in <code>META-INF/services</code>, so a connector can also ship in a separate jar dropped next to the function
+ * app.
+ * <p>
+ * A provider must be cheap to instantiate: every registered provider is created when the configured one is looked
+ * up, but only the selected provider's {@link #create()} runs, so only that connector's classes (and its HTTP or SDK
+ * dependencies) are ever loaded.
+ */
+public interface StorageConnectorProvider {
+
+    /**
+     * @return The name <code>STORAGE_CONNECTOR</code> selects this provider by.
+     */
+    String name();
+
+    /**
+     * Creates the connector from its own settings.
+     *
+     * @return A ready-to-use connector.
+     * @throws IllegalStateException If the connector's required settings are missing.
+     */
+    StorageConnector create();
+}
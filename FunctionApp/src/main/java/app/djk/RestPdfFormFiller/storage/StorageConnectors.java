@@ -0,0 +1,67 @@
+package app.djk.RestPdfFormFiller.storage;
+
+import app.djk.RestPdfFormFiller.config.AppSettings;
+
+import java.util.Optional;
+import java.util.ServiceLoader;
+
+/**
+ * Looks up the storage connector selected by the <code>STORAGE_CONNECTOR</code> setting.
+ * <p>
+ * <strong>Why the lookup is lazy.</strong> Most deployments only ever receive PDF bytes in the request body and never
+ * configure a connector. Resolving it on first use (rather than when the functions load) keeps the connector's
+ * classes, its HTTP client and its credential handling out of every cold start that does not need them. The same
+ * holds inside a connector: the Graph connector only loads azure-identity, which is only packaged by the
+ * <code>azure-identity</code> Maven profile, when <code>GRAPH_CREDENTIAL</code> asks for it.
+ */
+public final class StorageConnectors {
+
+    private static final Object LOCK = new Object();
+    private static volatile Optional<StorageConnector> configured;
+
+    private StorageConnectors() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Resolves the configured connector on the first call and returns the same instance afterwards. A failed
+     * resolution (an unknown name, missing connector settings) is not remembered, so fixing the configuration does
+     * not require a restart.
+     *
+     * @return The configured connector, or an empty <code>Optional</code> when <code>STORAGE_CONNECTOR</code> is
+     * unset.
+     * @throws IllegalStateException If the named connector does not exist or cannot be created.
+     */
+    public static Optional<StorageConnector> configured() {
+        var connector = configured;
+        if (connector == null) {
+            synchronized (LOCK) {
+                connector = configured;
+                if (connector == null) {
+                    connector = load(AppSettings.getString("STORAGE_CONNECTOR", null));
+                    configured = connector;
+                }
+            }
+        }
+        return connector;
+    }
+
+    /**
+     * @param name Provider name, or <code>null</code> for none.
+     * @return A new connector from the provider with that name, or an empty <code>Optional</code> for
+     * <code>null</code>.
+     * @throws IllegalStateException If no provider has that name or it cannot create its connector.
+     */
+    static Optional<StorageConnector> load(final String name) {
+        if (name == null) {
+            return Optional.empty();
+        }
+        for (final var provider : ServiceLoader.load(StorageConnectorProvider.class,
+                StorageConnectors.class.getClassLoader())) {
+            if (provider.name().equalsIgnoreCase(name)) {
+                return Optional.of(provider.create());
+            }
+        }
+        throw new IllegalStateException("No storage connector named '" + name + "' is available.");
+    }
+}
@@ -0,0 +1,13 @@
+package app.djk.RestPdfFormFiller.storage;
+
+/**
+ * Where a {@link StorageConnector} wrote a document, for the caller to refer to it without downloading it.
+ *
+ * @param location The document's location in the connector's stable form (for Graph, the
+ *                 <code>drives/{drive-id}/items/{item-id}</code> form even when the write used a path), usable as a
+ *                 location in later requests.
+ * @param size     The stored size in bytes.
+ * @param webUrl   A link that opens the document in the store's own UI, or <code>null</code> if the store has none.
+ */
+public record StoredDocument(String location, long size, String webUrl) {
+}
@@ -0,0 +1,291 @@
+package app.djk.RestPdfFormFiller.storage.graph;
+
+import app.djk.RestPdfFormFiller.config.AppSettings;
+import app.djk.RestPdfFormFiller.storage.AccessTokenProvider;
+import app.djk.RestPdfFormFiller.storage.StorageConnector;
+import app.djk.RestPdfFormFiller.storage.StoredDocument;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Reads and writes drive items (SharePoint document libraries, OneDrive) through the Microsoft Graph REST API.
+ * <p>
+ * A location is a drive-item path relative to the Graph base URL, in either of the forms Graph addresses items by:
+ * <ul>
+ *   <li><code>drives/{drive-id}/items/{item-id}</code> (or <code>sites/{site-id}/drive/items/{item-id}</code>)</li>
+ *   <li><code>drives/{drive-id}/root:/Folder/File name.pdf:</code> (path-based; spaces and other characters are
+ *       percent-encoded here)</li>
+ * </ul>
+ * Content is read from <code>{location}/content</code>. Graph answers that with a redirect to a short-lived,
+ * pre-authenticated download URL, which is followed <em>without</em> the bearer token so the token never leaves Graph.
+ * Writes use a single <code>PUT</code> to the same address, which Graph accepts for files up to 250 MB. Unless the
+ * caller asks to replace, the upload carries <code>@microsoft.graph.conflictBehavior=fail</code>, so an existing file
+ * is never overwritten by accident.
+ * <p>
+ * <strong>Why an allowlist.</strong> The connector acts with the function app's own identity, which usually holds
+ * broad Graph permissions (<code>Sites.ReadWrite.All</code>), while the location comes from the caller. Without a
+ * limit, anyone able to call the endpoints could read or overwrite any file that identity can reach. Every location
+ * must therefore address a drive (or site) listed in <code>GRAPH_ALLOWED_DRIVES</code>.
+ */
+final class GraphStorageConnector implements StorageConnector {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final AccessTokenProvider tokens;
+    private final Duration timeout;
+    private final Set<String> allowedRoots;
+
+    /**
+     * @param allowedDrives The <code>GRAPH_ALLOWED_DRIVES</code> entries: drive IDs, <code>{collection}/{id}</code>
+     *                      roots such as <code>sites/{site-id}</code>, or <code>*</code> for any location.
+     */
+    GraphStorageConnector(final HttpClient client, final String baseUrl, final AccessTokenProvider tokens,
+                          final Duration timeout, final Collection<String> allowedDrives) {
+        this.client = client;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.tokens = tokens;
+        this.timeout = timeout;
+        this.allowedRoots = allowedDrives.contains("*") ? null : allowedDrives.stream()
+                .map(entry -> root(entry.contains("/") ? entry : "drives/" + entry))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * Creates the connector from the <code>GRAPH_*</code> settings; see {@link #tokensFromSettings} for the
+     * credential settings. <code>GRAPH_ALLOWED_DRIVES</code> is required: a comma-separated list of the drive IDs (or
+     * <code>sites/{site-id}</code> roots) callers may name, or <code>*</code> to allow every location the app's
+     * identity can reach.
+     *
+     * @return The connector.
+     * @throws IllegalStateException If no credential or no allowlist is configured.
+     */
+    static GraphStorageConnector fromSettings() {
+        final var timeout = Duration.ofSeconds(AppSettings.getInt("GRAPH_TIMEOUT_SECONDS", 30));
+        // Redirects are followed by hand (see read) so that the token is only ever sent to Graph itself.
+        final var client = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        final var allowedDrives = Arrays.stream(require("GRAPH_ALLOWED_DRIVES").split(","))
+                .map(String::strip)
+                .filter(entry -> !entry.isEmpty())
+                .toList();
+        return new GraphStorageConnector(client,
+                AppSettings.getString("GRAPH_BASE_URL", "https://graph.microsoft.com/v1.0"),
+                tokensFromSettings(client, timeout),
+                timeout,
+                allowedDrives);
+    }
+
+    /**
+     * Chooses the credential from the settings: azure-identity's <code>DefaultAzureCredential</code> when
+     * <code>GRAPH_CREDENTIAL</code> is <code>azure-identity</code>; otherwise a client secret when
+     * <code>GRAPH_CLIENT_SECRET</code> is set (together with <code>GRAPH_TENANT_ID</code> and
+     * <code>GRAPH_CLIENT_ID</code>), or else the managed identity the Functions host advertises. Either managed
+     * identity is user-assigned when <code>GRAPH_MANAGED_IDENTITY_CLIENT_ID</code> is set.
+     *
+     * @throws IllegalStateException If no credential is configured, or <code>GRAPH_CREDENTIAL</code> is not a known
+     *                               value.
+     */
+    static AccessTokenProvider tokensFromSettings(final HttpClient client, final Duration timeout) {
+        final var scope = AppSettings.getString("GRAPH_SCOPE", "https://graph.microsoft.com/.default");
+        final var credential = AppSettings.getString("GRAPH_CREDENTIAL", "auto");
+        if ("azure-identity".equalsIgnoreCase(credential)) {
+            return AccessTokenProvider.azureIdentity(scope,
+                    AppSettings.getString("GRAPH_MANAGED_IDENTITY_CLIENT_ID", null));
+        }
+        if (!"auto".equalsIgnoreCase(credential)) {
+            throw new IllegalStateException("GRAPH_CREDENTIAL must be auto or azure-identity.");
+        }
+        final var clientSecret = AppSettings.getString("GRAPH_CLIENT_SECRET", null);
+        if (clientSecret != null) {
+            return AccessTokenProvider.clientSecret(client, timeout,
+                    AppSettings.getString("GRAPH_AUTHORITY_HOST", "https://login.microsoftonline.com"),
+                    require("GRAPH_TENANT_ID"), require("GRAPH_CLIENT_ID"), clientSecret, scope);
+        }
+        if (AccessTokenProvider.isManagedIdentityAvailable()) {
+            return AccessTokenProvider.managedIdentity(client, timeout, scope,
+                    AppSettings.getString("GRAPH_MANAGED_IDENTITY_CLIENT_ID", null));
+        }
+        throw new IllegalStateException("The Graph storage connector needs a managed identity or GRAPH_TENANT_ID, "
+                + "GRAPH_CLIENT_ID and GRAPH_CLIENT_SECRET.");
+    }
+
+    private static String require(final String name) {
+        final var value = AppSettings.getString(name, null);
+        if (value == null) {
+            throw new IllegalStateException("The Graph storage connector needs " + name + ".");
+        }
+        return value;
+    }
+
+    /**
+     * Reads the item's metadata (<code>{location}?$select=size</code>) rather than its content.
+     */
+    @Override
+    public long size(final String location) throws IOException {
+        final var request = HttpRequest.newBuilder(itemUri(location, "?$select=size"))
+                .timeout(timeout)
+                .header("Authorization", "Bearer " + tokens.accessToken())
+                .GET()
+                .build();
+        final var response = send(request);
+        checkStatus(response, location);
+        try {
+            final var size = OBJECT_MAPPER.readTree(response.body()).path("size");
+            if (size.canConvertToLong()) {
+                return size.asLong();
+            }
+        } catch (JacksonException e) {
+            // Reported below.
+        }
+        throw new IOException("Microsoft Graph returned no size for " + location + ".");
+    }
+
+    @Override
+    public byte[] read(final String location) throws IOException {
+        final var request = HttpRequest.newBuilder(contentUri(location))
+                .timeout(timeout)
+                .header("Authorization", "Bearer " + tokens.accessToken())
+                .GET()
+                .build();
+        var response = send(request);
+        if (response.statusCode() == 302 || response.statusCode() == 303 || response.statusCode() == 307) {
+            final var downloadUrl = response.headers().firstValue("Location")
+                    .orElseThrow(() -> new IOException("Graph redirected a download without a Location."));
+            response = send(HttpRequest.newBuilder(request.uri().resolve(downloadUrl)).timeout(timeout).GET().build());
+        }
+        checkStatus(response, location);
+        return response.body();
+    }
+
+    /**
+     * Graph answers the upload with the drive item, from which the item's ID-based location and its SharePoint link
+     * are reported; a response without them falls back to the location as written.
+     */
+    @Override
+    public StoredDocument write(final String location, final byte[] content, final boolean replace)
+            throws IOException {
+        final var uri = replace ? contentUri(location)
+                : itemUri(location, "/content?@microsoft.graph.conflictBehavior=fail");
+        final var request = HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .header("Authorization", "Bearer " + tokens.accessToken())
+                .header("Content-Type", "application/octet-stream")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(content))
+                .build();
+        final var response = send(request);
+        if (response.statusCode() == 409) {
+            throw new FileAlreadyExistsException(location.strip());
+        }
+        checkStatus(response, location);
+
+        final JsonNode item;
+        try {
+            item = OBJECT_MAPPER.readTree(response.body());
+        } catch (JacksonException e) {
+            return new StoredDocument(location.strip(), content.length, null);
+        }
+        final var driveId = item.path("parentReference").path("driveId").asString("");
+        final var itemId = item.path("id").asString("");
+        final var webUrl = item.path("webUrl").asString("");
+        return new StoredDocument(
+                driveId.isEmpty() || itemId.isEmpty() ? location.strip() : "drives/" + driveId + "/items/" + itemId,
+                item.path("size").asLong(content.length),
+                webUrl.isEmpty() ? null : webUrl);
+    }
+
+    private HttpResponse<byte[]> send(final HttpRequest request) throws IOException {
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while calling Microsoft Graph.");
+        }
+    }
+
+    private static void checkStatus(final HttpResponse<byte[]> response, final String location) throws IOException {
+        final var status = response.statusCode();
+        if (status == 404) {
+            throw new FileNotFoundException("Drive item not found: " + location);
+        }
+        if (status < 200 || status > 299) {
+            throw new IOException("Microsoft Graph returned HTTP " + status + " for " + location + ".");
+        }
+    }
+
+    /**
+     * Builds <code>{base}/{location}/content</code>, percent-encoding the location so that item paths can be given
+     * as they appear in SharePoint.
+     */
+    URI contentUri(final String location) {
+        return itemUri(location, "/content");
+    }
+
+    /**
+     * Builds <code>{base}/{location}{suffix}</code> for a location that is a relative Graph path inside an allowed
+     * drive.
+     */
+    private URI itemUri(final String location, final String suffix) {
+        if (location == null || location.isBlank()) {
+            throw new IllegalArgumentException("A drive-item location is required.");
+        }
+        final var trimmed = location.strip();
+        if (trimmed.startsWith("/") || trimmed.contains("://") || trimmed.contains("?") || trimmed.contains("#")
+                || trimmed.contains("\\") || (trimmed + "/").contains("../")) {
+            throw new IllegalArgumentException("Drive-item location must be a relative Graph path such as "
+                    + "drives/{drive-id}/items/{item-id}.");
+        }
+        if (allowedRoots != null && !allowedRoots.contains(root(trimmed))) {
+            throw new IllegalArgumentException("Drive-item location is not in a drive this service may use.");
+        }
+        return URI.create(baseUrl + "/" + encodePath(trimmed) + suffix);
+    }
+
+    /**
+     * @return The first two segments of a location (<code>drives/{drive-id}</code>, <code>sites/{site-id}</code>),
+     * with the collection name lower-cased; Graph matches it case-insensitively, unlike the ID.
+     */
+    private static String root(final String location) {
+        final var segments = location.split("/", 3);
+        return segments[0].toLowerCase(Locale.ROOT) + "/" + (segments.length > 1 ? segments[1] : "");
+    }
+
+    /**
+     * Percent-encodes everything a URI path does not allow as-is, keeping <code>/</code> and <code>:</code> so the
+     * Graph path syntax (<code>root:/a/b.pdf:</code>) survives.
+     */
+    static String encodePath(final String path) {
+        final var out = new ByteArrayOutputStream(path.length() + 16);
+        for (final var b : path.getBytes(StandardCharsets.UTF_8)) {
+            final var c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || "-._~/:!$&'()*+,;=@".indexOf(c) >= 0) {
+                out.write(b);
+            } else {
+                out.writeBytes(String.format("%%%02X", b & 0xFF).getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+}
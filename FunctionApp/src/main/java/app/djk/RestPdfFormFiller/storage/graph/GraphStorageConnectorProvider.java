@@ -0,0 +1,20 @@
+package app.djk.RestPdfFormFiller.storage.graph;
+
+import app.djk.RestPdfFormFiller.storage.StorageConnector;
+import app.djk.RestPdfFormFiller.storage.StorageConnectorProvider;
+
+/**
+ * Registers the Microsoft Graph drive-item connector under the name <code>graph</code>.
+ */
+public final class GraphStorageConnectorProvider implements StorageConnectorProvider {
+
+    @Override
+    public String name() {
+        return "graph";
+    }
+
+    @Override
+    public StorageConnector create() {
+        return GraphStorageConnector.fromSettings();
+    }
+}
@@ -0,0 +1,70 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Logger;
+
+import static app.djk.RestPdfFormFiller.TestPdfs.readSampleDa4187Pdf;
+import static app.djk.RestPdfFormFiller.TestPdfs.unencryptedXfaForm;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Thread CPU time per fill and output size for each {@link CompressionProfile}, with the shipped defaults
+ * (<code>PRESERVE_USAGE_RIGHTS</code> off). Every fill is a PATCH of two fields that alternates between two sets of
+ * values, so each one writes.
+ * <p>
+ * Two forms are measured: the sample DA 4187, which is encrypted with its metadata in the clear and so cannot be
+ * appended to (its <code>preserve</code> fills are rewritten as <code>balanced</code>), and the small unencrypted
+ * XFA form of {@link app.djk.RestPdfFormFiller.TestPdfs#unencryptedXfaForm}, where <code>preserve</code> appends.
+ * The profile each output was actually written with is reported next to the one asked for. Iterations are set with
+ * <code>-Dcompression.iterations</code> (default 300, after as many warm-up ones).
+ * <p>
+ * Tagged <code>load</code>, so it only runs with <code>mvn test -Pload-test</code>. It reports rather than asserts.
+ */
+@Tag("load")
+class CompressionProfileBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger(CompressionProfileBenchmarkTest.class.getName());
+
+    private static final String[] PAYLOADS = {
+            "{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"999-99-9999\",\"GRADE\":\"SSG\"}}}}",
+            "{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"888-88-8888\",\"GRADE\":\"SFC\"}}}}"};
+
+    @Test
+    void reportsCpuAndSizePerProfile() throws Exception {
+        final var iterations = Integer.getInteger("compression.iterations", 300);
+        final var summary = new StringBuilder("Compression profiles, PATCH of two fields:\n");
+        summary.append(measure("DA 4187", readSampleDa4187Pdf(), iterations));
+        summary.append(measure("unencrypted XFA", unencryptedXfaForm(), iterations));
+        LOGGER.info(summary::toString);
+    }
+
+    private static String measure(final String form, final byte[] template, final int iterations) throws Exception {
+        final var threads = ManagementFactory.getThreadMXBean();
+        final var summary = new StringBuilder(String.format("  %s (%,d bytes in):%n", form, template.length));
+        for (final var profile : CompressionProfile.values()) {
+            for (var i = 0; i < iterations; i++) {
+                fill(template, i, profile);
+            }
+            final var cpuBefore = threads.getCurrentThreadCpuTime();
+            byte[] output = null;
+            for (var i = 0; i < iterations; i++) {
+                output = fill(template, i, profile);
+            }
+            final var cpuNanos = threads.getCurrentThreadCpuTime() - cpuBefore;
+            assertTrue(RestPdfApi.getXfaDatasetNodeAsString(output).contains("<GRADE>"), profile.value());
+            summary.append(String.format("    %-9s -> %-9s %6.1f ms CPU/fill %,10d bytes%n", profile.value(),
+                    CompressionProfile.applied(template, output, profile).value(),
+                    cpuNanos / iterations / 1_000_000.0, output.length));
+        }
+        return summary.toString();
+    }
+
+    private static byte[] fill(final byte[] template, final int iteration, final CompressionProfile profile)
+            throws Exception {
+        return RestPdfApi.fillXfaFormWithResult(template, PAYLOADS[iteration % 2], WriteMode.PATCH,
+                PatchMode.OVERWRITE, profile).pdfBytes();
+    }
+}
@@ -1,6 +1,7 @@
 package app.djk.RestPdfFormFiller.Pdf;
 
 import app.djk.RestPdfFormFiller.projectExceptions.InvalidXfaFormDataException;
+import app.djk.RestPdfFormFiller.projectExceptions.NestingTooDeepException;
 import org.junit.jupiter.api.Test;
 import tools.jackson.databind.ObjectMapper;
 
@@ -41,6 +42,16 @@ class DataFormatterTest {
         assertThrows(InvalidXfaFormDataException.class, () -> DataFormatter.convertJsonToXmlString(invalidJson));
     }
 
+    @Test
+    void convertJsonToXmlStringRejectsFormDataNestedDeeperThanTheLimit() {
+        // "data" itself is the first level.
+        final var depth = ResourceLimits.configured().maxDepth();
+        final var json = "{\"data\":" + "{\"g\":".repeat(depth) + "\"x\"" + "}".repeat(depth + 1);
+
+        final var e = assertThrows(NestingTooDeepException.class, () -> DataFormatter.convertJsonToXmlString(json));
+        assertEquals("The form data is nested deeper than " + depth + " levels.", e.getMessage());
+    }
+
     @Test
     void generateJsonSchemaBuildsObjectAndLeafStringTypes() {
         final var xml = "<root><customer><name>Jane</name></customer></root>";
@@ -0,0 +1,83 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Heap retained by one payload of a synthetic 10,000-field form (100 subforms of 100 fields each) held as a DOM (what
+ * <code>DataFormatter.convertJsonToXml</code> builds) and as an {@link XfaDataTree}.
+ * <p>
+ * Retained size is read from the heap in use after a full collection, with <code>-Dfootprint.copies</code> copies
+ * (default 50) held at once so that one object's share of the heap is not lost in the noise, and divided by the
+ * number of copies. It is an estimate, not an exact object-graph size.
+ * <p>
+ * Tagged <code>load</code>, so it only runs with <code>mvn test -Pload-test</code>. It reports rather than asserts.
+ */
+@Tag("load")
+class DataTreeFootprintBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger(DataTreeFootprintBenchmarkTest.class.getName());
+
+    private static final int SUBFORMS = 100;
+    private static final int FIELDS_PER_SUBFORM = 100;
+
+    @Test
+    void reportsRetainedBytesPerPayload() throws Exception {
+        final var copies = Integer.getInteger("footprint.copies", 50);
+        final var payload = payload();
+        assertEquals(1 + 1 + SUBFORMS + SUBFORMS * FIELDS_PER_SUBFORM, DataFormatter.convertJsonToDataTree(payload)
+                .size());
+
+        final var fields = SUBFORMS * FIELDS_PER_SUBFORM;
+        final var summary = new StringBuilder("Retained heap per payload, " + fields + " fields:\n");
+        summary.append(measure("dom", copies, fields, () -> {
+            try {
+                return DataFormatter.convertJsonToXml(payload);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        summary.append(measure("data-tree", copies, fields, () -> DataFormatter.convertJsonToDataTree(payload)));
+        LOGGER.info(summary::toString);
+    }
+
+    private static String measure(final String name, final int copies, final int fields,
+                                  final Supplier<Object> build) {
+        final var before = usedAfterCollection();
+        final var held = new Object[copies];
+        for (var i = 0; i < copies; i++) {
+            held[i] = build.get();
+        }
+        final var perCopy = (usedAfterCollection() - before) / copies;
+        // Keep the copies reachable until after the measurement.
+        assertEquals(copies, held.length);
+        return String.format("  %-10s %,12d bytes %8.1f bytes/field%n", name, perCopy, (double) perCopy / fields);
+    }
+
+    private static long usedAfterCollection() {
+        final var memory = ManagementFactory.getMemoryMXBean();
+        for (var i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static String payload() {
+        final var json = new StringBuilder("{\"data\":{\"form1\":{");
+        for (var s = 0; s < SUBFORMS; s++) {
+            json.append(s == 0 ? "" : ",").append("\"Subform").append(s).append("\":{");
+            for (var f = 0; f < FIELDS_PER_SUBFORM; f++) {
+                json.append(f == 0 ? "" : ",").append("\"Field").append(f).append("\":\"value-").append(s)
+                        .append('-').append(f).append('"');
+            }
+            json.append('}');
+        }
+        return json.append("}}}").toString();
+    }
+}
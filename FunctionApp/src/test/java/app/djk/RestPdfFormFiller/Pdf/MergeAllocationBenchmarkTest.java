@@ -0,0 +1,122 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Bytes allocated and time taken per fill by the data half of a PATCH (JSON conversion plus the merge against
+ * the template's data) on a synthetic 1,000-field form: 20 subforms of 50 fields each.
+ * <p>
+ * Two payloads are measured: one that changes every other field, and one that restates the existing values (the
+ * merge then finds nothing to write). The merge writes into the data it is given, so the changing case alternates
+ * between the changed values and the original ones; every operation changes 500 fields.
+ * <p>
+ * Allocation is read from the JVM's per-thread allocation counter, the same figure JMH's <code>-prof gc</code>
+ * reports as <code>gc.alloc.rate.norm</code>, so the numbers are comparable with a JMH run. Iterations are set with
+ * <code>-Dallocation.iterations</code> (default 2000, after as many warm-up ones).
+ * <p>
+ * Tagged <code>load</code>, so it only runs with <code>mvn test -Pload-test</code>. It reports rather than asserts.
+ */
+@Tag("load")
+class MergeAllocationBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger(MergeAllocationBenchmarkTest.class.getName());
+
+    private static final int SUBFORMS = 20;
+    private static final int FIELDS_PER_SUBFORM = 50;
+
+    @Test
+    void reportsAllocationPerMerge() throws Exception {
+        final var iterations = Integer.getInteger("allocation.iterations", 2000);
+        final var existingFormRoot = existingFormRoot();
+        final var changingPayload = payload(true);
+        final var restatingPayload = payload(false);
+
+        // Sanity: the first payload changes the form, the second changes it back and then restates it.
+        assertNotNull(merge(existingFormRoot, changingPayload));
+        assertNotNull(merge(existingFormRoot, restatingPayload));
+        assertNull(merge(existingFormRoot, restatingPayload));
+
+        final var summary = new StringBuilder("Merge allocation, " + SUBFORMS * FIELDS_PER_SUBFORM + " fields:\n");
+        final var operations = new int[1];
+        summary.append(measure("patch-changing", iterations, () -> merge(existingFormRoot,
+                operations[0]++ % 2 == 0 ? changingPayload : restatingPayload)));
+        if (operations[0] % 2 != 0) {
+            merge(existingFormRoot, restatingPayload);
+        }
+        summary.append(measure("patch-restating", iterations, () -> merge(existingFormRoot, restatingPayload)));
+        summary.append(measure("convert-only", iterations,
+                () -> DataFormatter.convertJsonToDataTree(changingPayload)));
+        LOGGER.info(summary::toString);
+    }
+
+    private static Object merge(final Element existingFormRoot, final String payload) throws Exception {
+        final var incoming = DataFormatter.convertJsonToDataTree(payload);
+        return RestPdfApi.mergeFormData(existingFormRoot, incoming, incoming.firstChild(XfaDataTree.ROOT),
+                PatchMode.OVERWRITE);
+    }
+
+    private static String measure(final String name, final int iterations, final Callable<?> operation)
+            throws Exception {
+        final var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final var threadId = Thread.currentThread().threadId();
+        for (var i = 0; i < iterations; i++) {
+            operation.call();
+        }
+        final var bytesBefore = threads.getThreadAllocatedBytes(threadId);
+        final var start = System.nanoTime();
+        for (var i = 0; i < iterations; i++) {
+            operation.call();
+        }
+        final var nanos = System.nanoTime() - start;
+        final var bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+        return String.format("  %-16s %,10d bytes/op %8.1f us/op%n", name, bytes / iterations,
+                nanos / iterations / 1000.0);
+    }
+
+    /**
+     * The template side, parsed namespace-aware the way the datasets packet is read from a PDF.
+     */
+    private static Element existingFormRoot() throws Exception {
+        final var xml = new StringBuilder("<xfa:datasets xmlns:xfa=\"http://www.xfa.org/schema/xfa-data/1.0/\">"
+                + "<xfa:data><form1>");
+        for (var s = 0; s < SUBFORMS; s++) {
+            xml.append("\n  <Subform").append(s).append('>');
+            for (var f = 0; f < FIELDS_PER_SUBFORM; f++) {
+                xml.append("\n    <Field").append(f).append('>').append("value-").append(s).append('-').append(f)
+                        .append("</Field").append(f).append('>');
+            }
+            xml.append("\n  </Subform").append(s).append('>');
+        }
+        xml.append("\n</form1></xfa:data></xfa:datasets>");
+        final var factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final var document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml.toString())));
+        return RestPdfApi.firstElementChild(RestPdfApi.firstElementChild(document.getDocumentElement()));
+    }
+
+    private static String payload(final boolean changeEveryOtherField) {
+        final var json = new StringBuilder("{\"data\":{\"form1\":{");
+        for (var s = 0; s < SUBFORMS; s++) {
+            json.append(s == 0 ? "" : ",").append("\"Subform").append(s).append("\":{");
+            for (var f = 0; f < FIELDS_PER_SUBFORM; f++) {
+                final var prefix = changeEveryOtherField && f % 2 == 0 ? "changed-" : "value-";
+                json.append(f == 0 ? "" : ",").append("\"Field").append(f).append("\":\"").append(prefix).append(s)
+                        .append('-').append(f).append('"');
+            }
+            json.append('}');
+        }
+        return json.append("}}}").toString();
+    }
+}
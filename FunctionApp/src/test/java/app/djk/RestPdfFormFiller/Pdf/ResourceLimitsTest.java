@@ -0,0 +1,72 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import app.djk.RestPdfFormFiller.projectExceptions.NestingTooDeepException;
+import app.djk.RestPdfFormFiller.projectExceptions.PayloadTooLargeException;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ResourceLimitsTest {
+
+    private static final ResourceLimits SMALL = new ResourceLimits(1024, 100, 5, 3, 50);
+
+    @Test
+    void boundedStreamStopsAtTheInflatedLimit() throws Exception {
+        try (final var atLimit = SMALL.bounded(new ByteArrayInputStream(new byte[100]))) {
+            assertEquals(100, atLimit.readAllBytes().length);
+        }
+
+        try (final var overLimit = SMALL.bounded(new ByteArrayInputStream(new byte[101]))) {
+            final var e = assertThrows(PayloadTooLargeException.class, overLimit::readAllBytes);
+            assertEquals("The XFA of the PDF inflates to more than the limit of 100 bytes.", e.getMessage());
+        }
+    }
+
+    @Test
+    void xmlReaderStopsAtTheFirstElementOverALimit() {
+        assertDoesNotThrow(() -> parse("<a><b><c/></b><b/></a>"));
+
+        final var tooDeep = assertThrows(SAXException.class, () -> parse("<a><b><c><d/></c></b></a>"));
+        final var depth = assertThrows(NestingTooDeepException.class, () -> ResourceLimits.rethrowLimit(tooDeep));
+        assertEquals("The XFA of the PDF is nested deeper than 3 levels.", depth.getMessage());
+
+        final var tooMany = assertThrows(SAXException.class, () -> parse("<a><b/><b/><b/><b/><b/></a>"));
+        final var count = assertThrows(PayloadTooLargeException.class, () -> ResourceLimits.rethrowLimit(tooMany));
+        assertEquals("The XFA of the PDF has more than the limit of 5 elements.", count.getMessage());
+    }
+
+    @Test
+    void formDataTreeIsLimitedAsItIsBuilt() {
+        final var deep = new XfaDataTree.Builder("data", SMALL);
+        deep.startElement("a");
+        deep.startElement("b");
+        final var depth = assertThrows(NestingTooDeepException.class, () -> deep.startElement("c"));
+        assertEquals("The form data is nested deeper than 3 levels.", depth.getMessage());
+
+        final var wide = new XfaDataTree.Builder("data", SMALL);
+        for (var i = 0; i < 4; i++) {
+            wide.startElement("a");
+            wide.endElement();
+        }
+        assertThrows(PayloadTooLargeException.class, () -> wide.startElement("a"));
+    }
+
+    @Test
+    void formDataLongerThanTheLimitIsRejected() {
+        assertDoesNotThrow(() -> SMALL.checkFormDataLength(50));
+
+        final var e = assertThrows(PayloadTooLargeException.class, () -> SMALL.checkFormDataLength(51));
+        assertEquals("The form data is longer than the limit of 50 characters.", e.getMessage());
+    }
+
+    private static void parse(final String xml) throws Exception {
+        SMALL.xmlReader().parse(new InputSource(new StringReader(xml)));
+    }
+}
@@ -6,14 +6,25 @@ import app.djk.RestPdfFormFiller.projectExceptions.WriteConflictException;
 import org.junit.jupiter.api.Test;
 import org.openpdf.text.Document;
 import org.openpdf.text.Paragraph;
+import org.openpdf.text.pdf.PdfReader;
 import org.openpdf.text.pdf.PdfWriter;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
 
+import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.ByteArrayOutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
 
+import static app.djk.RestPdfFormFiller.TestPdfs.readSampleDa4187Pdf;
+import static app.djk.RestPdfFormFiller.TestPdfs.unencryptedXfaForm;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -102,6 +113,29 @@ class RestPdfApiTest {
                 conflict.getMessage());
     }
 
+    @Test
+    void mergeFormDataLeavesExistingDataUntouchedWhenALaterFieldConflicts() throws Exception {
+        final var existing = parse("<form1><Page1><NAME/></Page1><Page2><SSN>123-45-6789</SSN></Page2></form1>");
+        final var incoming = "<form1><Page1><NAME>Doe</NAME></Page1><Page2><SSN>999</SSN></Page2></form1>";
+
+        final var conflict = assertThrows(WriteConflictException.class,
+                () -> merge(existing, incoming, PatchMode.FAIL_ON_CONFLICT));
+
+        assertEquals("Write conflict at field 'form1/Page2/SSN': target already has a different value.",
+                conflict.getMessage());
+        assertEquals("", existing.getElementsByTagName("NAME").item(0).getTextContent());
+    }
+
+    @Test
+    void mergeFormDataIgnoresSurroundingWhitespaceWhenComparingValues() throws Exception {
+        final var existing = parse("<form1><SSN>\n  123-45-6789 </SSN><NAME> </NAME></form1>");
+
+        assertNull(merge(existing, "<form1><SSN>123-45-6789</SSN><NAME/></form1>", PatchMode.FAIL_ON_CONFLICT));
+        assertNull(merge(existing, "<form1><SSN>123-45-6789 </SSN></form1>", PatchMode.OVERWRITE));
+        assertSame(existing, merge(existing, "<form1><SSN>123-45-6780</SSN></form1>", PatchMode.OVERWRITE));
+        assertEquals("123-45-6780", existing.getElementsByTagName("SSN").item(0).getTextContent());
+    }
+
     @Test
     void fillXfaFormPatchFailOnConflictSucceedsWhenTargetIsEmpty() throws Exception {
         final var samplePdfBytes = readSampleDa4187Pdf();
@@ -128,6 +162,64 @@ class RestPdfApiTest {
         assertTrue(resultXml.contains("<SSN>123-45-6789</SSN>"));
     }
 
+    @Test
+    void fillXfaFormWritesEveryInstanceOfARepeatedPropertyUnderEveryMode() throws Exception {
+        final var samplePdfBytes = readSampleDa4187Pdf();
+        final var formData = "{\"data\":{\"form1\":{\"Page2\":{\"ORG_C\":\"FIRST\",\"ORG_C\":\"SECOND\"}}}}";
+
+        // The empty ORG_C takes the first instance and the second is added after it; FAIL_ON_CONFLICT has no
+        // conflict to find, in its read-only pass or while writing.
+        for (final var mode : List.of(PatchMode.OVERWRITE, PatchMode.FAIL_ON_CONFLICT)) {
+            final var resultXml = RestPdfApi.getXfaDatasetNodeAsString(
+                    RestPdfApi.fillXfaForm(samplePdfBytes, formData, WriteMode.PATCH, mode));
+            assertTrue(resultXml.matches("(?s).*<ORG_C>FIRST</ORG_C>\\s*<ORG_C>SECOND</ORG_C>.*"), mode.name());
+        }
+        final var putXml = RestPdfApi.getXfaDatasetNodeAsString(
+                RestPdfApi.fillXfaForm(samplePdfBytes, formData, WriteMode.PUT, PatchMode.OVERWRITE));
+        assertTrue(putXml.matches("(?s).*<ORG_C>FIRST</ORG_C>\\s*<ORG_C>SECOND</ORG_C>.*"));
+    }
+
+    @Test
+    void mergeFormDataPairsRepeatedInstancesByOccurrence() throws Exception {
+        final var rows = "<form1><Row><A>1</A></Row><Row><A>2</A></Row><Total>3</Total></form1>";
+
+        final var overwritten = parse(rows);
+        merge(overwritten, "<form1><Row><A>1</A></Row><Row><A>5</A></Row><Row><A>6</A></Row></form1>",
+                PatchMode.OVERWRITE);
+        assertEquals("1|5|6", rowValues(overwritten));
+        assertEquals("Total", overwritten.getLastChild().getNodeName());
+
+        final var unchanged = parse(rows);
+        final var conflict = assertThrows(WriteConflictException.class, () -> merge(unchanged,
+                "<form1><Row><A>1</A></Row><Row><A>5</A></Row></form1>", PatchMode.FAIL_ON_CONFLICT));
+        assertEquals("Write conflict at field 'form1/Row/A': target already has a different value.",
+                conflict.getMessage());
+        assertEquals("1|2", rowValues(unchanged));
+        assertNull(merge(unchanged, "<form1><Row><A>1</A></Row><Row><A>2</A></Row></form1>",
+                PatchMode.FAIL_ON_CONFLICT));
+    }
+
+    @Test
+    void mergeFormDataPairsEveryInstanceOfAWideRepeatingContainer() throws Exception {
+        final var existing = new StringBuilder("<form1>");
+        final var incoming = new StringBuilder("<form1>");
+        final var expected = new StringBuilder();
+        for (var i = 0; i < 2000; i++) {
+            existing.append("<Row><A>").append(i).append("</A></Row><Note>").append(i).append("</Note>");
+            incoming.append("<Row><A>").append(i % 2 == 0 ? i : -i).append("</A></Row>");
+            expected.append(i == 0 ? "" : "|").append(i % 2 == 0 ? i : -i);
+        }
+        incoming.append("<Row><A>new</A></Row></form1>");
+        final var formRoot = parse(existing.append("<Total/></form1>").toString());
+
+        merge(formRoot, incoming.toString(), PatchMode.OVERWRITE);
+
+        assertEquals(expected + "|new", rowValues(formRoot));
+        // The added instance follows the last existing one, ahead of the siblings after it.
+        assertEquals("new", formRoot.getLastChild().getPreviousSibling().getPreviousSibling().getTextContent());
+        assertEquals("Total", formRoot.getLastChild().getNodeName());
+    }
+
     @Test
     void fillXfaFormPutReplacesEntireFormClearingUnprovidedFields() throws Exception {
         final var samplePdfBytes = readSampleDa4187Pdf();
@@ -194,21 +286,178 @@ class RestPdfApiTest {
         assertFalse(resultXml.contains("9988"));
         assertFalse(resultXml.contains("6543"));
         assertFalse(resultXml.contains("222222222"));
+        // The template's fields are still there, just blank.
+        assertTrue(resultXml.contains("<SSN/>"));
+        assertTrue(resultXml.contains("<Page2"));
+    }
+
+    @Test
+    void fillXfaFormPutKeepsOmittedFieldsBlankAndIsRepeatable() throws Exception {
+        final var samplePdfBytes = readSampleDa4187Pdf();
+        final var formData = "{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"999-99-9999\"}}}}";
+
+        // The second fill is served from the cached skeleton and must produce the same data.
+        final var first = RestPdfApi.getXfaDatasetNodeAsString(
+                RestPdfApi.fillXfaForm(samplePdfBytes, formData, WriteMode.PUT, PatchMode.OVERWRITE));
+        final var second = RestPdfApi.getXfaDatasetNodeAsString(
+                RestPdfApi.fillXfaForm(samplePdfBytes, formData, WriteMode.PUT, PatchMode.OVERWRITE));
+
+        assertEquals(first, second);
+        assertTrue(first.contains("<SSN>999-99-9999</SSN>"));
+        assertTrue(first.contains("<GRADE/>"));
+    }
+
+    @Test
+    void fillXfaFormWritesTheDataUnderEveryCompressionProfile() throws Exception {
+        final var samplePdfBytes = readSampleDa4187Pdf();
+        final var formData = "{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"999-99-9999\"}}}}";
+
+        for (final var profile : CompressionProfile.values()) {
+            final var filledBytes = RestPdfApi.fillXfaFormWithResult(samplePdfBytes, formData, WriteMode.PATCH,
+                    PatchMode.OVERWRITE, profile).pdfBytes();
+            final var resultXml = RestPdfApi.getXfaDatasetNodeAsString(filledBytes);
+
+            assertTrue(resultXml.contains("<SSN>999-99-9999</SSN>"), profile.value());
+            assertTrue(resultXml.contains("9988"), profile.value());
+        }
+    }
+
+    @Test
+    void fillXfaFormPreserveProfileAppendsToTheOriginalBytes() throws Exception {
+        final var formBytes = unencryptedXfaForm();
+        final var formData = "{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"999-99-9999\"}}}}";
+
+        final var filledBytes = RestPdfApi.fillXfaFormWithResult(formBytes, formData, WriteMode.PATCH,
+                PatchMode.OVERWRITE, CompressionProfile.PRESERVE).pdfBytes();
+
+        assertTrue(filledBytes.length > formBytes.length);
+        assertArrayEquals(formBytes, Arrays.copyOf(filledBytes, formBytes.length));
+        // The update must read back through its own cross-reference data, not through openpdf's repair path.
+        try (final var reader = new PdfReader(filledBytes)) {
+            assertFalse(reader.isRebuilt());
+        }
+        final var resultXml = RestPdfApi.getXfaDatasetNodeAsString(filledBytes);
+        assertTrue(resultXml.contains("<SSN>999-99-9999</SSN>"));
+        assertTrue(resultXml.contains("<GRADE>SGT</GRADE>"));
+    }
+
+    @Test
+    void fillXfaFormRewritesAFormOpenpdfCannotAppendTo() throws Exception {
+        // The sample is encrypted with its metadata in the clear, which openpdf's append mode cannot write.
+        final var samplePdfBytes = readSampleDa4187Pdf();
+        final var formData = "{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"999-99-9999\"}}}}";
+        try (final var reader = new PdfReader(samplePdfBytes)) {
+            assertTrue(FillStamperFactory.hasSignedPermissions(reader));
+            assertFalse(FillStamperFactory.canAppendTo(reader));
+        }
+
+        final var filledBytes = RestPdfApi.fillXfaFormWithResult(samplePdfBytes, formData, WriteMode.PATCH,
+                PatchMode.OVERWRITE, CompressionProfile.PRESERVE).pdfBytes();
+
+        assertEquals(CompressionProfile.BALANCED,
+                CompressionProfile.applied(samplePdfBytes, filledBytes, CompressionProfile.PRESERVE));
+        try (final var reader = new PdfReader(filledBytes)) {
+            // A rewrite invalidates the usage rights, so they are removed rather than left to fail in Reader.
+            assertFalse(FillStamperFactory.hasSignedPermissions(reader));
+        }
+        assertTrue(RestPdfApi.getXfaDatasetNodeAsString(filledBytes).contains("<SSN>999-99-9999</SSN>"));
+    }
+
+    @Test
+    void fillXfaFormWithResultReturnsOriginalBytesWhenPatchRestatesExistingValues() throws Exception {
+        final var samplePdfBytes = readSampleDa4187Pdf();
+        final var formData = "{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"123-45-6789\"}}}}";
+
+        final var result = RestPdfApi.fillXfaFormWithResult(
+                samplePdfBytes, formData, WriteMode.PATCH, PatchMode.OVERWRITE);
+
+        assertFalse(result.modified());
+        assertSame(samplePdfBytes, result.pdfBytes());
+    }
+
+    @Test
+    void fillXfaFormWithResultTreatsIfEmptyPatchOfPopulatedFieldAsNoOp() throws Exception {
+        final var samplePdfBytes = readSampleDa4187Pdf();
+        final var formData = "{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"999-99-9999\"}}}}";
+
+        final var result = RestPdfApi.fillXfaFormWithResult(
+                samplePdfBytes, formData, WriteMode.PATCH, PatchMode.IF_EMPTY);
+
+        assertFalse(result.modified());
+        assertSame(samplePdfBytes, result.pdfBytes());
     }
 
-    private static byte[] readSampleDa4187Pdf() throws Exception {
-        final var moduleRoot = Path.of("").toAbsolutePath();
-        final var sampleInRepoRoot = moduleRoot.resolve("../resources/DA4187/A4187.pdf").normalize();
-        final var sampleInModule = moduleRoot.resolve("resources/DA4187/A4187.pdf").normalize();
+    @Test
+    void fillXfaFormWithResultReportsModifiedWhenAnyValueChanges() throws Exception {
+        final var samplePdfBytes = readSampleDa4187Pdf();
+        final var formData = "{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"123-45-6789\",\"GRADE\":\"SSG\"}}}}";
+
+        final var result = RestPdfApi.fillXfaFormWithResult(
+                samplePdfBytes, formData, WriteMode.PATCH, PatchMode.OVERWRITE);
+        final var resultXml = RestPdfApi.getXfaDatasetNodeAsString(result.pdfBytes());
 
-        if (Files.exists(sampleInRepoRoot)) {
-            return Files.readAllBytes(sampleInRepoRoot);
+        assertTrue(result.modified());
+        assertTrue(resultXml.contains("<GRADE>SSG</GRADE>"));
+        assertTrue(resultXml.contains("<SSN>123-45-6789</SSN>"));
+    }
+
+    @Test
+    void fillXfaFormsWithResultLaysTheSharedPayloadOntoEachTemplateByPath() throws Exception {
+        final var samplePdfBytes = readSampleDa4187Pdf();
+        // The payload's form-root and its last field belong to a sibling form, not to the 4187.
+        final var formData = "{\"data\":{\"action\":{\"Page1\":{\"SSN\":\"999-99-9999\"},"
+                + "\"Page2\":{\"ORG_C\":\"NEWORG\"},\"SiblingOnly\":{\"UIC\":\"W1ABCD\"}}}}";
+
+        final var results = RestPdfApi.fillXfaFormsWithResult(List.of(samplePdfBytes, samplePdfBytes), formData,
+                WriteMode.PATCH, PatchMode.OVERWRITE, CompressionProfile.BALANCED);
+
+        assertEquals(2, results.size());
+        for (final var result : results) {
+            final var resultXml = RestPdfApi.getXfaDatasetNodeAsString(result.pdfBytes());
+            assertTrue(result.modified());
+            assertTrue(resultXml.contains("<form1"));
+            assertTrue(resultXml.contains("<SSN>999-99-9999</SSN>"));
+            assertTrue(resultXml.contains("<ORG_C>NEWORG</ORG_C>"));
+            assertFalse(resultXml.contains("SiblingOnly"));
+            assertFalse(resultXml.contains("<action"));
         }
-        if (Files.exists(sampleInModule)) {
-            return Files.readAllBytes(sampleInModule);
+    }
+
+    @Test
+    void mapOntoTemplateRenamesTheRootAndDropsFieldsTheTemplateLacks() throws Exception {
+        final var existing = parse("<form1><Page1><SSN/><NAME/></Page1><Row/><Row/></form1>");
+        final var incoming = XfaDataTree.of(parse("<data><action><Page1><SSN>1</SSN><UIC>2</UIC></Page1>"
+                + "<Row>a</Row><Row>b</Row><Page9><X>3</X></Page9></action></data>"));
+
+        final var projected = RestPdfApi.mapOntoTemplate(incoming, existing);
+        final var mapped = projected.toElement(existing.getOwnerDocument(), projected.firstChild(XfaDataTree.ROOT));
+
+        assertEquals("form1", mapped.getNodeName());
+        assertEquals("1", mapped.getElementsByTagName("SSN").item(0).getTextContent());
+        assertEquals(0, mapped.getElementsByTagName("UIC").getLength());
+        assertEquals(0, mapped.getElementsByTagName("Page9").getLength());
+        assertEquals(2, mapped.getElementsByTagName("Row").getLength());
+    }
+
+    private static Node merge(final Element existing, final String incomingFormRoot, final PatchMode patchMode)
+            throws Exception {
+        final var incoming = XfaDataTree.of(parse("<data>" + incomingFormRoot + "</data>"));
+        return RestPdfApi.mergeFormData(existing, incoming, incoming.firstChild(XfaDataTree.ROOT), patchMode);
+    }
+
+    private static String rowValues(final Element formRoot) {
+        final var rows = formRoot.getElementsByTagName("A");
+        final var values = new StringBuilder();
+        for (var i = 0; i < rows.getLength(); i++) {
+            values.append(i == 0 ? "" : "|").append(rows.item(i).getTextContent());
         }
+        return values.toString();
+    }
 
-        throw new IllegalStateException("Could not locate sample file A4187.pdf for tests.");
+    private static Element parse(final String xml) throws Exception {
+        final var factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml))).getDocumentElement();
     }
 
     private static byte[] createSimpleNonXfaPdf() throws Exception {
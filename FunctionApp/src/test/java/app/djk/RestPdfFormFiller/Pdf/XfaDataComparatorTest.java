@@ -0,0 +1,70 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.StringReader;
+import java.util.List;
+
+import static app.djk.RestPdfFormFiller.TestPdfs.readSampleDa4187Pdf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class XfaDataComparatorTest {
+
+    @Test
+    void compareReportsNothingForIdenticalDocuments() throws Exception {
+        final var samplePdfBytes = readSampleDa4187Pdf();
+
+        final var diff = XfaDataComparator.compare(samplePdfBytes, samplePdfBytes.clone());
+
+        assertTrue(diff.changed().isEmpty());
+        assertTrue(diff.added().isEmpty());
+        assertTrue(diff.removed().isEmpty());
+    }
+
+    @Test
+    void compareReportsChangedFieldPathsBetweenRevisions() throws Exception {
+        final var samplePdfBytes = readSampleDa4187Pdf();
+        final var revisedPdfBytes = RestPdfApi.fillXfaForm(samplePdfBytes,
+                "{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"999-99-9999\",\"GRADE\":\"SSG\"}}}}");
+
+        final var diff = XfaDataComparator.compare(samplePdfBytes, revisedPdfBytes);
+
+        assertEquals(List.of("form1/Page1/GRADE", "form1/Page1/SSN"), diff.changed().stream().sorted().toList());
+        assertTrue(diff.added().isEmpty());
+        assertTrue(diff.removed().isEmpty());
+    }
+
+    @Test
+    void compareDataPairsRepeatedSiblingsByOccurrence() throws Exception {
+        final var base = parse("<data><form1><Name>A</Name><Row><Amt>1</Amt></Row><Row><Amt>2</Amt></Row>"
+                + "<Old>x</Old></form1></data>");
+        final var revised = parse("<data><form1><Name> A </Name><Row><Amt>1</Amt></Row><Row><Amt>3</Amt></Row>"
+                + "<Row><Amt>4</Amt></Row><New/></form1></data>");
+
+        final var diff = XfaDataComparator.compareData(XfaDataTree.of(base), XfaDataTree.of(revised));
+
+        assertEquals(List.of("form1/Row[1]/Amt"), diff.changed());
+        assertEquals(List.of("form1/Row[2]", "form1/New"), diff.added());
+        assertEquals(List.of("form1/Old"), diff.removed());
+    }
+
+    @Test
+    void compareDataReportsShapeChangeAsChanged() throws Exception {
+        final var base = parse("<data><form1><Address>Main St</Address></form1></data>");
+        final var revised = parse("<data><form1><Address><Street>Main St</Street></Address></form1></data>");
+
+        final var diff = XfaDataComparator.compareData(XfaDataTree.of(base), XfaDataTree.of(revised));
+
+        assertEquals(List.of("form1/Address"), diff.changed());
+    }
+
+    private static Element parse(final String xml) throws Exception {
+        final var factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml))).getDocumentElement();
+    }
+}
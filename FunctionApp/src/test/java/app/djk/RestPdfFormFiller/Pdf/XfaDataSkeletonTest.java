@@ -0,0 +1,118 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class XfaDataSkeletonTest {
+
+    private static final String TEMPLATE_DATA = "<form1 xmlns:xfa=\"http://www.xfa.org/schema/xfa-data/1.0/\">"
+            + "<Page1><SSN>123-45-6789</SSN><GRADE>SGT</GRADE></Page1>"
+            + "<Row xfa:dataNode=\"dataGroup\"><Item>first</Item></Row>"
+            + "<Row xfa:dataNode=\"dataGroup\"><Item>second</Item></Row>"
+            + "</form1>";
+
+    @Test
+    void blankSkeletonKeepsShapeAndAttributesButNoValues() throws Exception {
+        final var skeleton = XfaDataSkeleton.of(parse(TEMPLATE_DATA));
+        final var document = parse("<root/>").getOwnerDocument();
+
+        final var blank = skeleton.fill(document, payload("<form1/>"), XfaDataTree.NONE);
+
+        final var xml = serialize(blank);
+        assertEquals("form1", skeleton.rootName());
+        assertEquals(1, count(xml, "<SSN/>"));
+        assertEquals(1, count(xml, "<GRADE/>"));
+        assertEquals(0, count(xml, "123-45-6789"));
+        // Repeated instances collapse into one blank prototype that keeps its attributes.
+        assertEquals(1, count(xml, "<Item/>"));
+        assertEquals(1, count(xml, "xfa:dataNode=\"dataGroup\""));
+    }
+
+    @Test
+    void fillPlacesValuesRepeatsInstancesAndAppendsUnknownFields() throws Exception {
+        final var skeleton = XfaDataSkeleton.of(parse(TEMPLATE_DATA));
+        final var incoming = payload("<form1><Extra>x</Extra><Row><Item>a</Item></Row><Row><Item>b</Item></Row>"
+                + "<Page1><GRADE>SSG</GRADE></Page1></form1>");
+
+        final var filled = serialize(skeleton.fill(newDocument(), incoming, incoming.firstChild(XfaDataTree.ROOT)));
+
+        assertEquals(1, count(filled, "<SSN/>"));
+        assertEquals(1, count(filled, "<GRADE>SSG</GRADE>"));
+        // Both instances are built from the blank prototype and keep its data-group attribute, in skeleton order.
+        assertEquals(2, count(filled, "xfa:dataNode=\"dataGroup\""));
+        assertTrue(filled.indexOf("<Page1>") < filled.indexOf("<Item>a</Item>"));
+        assertTrue(filled.indexOf("<Item>a</Item>") < filled.indexOf("<Item>b</Item>"));
+        // Fields the template does not know come last, as supplied.
+        assertTrue(filled.indexOf("<Item>b</Item>") < filled.indexOf("<Extra>x</Extra>"));
+    }
+
+    @Test
+    void skeletonIsUnaffectedByEarlierFills() throws Exception {
+        final var skeleton = XfaDataSkeleton.of(parse(TEMPLATE_DATA));
+        final var incoming = payload("<form1><Page1><SSN>999</SSN></Page1></form1>");
+        skeleton.fill(newDocument(), incoming, incoming.firstChild(XfaDataTree.ROOT));
+
+        final var blank = serialize(skeleton.fill(newDocument(), incoming, XfaDataTree.NONE));
+
+        assertEquals(0, count(blank, "999"));
+        assertEquals(1, count(blank, "<SSN/>"));
+    }
+
+    @Test
+    void codecRoundTripFillsLikeTheOriginal() throws Exception {
+        final var skeleton = XfaDataSkeleton.of(parse(TEMPLATE_DATA));
+        final var decoded = XfaDataSkeleton.CODEC.decode(XfaDataSkeleton.CODEC.encode(skeleton));
+        final var incoming = payload("<form1><Row><Item>a</Item></Row><Page1><GRADE>SSG</GRADE></Page1></form1>");
+        final var formRoot = incoming.firstChild(XfaDataTree.ROOT);
+
+        assertEquals(skeleton.rootName(), decoded.rootName());
+        assertEquals(serialize(skeleton.fill(newDocument(), incoming, formRoot)),
+                serialize(decoded.fill(newDocument(), incoming, formRoot)));
+        assertThrows(IOException.class, () -> XfaDataSkeleton.CODEC.decode(new byte[]{0}));
+    }
+
+    private static XfaDataTree payload(final String formRootXml) throws Exception {
+        return XfaDataTree.of(parse("<data>" + formRootXml + "</data>"));
+    }
+
+    private static Document newDocument() throws Exception {
+        return parse("<root/>").getOwnerDocument();
+    }
+
+    private static Element parse(final String xml) throws Exception {
+        final var factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final Document document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+        return document.getDocumentElement();
+    }
+
+    private static String serialize(final Element element) throws Exception {
+        final var transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty("omit-xml-declaration", "yes");
+        final var writer = new StringWriter();
+        transformer.transform(new DOMSource(element), new StreamResult(writer));
+        return writer.toString();
+    }
+
+    private static int count(final String haystack, final String needle) {
+        var count = 0;
+        for (var i = haystack.indexOf(needle); i >= 0; i = haystack.indexOf(needle, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,88 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.DOMException;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class XfaDataTreeTest {
+
+    @Test
+    void jsonPayloadBecomesGroupsAndFieldsInOrderWithSharedNames() {
+        final var tree = DataFormatter.convertJsonToDataTree("{\"data\":{\"form1\":{\"Row\":{\"Amt\":\"1\"},"
+                + "\"Row\":{\"Amt\":\" 2 \"},\"Note\":\"\",\"Count\":3}}}");
+
+        final var formRoot = tree.firstChild(XfaDataTree.ROOT);
+        final var firstRow = tree.firstChild(formRoot);
+        final var secondRow = tree.nextSibling(firstRow);
+        final var note = tree.nextSibling(secondRow);
+        final var count = tree.nextSibling(note);
+
+        assertEquals("form1", tree.name(formRoot));
+        assertSame(tree.name(firstRow), tree.name(secondRow));
+        assertEquals("1", tree.value(tree.firstChild(firstRow)));
+        assertEquals(" 2 ", tree.value(tree.firstChild(secondRow)));
+        assertEquals("2", tree.trimmedValue(tree.firstChild(secondRow)));
+        assertFalse(tree.hasChildren(note));
+        assertEquals("", tree.value(note));
+        // Non-string values are skipped but their field is kept, as the XML conversion always did.
+        assertEquals("Count", tree.name(count));
+        assertEquals(XfaDataTree.NONE, tree.nextSibling(count));
+        assertEquals("form1/Row/Amt", tree.path(tree.firstChild(secondRow), formRoot));
+    }
+
+    @Test
+    void invalidFieldNameIsRejectedAsTheDomWouldReject() {
+        assertThrows(DOMException.class,
+                () -> DataFormatter.convertJsonToDataTree("{\"data\":{\"form1\":{\"1st field\":\"x\"}}}"));
+    }
+
+    @Test
+    void domCopyComparesAndConvertsBackByLocalName() throws Exception {
+        final var document = DocumentBuilderFactory.newDefaultNSInstance().newDocumentBuilder().parse(new InputSource(
+                new StringReader("<xfa:data xmlns:xfa=\"urn:x\"><form1><SSN>\n 123 </SSN><Page><A/></Page></form1>"
+                        + "</xfa:data>")));
+        final var tree = XfaDataTree.of(document.getDocumentElement());
+        final var formRoot = tree.firstChild(XfaDataTree.ROOT);
+        final var ssn = tree.firstChild(formRoot);
+
+        assertEquals("data", tree.name(XfaDataTree.ROOT));
+        assertTrue(tree.sameTrimmedValue(ssn, "123"));
+        assertFalse(tree.sameTrimmedValue(ssn, "1234"));
+        assertTrue(tree.sameTrimmedValue(tree.firstChild(tree.nextSibling(ssn)), (String) null));
+
+        final var writer = new StringWriter();
+        final var transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty("omit-xml-declaration", "yes");
+        transformer.transform(new DOMSource(tree.toElement(document, formRoot)), new StreamResult(writer));
+        assertEquals("<form1><SSN>\n 123 </SSN><Page><A/></Page></form1>", writer.toString());
+    }
+
+    @Test
+    void appendCopiesASubtreeIntoAnotherTree() {
+        final var source = DataFormatter.convertJsonToDataTree("{\"data\":{\"f\":{\"g\":{\"h\":\"v\"}}}}");
+        final var builder = new XfaDataTree.Builder("data");
+        builder.startElement("renamed");
+        builder.append(source, source.firstChild(source.firstChild(XfaDataTree.ROOT)));
+        builder.endElement();
+
+        final var copy = builder.build();
+
+        final var g = copy.firstChild(copy.firstChild(XfaDataTree.ROOT));
+        assertEquals("renamed/g/h", copy.path(copy.firstChild(g), copy.firstChild(XfaDataTree.ROOT)));
+        assertEquals("v", copy.value(copy.firstChild(g)));
+        assertEquals(4, copy.size());
+    }
+}
@@ -0,0 +1,90 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import app.djk.RestPdfFormFiller.projectExceptions.PayloadTooLargeException;
+import org.junit.jupiter.api.Test;
+import org.openpdf.text.pdf.PRStream;
+import org.openpdf.text.pdf.PdfArray;
+import org.openpdf.text.pdf.PdfDictionary;
+import org.openpdf.text.pdf.PdfName;
+import org.openpdf.text.pdf.PdfReader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static app.djk.RestPdfFormFiller.TestPdfs.readSampleDa4187Pdf;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class XfaDatasetsPacketTest {
+
+    @Test
+    void readsTheDatasetsPacketOfTheSampleOnItsOwn() throws Exception {
+        try (final var reader = new PdfReader(readSampleDa4187Pdf())) {
+            final var packet = XfaDatasetsPacket.read(reader);
+
+            assertNotNull(packet);
+            assertEquals("data", packet.dataNode().getLocalName());
+            assertEquals("form1", RestPdfApi.localName(RestPdfApi.firstElementChild(packet.dataNode())));
+        }
+    }
+
+    @Test
+    void fillRewritesOnlyTheDatasetsPacket() throws Exception {
+        final var samplePdfBytes = readSampleDa4187Pdf();
+        final var formData = "{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"999-99-9999\"}}}}";
+
+        final var filledBytes = RestPdfApi.fillXfaForm(samplePdfBytes, formData, WriteMode.PATCH,
+                PatchMode.OVERWRITE);
+
+        final var before = packets(samplePdfBytes);
+        final var after = packets(filledBytes);
+        assertEquals(before.keySet(), after.keySet());
+        for (final var name : before.keySet()) {
+            if (!"datasets".equals(name)) {
+                assertArrayEquals(before.get(name), after.get(name), name + " packet changed");
+            }
+        }
+        final var datasets = new String(after.get("datasets"), StandardCharsets.UTF_8);
+        assertTrue(datasets.contains("<SSN>999-99-9999</SSN>"));
+        // The whole-XFA reader sees the new data too.
+        assertTrue(RestPdfApi.getXfaDatasetNodeAsString(filledBytes).contains("<SSN>999-99-9999</SSN>"));
+    }
+
+    @Test
+    void datasetsPacketOverTheElementLimitIsRejectedWhileItIsParsed() throws Exception {
+        final var bomb = new StringBuilder("<xfa:datasets xmlns:xfa=\"http://www.xfa.org/schema/xfa-data/1.0/\">"
+                + "<xfa:data><form1>");
+        bomb.append("<a/>".repeat(500_000)).append("</form1></xfa:data></xfa:datasets>");
+
+        try (final var reader = new PdfReader(readSampleDa4187Pdf())) {
+            final var acroForm = (PdfDictionary) PdfReader.getPdfObject(reader.getCatalog().get(PdfName.ACROFORM));
+            final var xfa = (PdfArray) PdfReader.getPdfObject(acroForm.get(PdfName.XFA));
+            for (var k = 0; k + 1 < xfa.size(); k += 2) {
+                if ("datasets".equals(xfa.getAsString(k).toString())) {
+                    // Two megabytes of XML that deflate to a few kilobytes.
+                    ((PRStream) xfa.getDirectObject(k + 1)).setData(bomb.toString().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            final var e = assertThrows(PayloadTooLargeException.class, () -> XfaDatasetsPacket.read(reader));
+            assertEquals("The XFA of the PDF has more than the limit of 500000 elements.", e.getMessage());
+        }
+    }
+
+    private static Map<String, byte[]> packets(final byte[] pdfBytes) throws Exception {
+        final var packets = new LinkedHashMap<String, byte[]>();
+        try (final var reader = new PdfReader(pdfBytes)) {
+            final var acroForm = (PdfDictionary) PdfReader.getPdfObject(reader.getCatalog().get(PdfName.ACROFORM));
+            final var xfa = (PdfArray) PdfReader.getPdfObject(acroForm.get(PdfName.XFA));
+            for (var k = 0; k + 1 < xfa.size(); k += 2) {
+                packets.put(xfa.getAsString(k).toString(),
+                        PdfReader.getStreamBytes((PRStream) xfa.getDirectObject(k + 1)));
+            }
+        }
+        return packets;
+    }
+}
@@ -0,0 +1,101 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import app.djk.RestPdfFormFiller.projectExceptions.FormDataValidationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openpdf.text.pdf.PdfReader;
+
+import java.util.List;
+
+import static app.djk.RestPdfFormFiller.TestPdfs.readSampleDa4187Pdf;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class XfaFieldValidatorsTest {
+
+    private static final String VALID = "{\"data\":{\"form1\":{"
+            + "\"Page1\":{\"GRADE\":\"SGT\",\"SSN\":\"999-99-9999\",\"YEAR\":\"2026\",\"EFFECITIVE\":\"15\","
+            + "\"TYPACT_A\":\"1\",\"group5\":\"3\",\"REMARKS\":\"\"},"
+            + "\"Page2\":{\"ORG_C\":\"NEWORG\",\"DATE28aa\":\"20260131\",\"DATE28bb\":\"2026-02-28\"}}}}";
+
+    @BeforeEach
+    void enableTemplateValidation() {
+        System.setProperty("TEMPLATE_VALIDATION_ENABLED", "true");
+    }
+
+    @AfterEach
+    void restoreDefault() {
+        System.clearProperty("TEMPLATE_VALIDATION_ENABLED");
+    }
+
+    @Test
+    void payloadWithinTheTemplatesRulesPasses() throws Exception {
+        final var pdfBytes = readSampleDa4187Pdf();
+
+        assertDoesNotThrow(() -> RestPdfApi.validateXfaFormData(pdfBytes, VALID));
+        // The SSN is stored formatted; its picture's literals do not count against maxChars 9.
+        assertDoesNotThrow(() -> RestPdfApi.validateXfaFormData(pdfBytes,
+                "{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"123456789\"}}}}"));
+    }
+
+    @Test
+    void nothingIsCheckedUnlessValidationIsEnabled() throws Exception {
+        System.clearProperty("TEMPLATE_VALIDATION_ENABLED");
+
+        assertDoesNotThrow(() -> RestPdfApi.validateXfaFormData(readSampleDa4187Pdf(),
+                "{\"data\":{\"form1\":{\"Page1\":{\"NOPE\":\"x\",\"group5\":\"9\"}}}}"));
+    }
+
+    @Test
+    void everyFieldInErrorIsReportedByPathAndRule() throws Exception {
+        final var formData = "{\"data\":{\"form1\":{"
+                + "\"Page1\":{\"GRADE\":\"SGT\",\"NOPE\":\"x\",\"SSN\":\"1234567890\",\"TYPACT_A\":\"yes\","
+                + "\"group5\":\"9\"},"
+                + "\"Page2\":\"text\"}}}";
+
+        final var e = assertThrows(FormDataValidationException.class,
+                () -> RestPdfApi.validateXfaFormData(readSampleDa4187Pdf(), formData));
+
+        assertEquals(List.of(
+                "form1/Page1/NOPE unknownField",
+                "form1/Page1/SSN maxChars",
+                "form1/Page1/TYPACT_A choice",
+                "form1/Page1/group5 choice",
+                "form1/Page2 notAField"), e.getErrors().stream().map(error -> error.field() + " " + error.rule())
+                .toList());
+        assertEquals("is not one of the template's choices: 2, 0, 3, 4, 5, 6.", e.getErrors().get(3).message());
+        assertFalse(e.isTruncated());
+        // Values are never echoed back.
+        assertFalse(e.getMessage().contains("1234567890"));
+    }
+
+    @Test
+    void datesMustBeRealDatesInThePictureOrInIsoForm() throws Exception {
+        final var formData = "{\"data\":{\"form1\":{\"Page2\":{\"DATE28aa\":\"20241399\"}}}}";
+
+        final var e = assertThrows(FormDataValidationException.class,
+                () -> RestPdfApi.validateXfaFormData(readSampleDa4187Pdf(), formData));
+
+        assertEquals("does not match the template's picture clause date{YYYYMMDD}.",
+                e.getErrors().getFirst().message());
+    }
+
+    @Test
+    void rulesReadBackFromTheCodecCheckTheSame() throws Exception {
+        final XfaFieldValidators compiled;
+        try (final var reader = new PdfReader(readSampleDa4187Pdf())) {
+            compiled = XfaFieldValidators.compile(reader, null);
+        }
+        final var decoded = XfaFieldValidators.CODEC.decode(XfaFieldValidators.CODEC.encode(compiled));
+        final var invalid = DataFormatter.convertJsonToDataTree(
+                "{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"1234567890\",\"group5\":\"9\"}}}}");
+
+        assertDoesNotThrow(() -> decoded.validate(DataFormatter.convertJsonToDataTree(VALID)));
+        assertEquals(
+                assertThrows(FormDataValidationException.class, () -> compiled.validate(invalid)).getMessage(),
+                assertThrows(FormDataValidationException.class, () -> decoded.validate(invalid)).getMessage());
+    }
+}
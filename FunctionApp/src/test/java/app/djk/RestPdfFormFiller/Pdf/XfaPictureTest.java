@@ -0,0 +1,57 @@
+package app.djk.RestPdfFormFiller.Pdf;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class XfaPictureTest {
+
+    @Test
+    void textPictureAcceptsFormattedAndBareValues() {
+        final var ssn = XfaPicture.compile("text{999-99-9999}");
+
+        assertTrue(ssn.accepts("123-45-6789"));
+        assertTrue(ssn.accepts("123456789"));
+        assertFalse(ssn.accepts("123-45-678"));
+        assertFalse(ssn.accepts("12a-45-6789"));
+        assertEquals(9, ssn.contentLength("123-45-6789"));
+        assertEquals(10, ssn.contentLength("1234567890"));
+    }
+
+    @Test
+    void numericPictureChecksDigitPositions() {
+        final var amount = XfaPicture.compile("num{z,zz9.99}");
+
+        assertTrue(amount.accepts("1,234.50"));
+        assertTrue(amount.accepts("1234.5"));
+        assertTrue(amount.accepts("-7"));
+        assertFalse(amount.accepts("12345"));
+        assertFalse(amount.accepts("1.234"));
+        assertFalse(amount.accepts("abc"));
+    }
+
+    @Test
+    void datePictureIsReadStrictly() {
+        final var date = XfaPicture.compile("date{YYYYMMDD}");
+
+        assertTrue(date.accepts("20240229"));
+        assertTrue(date.accepts("2024-02-29"));
+        assertFalse(date.accepts("20230229"));
+        assertFalse(date.accepts("20241399"));
+
+        final var usDate = XfaPicture.compile("date{MM/DD/YYYY}|null{}");
+        assertTrue(usDate.accepts("01/31/2026"));
+        assertFalse(usDate.accepts("31/01/2026"));
+    }
+
+    @Test
+    void clausesOutsideTheCompiledGrammarAreNotChecked() {
+        assertNull(XfaPicture.compile(""));
+        assertNull(XfaPicture.compile("time{HH:MM}"));
+        assertNull(XfaPicture.compile("text{999}|time{HH}"));
+        assertNull(XfaPicture.compile("num{9E}"));
+    }
+}
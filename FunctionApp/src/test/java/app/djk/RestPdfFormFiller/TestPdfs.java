@@ -0,0 +1,85 @@
+package app.djk.RestPdfFormFiller;
+
+import org.openpdf.text.Document;
+import org.openpdf.text.Paragraph;
+import org.openpdf.text.pdf.PdfArray;
+import org.openpdf.text.pdf.PdfDictionary;
+import org.openpdf.text.pdf.PdfName;
+import org.openpdf.text.pdf.PdfReader;
+import org.openpdf.text.pdf.PdfStamper;
+import org.openpdf.text.pdf.PdfStream;
+import org.openpdf.text.pdf.PdfString;
+import org.openpdf.text.pdf.PdfWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The sample forms the tests fill, found whether the tests run from the repository root or from the module.
+ */
+public final class TestPdfs {
+
+    private TestPdfs() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * @return The bytes of the sample DA 4187 (<code>resources/DA4187/A4187.pdf</code>), a reader-extended XFA form.
+     * @throws IOException           If the file cannot be read.
+     * @throws IllegalStateException If the file is in neither place.
+     */
+    public static byte[] readSampleDa4187Pdf() throws IOException {
+        final var moduleRoot = Path.of("").toAbsolutePath();
+        final var sampleInRepoRoot = moduleRoot.resolve("../resources/DA4187/A4187.pdf").normalize();
+        final var sampleInModule = moduleRoot.resolve("resources/DA4187/A4187.pdf").normalize();
+
+        if (Files.exists(sampleInRepoRoot)) {
+            return Files.readAllBytes(sampleInRepoRoot);
+        }
+        if (Files.exists(sampleInModule)) {
+            return Files.readAllBytes(sampleInModule);
+        }
+
+        throw new IllegalStateException("Could not locate sample file A4187.pdf for tests.");
+    }
+
+    /**
+     * @return A one-page XFA form built on the fly, neither encrypted nor reader-extended, with the DA 4187's
+     * <code>form1/Page1/SSN</code> and <code>GRADE</code> fields. Unlike the sample, openpdf can append to it.
+     * @throws IOException If openpdf cannot write it.
+     */
+    public static byte[] unencryptedXfaForm() throws IOException {
+        final var page = new ByteArrayOutputStream();
+        final var document = new Document();
+        PdfWriter.getInstance(document, page);
+        document.open();
+        document.add(new Paragraph("XFA form"));
+        document.close();
+
+        final var output = new ByteArrayOutputStream();
+        try (final var reader = new PdfReader(page.toByteArray());
+             final var stamper = new PdfStamper(reader, output)) {
+            final var writer = stamper.getWriter();
+            final var xfa = new PdfArray();
+            for (final var packet : new String[][]{
+                    {"template", "<template xmlns=\"http://www.xfa.org/schema/xfa-template/3.3/\">"
+                            + "<subform name=\"form1\"><subform name=\"Page1\"><field name=\"SSN\"/>"
+                            + "<field name=\"GRADE\"/></subform></subform></template>"},
+                    {"datasets", "<xfa:datasets xmlns:xfa=\"http://www.xfa.org/schema/xfa-data/1.0/\"><xfa:data>"
+                            + "<form1><Page1><SSN/><GRADE>SGT</GRADE></Page1></form1></xfa:data></xfa:datasets>"}}) {
+                final var stream = new PdfStream(packet[1].getBytes(StandardCharsets.UTF_8));
+                stream.flateCompress();
+                xfa.add(new PdfString(packet[0]));
+                xfa.add(writer.addToBody(stream).getIndirectReference());
+            }
+            final var acroForm = new PdfDictionary();
+            acroForm.put(PdfName.FIELDS, new PdfArray());
+            acroForm.put(PdfName.XFA, xfa);
+            reader.getCatalog().put(PdfName.ACROFORM, writer.addToBody(acroForm).getIndirectReference());
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,157 @@
+package app.djk.RestPdfFormFiller.cache;
+
+import app.djk.RestPdfFormFiller.Pdf.CompressionProfile;
+import app.djk.RestPdfFormFiller.Pdf.PatchMode;
+import app.djk.RestPdfFormFiller.Pdf.WriteMode;
+import app.djk.RestPdfFormFiller.projectExceptions.IdempotencyKeyReuseException;
+import app.djk.RestPdfFormFiller.projectExceptions.ServerBusyException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FillResultCacheTest {
+
+    @Test
+    void fingerprintDependsOnEveryInput() {
+        final var template = new byte[]{1, 2, 3};
+        final var base = FillResultCache.fingerprint(template, "{\"data\":{}}", WriteMode.PATCH, PatchMode.OVERWRITE,
+                CompressionProfile.BALANCED);
+
+        assertEquals(base, FillResultCache.fingerprint(template.clone(), "{\"data\":{}}", WriteMode.PATCH,
+                PatchMode.OVERWRITE, CompressionProfile.BALANCED));
+        assertNotEquals(base, FillResultCache.fingerprint(new byte[]{1, 2, 4}, "{\"data\":{}}", WriteMode.PATCH,
+                PatchMode.OVERWRITE, CompressionProfile.BALANCED));
+        assertNotEquals(base, FillResultCache.fingerprint(template, "{\"data\":{\"a\":\"\"}}", WriteMode.PATCH,
+                PatchMode.OVERWRITE, CompressionProfile.BALANCED));
+        assertNotEquals(base, FillResultCache.fingerprint(template, "{\"data\":{}}", WriteMode.PUT,
+                PatchMode.OVERWRITE, CompressionProfile.BALANCED));
+        assertNotEquals(base, FillResultCache.fingerprint(template, "{\"data\":{}}", WriteMode.PATCH,
+                PatchMode.IF_EMPTY, CompressionProfile.BALANCED));
+        assertNotEquals(base, FillResultCache.fingerprint(template, "{\"data\":{}}", WriteMode.PATCH,
+                PatchMode.OVERWRITE, CompressionProfile.FAST));
+    }
+
+    @Test
+    void getReturnsStoredResultUntilTtlExpires() {
+        final var clock = new AtomicLong();
+        final var cache = new FillResultCache(1024, 1000, null, clock::get);
+
+        cache.put("key", new byte[]{42});
+        assertArrayEquals(new byte[]{42}, cache.get("key").orElseThrow());
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1001));
+        assertTrue(cache.get("key").isEmpty());
+    }
+
+    @Test
+    void putEvictsLeastRecentlyUsedEntriesToStayWithinSizeBound() {
+        final var cache = new FillResultCache(10, 60_000, null, System::nanoTime);
+
+        cache.put("a", new byte[4]);
+        cache.put("b", new byte[4]);
+        cache.get("a");
+        cache.put("c", new byte[4]);
+
+        assertTrue(cache.get("a").isPresent());
+        assertTrue(cache.get("b").isEmpty());
+        assertTrue(cache.get("c").isPresent());
+    }
+
+    @Test
+    void bindIdempotencyKeyRejectsReuseWithDifferentRequest() {
+        final var cache = new FillResultCache(1024, 60_000, null, System::nanoTime);
+
+        cache.bindIdempotencyKey("retry-1", "fingerprint-a");
+        cache.bindIdempotencyKey("retry-1", "fingerprint-a");
+
+        assertThrows(IdempotencyKeyReuseException.class,
+                () -> cache.bindIdempotencyKey("retry-1", "fingerprint-b"));
+    }
+
+    @Test
+    void checkIdempotencyKeyDoesNotBindTheKey() {
+        final var cache = new FillResultCache(1024, 60_000, null, System::nanoTime);
+
+        cache.checkIdempotencyKey("retry-1", "fingerprint-a");
+        cache.bindIdempotencyKey("retry-1", "fingerprint-b");
+
+        assertThrows(IdempotencyKeyReuseException.class,
+                () -> cache.checkIdempotencyKey("retry-1", "fingerprint-a"));
+    }
+
+    @Test
+    void idempotencyKeysAreNeverEvictedToMakeRoomOnlyExpired() {
+        final var clock = new AtomicLong();
+        final var cache = new FillResultCache(1024, 60_000, null, clock::get);
+        for (var i = 0; i < FillResultCache.MAX_IDEMPOTENCY_KEYS; i++) {
+            cache.checkIdempotencyKey("key-" + i, "fingerprint-" + i);
+            cache.bindIdempotencyKey("key-" + i, "fingerprint-" + i);
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        // Full: a new key waits for the oldest binding to expire; bound keys still replay and still detect reuse.
+        final var busy = assertThrows(ServerBusyException.class,
+                () -> cache.checkIdempotencyKey("key-new", "fingerprint-new"));
+        assertEquals(50, busy.getRetryAfterSeconds());
+        cache.checkIdempotencyKey("key-0", "fingerprint-0");
+        assertThrows(IdempotencyKeyReuseException.class, () -> cache.checkIdempotencyKey("key-0", "fingerprint-x"));
+
+        clock.set(TimeUnit.MILLISECONDS.toNanos(60_000));
+        cache.checkIdempotencyKey("key-new", "fingerprint-new");
+        cache.checkIdempotencyKey("key-0", "fingerprint-x");
+        assertThrows(IdempotencyKeyReuseException.class, () -> cache.checkIdempotencyKey("key-1", "fingerprint-x"));
+    }
+
+    @Test
+    void disabledCacheStoresNothing() {
+        final var cache = new FillResultCache(0, 60_000, null, System::nanoTime);
+
+        cache.put("key", new byte[]{1});
+
+        assertFalse(cache.isEnabled());
+        assertTrue(cache.get("key").isEmpty());
+    }
+
+    @Test
+    void directoryStoreSpillsResultsToFilesAndDeletesThemOnEviction(@TempDir final Path directory) throws Exception {
+        Files.write(directory.resolve("stale.pdf"), new byte[]{9});
+        final var cache = new FillResultCache(6, 60_000, directory, System::nanoTime);
+        assertFalse(Files.exists(directory.resolve("stale.pdf")));
+
+        cache.put("a", new byte[]{1, 2, 3, 4});
+        assertTrue(Files.exists(directory.resolve("a.pdf")));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, cache.get("a").orElseThrow());
+
+        cache.put("b", new byte[]{5, 6, 7, 8});
+        assertFalse(Files.exists(directory.resolve("a.pdf")));
+        assertTrue(cache.get("a").isEmpty());
+    }
+
+    @Test
+    void localMissIsAnsweredFromTheSharedTierAndKeptLocally() {
+        final var sharedCache = new InMemorySharedCache();
+        final var tier = new SharedCacheTier(sharedCache, "test:", Duration.ofDays(1), Duration.ofSeconds(30),
+                Long.MAX_VALUE, Runnable::run, System::nanoTime);
+        final var first = new FillResultCache(1024, 60_000, null, System::nanoTime, tier);
+        final var second = new FillResultCache(1024, 60_000, null, System::nanoTime, tier);
+
+        first.put("key", new byte[]{7});
+        assertArrayEquals(new byte[]{7}, second.get("key").orElseThrow());
+
+        // Served locally from now on, even once the shared copy is gone.
+        sharedCache.put("test:fill:key", new byte[0], Duration.ofNanos(1));
+        assertArrayEquals(new byte[]{7}, second.get("key").orElseThrow());
+    }
+}
@@ -0,0 +1,84 @@
+package app.djk.RestPdfFormFiller.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SharedCacheTierTest {
+
+    @Test
+    void keysArePrefixedAndArtifactsKeptForTheirTtl() {
+        final var clock = new AtomicLong();
+        final var cache = new InMemorySharedCache(clock::get);
+        final var tier = new SharedCacheTier(cache, "prod:", Duration.ofSeconds(10), Duration.ofSeconds(30),
+                Long.MAX_VALUE, Runnable::run, clock::get);
+
+        tier.put("schema:v1:abc", new byte[]{1});
+
+        assertArrayEquals(new byte[]{1}, cache.get("prod:schema:v1:abc").orElseThrow());
+        assertArrayEquals(new byte[]{1}, tier.get("schema:v1:abc").orElseThrow());
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        assertTrue(tier.get("schema:v1:abc").isEmpty());
+    }
+
+    @Test
+    void oversizedValuesAreNotShared() {
+        final var cache = new InMemorySharedCache();
+        final var tier = new SharedCacheTier(cache, "", Duration.ofDays(1), Duration.ofSeconds(30), 2,
+                Runnable::run, System::nanoTime);
+
+        tier.put("small", new byte[2]);
+        tier.put("large", new byte[3]);
+
+        assertEquals(1, cache.size());
+        assertTrue(tier.get("large").isEmpty());
+    }
+
+    @Test
+    void failureIsAMissAndTheCacheIsLeftAloneUntilRetry() {
+        final var clock = new AtomicLong();
+        final var calls = new AtomicInteger();
+        final var down = new boolean[]{true};
+        final var tier = new SharedCacheTier(new SharedCache() {
+            @Override
+            public Optional<byte[]> get(final String key) throws IOException {
+                calls.incrementAndGet();
+                if (down[0]) {
+                    throw new IOException("connection refused");
+                }
+                return Optional.of(new byte[]{5});
+            }
+
+            @Override
+            public void put(final String key, final byte[] value, final Duration ttl) {
+                calls.incrementAndGet();
+            }
+        }, "", Duration.ofDays(1), Duration.ofSeconds(30), Long.MAX_VALUE, Runnable::run, clock::get);
+
+        assertTrue(tier.get("a").isEmpty());
+        assertTrue(tier.get("a").isEmpty());
+        tier.put("a", new byte[]{1});
+        assertEquals(1, calls.get());
+
+        down[0] = false;
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        assertArrayEquals(new byte[]{5}, tier.get("a").orElseThrow());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void noneIsDisabled() {
+        assertFalse(SharedCacheTier.NONE.isEnabled());
+        assertTrue(SharedCacheTier.NONE.get("a").isEmpty());
+    }
+}
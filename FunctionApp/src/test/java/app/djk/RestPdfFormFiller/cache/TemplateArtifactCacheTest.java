@@ -0,0 +1,183 @@
+package app.djk.RestPdfFormFiller.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TemplateArtifactCacheTest {
+
+    @Test
+    void computesOncePerTemplateAndEvictsLeastRecentlyUsed() {
+        final var cache = new TemplateArtifactCache<Object>(2);
+        final var computations = new AtomicInteger();
+
+        final var a = cache.computeIfAbsent("a", key -> new Object[]{key, computations.incrementAndGet()});
+        assertSame(a, cache.computeIfAbsent("a", key -> new Object[]{key, computations.incrementAndGet()}));
+        cache.computeIfAbsent("b", key -> computations.incrementAndGet());
+        // Touch "a" so that "b" is the eldest when "c" arrives.
+        cache.computeIfAbsent("a", key -> computations.incrementAndGet());
+        cache.computeIfAbsent("c", key -> computations.incrementAndGet());
+
+        assertEquals(3, computations.get());
+        assertEquals(2, cache.size());
+        assertSame(a, cache.computeIfAbsent("a", key -> computations.incrementAndGet()));
+        cache.computeIfAbsent("b", key -> computations.incrementAndGet());
+        assertEquals(4, computations.get());
+    }
+
+    @Test
+    void zeroEntriesDisablesTheCache() {
+        final var cache = new TemplateArtifactCache<Integer>(0);
+        final var computations = new AtomicInteger();
+
+        cache.computeIfAbsent("a", key -> computations.incrementAndGet());
+        cache.computeIfAbsent("a", key -> computations.incrementAndGet());
+
+        assertEquals(2, computations.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void concurrentMissesShareOneComputation() throws Exception {
+        final var cache = new TemplateArtifactCache<Object>(2);
+        final var computations = new AtomicInteger();
+        final var release = new CountDownLatch(1);
+        final var results = new CopyOnWriteArrayList<Object>();
+
+        final var threads = startWaitingCallers(8, () -> results.add(cache.computeIfAbsent("a", key -> {
+            computations.incrementAndGet();
+            release.await();
+            return new Object();
+        })));
+        release.countDown();
+        joinAll(threads);
+
+        assertEquals(1, computations.get());
+        assertEquals(8, results.size());
+        results.forEach(result -> assertSame(results.get(0), result));
+    }
+
+    @Test
+    void failedComputationReachesEveryWaiterAndIsNotStored() throws Exception {
+        final var cache = new TemplateArtifactCache<Object>(0);
+        final var computations = new AtomicInteger();
+        final var release = new CountDownLatch(1);
+        final var failure = new IOException("unreadable template");
+        final var thrown = new CopyOnWriteArrayList<Exception>();
+
+        final var threads = startWaitingCallers(4, () -> thrown.add(assertThrows(IOException.class,
+                () -> cache.computeIfAbsent("a", key -> {
+                    computations.incrementAndGet();
+                    release.await();
+                    throw failure;
+                }))));
+        release.countDown();
+        joinAll(threads);
+
+        assertEquals(1, computations.get());
+        assertEquals(4, thrown.size());
+        thrown.forEach(exception -> assertSame(failure, exception));
+        assertEquals("b", cache.computeIfAbsent("a", key -> "b"));
+    }
+
+    @Test
+    void coldInstanceIsServedFromTheSharedTierWithoutComputing() {
+        final var tier = new SharedCacheTier(new InMemorySharedCache(), "test:", Duration.ofDays(1),
+                Duration.ofSeconds(30), Long.MAX_VALUE, Runnable::run, System::nanoTime);
+        final var warm = new TemplateArtifactCache<>(2, "text:v1", UTF8, tier);
+        final var cold = new TemplateArtifactCache<>(2, "text:v1", UTF8, tier);
+        final var computations = new AtomicInteger();
+
+        warm.computeIfAbsent("a", key -> "value" + computations.incrementAndGet());
+        assertEquals("value1", cold.computeIfAbsent("a", key -> "value" + computations.incrementAndGet()));
+
+        assertEquals(1, computations.get());
+        assertEquals(1, cold.size());
+    }
+
+    @Test
+    void undecodableSharedValueIsRecomputedAndReplaced() throws Exception {
+        final var sharedCache = new InMemorySharedCache();
+        sharedCache.put("test:text:v1:a", new byte[]{1}, Duration.ofDays(1));
+        final var tier = new SharedCacheTier(sharedCache, "test:", Duration.ofDays(1), Duration.ofSeconds(30),
+                Long.MAX_VALUE, Runnable::run, System::nanoTime);
+        final var cache = new TemplateArtifactCache<>(2, "text:v1", new TemplateArtifactCache.Codec<String>() {
+            @Override
+            public byte[] encode(final String value) {
+                return UTF8.encode(value);
+            }
+
+            @Override
+            public String decode(final byte[] bytes) throws IOException {
+                if (bytes.length < 2) {
+                    throw new IOException("not a value of this version");
+                }
+                return UTF8.decode(bytes);
+            }
+        }, tier);
+
+        assertEquals("value", cache.computeIfAbsent("a", key -> "value"));
+        assertEquals("value", new String(sharedCache.get("test:text:v1:a").orElseThrow(), StandardCharsets.UTF_8));
+    }
+
+    private static final TemplateArtifactCache.Codec<String> UTF8 = new TemplateArtifactCache.Codec<>() {
+        @Override
+        public byte[] encode(final String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(final byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Starts the callers one after another, each once the previous one is blocked: the first inside its computation,
+     * the rest waiting for it.
+     */
+    private static List<Thread> startWaitingCallers(final int count, final ThrowingRunnable caller)
+            throws InterruptedException {
+        final var threads = new ArrayList<Thread>();
+        for (var i = 0; i < count; i++) {
+            final var thread = Thread.ofPlatform().daemon().start(() -> {
+                try {
+                    caller.run();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            threads.add(thread);
+            final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (thread.getState() != Thread.State.WAITING) {
+                assertTrue(System.nanoTime() < deadline, "caller did not block");
+                Thread.sleep(1);
+            }
+        }
+        return threads;
+    }
+
+    private static void joinAll(final List<Thread> threads) throws InterruptedException {
+        for (final var thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    @FunctionalInterface
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,167 @@
+package app.djk.RestPdfFormFiller.cache.redis;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the client against a minimal local RESP server that understands <code>AUTH</code>, <code>GET</code> and
+ * <code>SET ... PX</code>, and records every command it receives.
+ */
+class RedisSharedCacheTest {
+
+    private final Map<String, byte[]> values = new ConcurrentHashMap<>();
+    private final List<String> commands = new CopyOnWriteArrayList<>();
+    private final List<Socket> accepted = new CopyOnWriteArrayList<>();
+    private ServerSocket server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread.ofPlatform().daemon().start(() -> {
+            while (!server.isClosed()) {
+                try {
+                    final var socket = server.accept();
+                    accepted.add(socket);
+                    Thread.ofPlatform().daemon().start(() -> serve(socket));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        server.close();
+        for (final var socket : accepted) {
+            socket.close();
+        }
+    }
+
+    @Test
+    void authenticatesOnceThenSetsAndGetsOnOnePooledConnection() throws Exception {
+        final var cache = client("secret");
+
+        cache.put("k", new byte[]{0, 13, 10, (byte) 255}, Duration.ofSeconds(5));
+
+        assertArrayEquals(new byte[]{0, 13, 10, (byte) 255}, cache.get("k").orElseThrow());
+        assertTrue(cache.get("missing").isEmpty());
+        assertEquals(List.of("AUTH secret", "SET k PX 5000", "GET k", "GET missing"), commands);
+        assertEquals(1, accepted.size());
+    }
+
+    @Test
+    void refusedCredentialsAreAnIOException() {
+        final var cache = client("wrong");
+
+        final var e = assertThrows(IOException.class, () -> cache.get("k"));
+        assertEquals("Redis refused the credentials.", e.getMessage());
+    }
+
+    @Test
+    void parsesAzureConnectionStrings() {
+        final var tls = RedisSharedCache.fromConnectionString(
+                "example.redis.cache.windows.net:6380,password=abc=,ssl=True,abortConnect=False",
+                Duration.ofSeconds(1), 1);
+        assertEquals("example.redis.cache.windows.net:6380 tls user=null password=abc=", tls.describe());
+
+        final var plain = RedisSharedCache.fromConnectionString("localhost,ssl=false,user=app,password=p",
+                Duration.ofSeconds(1), 1);
+        assertEquals("localhost:6379 plain user=app password=p", plain.describe());
+
+        assertThrows(IllegalStateException.class,
+                () -> RedisSharedCache.fromConnectionString("host:port", Duration.ofSeconds(1), 1));
+    }
+
+    private RedisSharedCache client(final String password) {
+        return RedisSharedCache.fromConnectionString("localhost:" + server.getLocalPort()
+                + ",password=" + password + ",ssl=False", Duration.ofSeconds(5), 2);
+    }
+
+    private void serve(final Socket socket) {
+        try (socket) {
+            final var in = new BufferedInputStream(socket.getInputStream());
+            final var out = socket.getOutputStream();
+            for (var command = readCommand(in); command != null; command = readCommand(in)) {
+                final var name = new String(command.get(0), StandardCharsets.UTF_8);
+                final var key = new String(command.get(1), StandardCharsets.UTF_8);
+                switch (name) {
+                    case "AUTH" -> {
+                        commands.add("AUTH " + key);
+                        reply(out, "secret".equals(key) ? "+OK\r\n" : "-WRONGPASS invalid password\r\n");
+                    }
+                    case "SET" -> {
+                        commands.add("SET " + key + " " + new String(command.get(3), StandardCharsets.UTF_8) + " "
+                                + new String(command.get(4), StandardCharsets.UTF_8));
+                        values.put(key, command.get(2));
+                        reply(out, "+OK\r\n");
+                    }
+                    case "GET" -> {
+                        commands.add("GET " + key);
+                        final var value = values.get(key);
+                        if (value == null) {
+                            reply(out, "$-1\r\n");
+                        } else {
+                            reply(out, "$" + value.length + "\r\n");
+                            out.write(value);
+                            reply(out, "\r\n");
+                        }
+                    }
+                    default -> reply(out, "-ERR unknown command\r\n");
+                }
+            }
+        } catch (IOException e) {
+            // The client or the test closed the connection.
+        }
+    }
+
+    private static List<byte[]> readCommand(final InputStream in) throws IOException {
+        if (in.read() != '*') {
+            return null;
+        }
+        final var count = Integer.parseInt(readLine(in));
+        final var arguments = new ArrayList<byte[]>();
+        for (var i = 0; i < count; i++) {
+            in.read();
+            final var length = Integer.parseInt(readLine(in));
+            arguments.add(in.readNBytes(length));
+            in.readNBytes(2);
+        }
+        return arguments;
+    }
+
+    private static String readLine(final InputStream in) throws IOException {
+        final var line = new StringBuilder();
+        for (var b = in.read(); b != '\r'; b = in.read()) {
+            line.append((char) b);
+        }
+        in.read();
+        return line.toString();
+    }
+
+    private static void reply(final OutputStream out, final String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
@@ -0,0 +1,87 @@
+package app.djk.RestPdfFormFiller.execution;
+
+import app.djk.RestPdfFormFiller.projectExceptions.DeadlineExceededException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PipelineExecutorTest {
+
+    @Test
+    void invokeAllReturnsResultsInSubmissionOrder() throws Exception {
+        final var executor = new PipelineExecutor(4, 4, 4);
+        final var tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 20; i++) {
+            final var value = i;
+            tasks.add(() -> {
+                Thread.sleep(20 - value);
+                return value;
+            });
+        }
+
+        final var results = executor.invokeAll(PipelineExecutor.Stage.CPU, tasks);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, results.get(i));
+        }
+    }
+
+    @Test
+    void invokeAllNeverExceedsPerRequestParallelism() throws Exception {
+        final var executor = new PipelineExecutor(8, 8, 8);
+        final var inFlight = new AtomicInteger();
+        final var peak = new AtomicInteger();
+        final var tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < 30; i++) {
+            tasks.add(() -> {
+                peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                Thread.sleep(5);
+                inFlight.decrementAndGet();
+                return null;
+            });
+        }
+
+        executor.invokeAll(PipelineExecutor.Stage.IO, tasks, 2);
+
+        assertTrue(peak.get() <= 2, "Peak in-flight tasks was " + peak.get());
+    }
+
+    @Test
+    void invokeAllRethrowsTaskFailureUnwrapped() {
+        final var executor = new PipelineExecutor(2, 2, 2);
+        final var failure = new IllegalStateException("boom");
+        final List<Callable<String>> tasks = List.of(() -> "ok", () -> {
+            throw failure;
+        });
+
+        final var thrown = assertThrows(IllegalStateException.class,
+                () -> executor.invokeAll(PipelineExecutor.Stage.CPU, tasks));
+        assertSame(failure, thrown);
+    }
+
+    @Test
+    void tasksRunUnderTheSubmittersDeadline() throws Exception {
+        final var executor = new PipelineExecutor(2, 2, 2);
+        final var clock = new AtomicLong();
+        final var deadline = new RequestDeadline(10, clock::get);
+
+        deadline.call(() -> {
+            assertSame(deadline, executor.submit(PipelineExecutor.Stage.CPU, RequestDeadline::current).get());
+
+            clock.set(TimeUnit.MILLISECONDS.toNanos(10));
+            final List<Callable<String>> tasks = List.of(() -> "late");
+            return assertThrows(DeadlineExceededException.class,
+                    () -> executor.invokeAll(PipelineExecutor.Stage.CPU, tasks));
+        });
+    }
+}
@@ -0,0 +1,157 @@
+package app.djk.RestPdfFormFiller.execution;
+
+import app.djk.RestPdfFormFiller.projectExceptions.DeadlineExceededException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class RequestDeadlineTest {
+
+    @Test
+    void checksAreNoOpsOnAThreadWithoutADeadline() {
+        final var out = new ByteArrayOutputStream();
+
+        assertNull(RequestDeadline.current());
+        assertDoesNotThrow(RequestDeadline::check);
+        assertDoesNotThrow(RequestDeadline::checkInLoop);
+        assertSame(out, RequestDeadline.guard(out));
+    }
+
+    @Test
+    void passedDeadlineAbandonsTheWorkAndEveryLaterCheckToo() throws Exception {
+        final var clock = new AtomicLong();
+        final var deadline = new RequestDeadline(100, clock::get);
+
+        deadline.call(() -> {
+            clock.set(TimeUnit.MILLISECONDS.toNanos(99));
+            RequestDeadline.check();
+            assertFalse(deadline.exceeded());
+
+            clock.set(TimeUnit.MILLISECONDS.toNanos(100));
+            final var e = assertThrows(DeadlineExceededException.class, RequestDeadline::check);
+            assertEquals("Request did not complete within its deadline of 100 ms.", e.getMessage());
+            assertTrue(deadline.exceeded());
+
+            // Even a clock that went backwards does not revive abandoned work.
+            clock.set(0);
+            return assertThrows(DeadlineExceededException.class, RequestDeadline::check);
+        });
+        assertNull(RequestDeadline.current());
+    }
+
+    @Test
+    void loopChecksReadTheClockOnlyEveryInterval() throws Exception {
+        final var reads = new AtomicInteger();
+        final var deadline = new RequestDeadline(1000, () -> {
+            reads.incrementAndGet();
+            return 0;
+        });
+
+        deadline.call(() -> {
+            for (var i = 0; i < RequestDeadline.LOOP_CHECK_INTERVAL * 3; i++) {
+                RequestDeadline.checkInLoop();
+            }
+            return null;
+        });
+
+        // One read when the deadline was created, then one per interval.
+        assertEquals(1 + 3, reads.get());
+    }
+
+    @Test
+    void nestedWorkRestoresThePreviousDeadline() throws Exception {
+        final var outer = RequestDeadline.after(60_000);
+        final var inner = RequestDeadline.after(60_000);
+
+        outer.call(() -> {
+            assertSame(inner, inner.call(RequestDeadline::current));
+            assertSame(outer, RequestDeadline.current());
+            return null;
+        });
+        assertNull(RequestDeadline.current());
+    }
+
+    @Test
+    void guardedStreamStopsALibraryWriteLoopAtTheDeadline() throws Exception {
+        final var clock = new AtomicLong();
+        final var deadline = new RequestDeadline(10, clock::get);
+        final var out = new ByteArrayOutputStream();
+
+        deadline.call(() -> {
+            final var guarded = RequestDeadline.guard(out);
+            clock.set(TimeUnit.MILLISECONDS.toNanos(10));
+
+            return assertThrows(DeadlineExceededException.class, () -> {
+                for (var i = 0; i < RequestDeadline.LOOP_CHECK_INTERVAL; i++) {
+                    guarded.write(new byte[16], 0, 16);
+                }
+            });
+        });
+        assertEquals(16 * (RequestDeadline.LOOP_CHECK_INTERVAL - 1), out.size());
+    }
+
+    @Test
+    void cpuSpentOnAbandonedWorkIsCountedAsWasted() {
+        assumeTrue(ManagementFactory.getThreadMXBean().isCurrentThreadCpuTimeSupported());
+        final var clock = new AtomicLong();
+        final var deadline = new RequestDeadline(10, clock::get);
+        final var wastedBefore = RequestDeadline.totalWastedCpu();
+        final var exceededBefore = RequestDeadline.exceededCount();
+
+        assertThrows(DeadlineExceededException.class, () -> deadline.call(() -> {
+            burnCpu();
+            clock.set(TimeUnit.MILLISECONDS.toNanos(10));
+            RequestDeadline.check();
+            return null;
+        }));
+
+        assertTrue(deadline.wastedCpu().toNanos() > 0);
+        assertTrue(RequestDeadline.totalWastedCpu().compareTo(wastedBefore) > 0);
+        assertTrue(RequestDeadline.exceededCount() > exceededBefore);
+    }
+
+    @Test
+    void abandonedWorkOnAVirtualThreadIsReportedAsUnmeasuredRatherThanAsZero() throws Exception {
+        final var clock = new AtomicLong();
+        final var deadline = new RequestDeadline(10, clock::get);
+        final var wastedBefore = RequestDeadline.totalWastedCpu();
+        final var unmeasuredBefore = RequestDeadline.unmeasuredAbandonedThreads();
+
+        final var worker = Thread.ofVirtual().start(() -> assertThrows(DeadlineExceededException.class,
+                () -> deadline.call(() -> {
+                    clock.set(TimeUnit.MILLISECONDS.toNanos(10));
+                    RequestDeadline.check();
+                    return null;
+                })));
+        worker.join();
+
+        assertTrue(deadline.exceeded());
+        assertFalse(deadline.wastedCpuMeasured());
+        assertEquals(Duration.ZERO, deadline.wastedCpu());
+        assertEquals(wastedBefore, RequestDeadline.totalWastedCpu());
+        assertEquals(unmeasuredBefore + 1, RequestDeadline.unmeasuredAbandonedThreads());
+    }
+
+    private static void burnCpu() {
+        final var start = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+        var x = 0L;
+        while (ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() - start < 5_000_000) {
+            x += System.identityHashCode(new Object());
+        }
+        assertTrue(x != 1);
+    }
+}
@@ -1,21 +1,31 @@
 package app.djk.RestPdfFormFiller.functions;
 
+import app.djk.RestPdfFormFiller.Pdf.RestPdfApi;
 import com.microsoft.azure.functions.ExecutionContext;
 import com.microsoft.azure.functions.HttpRequestMessage;
 import com.microsoft.azure.functions.HttpResponseMessage;
 import com.microsoft.azure.functions.HttpStatus;
 import com.microsoft.azure.functions.HttpStatusType;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
+import java.io.ByteArrayInputStream;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import java.util.zip.ZipInputStream;
 
+import static app.djk.RestPdfFormFiller.TestPdfs.readSampleDa4187Pdf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
@@ -187,6 +197,20 @@ class HttpTriggerFunctionsTest {
         verify(responseMocks.builder()).body("Request field 'formData' must contain only a 'data' object.");
     }
 
+    @Test
+    void fillXfaDataReturnsBadRequestWhenBodyIsNestedTooDeep() {
+        final var function = new HttpTriggerFunctions();
+        final var invalidPayload = "{\"templateBase64\":\"dGVzdA==\",\"formData\":{\"data\":"
+                + "{\"g\":".repeat(1000) + "\"x\"" + "}".repeat(1003);
+        final var responseMocks = setupResponseMocks(Optional.of(invalidPayload), Map.of());
+
+        final var actualResponse = function.fillXfaData(responseMocks.request(), responseMocks.context());
+
+        assertSame(responseMocks.response(), actualResponse);
+        verify(responseMocks.request()).createResponseBuilder(HttpStatus.BAD_REQUEST);
+        verify(responseMocks.builder()).body("Request body is nested deeper than 102 levels.");
+    }
+
     @Test
     void fillXfaDataReturnsBadRequestWhenTemplateBase64IsBlank() {
         final var function = new HttpTriggerFunctions();
@@ -265,6 +289,25 @@ class HttpTriggerFunctionsTest {
         verify(responseMocks.builder()).body("Request field 'patchMode' must be one of the following strings: overwrite, ifEmpty, failOnConflict.");
     }
 
+    @Test
+    void fillXfaDataReturnsBadRequestWhenCompressionProfileIsInvalid() {
+        final var function = new HttpTriggerFunctions();
+        final var invalidPayload = """
+                {
+                    "templateBase64": "dGVzdA==",
+                    "formData": {"data": {}},
+                    "compressionProfile": "tiny"
+                }
+                """;
+        final var responseMocks = setupResponseMocks(Optional.of(invalidPayload), Map.of());
+
+        final var actualResponse = function.fillXfaData(responseMocks.request(), responseMocks.context());
+
+        assertSame(responseMocks.response(), actualResponse);
+        verify(responseMocks.request()).createResponseBuilder(HttpStatus.BAD_REQUEST);
+        verify(responseMocks.builder()).body("Request field 'compressionProfile' must be one of the following strings: fast, balanced, max, preserve.");
+    }
+
     @Test
     void fillXfaDataReturnsBadRequestWhenPatchModeSuppliedWithPut() {
         final var function = new HttpTriggerFunctions();
@@ -321,6 +364,47 @@ class HttpTriggerFunctionsTest {
                 .body("Write conflict at field 'form1/Page1/SSN': target already has a different value.");
     }
 
+    @Test
+    void fillXfaDataFillsFieldsOutsideTheTemplateUnlessValidationIsEnabled() throws Exception {
+        final var function = new HttpTriggerFunctions();
+        final var templateBase64 = Base64.getEncoder().encodeToString(readSampleDa4187Pdf());
+        final var requestBody = "{\"templateBase64\":\"" + templateBase64 + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"SNN\":\"999-99-9999\"}}}}}";
+        final var responseMocks = setupResponseMocks(Optional.of(requestBody), Map.of());
+
+        final var actualResponse = function.fillXfaData(responseMocks.request(), responseMocks.context());
+
+        assertSame(responseMocks.response(), actualResponse);
+        verify(responseMocks.request()).createResponseBuilder(HttpStatus.OK);
+    }
+
+    @Test
+    void fillXfaDataReturnsUnprocessableEntityListingFieldsThatBreakTheTemplate() throws Exception {
+        final var function = new HttpTriggerFunctions();
+        final var templateBase64 = Base64.getEncoder().encodeToString(readSampleDa4187Pdf());
+        final var requestBody = "{\"templateBase64\":\"" + templateBase64 + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"SNN\":\"999-99-9999\",\"group5\":\"9\"}}}},"
+                + "\"validateOnly\":true}";
+        final var responseMocks = setupResponseMocks(Optional.of(requestBody), Map.of());
+
+        System.setProperty("TEMPLATE_VALIDATION_ENABLED", "true");
+        final HttpResponseMessage actualResponse;
+        try {
+            actualResponse = function.fillXfaData(responseMocks.request(), responseMocks.context());
+        } finally {
+            System.clearProperty("TEMPLATE_VALIDATION_ENABLED");
+        }
+
+        assertSame(responseMocks.response(), actualResponse);
+        verify(responseMocks.request()).createResponseBuilder(HttpStatus.UNPROCESSABLE_ENTITY);
+        verify(responseMocks.builder()).header("Content-Type", "application/json");
+        verify(responseMocks.builder()).body("{\"message\":\"Form data does not match the template.\",\"errors\":["
+                + "{\"field\":\"form1/Page1/SNN\",\"rule\":\"unknownField\","
+                + "\"message\":\"is not a field of the template.\"},"
+                + "{\"field\":\"form1/Page1/group5\",\"rule\":\"choice\","
+                + "\"message\":\"is not one of the template's choices: 2, 0, 3, 4, 5, 6.\"}],\"truncated\":false}");
+    }
+
     @Test
     void fillXfaDataReturnsOkForPutReplace() throws Exception {
         final var function = new HttpTriggerFunctions();
@@ -336,24 +420,332 @@ class HttpTriggerFunctionsTest {
         verify(responseMocks.request()).createResponseBuilder(HttpStatus.OK);
     }
 
-    private static byte[] readSampleDa4187Pdf() throws Exception {
-        final var moduleRoot = Path.of("").toAbsolutePath();
-        final var sampleInRepoRoot = moduleRoot.resolve("../resources/DA4187/A4187.pdf").normalize();
-        final var sampleInModule = moduleRoot.resolve("resources/DA4187/A4187.pdf").normalize();
+    @Test
+    void fillXfaDataServesIdenticalRetryFromResultCache() throws Exception {
+        final var function = new HttpTriggerFunctions();
+        final var templateBase64 = Base64.getEncoder().encodeToString(readSampleDa4187Pdf());
+        final var requestBody = "{\"templateBase64\":\"" + templateBase64 + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"SSG\"}}}}}";
+
+        final var firstMocks = setupResponseMocks(Optional.of(requestBody), Map.of());
+        function.fillXfaData(firstMocks.request(), firstMocks.context());
+        final var retryMocks = setupResponseMocks(Optional.of(requestBody), Map.of());
+        function.fillXfaData(retryMocks.request(), retryMocks.context());
+
+        verify(retryMocks.request()).createResponseBuilder(HttpStatus.OK);
+        verify(retryMocks.builder()).header("X-Fill-Cache", "hit");
+    }
+
+    @Test
+    void fillXfaDataReportsTheCompressionProfileTheOutputWasWrittenWith() throws Exception {
+        final var function = new HttpTriggerFunctions();
+        final var templateBase64 = Base64.getEncoder().encodeToString(readSampleDa4187Pdf());
+        final var requestBody = "{\"templateBase64\":\"" + templateBase64 + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"max-" + System.nanoTime()
+                + "\"}}}},\"compressionProfile\":\"max\"}";
+        // The reader-extended sample cannot be appended to, so a preserve fill of it is rewritten.
+        final var preserveBody = requestBody.replace("\"max\"}", "\"preserve\"}");
+
+        final var firstMocks = setupResponseMocks(Optional.of(requestBody), Map.of());
+        function.fillXfaData(firstMocks.request(), firstMocks.context());
+        final var retryMocks = setupResponseMocks(Optional.of(requestBody), Map.of());
+        function.fillXfaData(retryMocks.request(), retryMocks.context());
+        final var preserveMocks = setupResponseMocks(Optional.of(preserveBody), Map.of());
+        function.fillXfaData(preserveMocks.request(), preserveMocks.context());
+
+        verify(firstMocks.builder()).header("X-Compression-Profile", "max");
+        verify(retryMocks.builder()).header("X-Fill-Cache", "hit");
+        verify(retryMocks.builder()).header("X-Compression-Profile", "max");
+        verify(preserveMocks.builder()).header("X-Compression-Profile", "balanced");
+    }
+
+    @Test
+    void fillXfaDataReturnsUnprocessableEntityWhenIdempotencyKeyIsReusedForDifferentRequest() throws Exception {
+        final var function = new HttpTriggerFunctions();
+        final var templateBase64 = Base64.getEncoder().encodeToString(readSampleDa4187Pdf());
+        final var headers = Map.of("idempotency-key", "key-" + System.nanoTime());
+        final var firstBody = "{\"templateBase64\":\"" + templateBase64 + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"SGT\"}}}}}";
+        final var secondBody = "{\"templateBase64\":\"" + templateBase64 + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"SFC\"}}}}}";
+
+        final var firstMocks = setupResponseMocks(Optional.of(firstBody), Map.of(), headers);
+        function.fillXfaData(firstMocks.request(), firstMocks.context());
+        final var secondMocks = setupResponseMocks(Optional.of(secondBody), Map.of(), headers);
+        final var actualResponse = function.fillXfaData(secondMocks.request(), secondMocks.context());
+
+        assertSame(secondMocks.response(), actualResponse);
+        verify(secondMocks.request()).createResponseBuilder(HttpStatus.UNPROCESSABLE_ENTITY);
+        verify(secondMocks.builder()).body("Idempotency-Key was already used with a different request.");
+    }
+
+    @Test
+    void failedFillLeavesIdempotencyKeyFreeForACorrectedRetry() throws Exception {
+        final var function = new HttpTriggerFunctions();
+        final var templateBase64 = Base64.getEncoder().encodeToString(readSampleDa4187Pdf());
+        final var headers = Map.of("idempotency-key", "key-" + System.nanoTime());
+        final var failingBody = "{\"templateBase64\":\"" + templateBase64 + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"999-99-9999\"}}}},"
+                + "\"patchMode\":\"failOnConflict\"}";
+        final var correctedBody = "{\"templateBase64\":\"" + templateBase64 + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"999-99-9999\"}}}}}";
+
+        final var failingMocks = setupResponseMocks(Optional.of(failingBody), Map.of(), headers);
+        function.fillXfaData(failingMocks.request(), failingMocks.context());
+        final var correctedMocks = setupResponseMocks(Optional.of(correctedBody), Map.of(), headers);
+        function.fillXfaData(correctedMocks.request(), correctedMocks.context());
+
+        verify(failingMocks.request()).createResponseBuilder(HttpStatus.CONFLICT);
+        verify(correctedMocks.request()).createResponseBuilder(HttpStatus.OK);
+    }
+
+    @Test
+    void idempotencyKeysAreScopedToTheCallersFunctionKey() throws Exception {
+        final var function = new HttpTriggerFunctions();
+        final var templateBase64 = Base64.getEncoder().encodeToString(readSampleDa4187Pdf());
+        final var key = "key-" + System.nanoTime();
+        final var firstBody = "{\"templateBase64\":\"" + templateBase64 + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"SGT\"}}}}}";
+        final var secondBody = "{\"templateBase64\":\"" + templateBase64 + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"SFC\"}}}}}";
+
+        final var firstMocks = setupResponseMocks(Optional.of(firstBody), Map.of(),
+                Map.of("idempotency-key", key, "x-functions-key", "caller-a"));
+        function.fillXfaData(firstMocks.request(), firstMocks.context());
+        final var secondMocks = setupResponseMocks(Optional.of(secondBody), Map.of("code", "caller-b"),
+                Map.of("idempotency-key", key));
+        function.fillXfaData(secondMocks.request(), secondMocks.context());
+
+        verify(firstMocks.request()).createResponseBuilder(HttpStatus.OK);
+        verify(secondMocks.request()).createResponseBuilder(HttpStatus.OK);
+    }
+
+    @Test
+    void fillXfaDataReturnsGatewayTimeoutWhenTheCallersDeadlinePasses() throws Exception {
+        final var function = new HttpTriggerFunctions();
+        final var templateBase64 = Base64.getEncoder().encodeToString(readSampleDa4187Pdf());
+        final var requestBody = "{\"templateBase64\":\"" + templateBase64 + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"deadline-" + System.nanoTime()
+                + "\"}}}}}";
+        final var responseMocks = setupResponseMocks(Optional.of(requestBody), Map.of(),
+                Map.of("x-request-timeout-ms", "1"));
+
+        final var actualResponse = function.fillXfaData(responseMocks.request(), responseMocks.context());
+
+        assertSame(responseMocks.response(), actualResponse);
+        verify(responseMocks.request()).createResponseBuilder(HttpStatus.GATEWAY_TIMEOUT);
+        verify(responseMocks.builder()).body("Request did not complete within its deadline of 1 ms.");
+    }
+
+    @Test
+    void requestsReturnBadRequestWhenTheTimeoutHeaderIsInvalid() {
+        final var function = new HttpTriggerFunctions();
+        final var responseMocks = setupResponseMocks(Optional.of("{}"), Map.of(),
+                Map.of("X-Request-Timeout-Ms", "soon"));
+
+        function.fillXfaData(responseMocks.request(), responseMocks.context());
+
+        verify(responseMocks.request()).createResponseBuilder(HttpStatus.BAD_REQUEST);
+        verify(responseMocks.builder())
+                .body("Header 'X-Request-Timeout-Ms' must be a positive number of milliseconds.");
+    }
+
+    @Test
+    void fillXfaDataPackageReturnsAZipOfTheFilledTemplatesInRequestOrder() throws Exception {
+        final var function = new HttpTriggerFunctions();
+        final var templateBase64 = Base64.getEncoder().encodeToString(readSampleDa4187Pdf());
+        final var requestBody = "{\"templates\":[{\"name\":\"DA4187.pdf\",\"templateBase64\":\"" + templateBase64
+                + "\"},{\"name\":\"DA4187-copy.pdf\",\"templateBase64\":\"" + templateBase64 + "\"}],"
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"SFC\"}}}}}";
+        final var responseMocks = setupResponseMocks(Optional.of(requestBody), Map.of());
+
+        function.fillXfaDataPackage(responseMocks.request(), responseMocks.context());
 
-        if (Files.exists(sampleInRepoRoot)) {
-            return Files.readAllBytes(sampleInRepoRoot);
+        verify(responseMocks.request()).createResponseBuilder(HttpStatus.OK);
+        verify(responseMocks.builder()).header("Content-Type", "application/zip");
+        final var body = ArgumentCaptor.forClass(Object.class);
+        verify(responseMocks.builder()).body(body.capture());
+        final var names = new ArrayList<String>();
+        try (final var zip = new ZipInputStream(new ByteArrayInputStream((byte[]) body.getValue()))) {
+            for (var entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                names.add(entry.getName());
+                assertTrue(RestPdfApi.getXfaDatasetNodeAsString(zip.readAllBytes()).contains("<GRADE>SFC</GRADE>"));
+            }
         }
-        if (Files.exists(sampleInModule)) {
-            return Files.readAllBytes(sampleInModule);
+        assertEquals(List.of("DA4187.pdf", "DA4187-copy.pdf"), names);
+    }
+
+    @Test
+    void fillXfaDataPackageReturnsBadRequestForATemplateNameWithAPath() {
+        final var function = new HttpTriggerFunctions();
+        final var requestBody = "{\"templates\":[{\"name\":\"../DA4187.pdf\",\"templateBase64\":\"dGVzdA==\"}],"
+                + "\"formData\":{\"data\":{}}}";
+        final var responseMocks = setupResponseMocks(Optional.of(requestBody), Map.of());
+
+        function.fillXfaDataPackage(responseMocks.request(), responseMocks.context());
+
+        verify(responseMocks.request()).createResponseBuilder(HttpStatus.BAD_REQUEST);
+        verify(responseMocks.builder()).body("Template names must be file names without path separators.");
+    }
+
+    @Test
+    void fillXfaDataMarksNoOpPatchAsUnchanged() throws Exception {
+        final var function = new HttpTriggerFunctions();
+        final var templateBytes = readSampleDa4187Pdf();
+        final var requestBody = "{\"templateBase64\":\"" + Base64.getEncoder().encodeToString(templateBytes) + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"SSN\":\"123-45-6789\"}}}}}";
+        final var responseMocks = setupResponseMocks(Optional.of(requestBody), Map.of());
+
+        function.fillXfaData(responseMocks.request(), responseMocks.context());
+
+        verify(responseMocks.request()).createResponseBuilder(HttpStatus.OK);
+        verify(responseMocks.builder()).header("X-Fill-Unchanged", "true");
+        verify(responseMocks.builder()).body(templateBytes);
+    }
+
+    @Test
+    void compareXfaDataReturnsChangedFieldPaths() throws Exception {
+        final var function = new HttpTriggerFunctions();
+        final var baseBytes = readSampleDa4187Pdf();
+        final var revisedBytes = RestPdfApi.fillXfaForm(baseBytes,
+                "{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"SSG\"}}}}");
+        final var requestBody = "{\"baseBase64\":\"" + Base64.getEncoder().encodeToString(baseBytes) + "\","
+                + "\"revisedBase64\":\"" + Base64.getEncoder().encodeToString(revisedBytes) + "\"}";
+        final var responseMocks = setupResponseMocks(Optional.of(requestBody), Map.of());
+
+        function.compareXfaData(responseMocks.request(), responseMocks.context());
+
+        verify(responseMocks.request()).createResponseBuilder(HttpStatus.OK);
+        verify(responseMocks.builder()).body("{\"changed\":[\"form1/Page1/GRADE\"],\"added\":[],\"removed\":[]}");
+    }
+
+    @Test
+    void compareXfaDataReturnsBadRequestWhenRevisedPdfIsMissing() {
+        final var function = new HttpTriggerFunctions();
+        final var responseMocks = setupResponseMocks(Optional.of("{\"baseBase64\":\"dGVzdA==\"}"), Map.of());
+
+        function.compareXfaData(responseMocks.request(), responseMocks.context());
+
+        verify(responseMocks.request()).createResponseBuilder(HttpStatus.BAD_REQUEST);
+        verify(responseMocks.builder()).body("Request field 'revisedBase64' must be a non-empty string.");
+    }
+
+    @Test
+    void indexedDocumentIsFoundByQueryWithoutItsValues() throws Exception {
+        final var function = new HttpTriggerFunctions();
+        final var pdfBytes = RestPdfApi.fillXfaForm(readSampleDa4187Pdf(),
+                "{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"CW2\"}}}}");
+        final var indexBody = "{\"documentId\":\"forms/indexed.pdf\","
+                + "\"documentBase64\":\"" + Base64.getEncoder().encodeToString(pdfBytes) + "\"}";
+        final var indexMocks = setupResponseMocks(Optional.of(indexBody), Map.of());
+
+        function.indexXfaData(indexMocks.request(), indexMocks.context());
+
+        verify(indexMocks.request()).createResponseBuilder(HttpStatus.OK);
+        final var ingestion = ArgumentCaptor.forClass(Object.class);
+        verify(indexMocks.builder()).body(ingestion.capture());
+        assertTrue(ingestion.getValue().toString().contains("\"outcome\":\"added\""));
+
+        final var queryMocks = setupResponseMocks(
+                Optional.of("{\"filters\":{\"form1/Page1/GRADE\":\"CW2\"},\"limit\":10}"), Map.of());
+        function.queryXfaData(queryMocks.request(), queryMocks.context());
+
+        verify(queryMocks.request()).createResponseBuilder(HttpStatus.OK);
+        final var result = ArgumentCaptor.forClass(Object.class);
+        verify(queryMocks.builder()).body(result.capture());
+        assertTrue(result.getValue().toString().startsWith(
+                "{\"total\":1,\"documents\":[{\"documentId\":\"forms/indexed.pdf\",\"hash\":"));
+        assertFalse(result.getValue().toString().contains("CW2"));
+    }
+
+    @Test
+    void queryXfaDataReturnsBadRequestWithoutFilters() {
+        final var function = new HttpTriggerFunctions();
+        final var responseMocks = setupResponseMocks(Optional.of("{\"filters\":{}}"), Map.of());
+
+        function.queryXfaData(responseMocks.request(), responseMocks.context());
+
+        verify(responseMocks.request()).createResponseBuilder(HttpStatus.BAD_REQUEST);
+        verify(responseMocks.builder()).body(
+                "Request field 'filters' must be an object with at least one field path.");
+    }
+
+    @Test
+    void submittedFillJobIsPolledUntilItsResultIsServed() throws Exception {
+        final var function = new HttpTriggerFunctions();
+        final var templateBase64 = Base64.getEncoder().encodeToString(readSampleDa4187Pdf());
+        final var requestBody = "{\"templateBase64\":\"" + templateBase64 + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"CPL\"}}}}}";
+        final var submitMocks = setupResponseMocks(Optional.of(requestBody), Map.of("code", "key 1"));
+        when(submitMocks.request().getUri()).thenReturn(URI.create("https://app.example/api/SubmitFillJob?code=key+1"));
+
+        function.submitFillJob(submitMocks.request(), submitMocks.context());
+
+        verify(submitMocks.request()).createResponseBuilder(HttpStatus.ACCEPTED);
+        final var location = ArgumentCaptor.forClass(String.class);
+        verify(submitMocks.builder()).header(eq("Location"), location.capture());
+        assertTrue(location.getValue().startsWith("https://app.example/api/GetFillJobResult?jobId="));
+        assertTrue(location.getValue().endsWith("&code=key+1"));
+        final var jobId = location.getValue().replaceAll(".*jobId=([0-9a-f]+).*", "$1");
+
+        final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (true) {
+            final var resultMocks = setupResponseMocks(Optional.<String>empty(), Map.of("jobId", jobId));
+            when(resultMocks.request().getUri())
+                    .thenReturn(URI.create("https://app.example/api/GetFillJobResult?jobId=" + jobId));
+            function.getFillJobResult(resultMocks.request(), resultMocks.context());
+            try {
+                verify(resultMocks.request()).createResponseBuilder(HttpStatus.OK);
+                verify(resultMocks.builder()).header("Content-Type", "application/pdf");
+                break;
+            } catch (AssertionError stillRunning) {
+                verify(resultMocks.request()).createResponseBuilder(HttpStatus.ACCEPTED);
+                assertTrue(System.nanoTime() < deadline, "fill job did not finish");
+                Thread.sleep(50);
+            }
         }
 
-        throw new IllegalStateException("Could not locate sample file A4187.pdf for tests.");
+        final var statusMocks = setupResponseMocks(Optional.<String>empty(), Map.of("jobId", jobId));
+        function.getFillJob(statusMocks.request(), statusMocks.context());
+        final var status = ArgumentCaptor.forClass(Object.class);
+        verify(statusMocks.builder()).body(status.capture());
+        assertTrue(status.getValue().toString().contains("\"status\":\"succeeded\""));
+        assertTrue(status.getValue().toString().contains("\"httpStatus\":200"));
+    }
+
+    @Test
+    void submitFillJobRejectsMalformedRequestsUpFront() {
+        final var function = new HttpTriggerFunctions();
+        final var responseMocks = setupResponseMocks(Optional.of("{\"templateBase64\":\"dGVzdA==\"}"), Map.of());
+
+        function.submitFillJob(responseMocks.request(), responseMocks.context());
+
+        verify(responseMocks.request()).createResponseBuilder(HttpStatus.BAD_REQUEST);
+        verify(responseMocks.builder()).body("Request field 'formData' must be a JSON object.");
+    }
+
+    @Test
+    void unknownFillJobIsNotFound() {
+        final var function = new HttpTriggerFunctions();
+        final var responseMocks = setupResponseMocks(Optional.<String>empty(),
+                Map.of("jobId", "0123456789abcdef0123456789abcdef"));
+
+        function.getFillJobResult(responseMocks.request(), responseMocks.context());
+
+        verify(responseMocks.request()).createResponseBuilder(HttpStatus.NOT_FOUND);
+        verify(responseMocks.builder()).body("Fill job not found.");
     }
 
     private static <T> ResponseMocks<T> setupResponseMocks(
             final Optional<T> body,
             final Map<String, String> queryParameters) {
+        return setupResponseMocks(body, queryParameters, Map.of());
+    }
+
+    private static <T> ResponseMocks<T> setupResponseMocks(
+            final Optional<T> body,
+            final Map<String, String> queryParameters,
+            final Map<String, String> headers) {
 
         @SuppressWarnings("unchecked")
         final var request = (HttpRequestMessage<Optional<T>>) mock(HttpRequestMessage.class);
@@ -364,7 +756,7 @@ class HttpTriggerFunctionsTest {
         when(context.getLogger()).thenReturn(Logger.getLogger("HttpTriggerFunctionsTest"));
         when(request.getBody()).thenReturn(body);
         when(request.getQueryParameters()).thenReturn(queryParameters);
-        when(request.getHeaders()).thenReturn(Map.of());
+        when(request.getHeaders()).thenReturn(headers);
 
         when(request.createResponseBuilder(any(HttpStatusType.class))).thenReturn(builder);
         when(request.createResponseBuilder(any(HttpStatus.class))).thenReturn(builder);
@@ -0,0 +1,45 @@
+package app.djk.RestPdfFormFiller.functions;
+
+import app.djk.RestPdfFormFiller.projectExceptions.ServerBusyException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RequestGovernorTest {
+
+    private static final long MIB = 1024 * 1024;
+
+    @Test
+    void admitReservesEstimatedMemoryAndCloseReturnsIt() {
+        final var governor = new RequestGovernor(100 * MIB, 8, MIB, 0, 5);
+
+        final var admission = governor.admit(2 * MIB);
+        assertEquals(84 * MIB, governor.availableBytes());
+
+        admission.close();
+        admission.close();
+        assertEquals(100 * MIB, governor.availableBytes());
+    }
+
+    @Test
+    void admitShedsRequestsThatDoNotFitWithinQueueTimeout() {
+        final var governor = new RequestGovernor(10 * MIB, 4, MIB, 10, 7);
+        final var first = governor.admit(2 * MIB);
+
+        final var busy = assertThrows(ServerBusyException.class, () -> governor.admit(2 * MIB));
+        assertEquals(7, busy.getRetryAfterSeconds());
+
+        first.close();
+        governor.admit(2 * MIB).close();
+    }
+
+    @Test
+    void admitCapsOversizedRequestsToTheWholeBudget() {
+        final var governor = new RequestGovernor(10 * MIB, 8, MIB, 0, 5);
+
+        final var admission = governor.admit(100 * MIB);
+        assertEquals(0, governor.availableBytes());
+        admission.close();
+    }
+}
@@ -0,0 +1,256 @@
+package app.djk.RestPdfFormFiller.functions;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import static app.djk.RestPdfFormFiller.TestPdfs.readSampleDa4187Pdf;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the storage-location endpoints through the Graph connector against a local stand-in for Graph and its token
+ * endpoint. The configured connector is resolved once per JVM, so this is the only test class that selects one.
+ */
+class StoredFormFunctionsTest {
+
+    private static final List<String> SETTINGS = List.of("STORAGE_CONNECTOR", "GRAPH_BASE_URL",
+            "GRAPH_AUTHORITY_HOST", "GRAPH_TENANT_ID", "GRAPH_CLIENT_ID", "GRAPH_CLIENT_SECRET",
+            "GRAPH_ALLOWED_DRIVES");
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Map<String, byte[]> ITEMS = new ConcurrentHashMap<>();
+    private static HttpServer server;
+
+    private final HttpTriggerFunctions function = new HttpTriggerFunctions();
+
+    @BeforeAll
+    static void startStub() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/t1/oauth2/v2.0/token", exchange ->
+                respond(exchange, 200, "{\"access_token\":\"token-1\",\"expires_in\":3600}".getBytes()));
+        server.createContext("/v1.0/", StoredFormFunctionsTest::driveItem);
+        server.start();
+
+        final var base = "http://localhost:" + server.getAddress().getPort();
+        System.setProperty("STORAGE_CONNECTOR", "graph");
+        System.setProperty("GRAPH_BASE_URL", base + "/v1.0");
+        System.setProperty("GRAPH_AUTHORITY_HOST", base);
+        System.setProperty("GRAPH_TENANT_ID", "t1");
+        System.setProperty("GRAPH_CLIENT_ID", "client-1");
+        System.setProperty("GRAPH_CLIENT_SECRET", "secret-1");
+        System.setProperty("GRAPH_ALLOWED_DRIVES", "d1");
+        ITEMS.put("template-1", readSampleDa4187Pdf());
+    }
+
+    @AfterAll
+    static void stopStub() {
+        SETTINGS.forEach(System::clearProperty);
+        server.stop(0);
+    }
+
+    @Test
+    void fillStoredXfaDataWritesTheFilledFormAndReturnsOnlyWhereItWent() throws Exception {
+        final var requestBody = "{\"templateLocation\":\"drives/d1/items/template-1\","
+                + "\"targetLocation\":\"drives/d1/items/filled-1\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"SSG\"}}}}}";
+        final var mocks = Mocks.of(requestBody, Map.of());
+
+        function.fillStoredXfaData(mocks.request(), mocks.context());
+
+        verify(mocks.request()).createResponseBuilder(HttpStatus.OK);
+        final var body = ArgumentCaptor.forClass(Object.class);
+        verify(mocks.builder()).body(body.capture());
+        final var stored = OBJECT_MAPPER.readTree(body.getValue().toString());
+        assertEquals("drives/d1/items/filled-1", stored.path("location").asString(""));
+        assertEquals(ITEMS.get("filled-1").length, stored.path("size").asLong());
+        assertFalse(stored.path("unchanged").asBoolean());
+        assertTrue(new String(ITEMS.get("filled-1"), 0, 5, StandardCharsets.ISO_8859_1).startsWith("%PDF"));
+
+        final var readBack = Mocks.of("{\"location\":\"drives/d1/items/filled-1\"}", Map.of("format", "json"));
+        function.getStoredXfaData(readBack.request(), readBack.context());
+        final var data = ArgumentCaptor.forClass(Object.class);
+        verify(readBack.builder()).body(data.capture());
+        assertTrue(data.getValue().toString().contains("\"SSG\""));
+    }
+
+    @Test
+    void anExistingTargetIsOnlyReplacedWhenTheRequestSaysSo() throws Exception {
+        ITEMS.put("filled-3", "%PDF-existing".getBytes(StandardCharsets.ISO_8859_1));
+        final var requestBody = "{\"templateLocation\":\"drives/d1/items/template-1\","
+                + "\"targetLocation\":\"drives/d1/items/filled-3\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"SSG\"}}}}";
+        final var kept = Mocks.of(requestBody + "}", Map.of());
+
+        function.fillStoredXfaData(kept.request(), kept.context());
+
+        verify(kept.request()).createResponseBuilder(HttpStatus.CONFLICT);
+        assertArrayEquals("%PDF-existing".getBytes(StandardCharsets.ISO_8859_1), ITEMS.get("filled-3"));
+
+        final var replaced = Mocks.of(requestBody + ",\"replaceExisting\":true}", Map.of());
+        function.fillStoredXfaData(replaced.request(), replaced.context());
+
+        verify(replaced.request()).createResponseBuilder(HttpStatus.OK);
+        assertTrue(ITEMS.get("filled-3").length > 1000);
+    }
+
+    @Test
+    void aRetriedIdempotencyKeyReturnsTheRecordedWriteAndCannotMoveToAnotherTarget() throws Exception {
+        final var formData = ",\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"SFC\"}}}}}";
+        final var requestBody = "{\"templateLocation\":\"drives/d1/items/template-1\","
+                + "\"targetLocation\":\"drives/d1/items/filled-4\"" + formData;
+        final var key = Map.of("Idempotency-Key", "stored-retry-1");
+        final var first = Mocks.of(requestBody, Map.of(), key);
+        function.fillStoredXfaData(first.request(), first.context());
+        final var firstBody = ArgumentCaptor.forClass(Object.class);
+        verify(first.builder()).body(firstBody.capture());
+        final var written = ITEMS.get("filled-4");
+
+        // The write succeeded but the caller timed out: the retry must not write again (that would be a 409).
+        final var retry = Mocks.of(requestBody, Map.of(), key);
+        function.fillStoredXfaData(retry.request(), retry.context());
+
+        verify(retry.request()).createResponseBuilder(HttpStatus.OK);
+        verify(retry.builder()).header("X-Fill-Cache", "hit");
+        verify(retry.builder()).body(firstBody.getValue());
+        assertSame(written, ITEMS.get("filled-4"));
+
+        final var elsewhere = Mocks.of(requestBody.replace("filled-4", "filled-5"), Map.of(), key);
+        function.fillStoredXfaData(elsewhere.request(), elsewhere.context());
+
+        verify(elsewhere.request()).createResponseBuilder(HttpStatus.UNPROCESSABLE_ENTITY);
+        assertFalse(ITEMS.containsKey("filled-5"));
+
+        final var replacing = Mocks.of(requestBody.replace("}}}}}", "}}}},\"replaceExisting\":true}"), Map.of(),
+                key);
+        function.fillStoredXfaData(replacing.request(), replacing.context());
+
+        verify(replacing.request()).createResponseBuilder(HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+
+    @Test
+    void locationsOutsideTheAllowedDrivesAreABadRequest() {
+        final var mocks = Mocks.of("{\"location\":\"drives/d2/items/template-1\"}", Map.of("format", "json"));
+
+        function.getStoredXfaData(mocks.request(), mocks.context());
+
+        verify(mocks.request()).createResponseBuilder(HttpStatus.BAD_REQUEST);
+        verify(mocks.builder()).body("Drive-item location is not in a drive this service may use.");
+    }
+
+    @Test
+    void missingTemplateIsNotFound() {
+        final var requestBody = "{\"templateLocation\":\"drives/d1/items/missing\","
+                + "\"targetLocation\":\"drives/d1/items/filled-2\",\"formData\":{\"data\":{}}}";
+        final var mocks = Mocks.of(requestBody, Map.of());
+
+        function.fillStoredXfaData(mocks.request(), mocks.context());
+
+        verify(mocks.request()).createResponseBuilder(HttpStatus.NOT_FOUND);
+        verify(mocks.builder()).body("Nothing found at storage location 'drives/d1/items/missing'.");
+        assertFalse(ITEMS.containsKey("filled-2"));
+    }
+
+    @Test
+    void invalidLocationIsABadRequest() {
+        final var mocks = Mocks.of("{\"location\":\"https://elsewhere/x.pdf\"}", Map.of("format", "json"));
+
+        function.getStoredXfaData(mocks.request(), mocks.context());
+
+        verify(mocks.request()).createResponseBuilder(HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Drive items by ID: a GET of the item returns its size, a GET of its content the stored bytes, and a PUT stores
+     * the body unless it must not replace an existing item. Only the stub's token is accepted.
+     */
+    private static void driveItem(final HttpExchange exchange) throws IOException {
+        if (!"Bearer token-1".equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            respond(exchange, 401, null);
+            return;
+        }
+        final var itemId = exchange.getRequestURI().getPath()
+                .replaceFirst("^/v1\\.0/drives/d1/items/([^/]+)(/content)?$", "$1");
+        final var query = String.valueOf(exchange.getRequestURI().getQuery());
+        if ("PUT".equals(exchange.getRequestMethod()) && query.contains("conflictBehavior=fail")
+                && ITEMS.containsKey(itemId)) {
+            respond(exchange, 409, null);
+        } else if ("PUT".equals(exchange.getRequestMethod())) {
+            try (final var in = exchange.getRequestBody()) {
+                ITEMS.put(itemId, in.readAllBytes());
+            }
+            respond(exchange, 200, ("{\"id\":\"" + itemId + "\",\"size\":" + ITEMS.get(itemId).length
+                    + ",\"parentReference\":{\"driveId\":\"d1\"}}").getBytes(StandardCharsets.UTF_8));
+        } else if (!exchange.getRequestURI().getPath().endsWith("/content")) {
+            final var content = ITEMS.get(itemId);
+            respond(exchange, content == null ? 404 : 200, content == null ? null
+                    : ("{\"size\":" + content.length + "}").getBytes(StandardCharsets.UTF_8));
+        } else {
+            final var content = ITEMS.get(itemId);
+            respond(exchange, content == null ? 404 : 200, content);
+        }
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final byte[] body)
+            throws IOException {
+        exchange.sendResponseHeaders(status, body == null ? -1 : body.length);
+        if (body != null) {
+            try (final var out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    private record Mocks(
+            HttpRequestMessage<Optional<String>> request,
+            ExecutionContext context,
+            HttpResponseMessage.Builder builder) {
+
+        static Mocks of(final String body, final Map<String, String> queryParameters) {
+            return of(body, queryParameters, Map.of());
+        }
+
+        static Mocks of(final String body, final Map<String, String> queryParameters,
+                        final Map<String, String> headers) {
+            @SuppressWarnings("unchecked")
+            final var request = (HttpRequestMessage<Optional<String>>) mock(HttpRequestMessage.class);
+            final var context = mock(ExecutionContext.class);
+            final var builder = mock(HttpResponseMessage.Builder.class);
+
+            when(context.getLogger()).thenReturn(Logger.getLogger("StoredFormFunctionsTest"));
+            when(request.getBody()).thenReturn(Optional.of(body));
+            when(request.getQueryParameters()).thenReturn(queryParameters);
+            when(request.getHeaders()).thenReturn(headers);
+            when(request.createResponseBuilder(any(HttpStatus.class))).thenReturn(builder);
+            when(builder.body(any())).thenReturn(builder);
+            when(builder.header(any(), any())).thenReturn(builder);
+            when(builder.build()).thenReturn(mock(HttpResponseMessage.class));
+            return new Mocks(request, context, builder);
+        }
+    }
+}
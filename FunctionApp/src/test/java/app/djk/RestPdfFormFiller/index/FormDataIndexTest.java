@@ -0,0 +1,139 @@
+package app.djk.RestPdfFormFiller.index;
+
+import app.djk.RestPdfFormFiller.Pdf.RestPdfApi;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import static app.djk.RestPdfFormFiller.TestPdfs.readSampleDa4187Pdf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FormDataIndexTest {
+
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2026-01-31T12:00:00Z"), ZoneOffset.UTC);
+
+    @Test
+    void documentsAreFoundByTheirFieldValues() throws Exception {
+        final var index = new FormDataIndex(null, null, CLOCK);
+        index.ingest("a.pdf", fill("SGT", "NEWORG"));
+        index.ingest("b.pdf", fill("SGT", "OLDORG"));
+        index.ingest("c.pdf", fill("CPL", "NEWORG"));
+
+        assertEquals(List.of("a.pdf", "b.pdf"), ids(index.query(Map.of("form1/Page1/GRADE", "SGT"), 10)));
+        assertEquals(List.of("a.pdf"), ids(index.query(
+                Map.of("form1/Page1/GRADE", " SGT ", "form1/Page2/ORG_C", "NEWORG"), 10)));
+        assertEquals(List.of(), ids(index.query(Map.of("form1/Page1/GRADE", "SSG"), 10)));
+        assertEquals(List.of(), ids(index.query(Map.of("form1/Page9/GRADE", "SGT"), 10)));
+
+        final var limited = index.query(Map.of("form1/Page2/ORG_C", "NEWORG"), 1);
+        assertEquals(2, limited.total());
+        assertEquals(List.of("a.pdf"), ids(limited));
+        assertEquals(CLOCK.instant(), limited.documents().getFirst().indexedAt());
+    }
+
+    @Test
+    void reingestionParsesOnlyChangedDocuments() throws Exception {
+        final var index = new FormDataIndex(null, null, CLOCK);
+        final var sgt = fill("SGT", "NEWORG");
+
+        final var added = index.ingest("a.pdf", sgt);
+        assertEquals(FormDataIndex.Outcome.ADDED, added.outcome());
+        assertTrue(added.fields() > 0);
+        assertEquals(FormDataIndex.Outcome.UNCHANGED, index.ingest("a.pdf", sgt).outcome());
+
+        assertEquals(FormDataIndex.Outcome.UPDATED, index.ingest("a.pdf", fill("CPL", "NEWORG")).outcome());
+        assertEquals(List.of(), ids(index.query(Map.of("form1/Page1/GRADE", "SGT"), 10)));
+        assertEquals(List.of("a.pdf"), ids(index.query(Map.of("form1/Page1/GRADE", "CPL"), 10)));
+
+        assertTrue(index.remove("a.pdf"));
+        assertFalse(index.remove("a.pdf"));
+        assertEquals(0, index.size());
+        assertEquals(List.of(), ids(index.query(Map.of("form1/Page1/GRADE", "CPL"), 10)));
+    }
+
+    @Test
+    void pdfsWithoutXfaDataAreRejected() throws Exception {
+        final var index = new FormDataIndex(null, null, CLOCK);
+
+        assertThrows(IOException.class, () -> index.ingest("a.pdf", "%PDF-1.4 not really".getBytes(
+                StandardCharsets.US_ASCII)));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void indexIsRebuiltFromItsLogSkippingATornRecord(@TempDir final Path directory) throws Exception {
+        final var sgt = fill("SGT", "NEWORG");
+        try (final var index = new FormDataIndex(directory, null, CLOCK)) {
+            index.ingest("a.pdf", sgt);
+            index.ingest("b.pdf", fill("SGT", "OLDORG"));
+            index.remove("b.pdf");
+        }
+        Files.writeString(directory.resolve("form-data-index.jsonl"), "{\"op\":\"put\",\"documentId\":\"c.p",
+                StandardOpenOption.APPEND);
+
+        try (final var reopened = new FormDataIndex(directory, null, CLOCK)) {
+            assertEquals(1, reopened.size());
+            assertEquals(List.of("a.pdf"), ids(reopened.query(Map.of("form1/Page1/GRADE", "SGT"), 10)));
+            assertEquals(FormDataIndex.Outcome.UNCHANGED, reopened.ingest("a.pdf", sgt).outcome());
+        }
+    }
+
+    @Test
+    void logKeepsNoFieldValuesAndIsOnlyReadUnderItsKey(@TempDir final Path directory) throws Exception {
+        final var sgt = fill("SGT", "NEWORG");
+        try (final var index = new FormDataIndex(directory, "first key", CLOCK)) {
+            index.ingest("a.pdf", sgt);
+        }
+
+        final var log = Files.readString(directory.resolve("form-data-index.jsonl"));
+        assertFalse(log.contains("SGT"));
+        assertFalse(log.contains("NEWORG"));
+        assertFalse(log.contains("GRADE"));
+        try (final var sameKey = new FormDataIndex(directory, "first key", CLOCK)) {
+            assertEquals(List.of("a.pdf"), ids(sameKey.query(Map.of("form1/Page1/GRADE", "SGT"), 10)));
+        }
+        try (final var otherKey = new FormDataIndex(directory, "second key", CLOCK)) {
+            assertEquals(0, otherKey.size());
+            assertEquals(FormDataIndex.Outcome.ADDED, otherKey.ingest("a.pdf", sgt).outcome());
+        }
+    }
+
+    @Test
+    void logIsCompactedOnceMostOfItIsSuperseded(@TempDir final Path directory) throws Exception {
+        final var log = directory.resolve("form-data-index.jsonl");
+        try (final var index = new FormDataIndex(directory, null, CLOCK)) {
+            final var sgt = fill("SGT", "NEWORG");
+            final var cpl = fill("CPL", "NEWORG");
+            for (var i = 0; i < 5; i++) {
+                index.ingest("a.pdf", i % 2 == 0 ? sgt : cpl);
+            }
+            assertTrue(Files.readAllLines(log).size() <= 2 * (index.size() + 1));
+        }
+
+        try (final var reopened = new FormDataIndex(directory, null, CLOCK)) {
+            assertEquals(List.of("a.pdf"), ids(reopened.query(Map.of("form1/Page1/GRADE", "SGT"), 10)));
+        }
+    }
+
+    private static List<String> ids(final FormDataIndex.QueryResult result) {
+        return result.documents().stream().map(FormDataIndex.Match::documentId).toList();
+    }
+
+    private static byte[] fill(final String grade, final String organization) throws Exception {
+        return RestPdfApi.fillXfaForm(readSampleDa4187Pdf(), "{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\""
+                + grade + "\"},\"Page2\":{\"ORG_C\":\"" + organization + "\"}}}}");
+    }
+}
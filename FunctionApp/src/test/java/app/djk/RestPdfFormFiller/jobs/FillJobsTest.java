@@ -0,0 +1,196 @@
+package app.djk.RestPdfFormFiller.jobs;
+
+import app.djk.RestPdfFormFiller.projectExceptions.IdempotencyKeyReuseException;
+import app.djk.RestPdfFormFiller.projectExceptions.ServerBusyException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FillJobsTest {
+
+    private static final byte[] REQUEST = "{\"templateBase64\":\"x\"}".getBytes();
+    private static final byte[] PDF = "%PDF-filled".getBytes();
+
+    private final Clock clock = Clock.fixed(Instant.parse("2026-01-01T00:00:00Z"), ZoneOffset.UTC);
+    private final InMemoryJobQueue queue = new InMemoryJobQueue();
+    private final LocalJobStore store = new LocalJobStore(null, Duration.ofHours(1), clock);
+    private final FillJobs jobs = new FillJobs(queue, store, clock, 3, Duration.ofMinutes(5), Duration.ofMillis(10));
+
+    @Test
+    void submittedJobIsQueuedThenProcessedToItsResult() throws IOException {
+        final var submitted = jobs.submit(REQUEST, null);
+        assertEquals(FillJobStatus.State.QUEUED, submitted.state());
+        assertTrue(jobs.result(submitted.jobId()).isEmpty());
+
+        processNext(request -> {
+            assertArrayEquals(REQUEST, request);
+            return FillJobs.Outcome.succeeded(PDF, "miss", false, "balanced");
+        });
+
+        final var status = jobs.status(submitted.jobId()).orElseThrow();
+        assertEquals(FillJobStatus.State.SUCCEEDED, status.state());
+        assertEquals(200, status.httpStatus());
+        assertEquals(1, status.attempts());
+        assertEquals("miss", status.cacheStatus());
+        assertEquals("balanced", status.compressionProfile());
+        assertEquals(clock.instant(), status.completedAt());
+        assertArrayEquals(PDF, jobs.result(submitted.jobId()).orElseThrow());
+        assertTrue(store.get(submitted.jobId() + "/request.json").isEmpty());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void failedFillIsRecordedWithItsStatusAndMessage() throws IOException {
+        final var submitted = jobs.submit(REQUEST, null);
+
+        processNext(request -> FillJobs.Outcome.failed(400, "Invalid XFA form."));
+
+        final var status = jobs.status(submitted.jobId()).orElseThrow();
+        assertEquals(FillJobStatus.State.FAILED, status.state());
+        assertEquals(400, status.httpStatus());
+        assertEquals("Invalid XFA form.", status.error());
+        assertTrue(jobs.result(submitted.jobId()).isEmpty());
+    }
+
+    @Test
+    void unexpectedExceptionFailsTheJobWithAGenericMessage() throws IOException {
+        final var submitted = jobs.submit(REQUEST, null);
+
+        processNext(request -> {
+            throw new IllegalStateException("internal detail");
+        });
+
+        final var status = jobs.status(submitted.jobId()).orElseThrow();
+        assertEquals(500, status.httpStatus());
+        assertEquals("Request failed.", status.error());
+    }
+
+    @Test
+    void sameIdempotencyKeyAndRequestReturnsTheExistingJob() throws IOException {
+        final var first = jobs.submit(REQUEST, "key-1");
+        final var second = jobs.submit(REQUEST, "key-1");
+
+        assertEquals(first, second);
+        assertEquals(1, queue.size());
+        assertNotEquals(first.jobId(), jobs.submit(REQUEST, "key-2").jobId());
+    }
+
+    @Test
+    void idempotencyKeyCannotBeReusedForADifferentRequest() throws IOException {
+        jobs.submit(REQUEST, "key-1");
+
+        assertThrows(IdempotencyKeyReuseException.class, () -> jobs.submit("{}".getBytes(), "key-1"));
+    }
+
+    @Test
+    void busyInstanceRequeuesTheJobUntilAttemptsRunOut() throws IOException {
+        final var submitted = jobs.submit(REQUEST, null);
+        final FillJobs.Processor busy = request -> {
+            throw new ServerBusyException(0);
+        };
+
+        processNext(busy);
+        assertEquals(FillJobStatus.State.QUEUED, jobs.status(submitted.jobId()).orElseThrow().state());
+        assertEquals(1, queue.size());
+
+        processNext(busy);
+        processNext(busy);
+        final var status = jobs.status(submitted.jobId()).orElseThrow();
+        assertEquals(FillJobStatus.State.FAILED, status.state());
+        assertEquals(503, status.httpStatus());
+        assertEquals(3, status.attempts());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void jobWhoseAttemptsAllDiedIsFailed() throws IOException {
+        final var submitted = jobs.submit(REQUEST, null);
+        final var calls = new AtomicInteger();
+        // A worker that dies leaves the job running; the message reappears and the job is picked up again.
+        for (var i = 0; i < 3; i++) {
+            final var message = queue.receive(Duration.ZERO, Duration.ZERO).orElseThrow();
+            assertThrows(OutOfMemoryError.class, () -> jobs.process(message.text(), request -> {
+                calls.incrementAndGet();
+                throw new OutOfMemoryError();
+            }));
+        }
+
+        processNext(request -> {
+            calls.incrementAndGet();
+            return FillJobs.Outcome.succeeded(PDF, null, false, "balanced");
+        });
+
+        assertEquals(3, calls.get());
+        final var status = jobs.status(submitted.jobId()).orElseThrow();
+        assertEquals(FillJobStatus.State.FAILED, status.state());
+        assertEquals(500, status.httpStatus());
+    }
+
+    @Test
+    void finishedJobIsNotProcessedAgain() throws IOException {
+        final var submitted = jobs.submit(REQUEST, null);
+        processNext(request -> FillJobs.Outcome.succeeded(PDF, null, false, "balanced"));
+
+        jobs.process(submitted.jobId(), request -> {
+            throw new AssertionError("processed twice");
+        });
+
+        assertEquals(FillJobStatus.State.SUCCEEDED, jobs.status(submitted.jobId()).orElseThrow().state());
+    }
+
+    @Test
+    void malformedJobIdsAreNotFound() throws IOException {
+        assertTrue(jobs.status("../../etc/passwd").isEmpty());
+        assertTrue(jobs.status(null).isEmpty());
+        assertTrue(jobs.result("0123456789abcdef0123456789abcdef").isEmpty());
+    }
+
+    @Test
+    void workersProcessSubmittedJobs() throws Exception {
+        final var done = new CountDownLatch(2);
+        jobs.startWorkers(2, request -> {
+            done.countDown();
+            return FillJobs.Outcome.succeeded(PDF, null, false, "balanced");
+        });
+        try {
+            final var first = jobs.submit(REQUEST, null);
+            final var second = jobs.submit(REQUEST, null);
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            waitUntilFinished(first.jobId());
+            waitUntilFinished(second.jobId());
+            assertArrayEquals(PDF, jobs.result(first.jobId()).orElseThrow());
+        } finally {
+            jobs.stopWorkers();
+        }
+    }
+
+    private void processNext(final FillJobs.Processor processor) throws IOException {
+        // A zero visibility timeout makes a requeued message (whose delay is zero here) immediately receivable.
+        final var message = queue.receive(Duration.ZERO, Duration.ZERO).orElseThrow();
+        jobs.process(message.text(), processor);
+        queue.delete(message);
+    }
+
+    private void waitUntilFinished(final String jobId) throws Exception {
+        final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!jobs.status(jobId).orElseThrow().finished()) {
+            assertFalse(System.nanoTime() > deadline, "job did not finish");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package app.djk.RestPdfFormFiller.jobs;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryJobQueueTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final InMemoryJobQueue queue = new InMemoryJobQueue(nanos::get);
+
+    @Test
+    void receivedMessageReappearsAfterItsVisibilityTimeoutUnlessDeleted() {
+        queue.send("job-1", Duration.ZERO);
+
+        final var first = queue.receive(Duration.ofSeconds(30), Duration.ZERO).orElseThrow();
+        assertEquals("job-1", first.text());
+        assertEquals(1, first.dequeueCount());
+        assertTrue(queue.receive(Duration.ofSeconds(30), Duration.ZERO).isEmpty());
+
+        nanos.addAndGet(Duration.ofSeconds(31).toNanos());
+        final var second = queue.receive(Duration.ofSeconds(30), Duration.ZERO).orElseThrow();
+        assertEquals(2, second.dequeueCount());
+
+        // The first receipt went stale when the message was received again.
+        queue.delete(first);
+        assertEquals(1, queue.size());
+        queue.delete(second);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void delayedMessageIsInvisibleUntilItsDelayHasPassed() {
+        queue.send("job-1", Duration.ofSeconds(5));
+        assertTrue(queue.receive(Duration.ofSeconds(30), Duration.ZERO).isEmpty());
+
+        nanos.addAndGet(Duration.ofSeconds(5).toNanos());
+        assertEquals("job-1", queue.receive(Duration.ofSeconds(30), Duration.ZERO).orElseThrow().text());
+    }
+
+    @Test
+    void receiveWaitsForAMessageSentWhileWaiting() throws Exception {
+        final var realQueue = new InMemoryJobQueue();
+        final var sender = Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            realQueue.send("job-1", Duration.ZERO);
+        });
+
+        assertEquals("job-1", realQueue.receive(Duration.ofSeconds(30), Duration.ofSeconds(10)).orElseThrow().text());
+        sender.join();
+    }
+}
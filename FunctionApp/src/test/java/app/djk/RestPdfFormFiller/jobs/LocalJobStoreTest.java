@@ -0,0 +1,99 @@
+package app.djk.RestPdfFormFiller.jobs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalJobStoreTest {
+
+    private final AdjustableClock clock = new AdjustableClock();
+
+    @Test
+    void heapValuesExpireAfterTheRetentionPeriod() throws IOException {
+        final var store = new LocalJobStore(null, Duration.ofMinutes(10), clock);
+        store.put("job/status.json", new byte[]{1});
+
+        clock.advance(Duration.ofMinutes(9));
+        assertArrayEquals(new byte[]{1}, store.get("job/status.json").orElseThrow());
+
+        clock.advance(Duration.ofMinutes(2));
+        assertTrue(store.get("job/status.json").isEmpty());
+    }
+
+    @Test
+    void fileValuesAreReplacedDeletedAndSwept(@TempDir final Path directory) throws IOException {
+        final var store = new LocalJobStore(directory, Duration.ofMinutes(10), clock);
+        store.put("job-1/result.pdf", new byte[]{1});
+        store.put("job-1/result.pdf", new byte[]{2});
+        store.put("job-2/result.pdf", new byte[]{3});
+
+        assertArrayEquals(new byte[]{2}, store.get("job-1/result.pdf").orElseThrow());
+        assertEquals(List.of("job-1_result.pdf", "job-2_result.pdf"), fileNames(directory));
+
+        store.delete("job-2/result.pdf");
+        assertTrue(store.get("job-2/result.pdf").isEmpty());
+
+        // Files carry their modification time, so the file is aged rather than the clock moved.
+        Files.setLastModifiedTime(directory.resolve("job-1_result.pdf"),
+                FileTime.from(clock.instant().minus(Duration.ofMinutes(11))));
+        assertTrue(store.get("job-1/result.pdf").isEmpty());
+        // Sweeps run at most once per tenth of the retention period.
+        clock.advance(Duration.ofMinutes(2));
+        store.put("job-3/result.pdf", new byte[]{4});
+        assertEquals(List.of("job-3_result.pdf"), fileNames(directory));
+    }
+
+    @Test
+    void keysThatCouldLeaveTheDirectoryAreRefused(@TempDir final Path directory) {
+        final var store = new LocalJobStore(directory, Duration.ofMinutes(10), clock);
+        for (final var key : List.of("../outside", "/etc/passwd", "a/../../b", "a\\b", "", "a//b")) {
+            assertThrows(IllegalArgumentException.class, () -> store.put(key, new byte[]{1}), key);
+        }
+        assertFalse(Files.exists(directory.resolveSibling("outside")));
+    }
+
+    private static List<String> fileNames(final Path directory) throws IOException {
+        try (final var files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private static final class AdjustableClock extends Clock {
+        private Duration offset = Duration.ZERO;
+
+        void advance(final Duration duration) {
+            offset = offset.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.now().plus(offset);
+        }
+    }
+}
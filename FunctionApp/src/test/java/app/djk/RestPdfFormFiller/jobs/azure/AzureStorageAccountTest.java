@@ -0,0 +1,207 @@
+package app.djk.RestPdfFormFiller.jobs.azure;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the queue and blob backends against a local stand-in for the Azure Storage REST API.
+ */
+class AzureStorageAccountTest {
+
+    private static final byte[] KEY = "test-account-key".getBytes(StandardCharsets.UTF_8);
+
+    private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+    private final Map<String, String> messages = new LinkedHashMap<>();
+    private final List<String> authorizations = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextMessageId = new AtomicInteger();
+    private volatile boolean queueCreated;
+    private volatile boolean containerCreated;
+    private HttpServer server;
+    private AzureStorageAccount account;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/queue/", this::queue);
+        server.createContext("/blob/", this::blob);
+        server.start();
+        final var base = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+        account = new AzureStorageAccount(HttpClient.newHttpClient(), "acct", base + "/blob/", base + "/queue",
+                KEY, null, Duration.ofSeconds(10), Clock.systemUTC());
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    void queueIsCreatedOnFirstSendAndMessagesRoundTrip() throws IOException {
+        final var queue = account.queue("fill-jobs");
+        assertTrue(queue.receive(Duration.ofSeconds(30), Duration.ZERO).isEmpty());
+
+        queue.send("0123456789abcdef", Duration.ZERO);
+
+        assertTrue(queueCreated);
+        final var message = queue.receive(Duration.ofSeconds(30), Duration.ZERO).orElseThrow();
+        assertEquals("0123456789abcdef", message.text());
+        assertEquals(1, message.dequeueCount());
+
+        queue.delete(message);
+        queue.delete(message);
+        assertTrue(messages.isEmpty());
+        assertTrue(authorizations.stream().allMatch(authorization -> authorization.startsWith("SharedKey acct:")));
+    }
+
+    @Test
+    void containerIsCreatedOnFirstPutAndBlobsRoundTrip() throws IOException {
+        final var store = account.container("fill-jobs");
+        assertTrue(store.get("job/status.json").isEmpty());
+
+        store.put("job/status.json", "{}".getBytes());
+
+        assertTrue(containerCreated);
+        assertArrayEquals("{}".getBytes(), store.get("job/status.json").orElseThrow());
+        store.delete("job/status.json");
+        store.delete("job/status.json");
+        assertTrue(store.get("job/status.json").isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> store.put("../other-container/blob", new byte[1]));
+    }
+
+    @Test
+    void unexpectedStatusIsAnIOException() {
+        final var store = account.container("forbidden");
+
+        assertThrows(IOException.class, () -> store.get("job/status.json"));
+    }
+
+    @Test
+    void sharedKeySignatureCoversHeadersPathAndSortedQuery() throws Exception {
+        final var fixed = new AzureStorageAccount(HttpClient.newHttpClient(), "acct", "https://acct.blob",
+                "https://acct.queue", KEY, null, Duration.ofSeconds(10),
+                Clock.fixed(Instant.EPOCH, ZoneOffset.UTC));
+        final var headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(Map.of("Content-Type", "application/xml", "x-ms-version", "2021-08-06",
+                "x-ms-date", "Thu, 01 Jan 1970 00:00:00 GMT"));
+
+        final var signature = fixed.sign("POST", URI.create("https://acct.queue/fill-jobs/messages?b=2&a=1"),
+                Map.of("b", "2", "a", "1"), headers, 42);
+
+        final var expected = "POST\n\n\n42\n\napplication/xml\n\n\n\n\n\n\n"
+                + "x-ms-date:Thu, 01 Jan 1970 00:00:00 GMT\nx-ms-version:2021-08-06\n"
+                + "/acct/fill-jobs/messages\na:1\nb:2";
+        final var mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(KEY, "HmacSHA256"));
+        assertEquals(Base64.getEncoder().encodeToString(mac.doFinal(expected.getBytes(StandardCharsets.UTF_8))),
+                signature);
+    }
+
+    @Test
+    void developmentStorageConnectionStringUsesTheEmulator() {
+        final var emulator = AzureStorageAccount.fromConnectionString(HttpClient.newHttpClient(),
+                "UseDevelopmentStorage=true", Duration.ofSeconds(10));
+
+        assertEquals("http://127.0.0.1:10000/devstoreaccount1", emulator.blobEndpoint());
+        assertEquals("http://127.0.0.1:10001/devstoreaccount1", emulator.queueEndpoint());
+        assertThrows(IllegalStateException.class, () -> AzureStorageAccount.fromConnectionString(
+                HttpClient.newHttpClient(), "AccountName=acct;SharedAccessSignature=sv=1", Duration.ofSeconds(10)));
+    }
+
+    private void queue(final HttpExchange exchange) throws IOException {
+        authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+        final var path = exchange.getRequestURI().getPath();
+        final var method = exchange.getRequestMethod();
+        synchronized (messages) {
+            if (path.equals("/queue/fill-jobs") && method.equals("PUT")) {
+                queueCreated = true;
+                respond(exchange, 201, null);
+            } else if (!queueCreated) {
+                respond(exchange, 404, null);
+            } else if (path.equals("/queue/fill-jobs/messages") && method.equals("POST")) {
+                final var body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                final var text = body.substring(body.indexOf("<MessageText>") + 13, body.indexOf("</MessageText>"));
+                messages.put("m" + nextMessageId.incrementAndGet(), text);
+                respond(exchange, 201, null);
+            } else if (path.equals("/queue/fill-jobs/messages") && method.equals("GET")) {
+                final var xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?><QueueMessagesList>");
+                messages.entrySet().stream().findFirst().ifPresent(entry -> xml
+                        .append("<QueueMessage><MessageId>").append(entry.getKey())
+                        .append("</MessageId><PopReceipt>receipt-").append(entry.getKey())
+                        .append("</PopReceipt><DequeueCount>1</DequeueCount><MessageText>")
+                        .append(entry.getValue()).append("</MessageText></QueueMessage>"));
+                respond(exchange, 200, xml.append("</QueueMessagesList>").toString().getBytes());
+            } else if (path.startsWith("/queue/fill-jobs/messages/") && method.equals("DELETE")) {
+                final var id = path.substring(path.lastIndexOf('/') + 1);
+                final var receiptMatches = exchange.getRequestURI().getQuery().equals("popreceipt=receipt-" + id);
+                respond(exchange, receiptMatches && messages.remove(id) != null ? 204 : 404, null);
+            } else {
+                respond(exchange, 400, null);
+            }
+        }
+    }
+
+    private void blob(final HttpExchange exchange) throws IOException {
+        authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+        final var path = exchange.getRequestURI().getPath();
+        final var method = exchange.getRequestMethod();
+        if (path.startsWith("/blob/forbidden")) {
+            respond(exchange, 403, null);
+        } else if (path.equals("/blob/fill-jobs") && method.equals("PUT")
+                && "restype=container".equals(exchange.getRequestURI().getQuery())) {
+            containerCreated = true;
+            respond(exchange, 201, null);
+        } else if (method.equals("PUT")) {
+            final var blobType = exchange.getRequestHeaders().getFirst("x-ms-blob-type");
+            if (!containerCreated) {
+                respond(exchange, 404, null);
+            } else {
+                blobs.put(path, exchange.getRequestBody().readAllBytes());
+                respond(exchange, "BlockBlob".equals(blobType) ? 201 : 400, null);
+            }
+        } else if (method.equals("GET")) {
+            final var content = blobs.get(path);
+            respond(exchange, content == null ? 404 : 200, content);
+        } else if (method.equals("DELETE")) {
+            respond(exchange, blobs.remove(path) != null ? 202 : 404, null);
+        } else {
+            respond(exchange, 400, null);
+        }
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body == null ? -1 : body.length);
+        if (body != null) {
+            exchange.getResponseBody().write(body);
+        }
+        exchange.close();
+    }
+}
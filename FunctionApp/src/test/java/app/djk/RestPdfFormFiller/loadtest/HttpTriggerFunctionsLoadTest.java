@@ -0,0 +1,108 @@
+package app.djk.RestPdfFormFiller.loadtest;
+
+import app.djk.RestPdfFormFiller.Pdf.DataFormatter;
+import app.djk.RestPdfFormFiller.Pdf.RestPdfApi;
+import app.djk.RestPdfFormFiller.functions.HttpTriggerFunctions;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import static app.djk.RestPdfFormFiller.TestPdfs.readSampleDa4187Pdf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Throughput, tail-latency and memory test of the HTTP functions, invoked in-process against the sample DA 4187.
+ * <p>
+ * Tagged <code>load</code> and excluded from the default build; run it with <code>mvn test -Pload-test</code>, as
+ * CI does on every pull request. A run fails if any request fails, or if allocation per request regresses
+ * beyond <code>loadtest.maxRegressionPercent</code> against the committed baseline; latency and throughput are
+ * only reported, in <code>target/loadtest</code>. It fails outright if there is no baseline to compare with: a gate
+ * that quietly records its own reference never fires. <code>-Dloadtest.writeBaseline=true</code> replaces the
+ * baseline with the run's figures, to be reviewed and committed. See {@link LoadTestConfig} for the other knobs.
+ */
+@Tag("load")
+class HttpTriggerFunctionsLoadTest {
+
+    private static final Logger LOGGER = Logger.getLogger(HttpTriggerFunctionsLoadTest.class.getName());
+
+    @BeforeAll
+    static void disableFillResultCache() {
+        // Every fill scenario repeats an identical request, which the result cache would otherwise answer without
+        // doing any work. This must run before HttpTriggerFunctions is initialized, which is why the load tests run
+        // in their own Surefire invocation.
+        System.setProperty("FILL_CACHE_MAX_BYTES", "0");
+    }
+
+    @Test
+    void mixedWorkloadDoesNotRegressAgainstBaseline() throws Exception {
+        final var config = LoadTestConfig.fromSystemProperties();
+        final var report = new LoadTestHarness(config, scenarios(readSampleDa4187Pdf())).run();
+        LOGGER.info(report::summary);
+        report.write(Path.of("target", "loadtest", "report.json"));
+
+        assertEquals(0, report.totalErrors(), "Requests failed under load:\n" + report.summary());
+
+        if (config.writeBaseline()) {
+            report.write(config.baseline());
+            LOGGER.info(() -> "Load-test baseline written to " + config.baseline().toAbsolutePath());
+            return;
+        }
+        assertTrue(Files.exists(config.baseline()), () -> "No load-test baseline at "
+                + config.baseline().toAbsolutePath() + "; record one with -Dloadtest.writeBaseline=true.");
+        final var baseline = LoadTestReport.read(config.baseline());
+        final var timing = String.join("\n", report.timingAgainst(baseline));
+        LOGGER.info(() -> "Timing against the baseline (reported, not gated):\n" + timing);
+        Files.writeString(Path.of("target", "loadtest", "timing-vs-baseline.txt"), timing);
+        final var regressions = report.regressionsAgainst(baseline, config.maxRegressionPercent());
+        assertTrue(regressions.isEmpty(), () -> "Load-test regressions beyond " + config.maxRegressionPercent()
+                + "%:\n" + String.join("\n", regressions));
+    }
+
+    /**
+     * The request shapes a Power Automate flow sends: reads in both formats, schema discovery, a small PATCH that
+     * sets a few fields, and a PUT that rewrites every field of the form.
+     */
+    private static Map<String, Supplier<HttpResponseMessage>> scenarios(final byte[] pdfBytes) throws Exception {
+        final var functions = new HttpTriggerFunctions();
+        final var templateBase64 = Base64.getEncoder().encodeToString(pdfBytes);
+
+        final var readJson = new InProcessRequest<>("GetXfaData", Map.of(), Map.of("format", "json"),
+                Optional.of(pdfBytes));
+        final var readXml = new InProcessRequest<>("GetXfaData", Map.of(), Map.of("format", "xml"),
+                Optional.of(pdfBytes));
+        final var schema = new InProcessRequest<>("GetXfaSchema", Map.of(), Map.of(), Optional.of(pdfBytes));
+        final var patch = new InProcessRequest<>("FillXfaData", Map.of(), Map.of(), Optional.of(
+                "{\"templateBase64\":\"" + templateBase64 + "\",\"formData\":{\"data\":{\"form1\":{\"Page1\":"
+                        + "{\"SSN\":\"999-99-9999\",\"GRADE\":\"SSG\",\"YEAR\":\"2026\"}}}}}"));
+
+        // The full form's current data, re-submitted as a PUT, exercises the largest fill payload the form has.
+        final var mapper = new ObjectMapper();
+        final var currentData = mapper.readTree(DataFormatter.convertXmlToJsonString(
+                RestPdfApi.getXfaDatasetNodeAsString(pdfBytes))).path("data");
+        final var putBody = mapper.createObjectNode();
+        putBody.put("templateBase64", templateBase64);
+        putBody.putObject("formData").set("data", currentData);
+        putBody.put("writeMode", "put");
+        final var put = new InProcessRequest<>("FillXfaData", Map.of(), Map.of(), Optional.of(putBody.toString()));
+
+        final var scenarios = new LinkedHashMap<String, Supplier<HttpResponseMessage>>();
+        scenarios.put("getXfaDataJson", () -> functions.getXfaData(readJson, new InProcessContext("GetXfaData")));
+        scenarios.put("getXfaDataXml", () -> functions.getXfaData(readXml, new InProcessContext("GetXfaData")));
+        scenarios.put("getXfaSchema", () -> functions.getXfaSchema(schema, new InProcessContext("GetXfaSchema")));
+        scenarios.put("fillPatch", () -> functions.fillXfaData(patch, new InProcessContext("FillXfaData")));
+        scenarios.put("fillPut", () -> functions.fillXfaData(put, new InProcessContext("FillXfaData")));
+        return scenarios;
+    }
+}
@@ -0,0 +1,40 @@
+package app.djk.RestPdfFormFiller.loadtest;
+
+import com.microsoft.azure.functions.ExecutionContext;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link ExecutionContext} for in-process invocations. The functions log every request at <code>INFO</code>; under
+ * load that console output would be measured along with the functions, so only severe messages are kept.
+ */
+final class InProcessContext implements ExecutionContext {
+
+    private static final Logger LOGGER = Logger.getLogger("HttpTriggerFunctionsLoadTest");
+
+    static {
+        LOGGER.setLevel(Level.SEVERE);
+    }
+
+    private final String functionName;
+
+    InProcessContext(final String functionName) {
+        this.functionName = functionName;
+    }
+
+    @Override
+    public Logger getLogger() {
+        return LOGGER;
+    }
+
+    @Override
+    public String getInvocationId() {
+        return "load-test";
+    }
+
+    @Override
+    public String getFunctionName() {
+        return functionName;
+    }
+}
@@ -0,0 +1,70 @@
+package app.djk.RestPdfFormFiller.loadtest;
+
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.HttpStatusType;
+
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * Plain, immutable {@link HttpRequestMessage} for driving the functions in-process.
+ * <p>
+ * Mockito stubs are fine for correctness tests but record every interaction and synchronize internally, which would
+ * dominate the very latency and allocation figures a load test is trying to measure. An instance can be shared by
+ * every thread that replays the same request.
+ *
+ * @param <T> The body type expected by the function under test.
+ */
+final class InProcessRequest<T> implements HttpRequestMessage<T> {
+
+    private final URI uri;
+    private final Map<String, String> headers;
+    private final Map<String, String> queryParameters;
+    private final T body;
+
+    InProcessRequest(final String path, final Map<String, String> headers, final Map<String, String> queryParameters,
+                     final T body) {
+        this.uri = URI.create("http://localhost/api/" + path);
+        this.headers = Map.copyOf(headers);
+        this.queryParameters = Map.copyOf(queryParameters);
+        this.body = body;
+    }
+
+    @Override
+    public URI getUri() {
+        return uri;
+    }
+
+    @Override
+    public HttpMethod getHttpMethod() {
+        return HttpMethod.POST;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public Map<String, String> getQueryParameters() {
+        return queryParameters;
+    }
+
+    @Override
+    public T getBody() {
+        return body;
+    }
+
+    @Override
+    public HttpResponseMessage.Builder createResponseBuilder(final HttpStatus status) {
+        return new InProcessResponse.Builder(status);
+    }
+
+    @Override
+    public HttpResponseMessage.Builder createResponseBuilder(final HttpStatusType status) {
+        return new InProcessResponse.Builder(status);
+    }
+}
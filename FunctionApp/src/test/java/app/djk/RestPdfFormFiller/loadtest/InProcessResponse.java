@@ -0,0 +1,72 @@
+package app.djk.RestPdfFormFiller.loadtest;
+
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatusType;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link HttpResponseMessage} produced by {@link InProcessRequest}. Header lookup ignores case, as it does on the
+ * Functions host.
+ */
+final class InProcessResponse implements HttpResponseMessage {
+
+    private final HttpStatusType status;
+    private final Map<String, String> headers;
+    private final Object body;
+
+    private InProcessResponse(final HttpStatusType status, final Map<String, String> headers, final Object body) {
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    @Override
+    public HttpStatusType getStatus() {
+        return status;
+    }
+
+    @Override
+    public String getHeader(final String key) {
+        return headers.get(key);
+    }
+
+    @Override
+    public Object getBody() {
+        return body;
+    }
+
+    static final class Builder implements HttpResponseMessage.Builder {
+        private HttpStatusType status;
+        private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private Object body;
+
+        Builder(final HttpStatusType status) {
+            this.status = status;
+        }
+
+        @Override
+        public HttpResponseMessage.Builder status(final HttpStatusType status) {
+            this.status = status;
+            return this;
+        }
+
+        @Override
+        public HttpResponseMessage.Builder header(final String key, final String value) {
+            headers.put(key, value);
+            return this;
+        }
+
+        @Override
+        public HttpResponseMessage.Builder body(final Object body) {
+            this.body = body;
+            return this;
+        }
+
+        @Override
+        public HttpResponseMessage build() {
+            return new InProcessResponse(status, headers, body);
+        }
+    }
+}
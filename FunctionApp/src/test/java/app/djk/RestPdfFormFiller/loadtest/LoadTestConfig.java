@@ -0,0 +1,52 @@
+package app.djk.RestPdfFormFiller.loadtest;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Load-test settings, read from <code>loadtest.*</code> system properties so that a run can be reshaped from the
+ * Maven command line (for example <code>-Dloadtest.concurrency=32 -Dloadtest.mix=fillPatch:1</code>).
+ *
+ * @param concurrency          Number of requests in flight at once.
+ * @param warmupRequests       Requests issued (and discarded) before measuring, so JIT compilation and class
+ *                             loading are not measured.
+ * @param requests             Requests issued in the measured phase.
+ * @param timeoutMinutes       Upper bound on each phase, so a deadlock fails the build instead of hanging it.
+ * @param mix                  Scenario weights, in the order they are interleaved.
+ * @param maxRegressionPercent How much more than the baseline a request may allocate before the run fails.
+ * @param baseline             Baseline report to compare against; the run fails if it does not exist.
+ * @param writeBaseline        If true, the run's report replaces the baseline instead of being compared with it.
+ */
+record LoadTestConfig(int concurrency, int warmupRequests, int requests, int timeoutMinutes, Map<String, Integer> mix,
+                      double maxRegressionPercent, Path baseline, boolean writeBaseline) {
+
+    private static final String DEFAULT_MIX = "getXfaDataJson:3,getXfaDataXml:1,getXfaSchema:2,fillPatch:3,fillPut:1";
+
+    static LoadTestConfig fromSystemProperties() {
+        return new LoadTestConfig(
+                Integer.getInteger("loadtest.concurrency", 8),
+                Integer.getInteger("loadtest.warmupRequests", 50),
+                Integer.getInteger("loadtest.requests", 400),
+                Integer.getInteger("loadtest.timeoutMinutes", 10),
+                parseMix(System.getProperty("loadtest.mix", DEFAULT_MIX)),
+                Double.parseDouble(System.getProperty("loadtest.maxRegressionPercent", "25")),
+                Path.of(System.getProperty("loadtest.baseline", "loadtest-baseline.json")),
+                Boolean.getBoolean("loadtest.writeBaseline"));
+    }
+
+    /**
+     * Parses <code>name:weight,name:weight</code>. A name without a weight counts once.
+     */
+    static Map<String, Integer> parseMix(final String mix) {
+        final var weights = new LinkedHashMap<String, Integer>();
+        for (final var entry : mix.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            final var parts = entry.trim().split(":", 2);
+            weights.merge(parts[0].trim(), parts.length == 2 ? Integer.parseInt(parts[1].trim()) : 1, Integer::sum);
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,203 @@
+package app.djk.RestPdfFormFiller.loadtest;
+
+import com.microsoft.azure.functions.HttpResponseMessage;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Drives a weighted mix of in-process function invocations at a fixed concurrency and measures them.
+ * <p>
+ * <strong>How it measures.</strong>
+ * <ul>
+ *   <li><em>Latency</em> is wall-clock time around each invocation, recorded per request into a preallocated array
+ *       so that recording does not contend or allocate.</li>
+ *   <li><em>Throughput</em> is completed requests over the wall time of the measured phase (warm-up excluded).</li>
+ *   <li><em>Allocation</em> is the change in the JVM's total allocated bytes across all live threads
+ *       (<code>com.sun.management.ThreadMXBean</code>), so work the functions hand to the pipeline's CPU pool is
+ *       included. It is reported both per second and per request; the per-request figure is the one compared
+ *       against a baseline because it does not move with throughput.</li>
+ *   <li><em>Peak heap</em> is the highest used-heap sample taken every few milliseconds while the load runs. It
+ *       includes garbage not yet collected, so it reflects the heap the workload actually needs to run without
+ *       GC thrashing rather than its live set.</li>
+ * </ul>
+ * The request mix is deterministic: the weights are expanded into a repeating schedule, so two runs with the same
+ * configuration issue the same sequence of requests.
+ */
+final class LoadTestHarness {
+
+    private static final long HEAP_SAMPLE_INTERVAL_MILLIS = 5;
+
+    private final LoadTestConfig config;
+    private final Map<String, Supplier<HttpResponseMessage>> scenarios;
+
+    /**
+     * @param config    Concurrency, request counts and mix weights.
+     * @param scenarios Invocations by scenario name. Each supplier must be safe to call from several threads.
+     */
+    LoadTestHarness(final LoadTestConfig config, final Map<String, Supplier<HttpResponseMessage>> scenarios) {
+        this.config = config;
+        this.scenarios = scenarios;
+    }
+
+    /**
+     * Runs the warm-up, then the measured phase.
+     *
+     * @return Measurements of the measured phase.
+     * @throws InterruptedException If interrupted while waiting for the workers.
+     */
+    LoadTestReport run() throws InterruptedException {
+        final var schedule = buildSchedule();
+        final var requests = config.requests();
+        final var latencies = new long[requests];
+        final var failures = new boolean[requests];
+        final var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final var heapSampler = new HeapSampler();
+
+        // The workers outlive both phases: the allocation counter only covers live threads, so it must be read
+        // before the pool is shut down.
+        final var workers = Executors.newFixedThreadPool(config.concurrency());
+        final long elapsedNanos;
+        final long allocatedBytes;
+        try {
+            final var warmup = config.warmupRequests();
+            execute(workers, schedule, warmup, new long[warmup], new boolean[warmup]);
+            System.gc();
+
+            final var allocatedBefore = threads.getTotalThreadAllocatedBytes();
+            final var start = System.nanoTime();
+            heapSampler.start();
+            try {
+                execute(workers, schedule, requests, latencies, failures);
+            } finally {
+                heapSampler.stop();
+            }
+            elapsedNanos = System.nanoTime() - start;
+            allocatedBytes = threads.getTotalThreadAllocatedBytes() - allocatedBefore;
+        } finally {
+            workers.shutdownNow();
+        }
+
+        final var results = new LinkedHashMap<String, LoadTestReport.ScenarioResult>();
+        for (final var name : scenarios.keySet()) {
+            final var scenarioLatencies = new ArrayList<Long>();
+            var errors = 0;
+            for (int i = 0; i < requests; i++) {
+                if (schedule.get(i % schedule.size()).equals(name)) {
+                    scenarioLatencies.add(latencies[i]);
+                    errors += failures[i] ? 1 : 0;
+                }
+            }
+            if (!scenarioLatencies.isEmpty()) {
+                results.put(name, LoadTestReport.ScenarioResult.of(scenarioLatencies, errors));
+            }
+        }
+
+        final var elapsedSeconds = elapsedNanos / 1e9;
+        return new LoadTestReport(config.concurrency(), requests, elapsedSeconds, requests / elapsedSeconds,
+                allocatedBytes / elapsedSeconds, (double) allocatedBytes / requests, heapSampler.peakBytes(),
+                results);
+    }
+
+    /**
+     * Expands the mix weights into one cycle of scenario names, interleaved so that each scenario is spread over
+     * the cycle rather than issued in one burst.
+     */
+    private List<String> buildSchedule() {
+        final var remaining = new LinkedHashMap<String, Integer>();
+        config.mix().forEach((name, weight) -> {
+            if (!scenarios.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown load-test scenario '" + name + "'; known scenarios: "
+                        + scenarios.keySet());
+            }
+            if (weight > 0) {
+                remaining.put(name, weight);
+            }
+        });
+        if (remaining.isEmpty()) {
+            throw new IllegalArgumentException("The load-test mix must give at least one scenario a positive weight.");
+        }
+
+        final var schedule = new ArrayList<String>();
+        while (!remaining.isEmpty()) {
+            final var iterator = remaining.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final var entry = iterator.next();
+                schedule.add(entry.getKey());
+                if (entry.setValue(entry.getValue() - 1) == 1) {
+                    iterator.remove();
+                }
+            }
+        }
+        return schedule;
+    }
+
+    private void execute(final ExecutorService workers, final List<String> schedule, final int requests,
+                         final long[] latencies, final boolean[] failures) throws InterruptedException {
+        final var next = new AtomicInteger();
+        final var tasks = new ArrayList<Callable<Void>>();
+        for (int worker = 0; worker < config.concurrency(); worker++) {
+            tasks.add(() -> {
+                for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement()) {
+                    final var scenario = scenarios.get(schedule.get(i % schedule.size()));
+                    final var started = System.nanoTime();
+                    var failed = true;
+                    try {
+                        failed = scenario.get().getStatusCode() / 100 != 2;
+                    } catch (RuntimeException e) {
+                        // Counted as a failure; the functions are expected to map every error to a response.
+                    }
+                    latencies[i] = System.nanoTime() - started;
+                    failures[i] = failed;
+                }
+                return null;
+            });
+        }
+        final var finished = workers.invokeAll(tasks, config.timeoutMinutes(), TimeUnit.MINUTES);
+        if (finished.stream().anyMatch(Future::isCancelled)) {
+            throw new IllegalStateException("Load test did not finish within " + config.timeoutMinutes()
+                    + " minutes.");
+        }
+    }
+
+    /**
+     * Samples used heap on a background daemon thread.
+     */
+    private static final class HeapSampler {
+        private final AtomicLong peakBytes = new AtomicLong();
+        private final ScheduledExecutorService timer =
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    final var thread = new Thread(runnable, "load-test-heap-sampler");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        void start() {
+            final var memory = ManagementFactory.getMemoryMXBean();
+            timer.scheduleAtFixedRate(
+                    () -> peakBytes.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                    0, HEAP_SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() throws InterruptedException {
+            timer.shutdown();
+            timer.awaitTermination(1, TimeUnit.SECONDS);
+        }
+
+        long peakBytes() {
+            return peakBytes.get();
+        }
+    }
+}
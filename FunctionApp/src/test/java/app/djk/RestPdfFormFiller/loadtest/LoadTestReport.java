@@ -0,0 +1,143 @@
+package app.djk.RestPdfFormFiller.loadtest;
+
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measurements of one load-test run. Serialized as JSON so a reviewed run can serve as the baseline for later ones.
+ * Allocation per request compares across machines; the timing figures only compare between runs on the same one.
+ *
+ * @param concurrency               Requests in flight at once.
+ * @param requests                  Requests measured.
+ * @param elapsedSeconds            Wall time of the measured phase.
+ * @param throughputPerSecond       Completed requests per second.
+ * @param allocationBytesPerSecond  Heap allocation rate across all threads.
+ * @param allocationBytesPerRequest Heap allocated per request.
+ * @param peakHeapBytes             Highest sampled used heap.
+ * @param scenarios                 Latency and error counts by scenario.
+ */
+record LoadTestReport(int concurrency, int requests, double elapsedSeconds, double throughputPerSecond,
+                      double allocationBytesPerSecond, double allocationBytesPerRequest, long peakHeapBytes,
+                      Map<String, ScenarioResult> scenarios) {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final double MIB = 1024 * 1024;
+    private static final int MIN_SAMPLES_FOR_P99 = 100;
+
+    /**
+     * @param count      Requests issued for the scenario.
+     * @param errors     Requests that threw or returned a non-2xx status.
+     * @param p50Millis  Median latency.
+     * @param p95Millis  95th percentile latency.
+     * @param p99Millis  99th percentile latency.
+     */
+    record ScenarioResult(int count, int errors, double p50Millis, double p95Millis, double p99Millis) {
+
+        static ScenarioResult of(final List<Long> latencyNanos, final int errors) {
+            final var sorted = latencyNanos.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            return new ScenarioResult(sorted.length, errors, percentileMillis(sorted, 50),
+                    percentileMillis(sorted, 95), percentileMillis(sorted, 99));
+        }
+
+        /**
+         * Nearest-rank percentile: the smallest sample that at least <code>percentile</code>% of samples do not
+         * exceed.
+         */
+        private static double percentileMillis(final long[] sorted, final double percentile) {
+            final var rank = (int) Math.ceil(percentile / 100 * sorted.length);
+            return sorted[Math.clamp(rank - 1, 0, sorted.length - 1)] / 1e6;
+        }
+    }
+
+    int totalErrors() {
+        return scenarios.values().stream().mapToInt(ScenarioResult::errors).sum();
+    }
+
+    /**
+     * Compares this run with a baseline on allocation per request, which may not rise by more than
+     * <code>maxRegressionPercent</code>. Together with the error count, it is the only figure the gate uses: the
+     * same requests allocate about the same bytes on any machine, while throughput, tail latency and peak heap move
+     * with the runner's hardware and its neighbours, so a gate on them fails at random on shared CI runners or, once
+     * its tolerance is raised to stop that, hides real regressions. Those are reported by {@link #timingAgainst}.
+     *
+     * @param baseline             The earlier run.
+     * @param maxRegressionPercent Allowed slack, in percent.
+     * @return A description of each metric that regressed; empty if none did.
+     */
+    List<String> regressionsAgainst(final LoadTestReport baseline, final double maxRegressionPercent) {
+        final var regressions = new ArrayList<String>();
+        if (allocationBytesPerRequest > baseline.allocationBytesPerRequest() * (1 + maxRegressionPercent / 100)) {
+            regressions.add(describe("allocation per request (MiB)", baseline.allocationBytesPerRequest() / MIB,
+                    allocationBytesPerRequest / MIB));
+        }
+        return regressions;
+    }
+
+    /**
+     * Sets this run's throughput, peak heap and p95/p99 latency per scenario next to the baseline's, for the report
+     * only. They are not gated (see {@link #regressionsAgainst}); p99 is left out for scenarios with fewer than
+     * {@value #MIN_SAMPLES_FOR_P99} requests, where it is simply the slowest request.
+     *
+     * @param baseline The earlier run.
+     * @return One line per figure.
+     */
+    List<String> timingAgainst(final LoadTestReport baseline) {
+        final var lines = new ArrayList<String>();
+        lines.add(describe("throughput (req/s)", baseline.throughputPerSecond(), throughputPerSecond));
+        lines.add(describe("peak heap (MiB)", baseline.peakHeapBytes() / MIB, peakHeapBytes / MIB));
+        scenarios.forEach((name, result) -> {
+            final var before = baseline.scenarios().get(name);
+            if (before == null) {
+                return;
+            }
+            lines.add(describe(name + " p95 (ms)", before.p95Millis(), result.p95Millis()));
+            if (result.count() >= MIN_SAMPLES_FOR_P99) {
+                lines.add(describe(name + " p99 (ms)", before.p99Millis(), result.p99Millis()));
+            }
+        });
+        return lines;
+    }
+
+    private static String describe(final String metric, final double before, final double after) {
+        return String.format(Locale.ROOT, "%s: baseline %.2f, now %.2f", metric, before, after);
+    }
+
+    /**
+     * @return A human-readable table of the run.
+     */
+    String summary() {
+        final var text = new StringBuilder();
+        text.append(String.format(Locale.ROOT,
+                "Load test: %d requests, concurrency %d, %.1f s, %.1f req/s, %.1f MiB/s allocated "
+                        + "(%.2f MiB/request), peak heap %.1f MiB%n",
+                requests, concurrency, elapsedSeconds, throughputPerSecond, allocationBytesPerSecond / MIB,
+                allocationBytesPerRequest / MIB, peakHeapBytes / MIB));
+        text.append(String.format(Locale.ROOT, "%-16s %7s %7s %10s %10s %10s%n",
+                "scenario", "count", "errors", "p50 ms", "p95 ms", "p99 ms"));
+        scenarios.forEach((name, result) -> text.append(String.format(Locale.ROOT,
+                "%-16s %7d %7d %10.1f %10.1f %10.1f%n", name, result.count(), result.errors(),
+                result.p50Millis(), result.p95Millis(), result.p99Millis())));
+        return text.toString();
+    }
+
+    void write(final Path file) throws IOException {
+        final var parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(file, OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(this));
+    }
+
+    static LoadTestReport read(final Path file) throws IOException {
+        return OBJECT_MAPPER.readValue(Files.readString(file), LoadTestReport.class);
+    }
+}
@@ -0,0 +1,201 @@
+package app.djk.RestPdfFormFiller.loadtest;
+
+import app.djk.RestPdfFormFiller.standalone.StandaloneServer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import static app.djk.RestPdfFormFiller.TestPdfs.readSampleDa4187Pdf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Time-to-first-response of a freshly started {@link StandaloneServer} process: the wall-clock time from launching
+ * the JVM until the first <code>FillXfaData</code> request has been answered, how much of that the request itself
+ * took once the port was open, and the process's peak resident memory at that point.
+ * <p>
+ * Each variant is started <code>startup.runs</code> times (default 3) and the medians are printed:
+ * <ul>
+ *   <li><code>cold</code>: warm-up disabled, so the first request pays for class loading itself.</li>
+ *   <li><code>warmed</code>: the default; the port only opens once the warm-up has run.</li>
+ *   <li><code>appcds</code>: the standalone jar with its class-data sharing archive, when
+ *       <code>mvn package -Pstandalone,appcds</code> has produced both in <code>target/</code>.</li>
+ *   <li><code>native</code>: the native executable, when <code>mvn package -Pnative</code> has built it.</li>
+ * </ul>
+ * Tagged <code>load</code>, so it only runs with <code>mvn test -Pload-test</code>. It reports rather than asserts
+ * timings: start-up time varies too much between machines for a fixed threshold.
+ */
+@Tag("load")
+class StartupBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger(StartupBenchmarkTest.class.getName());
+    private static final Pattern SERVING_ON_PORT = Pattern.compile("Serving on port (\\d+)");
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+
+    @Test
+    void reportsTimeToFirstResponse() throws Exception {
+        final var runs = Integer.getInteger("startup.runs", 3);
+        final var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        final var classPath = System.getProperty("java.class.path");
+        final var mainClass = StandaloneServer.class.getName();
+
+        final var variants = new LinkedHashMap<String, Launch>();
+        variants.put("cold", new Launch(List.of(java, "-DWARMUP_ENABLED=false", "-cp", classPath, mainClass), null));
+        variants.put("warmed", new Launch(List.of(java, "-cp", classPath, mainClass), null));
+        final var target = Path.of("target").toAbsolutePath();
+        final var archive = target.resolve("app-cds.jsa");
+        final var standaloneJar = findStandaloneJar(target);
+        if (Files.exists(archive) && standaloneJar != null) {
+            variants.put("appcds", new Launch(List.of(java, "-XX:SharedArchiveFile=" + archive.getFileName(),
+                    "-jar", standaloneJar.getFileName().toString()), target));
+        }
+        final var nativeExecutable = findNativeExecutable(target);
+        if (nativeExecutable != null) {
+            variants.put("native", new Launch(List.of(nativeExecutable.toString()), target));
+        }
+
+        final var fillBody = "{\"templateBase64\":\"" + Base64.getEncoder().encodeToString(readSampleDa4187Pdf())
+                + "\",\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"SFC\"}}}}}";
+        final var summary = new StringBuilder(String.format("%-8s %28s %20s %16s%n", "variant",
+                "time to first response (ms)", "first request (ms)", "peak RSS (MiB)"));
+        for (final var variant : variants.entrySet()) {
+            final var millis = new ArrayList<Long>();
+            final var requestMillis = new ArrayList<Long>();
+            final var rssKib = new ArrayList<Long>();
+            for (var i = 0; i < runs; i++) {
+                final var sample = measure(variant.getValue(), fillBody);
+                millis.add(sample.millis());
+                requestMillis.add(sample.requestMillis());
+                rssKib.add(sample.peakRssKib());
+            }
+            final var rss = median(rssKib);
+            summary.append(String.format("%-8s %28d %20d %16s%n", variant.getKey(), median(millis),
+                    median(requestMillis), rss < 0 ? "n/a" : String.valueOf(rss / 1024)));
+        }
+        LOGGER.info(summary::toString);
+    }
+
+    private static Sample measure(final Launch launch, final String fillBody) throws Exception {
+        final var builder = new ProcessBuilder(launch.command()).redirectErrorStream(true);
+        if (launch.directory() != null) {
+            builder.directory(launch.directory().toFile());
+        }
+        builder.environment().put("STANDALONE_PORT", "0");
+        // Idle keep-alive connections would otherwise hold every shutdown for the full grace period.
+        builder.environment().put("STANDALONE_SHUTDOWN_GRACE_SECONDS", "0");
+
+        final var started = System.nanoTime();
+        final var process = builder.start();
+        try {
+            final var port = new CompletableFuture<Integer>();
+            final var output = new StringBuilder();
+            final var reader = new Thread(() -> readPort(process, port, output), "startup-benchmark-output");
+            reader.setDaemon(true);
+            reader.start();
+
+            final var request = HttpRequest.newBuilder(URI.create("http://localhost:"
+                            + port.get(STARTUP_TIMEOUT.toSeconds(), TimeUnit.SECONDS) + "/api/FillXfaData"))
+                    .POST(HttpRequest.BodyPublishers.ofString(fillBody))
+                    .build();
+            final var sent = System.nanoTime();
+            final var response = CLIENT.send(request, HttpResponse.BodyHandlers.discarding());
+            final var answered = System.nanoTime();
+            assertEquals(200, response.statusCode(), () -> "First request failed; server output:\n" + output);
+            return new Sample(TimeUnit.NANOSECONDS.toMillis(answered - started),
+                    TimeUnit.NANOSECONDS.toMillis(answered - sent), peakRssKib(process.pid()));
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private static void readPort(final Process process, final CompletableFuture<Integer> port,
+                                 final StringBuilder output) {
+        try (final var lines = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                synchronized (output) {
+                    output.append(line).append('\n');
+                }
+                final var matcher = SERVING_ON_PORT.matcher(line);
+                if (matcher.find()) {
+                    port.complete(Integer.parseInt(matcher.group(1)));
+                }
+            }
+            port.completeExceptionally(new IllegalStateException("Server exited before listening:\n" + output));
+        } catch (IOException e) {
+            port.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * The process's high-water resident set size from <code>/proc</code>, or <code>-1</code> where that is not
+     * available (anything but Linux).
+     */
+    private static long peakRssKib(final long pid) {
+        try {
+            for (final var line : Files.readAllLines(Path.of("/proc", String.valueOf(pid), "status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("\\D", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Fall through: not reported on this platform.
+        }
+        return -1;
+    }
+
+    private static Path findStandaloneJar(final Path target) throws IOException {
+        if (!Files.isDirectory(target.resolve("lib"))) {
+            return null;
+        }
+        try (final var files = Files.list(target)) {
+            return files.filter(file -> file.getFileName().toString().matches("RestPdfFormFiller-[^-]+\\.jar"))
+                    .findFirst()
+                    .orElse(null);
+        }
+    }
+
+    private static Path findNativeExecutable(final Path target) {
+        for (final var name : List.of("restpdfformfiller", "restpdfformfiller.exe")) {
+            final var executable = target.resolve(name);
+            if (Files.isExecutable(executable)) {
+                return executable;
+            }
+        }
+        return null;
+    }
+
+    private static long median(final List<Long> values) {
+        final var sorted = values.stream().sorted().toList();
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private record Launch(List<String> command, Path directory) {
+    }
+
+    private record Sample(long millis, long requestMillis, long peakRssKib) {
+    }
+}
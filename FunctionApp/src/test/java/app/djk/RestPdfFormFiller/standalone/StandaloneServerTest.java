@@ -0,0 +1,126 @@
+package app.djk.RestPdfFormFiller.standalone;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Base64;
+
+import static app.djk.RestPdfFormFiller.TestPdfs.readSampleDa4187Pdf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StandaloneServerTest {
+
+    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+
+    private StandaloneServer server;
+
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void getXfaDataServesFormDataLikeTheFunction() throws Exception {
+        startServer(null, 100L * 1024 * 1024);
+
+        final var response = post("/api/GetXfaData?format=xml", readSampleDa4187Pdf(), null);
+
+        assertEquals(200, response.statusCode());
+        assertTrue(new String(response.body()).contains("<SSN>123-45-6789</SSN>"));
+    }
+
+    @Test
+    void fillXfaDataReturnsPdfWithFunctionHeaders() throws Exception {
+        startServer(null, 100L * 1024 * 1024);
+        final var body = "{\"templateBase64\":\"" + Base64.getEncoder().encodeToString(readSampleDa4187Pdf()) + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"SFC\"}}}}}";
+
+        final var response = post("/api/FillXfaData", body.getBytes(), null);
+
+        assertEquals(200, response.statusCode());
+        assertEquals("application/pdf", response.headers().firstValue("Content-Type").orElseThrow());
+        assertTrue(new String(response.body(), 0, 5).startsWith("%PDF-"));
+    }
+
+    @Test
+    void fillJobsAreSubmittedWithPostAndFollowedWithGet() throws Exception {
+        startServer(null, 100L * 1024 * 1024);
+        final var body = "{\"templateBase64\":\"" + Base64.getEncoder().encodeToString(readSampleDa4187Pdf()) + "\","
+                + "\"formData\":{\"data\":{\"form1\":{\"Page1\":{\"GRADE\":\"SPC\"}}}}}";
+
+        final var submitted = post("/api/SubmitFillJob", body.getBytes(), null);
+        assertEquals(202, submitted.statusCode());
+        final var location = submitted.headers().firstValue("Location").orElseThrow();
+        assertTrue(location.startsWith("/api/GetFillJobResult?jobId="));
+        // Like the Functions host, a route only answers the method its function declares.
+        assertEquals(404, post(location, new byte[0], null).statusCode());
+
+        var result = get(location);
+        for (var i = 0; result.statusCode() == 202 && i < 600; i++) {
+            Thread.sleep(100);
+            result = get(location);
+        }
+        assertEquals(200, result.statusCode());
+        assertEquals("application/pdf", result.headers().firstValue("Content-Type").orElseThrow());
+    }
+
+    @Test
+    void errorsUseTheFunctionErrorMapping() throws Exception {
+        startServer(null, 100L * 1024 * 1024);
+
+        final var response = post("/api/FillXfaData", "not json".getBytes(), null);
+
+        assertEquals(400, response.statusCode());
+        assertEquals("Request body must be valid JSON.", new String(response.body()));
+    }
+
+    @Test
+    void unknownRoutesAndOversizedBodiesAreRejected() throws Exception {
+        startServer(null, 16);
+
+        assertEquals(404, post("/api/Nope", new byte[1], null).statusCode());
+        assertEquals(413, post("/api/GetXfaSchema", new byte[17], null).statusCode());
+    }
+
+    @Test
+    void configuredKeyIsRequired() throws Exception {
+        startServer("secret", 100L * 1024 * 1024);
+
+        assertEquals(401, post("/api/GetXfaSchema", new byte[1], null).statusCode());
+        assertEquals(401, post("/api/GetXfaSchema", new byte[1], "wrong").statusCode());
+        // Authorized, then rejected by the function itself because one byte is not a PDF.
+        assertEquals(400, post("/api/GetXfaSchema", new byte[1], "secret").statusCode());
+        assertEquals(400, post("/api/GetXfaSchema?code=secret", new byte[1], null).statusCode());
+    }
+
+    private void startServer(final String apiKey, final long maxBodyBytes) throws Exception {
+        server = new StandaloneServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), apiKey,
+                maxBodyBytes);
+        server.start();
+    }
+
+    private HttpResponse<byte[]> post(final String pathAndQuery, final byte[] body, final String functionKey)
+            throws Exception {
+        final var request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + pathAndQuery))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        if (functionKey != null) {
+            request.header("x-functions-key", functionKey);
+        }
+        return CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpResponse<byte[]> get(final String pathAndQuery) throws Exception {
+        final var request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + pathAndQuery))
+                .GET();
+        return CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
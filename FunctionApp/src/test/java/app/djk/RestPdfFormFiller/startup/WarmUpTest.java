@@ -0,0 +1,29 @@
+package app.djk.RestPdfFormFiller.startup;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WarmUpTest {
+
+    @Test
+    void sampleFormIsBundledOnTheClasspath() {
+        assertNotNull(WarmUp.class.getResource(WarmUp.SAMPLE_RESOURCE));
+    }
+
+    @Test
+    void exerciseRunsEveryPathAgainstTheSampleForm() throws Exception {
+        // Any failure in the read, schema, fill or compare paths propagates from here.
+        assertTrue(WarmUp.exercise(1).toNanos() > 0);
+    }
+
+    @Test
+    void warmUpRunsOncePerJvm() {
+        final var first = WarmUp.start();
+
+        assertSame(first, WarmUp.start());
+        assertSame(first.join(), WarmUp.await());
+    }
+}
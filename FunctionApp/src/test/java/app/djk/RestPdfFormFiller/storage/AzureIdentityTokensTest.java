@@ -0,0 +1,90 @@
+package app.djk.RestPdfFormFiller.storage;
+
+import com.azure.core.credential.AccessToken;
+import com.azure.core.credential.TokenCredential;
+import com.azure.core.exception.ClientAuthenticationException;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AzureIdentityTokensTest {
+
+    private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+    @Test
+    void tokensAreRequestedForTheScopeAndReusedUntilCloseToExpiry() throws IOException {
+        final var requests = new AtomicInteger();
+        final var scopes = new ArrayList<List<String>>();
+        final TokenCredential credential = context -> {
+            scopes.add(context.getScopes());
+            return Mono.just(new AccessToken("token-" + requests.incrementAndGet(),
+                    NOW.plus(Duration.ofHours(1)).atOffset(ZoneOffset.UTC)));
+        };
+        final var clock = new AdjustableClock();
+        final var tokens = AzureIdentityTokens.of(credential, "https://graph.microsoft.com/.default", clock);
+
+        assertEquals("token-1", tokens.accessToken());
+        clock.advance(Duration.ofMinutes(54));
+        assertEquals("token-1", tokens.accessToken());
+        clock.advance(Duration.ofMinutes(2));
+        assertEquals("token-2", tokens.accessToken());
+        assertEquals(List.of("https://graph.microsoft.com/.default"), scopes.getFirst());
+    }
+
+    @Test
+    void credentialFailuresAreReportedAsIoExceptions() {
+        final TokenCredential credential = context -> Mono.error(new ClientAuthenticationException("no", null));
+        final var tokens = AzureIdentityTokens.of(credential, "https://storage.azure.com/.default",
+                new AdjustableClock());
+
+        final var e = assertThrows(IOException.class, tokens::accessToken);
+        assertEquals(ClientAuthenticationException.class, e.getCause().getClass());
+    }
+
+    @Test
+    void azureIdentityIsLoadedReflectivelyAndReportedMissingWhenNotPackaged() {
+        assertNotNull(AccessTokenProvider.azureIdentity("https://graph.microsoft.com/.default", null));
+
+        final var withoutAzureIdentity = new ClassLoader(null) {
+        };
+        final var e = assertThrows(IllegalStateException.class, () -> AccessTokenProvider.azureIdentity(
+                "https://graph.microsoft.com/.default", null, withoutAzureIdentity));
+        assertEquals("The azure-identity credential needs a package built with -Pazure-identity.", e.getMessage());
+    }
+
+    private static final class AdjustableClock extends Clock {
+        private Duration offset = Duration.ZERO;
+
+        void advance(final Duration duration) {
+            offset = offset.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return NOW.plus(offset);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package app.djk.RestPdfFormFiller.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageConnectorsTest {
+
+    private static final List<String> GRAPH_SETTINGS = List.of("GRAPH_TENANT_ID", "GRAPH_CLIENT_ID",
+            "GRAPH_CLIENT_SECRET", "GRAPH_ALLOWED_DRIVES");
+
+    @AfterEach
+    void clearSettings() {
+        GRAPH_SETTINGS.forEach(System::clearProperty);
+        System.clearProperty("GRAPH_CREDENTIAL");
+    }
+
+    @Test
+    void noConnectorIsLoadedWhenNoneIsConfigured() {
+        assertTrue(StorageConnectors.load(null).isEmpty());
+    }
+
+    @Test
+    void unknownConnectorNamesAreAConfigurationError() {
+        final var e = assertThrows(IllegalStateException.class, () -> StorageConnectors.load("ftp"));
+
+        assertEquals("No storage connector named 'ftp' is available.", e.getMessage());
+    }
+
+    @Test
+    void graphConnectorIsDiscoveredThroughTheServiceLoader() {
+        GRAPH_SETTINGS.forEach(name -> System.setProperty(name, "test"));
+
+        final var connector = StorageConnectors.load("Graph").orElseThrow();
+
+        assertEquals("GraphStorageConnector", connector.getClass().getSimpleName());
+    }
+
+    @Test
+    void graphConnectorWithoutCredentialsFailsToLoad() {
+        assertThrows(IllegalStateException.class, () -> StorageConnectors.load("graph"));
+    }
+
+    @Test
+    void graphConnectorCanUseAzureIdentityInsteadOfTheBuiltInCredentials() {
+        System.setProperty("GRAPH_ALLOWED_DRIVES", "d1");
+        System.setProperty("GRAPH_CREDENTIAL", "azure-identity");
+
+        assertTrue(StorageConnectors.load("graph").isPresent());
+
+        System.setProperty("GRAPH_CREDENTIAL", "certificate");
+        final var e = assertThrows(IllegalStateException.class, () -> StorageConnectors.load("graph"));
+        assertEquals("GRAPH_CREDENTIAL must be auto or azure-identity.", e.getMessage());
+    }
+}
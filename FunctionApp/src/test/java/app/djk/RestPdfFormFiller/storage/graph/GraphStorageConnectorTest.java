@@ -0,0 +1,215 @@
+package app.djk.RestPdfFormFiller.storage.graph;
+
+import app.djk.RestPdfFormFiller.storage.AccessTokenProvider;
+import app.djk.RestPdfFormFiller.storage.StoredDocument;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Runs the connector against a local stand-in for Graph and the token endpoint.
+ */
+class GraphStorageConnectorTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final Map<String, byte[]> items = new ConcurrentHashMap<>();
+    private final List<String> downloadAuthorizations = new CopyOnWriteArrayList<>();
+    private final AtomicInteger tokenRequests = new AtomicInteger();
+    private volatile boolean tokenEndpointFailing;
+    private HttpServer server;
+    private GraphStorageConnector connector;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/token", exchange -> {
+            tokenRequests.incrementAndGet();
+            if (tokenEndpointFailing) {
+                respond(exchange, 500, null);
+            } else {
+                respond(exchange, 200, "{\"access_token\":\"token-1\",\"expires_in\":3600}".getBytes());
+            }
+        });
+        server.createContext("/v1.0/", this::driveItem);
+        server.createContext("/download/", exchange -> {
+            downloadAuthorizations.add(String.valueOf(exchange.getRequestHeaders().getFirst("Authorization")));
+            final var path = exchange.getRequestURI().getPath().substring("/download/".length());
+            respond(exchange, 200, items.get(path));
+        });
+        server.start();
+
+        final var client = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NEVER).build();
+        final var tokenUri = URI.create(base() + "/token");
+        final var tokens = new AccessTokenProvider(client,
+                () -> HttpRequest.newBuilder(tokenUri).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                Clock.systemUTC());
+        connector = new GraphStorageConnector(client, base() + "/v1.0/", tokens, TIMEOUT, List.of("d1", "sites/s1"));
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    void readFollowsTheDownloadRedirectWithoutTheToken() throws IOException {
+        items.put("item-1", "%PDF-1.7".getBytes());
+
+        assertArrayEquals("%PDF-1.7".getBytes(), connector.read("drives/d1/items/item-1"));
+        assertEquals(List.of("null"), downloadAuthorizations);
+    }
+
+    @Test
+    void sizeComesFromTheItemMetadataWithoutDownloading() throws IOException {
+        items.put("item-5", "%PDF-1.7".getBytes());
+
+        assertEquals(8, connector.size("drives/d1/items/item-5"));
+        assertEquals(List.of(), downloadAuthorizations);
+        assertThrows(FileNotFoundException.class, () -> connector.size("drives/d1/items/missing"));
+    }
+
+    @Test
+    void writeOnlyReplacesAnExistingItemWhenAskedToAndTokensAreReused() throws IOException {
+        connector.write("drives/d1/items/item-2", "filled".getBytes(), false);
+
+        assertThrows(FileAlreadyExistsException.class,
+                () -> connector.write("drives/d1/items/item-2", "filled again".getBytes(), false));
+        assertArrayEquals("filled".getBytes(), items.get("item-2"));
+
+        connector.write("drives/d1/items/item-2", "filled again".getBytes(), true);
+        assertArrayEquals("filled again".getBytes(), items.get("item-2"));
+        assertEquals(1, tokenRequests.get());
+    }
+
+    @Test
+    void writeReportsTheIdBasedLocationAndLinkOfTheItem() throws IOException {
+        final var stored = connector.write("drives/d1/root:/Filled/x.pdf:", "filled".getBytes(), false);
+
+        assertEquals(new StoredDocument("drives/d1/items/created-1", 6, "https://contoso.sharepoint.com/Filled/x.pdf"),
+                stored);
+        assertArrayEquals("filled".getBytes(), connector.read(stored.location()));
+        // Without item details in the response the location is reported as written.
+        assertEquals(new StoredDocument("drives/d1/items/item-4", 2, null),
+                connector.write("drives/d1/items/item-4", "ok".getBytes(), false));
+    }
+
+    @Test
+    void failedTokenRequestsAreRetriedOnTheNextCall() throws IOException {
+        items.put("item-3", "%PDF".getBytes());
+        tokenEndpointFailing = true;
+        assertThrows(IOException.class, () -> connector.read("drives/d1/items/item-3"));
+
+        tokenEndpointFailing = false;
+        assertArrayEquals("%PDF".getBytes(), connector.read("drives/d1/items/item-3"));
+        assertEquals(2, tokenRequests.get());
+    }
+
+    @Test
+    void missingItemsAreReportedAsNotFound() {
+        assertThrows(FileNotFoundException.class, () -> connector.read("drives/d1/items/missing"));
+    }
+
+    @Test
+    void pathBasedLocationsArePercentEncoded() {
+        assertEquals(base() + "/v1.0/drives/d1/root:/Forms/DA%204187%20%C3%A9.pdf:/content",
+                connector.contentUri("drives/d1/root:/Forms/DA 4187 é.pdf:").toString());
+    }
+
+    @Test
+    void locationsCannotEscapeGraph() {
+        for (final var location : List.of("", "/drives/d1", "https://evil/x", "drives/d1/items/x?select=id",
+                "drives/../me", "drives\\d1")) {
+            assertThrows(IllegalArgumentException.class, () -> connector.contentUri(location), location);
+        }
+    }
+
+    @Test
+    void onlyAllowedDrivesAndSitesCanBeUsed() {
+        for (final var location : List.of("drives/d2/items/x", "drives/d12/items/x", "me/drive/items/x",
+                "sites/s2/drive/items/x", "users/u1/drive/root:/x.pdf:")) {
+            assertThrows(IllegalArgumentException.class, () -> connector.contentUri(location), location);
+        }
+        connector.contentUri("Drives/d1/items/x");
+        connector.contentUri("sites/s1/drive/items/x");
+    }
+
+    /**
+     * Drive-item metadata and content: a GET of the item returns its size, a GET of its content redirects to a
+     * download URL, and a PUT stores the body unless it must not replace an existing item. Only requests carrying the
+     * stub's token are accepted.
+     */
+    private void driveItem(final HttpExchange exchange) throws IOException {
+        if (!"Bearer token-1".equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            respond(exchange, 401, null);
+            return;
+        }
+        final var path = exchange.getRequestURI().getPath();
+        final var itemId = path.replaceFirst("^/v1\\.0/drives/d1/items/([^/]+)(/content)?$", "$1");
+        final var query = String.valueOf(exchange.getRequestURI().getQuery());
+        if ("PUT".equals(exchange.getRequestMethod()) && query.contains("conflictBehavior=fail")
+                && (items.containsKey(itemId) || (path.contains("/root:/") && items.containsKey("created-1")))) {
+            respond(exchange, 409, null);
+        } else if ("PUT".equals(exchange.getRequestMethod())) {
+            final byte[] content;
+            try (final var in = exchange.getRequestBody()) {
+                content = in.readAllBytes();
+            }
+            if (path.contains("/root:/")) {
+                // A path-based upload creates an item with an ID of Graph's choosing.
+                items.put("created-1", content);
+                respond(exchange, 201, ("{\"id\":\"created-1\",\"size\":" + content.length + ","
+                        + "\"webUrl\":\"https://contoso.sharepoint.com/Filled/x.pdf\","
+                        + "\"parentReference\":{\"driveId\":\"d1\"}}").getBytes(StandardCharsets.UTF_8));
+            } else {
+                items.put(itemId, content);
+                respond(exchange, 200, "{}".getBytes(StandardCharsets.UTF_8));
+            }
+        } else if (items.containsKey(itemId) && !path.endsWith("/content") && "$select=size".equals(query)) {
+            respond(exchange, 200, ("{\"size\":" + items.get(itemId).length + "}").getBytes(StandardCharsets.UTF_8));
+        } else if (items.containsKey(itemId) && path.endsWith("/content")) {
+            exchange.getResponseHeaders().set("Location", base() + "/download/" + itemId);
+            respond(exchange, 302, null);
+        } else {
+            respond(exchange, 404, null);
+        }
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final byte[] body)
+            throws IOException {
+        exchange.sendResponseHeaders(status, body == null ? -1 : body.length);
+        if (body != null) {
+            try (final var out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    private String base() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+}